@@ -57,7 +57,8 @@ public interface BundleServerService {
      *         downloaded
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(ContentServerService.CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = ContentServerService.CONCURRENCY_LIMIT_CONTENT_DOWNLOAD,
+        priority = LimitedConcurrency.PRIORITY_LOW)
     long downloadPackageBits(PackageVersion packageVersion, OutputStream outputStream);
 
     List<PackageVersion> getAllBundleVersionPackageVersions(int bundleVersionId);
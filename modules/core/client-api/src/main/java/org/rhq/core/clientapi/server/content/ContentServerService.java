@@ -63,7 +63,7 @@ public interface ContentServerService {
      * @param report report containing the current set of packages installed on the resource.
      */
     @Asynchronous(guaranteedDelivery = true)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_REPORT, priority = LimitedConcurrency.PRIORITY_LOW)
     void mergeDiscoveredPackages(ContentDiscoveryReport report);
 
     /**
@@ -123,7 +123,7 @@ public interface ContentServerService {
      *         downloaded
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = LimitedConcurrency.PRIORITY_LOW)
     long downloadPackageBitsGivenResource(int resourceId, PackageDetailsKey packageDetailsKey, OutputStream outputStream);
 
     /**
@@ -143,7 +143,7 @@ public interface ContentServerService {
      * @return the number of bytes written to the output stream - this is the size of the chunk downloaded
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = LimitedConcurrency.PRIORITY_LOW)
     long downloadPackageBitsRangeGivenResource(int resourceId, PackageDetailsKey packageDetailsKey,
         OutputStream outputStream, long startByte, long endByte);
 
@@ -160,7 +160,7 @@ public interface ContentServerService {
      * @return the number of bytes written to the output stream
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = LimitedConcurrency.PRIORITY_LOW)
     long downloadPackageBitsForChildResource(int parentResourceId, String resourceTypeName,
         PackageDetailsKey packageDetailsKey, OutputStream outputStream);
 
@@ -179,7 +179,7 @@ public interface ContentServerService {
      *
      * @return the list of all package versions' metadata
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = LimitedConcurrency.PRIORITY_LOW)
     PageList<PackageVersionMetadataComposite> getPackageVersionMetadata(int resourceId, PageControl pc);
 
     /**
@@ -214,6 +214,6 @@ public interface ContentServerService {
      * @return
      */
     @Timeout(90 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = LimitedConcurrency.PRIORITY_LOW)
     boolean preLoadRemoteContent(int resourceId, PackageDetailsKey packageDetailsKey);
 } 
@@ -89,7 +89,7 @@ public interface DiscoveryServerService {
      *         in sync. <code>true</code> should always be returned if the given availability report is already a full
      *         report.
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_AVAILABILITY_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_AVAILABILITY_REPORT, priority = LimitedConcurrency.PRIORITY_HIGH)
     boolean mergeAvailabilityReport(AvailabilityReport availabilityReport);
 
     /**
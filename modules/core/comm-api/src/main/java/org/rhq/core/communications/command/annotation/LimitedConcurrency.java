@@ -51,6 +51,21 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface LimitedConcurrency {
+    /**
+     * Priority of invocations that should be admitted after all others (e.g. content transfers).
+     */
+    int PRIORITY_LOW = 1;
+
+    /**
+     * Priority of invocations that do not specify one (e.g. inventory reports).
+     */
+    int PRIORITY_NORMAL = 5;
+
+    /**
+     * Priority of invocations that should be admitted before all others (e.g. availability reports).
+     */
+    int PRIORITY_HIGH = 10;
+
     /**
      * The name that identifies the "concurrency queue" that limits the number of threads that can concurrently
      * invoke this method on the server.
@@ -58,4 +73,13 @@ public @interface LimitedConcurrency {
      * @return the name identifying the concurrency queue
      */
     String value();
+
+    /**
+     * The priority of this method's invocations when they have to wait in the "concurrency queue" for other
+     * invocations to finish. When a thread leaves the queue, the waiting invocation with the highest priority is
+     * admitted next. Invocations that wait long enough gain priority so low priority invocations are not starved.
+     *
+     * @return the priority, one of the <code>PRIORITY_xxx</code> constants or any value in between
+     */
+    int priority() default PRIORITY_NORMAL;
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -704,4 +705,53 @@ public abstract class DatabaseType {
     public String getLimitClause(int limit) {
         return " LIMIT " + limit + " ";
     }
+
+    /**
+     * Returns the range partitions of a table partitioned on a single numeric time column. Such partitioning is an
+     * optional storage mode set up by the DBA for large time series tables, so that old rows can be purged by dropping
+     * whole partitions.
+     *
+     * @param  conn   the connection to the database
+     * @param  table  the partitioned table
+     * @param  column the time column the table must be partitioned on
+     *
+     * @return the partitions ordered by range, or an empty list if the table is not range partitioned on the column
+     *         or the database does not support it. Unbounded partitions (e.g. MAXVALUE or DEFAULT) are not returned.
+     *
+     * @throws SQLException
+     */
+    public List<TablePartition> getTimePartitions(Connection conn, String table, String column) throws SQLException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Drops a partition returned by {@link #getTimePartitions(Connection, String, String)}, along with its rows.
+     *
+     * @param  conn      the connection to the database
+     * @param  table     the partitioned table
+     * @param  partition the partition to drop
+     *
+     * @throws SQLException
+     */
+    public void dropTimePartition(Connection conn, String table, TablePartition partition) throws SQLException {
+        throw new FeatureNotSupportedException("Table partitioning is not supported for " + getName());
+    }
+
+    /**
+     * Makes sure the partitions of a table partitioned on a time column cover the time range up to
+     * <code>upTo</code>, if the database does not create them by itself. New partitions are as wide as the last
+     * partition. Nothing is done if the table is not range partitioned on the column.
+     *
+     * @param  conn   the connection to the database
+     * @param  table  the partitioned table
+     * @param  column the time column the table is partitioned on
+     * @param  upTo   the time until which partitions must exist
+     *
+     * @return the number of partitions created
+     *
+     * @throws SQLException
+     */
+    public int createTimePartitions(Connection conn, String table, String column, long upTo) throws SQLException {
+        return 0;
+    }
 }
@@ -42,6 +42,17 @@ public abstract class OracleDatabaseType extends DatabaseType {
      */
     public static final String VENDOR = "oracle";
 
+    private static final String TIME_PARTITIONS_QUERY = "" //
+        + "SELECT p.PARTITION_NAME, p.HIGH_VALUE, p.NUM_ROWS " //
+        + "  FROM USER_TAB_PARTITIONS p, USER_PART_TABLES t " //
+        + " WHERE p.TABLE_NAME = ? " //
+        + "   AND t.TABLE_NAME = p.TABLE_NAME " //
+        + "   AND t.PARTITIONING_TYPE = 'RANGE' " //
+        + "   AND t.PARTITIONING_KEY_COUNT = 1 " //
+        + "   AND EXISTS (SELECT 1 FROM USER_PART_KEY_COLUMNS k " //
+        + "                WHERE k.NAME = p.TABLE_NAME AND k.OBJECT_TYPE = 'TABLE' AND k.COLUMN_NAME = ?) " //
+        + " ORDER BY p.PARTITION_POSITION";
+
     /**
      * Returns {@link #VENDOR}.
      *
@@ -267,4 +278,58 @@ public abstract class OracleDatabaseType extends DatabaseType {
         return " ROWNUM <= " + limit + " ";
     }
 
+    /**
+     * Range partitions, including interval partitions, are supported. A partition's lower bound is the upper bound of
+     * the previous partition.
+     *
+     * @see DatabaseType#getTimePartitions(Connection, String, String)
+     */
+    @Override
+    public List<TablePartition> getTimePartitions(Connection conn, String table, String column) throws SQLException {
+        List<TablePartition> partitions = new ArrayList<TablePartition>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(TIME_PARTITIONS_QUERY);
+            ps.setString(1, table.toUpperCase());
+            ps.setString(2, column.toUpperCase());
+            rs = ps.executeQuery();
+            long lowerBound = Long.MIN_VALUE;
+            while (rs.next()) {
+                String name = rs.getString(1);
+                // HIGH_VALUE is a LONG column holding the bound expression, MAXVALUE for the unbounded partition
+                String highValue = rs.getString(2);
+                long numRows = rs.getLong(3);
+                if (rs.wasNull()) {
+                    numRows = -1L;
+                }
+
+                long upperBound;
+                try {
+                    upperBound = Long.parseLong(highValue.trim());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                partitions.add(new TablePartition(name, lowerBound, upperBound, numRows));
+                lowerBound = upperBound;
+            }
+        } finally {
+            closeResultSet(rs);
+            closeStatement(ps);
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Global indexes, like the primary key index, are maintained rather than left unusable. Note that Oracle does not
+     * allow dropping the last range partition of an interval partitioned table.
+     *
+     * @see DatabaseType#dropTimePartition(Connection, String, TablePartition)
+     */
+    @Override
+    public void dropTimePartition(Connection conn, String table, TablePartition partition) throws SQLException {
+        executeSql(conn, "ALTER TABLE " + table + " DROP PARTITION " + partition.getName() + " UPDATE GLOBAL INDEXES");
+    }
+
 }
\ No newline at end of file
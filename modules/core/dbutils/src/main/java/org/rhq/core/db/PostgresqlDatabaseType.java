@@ -24,7 +24,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Superclass of all versions of the Postgres database.
@@ -38,6 +41,21 @@ public abstract class PostgresqlDatabaseType extends DatabaseType {
      */
     public static final String VENDOR_NAME = "postgresql";
 
+    // the partition key is matched by column name rather than through pg_get_partkeydef, which quotes reserved words
+    // such as "timestamp"; partattrs is an int2vector, indexed from 0
+    private static final String TIME_PARTITIONS_QUERY = "" //
+        + "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid), c.reltuples " //
+        + "  FROM pg_inherits i " //
+        + "  JOIN pg_class c ON c.oid = i.inhrelid " //
+        + "  JOIN pg_class p ON p.oid = i.inhparent " //
+        + "  JOIN pg_partitioned_table pt ON pt.partrelid = p.oid " //
+        + "  JOIN pg_attribute a ON a.attrelid = p.oid AND a.attnum = pt.partattrs[0] " //
+        + " WHERE p.relname = ? AND pg_table_is_visible(p.oid) " //
+        + "   AND pt.partstrat = 'r' AND pt.partnatts = 1 AND a.attname = ?";
+
+    private static final Pattern RANGE_BOUNDS = Pattern
+        .compile("FOR VALUES FROM \\('?(-?\\d+)'?\\) TO \\('?(-?\\d+)'?\\)");
+
     /**
      * Returns {@link #VENDOR_NAME}.
      *
@@ -192,4 +210,94 @@ public abstract class PostgresqlDatabaseType extends DatabaseType {
         return longField.longValue();
     }
 
+    /**
+     * Only declarative range partitions, available since Postgres 10, are supported.
+     *
+     * @see DatabaseType#getTimePartitions(Connection, String, String)
+     */
+    @Override
+    public List<TablePartition> getTimePartitions(Connection conn, String table, String column) throws SQLException {
+        if (conn.getMetaData().getDatabaseMajorVersion() < 10) {
+            return Collections.emptyList();
+        }
+
+        List<TablePartition> partitions = new ArrayList<TablePartition>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(TIME_PARTITIONS_QUERY);
+            ps.setString(1, table.toLowerCase());
+            ps.setString(2, column.toLowerCase());
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                long[] bounds = parseRangeBounds(rs.getString(2));
+                if (null != bounds) {
+                    partitions.add(new TablePartition(rs.getString(1), bounds[0], bounds[1], (long) rs.getFloat(3)));
+                }
+            }
+        } finally {
+            closeResultSet(rs);
+            closeStatement(ps);
+        }
+
+        TablePartition.sortByRange(partitions);
+        return partitions;
+    }
+
+    /**
+     * @see DatabaseType#dropTimePartition(Connection, String, TablePartition)
+     */
+    @Override
+    public void dropTimePartition(Connection conn, String table, TablePartition partition) throws SQLException {
+        executeSql(conn, "DROP TABLE " + partition.getName());
+    }
+
+    /**
+     * Postgres does not create partitions by itself, so the missing ones are created here, named after the table and
+     * their lower bound.
+     *
+     * @see DatabaseType#createTimePartitions(Connection, String, String, long)
+     */
+    @Override
+    public int createTimePartitions(Connection conn, String table, String column, long upTo) throws SQLException {
+        List<TablePartition> partitions = getTimePartitions(conn, table, column);
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+
+        TablePartition last = partitions.get(partitions.size() - 1);
+        long width = last.getUpperBound() - last.getLowerBound();
+        if (last.getLowerBound() == Long.MIN_VALUE || width <= 0) {
+            return 0;
+        }
+
+        int created = 0;
+        for (long lowerBound = last.getUpperBound(); lowerBound < upTo; lowerBound += width) {
+            executeSql(conn, "CREATE TABLE " + table + "_p" + lowerBound + " PARTITION OF " + table
+                + " FOR VALUES FROM (" + lowerBound + ") TO (" + (lowerBound + width) + ")");
+            created++;
+        }
+        return created;
+    }
+
+    /**
+     * @param  partitionBound the partition bound expression, e.g. <code>FOR VALUES FROM ('0') TO ('100')</code>
+     *
+     * @return the lower and upper bounds, or null if the range is not bounded by numbers on both ends
+     */
+    static long[] parseRangeBounds(String partitionBound) {
+        if (null == partitionBound) {
+            return null;
+        }
+        Matcher matcher = RANGE_BOUNDS.matcher(partitionBound);
+        if (!matcher.matches()) {
+            return null;
+        }
+        try {
+            return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.db;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range partition of a table partitioned on a single numeric time column, i.e. an epoch millis column.
+ *
+ * @author John Mazzitelli
+ * @see DatabaseType#getTimePartitions(java.sql.Connection, String, String)
+ */
+public class TablePartition {
+    private final String name;
+    private final long lowerBound;
+    private final long upperBound;
+    private final long estimatedRows;
+
+    /**
+     * @param name the partition name
+     * @param lowerBound the inclusive lower bound of the partition's range, or <code>Long.MIN_VALUE</code> if unbounded
+     * @param upperBound the exclusive upper bound of the partition's range
+     * @param estimatedRows the estimated number of rows in the partition, or -1 if not known
+     */
+    public TablePartition(String name, long lowerBound, long upperBound, long estimatedRows) {
+        this.name = name;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.estimatedRows = estimatedRows;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLowerBound() {
+        return lowerBound;
+    }
+
+    public long getUpperBound() {
+        return upperBound;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    static void sortByRange(List<TablePartition> partitions) {
+        Collections.sort(partitions, new Comparator<TablePartition>() {
+            public int compare(TablePartition p1, TablePartition p2) {
+                return (p1.upperBound < p2.upperBound) ? -1 : ((p1.upperBound == p2.upperBound) ? 0 : 1);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + lowerBound + ", " + upperBound + ")";
+    }
+}
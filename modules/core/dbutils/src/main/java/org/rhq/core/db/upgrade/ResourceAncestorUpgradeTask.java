@@ -0,0 +1,70 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.db.upgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.rhq.core.db.DatabaseType;
+
+/**
+ * The introduction of the RHQ_RESOURCE_ANCESTOR closure table requires that it be populated for existing inventory.
+ *
+ * The parent of every resource is inserted first, then each level of ancestors is derived from the previous one with
+ * a single set-based insert, until a level adds no rows. The number of statements is thus the depth of the deepest
+ * resource, not the number of resources.
+ *
+ * @author Jay Shaughnessy
+ */
+public class ResourceAncestorUpgradeTask implements DatabaseUpgradeTask {
+
+    private static final String INSERT_PARENTS = "" //
+        + "INSERT INTO RHQ_RESOURCE_ANCESTOR ( ANCESTOR_ID, RESOURCE_ID, DEPTH ) " //
+        + "     SELECT res.PARENT_RESOURCE_ID, res.ID, 1 " //
+        + "       FROM RHQ_RESOURCE res " //
+        + "      WHERE res.PARENT_RESOURCE_ID IS NOT NULL";
+
+    private static final String INSERT_NEXT_LEVEL = "" //
+        + "INSERT INTO RHQ_RESOURCE_ANCESTOR ( ANCESTOR_ID, RESOURCE_ID, DEPTH ) " //
+        + "     SELECT res.PARENT_RESOURCE_ID, anc.RESOURCE_ID, anc.DEPTH + 1 " //
+        + "       FROM RHQ_RESOURCE_ANCESTOR anc, RHQ_RESOURCE res " //
+        + "      WHERE anc.DEPTH = ? " //
+        + "        AND anc.ANCESTOR_ID = res.ID " //
+        + "        AND res.PARENT_RESOURCE_ID IS NOT NULL";
+
+    // guards against a cycle in corrupt data, no real hierarchy comes close
+    private static final int MAX_DEPTH = 100;
+
+    public void execute(DatabaseType databaseType, Connection connection) throws SQLException {
+        databaseType.executeSql(connection, INSERT_PARENTS);
+
+        PreparedStatement stmt = connection.prepareStatement(INSERT_NEXT_LEVEL);
+        try {
+            for (int depth = 1; depth < MAX_DEPTH; ++depth) {
+                stmt.setInt(1, depth);
+                if (stmt.executeUpdate() == 0) {
+                    break;
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.db;
+
+import java.sql.Connection;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lookup of Postgres time partitions and the parsing of their bounds.
+ *
+ * @author John Mazzitelli
+ */
+@Test
+public class PostgresqlDatabaseTypeTest extends AbstractDatabaseTestUtil {
+    private static final String TABLE = "RHQ_TEST_TIME_PARTITIONS";
+    private static final String OTHER_TABLE = "RHQ_TEST_OTHER_PARTITIONS";
+
+    /**
+     * The key column is a reserved word, which Postgres quotes when it prints the partition key, as for RHQ_EVENT.
+     */
+    public void testGetTimePartitions() throws Exception {
+        Connection conn = getPostgresConnection();
+        if (conn == null || conn.getMetaData().getDatabaseMajorVersion() < 10) {
+            return;
+        }
+
+        DatabaseType dbtype = DatabaseTypeFactory.getDatabaseType(conn);
+        dropTable(dbtype, conn, TABLE);
+        dropTable(dbtype, conn, OTHER_TABLE);
+        try {
+            dbtype.executeSql(conn, "CREATE TABLE " + TABLE
+                + " (ID INTEGER, \"timestamp\" BIGINT) PARTITION BY RANGE (\"timestamp\")");
+            dbtype.executeSql(conn, "CREATE TABLE " + TABLE + "_p200 PARTITION OF " + TABLE
+                + " FOR VALUES FROM (200) TO (300)");
+            dbtype.executeSql(conn, "CREATE TABLE " + TABLE + "_p100 PARTITION OF " + TABLE
+                + " FOR VALUES FROM (100) TO (200)");
+            dbtype.executeSql(conn, "CREATE TABLE " + TABLE + "_rest PARTITION OF " + TABLE
+                + " FOR VALUES FROM (MINVALUE) TO (100)");
+            dbtype.executeSql(conn, "CREATE TABLE " + OTHER_TABLE
+                + " (ID INTEGER, \"timestamp\" BIGINT) PARTITION BY RANGE (ID)");
+            dbtype.executeSql(conn, "CREATE TABLE " + OTHER_TABLE + "_p0 PARTITION OF " + OTHER_TABLE
+                + " FOR VALUES FROM (0) TO (100)");
+
+            List<TablePartition> partitions = dbtype.getTimePartitions(conn, TABLE, "TIMESTAMP");
+            assert partitions.size() == 2 : partitions;
+            assert partitions.get(0).getName().equalsIgnoreCase(TABLE + "_p100") : partitions;
+            assert partitions.get(0).getLowerBound() == 100L && partitions.get(0).getUpperBound() == 200L;
+            assert partitions.get(1).getName().equalsIgnoreCase(TABLE + "_p200") : partitions;
+            assert partitions.get(1).getLowerBound() == 200L && partitions.get(1).getUpperBound() == 300L;
+
+            assert dbtype.getTimePartitions(conn, TABLE, "ID").isEmpty() : "the table is not partitioned by ID";
+            assert dbtype.getTimePartitions(conn, OTHER_TABLE, "TIMESTAMP").isEmpty() : "partitioned by ID";
+            assert dbtype.getTimePartitions(conn, OTHER_TABLE, "ID").size() == 1;
+
+            assert dbtype.createTimePartitions(conn, TABLE, "TIMESTAMP", 500L) == 2;
+            partitions = dbtype.getTimePartitions(conn, TABLE, "TIMESTAMP");
+            assert partitions.size() == 4 : partitions;
+            assert partitions.get(3).getUpperBound() == 500L : partitions;
+        } finally {
+            dropTable(dbtype, conn, TABLE);
+            dropTable(dbtype, conn, OTHER_TABLE);
+        }
+    }
+
+    public void testParseRangeBounds() {
+        long[] bounds = PostgresqlDatabaseType.parseRangeBounds("FOR VALUES FROM ('1388534400000') TO ('1388620800000')");
+        assert bounds != null;
+        assert bounds[0] == 1388534400000L : bounds[0];
+        assert bounds[1] == 1388620800000L : bounds[1];
+
+        bounds = PostgresqlDatabaseType.parseRangeBounds("FOR VALUES FROM (-5) TO (5)");
+        assert bounds != null;
+        assert bounds[0] == -5L && bounds[1] == 5L;
+    }
+
+    public void testUnboundedRangesAreNotParsed() {
+        assert PostgresqlDatabaseType.parseRangeBounds("FOR VALUES FROM (MINVALUE) TO ('100')") == null;
+        assert PostgresqlDatabaseType.parseRangeBounds("FOR VALUES FROM ('100') TO (MAXVALUE)") == null;
+        assert PostgresqlDatabaseType.parseRangeBounds("DEFAULT") == null;
+        assert PostgresqlDatabaseType.parseRangeBounds(null) == null;
+    }
+
+    private static void dropTable(DatabaseType dbtype, Connection conn, String table) {
+        try {
+            dbtype.executeSql(conn, "DROP TABLE IF EXISTS " + table);
+        } catch (Exception e) {
+            System.out.println("Cannot drop " + table + ": " + e);
+        }
+    }
+}
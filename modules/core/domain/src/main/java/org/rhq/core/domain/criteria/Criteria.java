@@ -116,6 +116,7 @@ public abstract class Criteria implements Serializable, BaseCriteria {
     private String[] strictFilters;
     private Restriction restriction = null;
     private boolean supportsAddSortId = true;
+    private Integer pagingAfterId;
 
     protected Map<String, String> filterOverrides;
     protected Map<String, String> sortOverrides;
@@ -276,6 +277,28 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         this.pageNumber = unlimited.getPageNumber();
         this.pageSize = unlimited.getPageSize();
         this.pageControlOverrides = null;
+        this.pagingAfterId = null;
+    }
+
+    /**
+     * Keyset paging: if set, the page returned is the one which immediately follows the entity with the given id in the
+     * sort order, rather than the page of the given page number. The page number is ignored. Reading a page this way
+     * costs the same whatever its position in the result set, where reading it by page number requires the database to
+     * read and skip all the rows of the previous pages.
+     * <p/>
+     * The entity must still exist. Only sorts on fields of the entity and of the entities it refers to are supported,
+     * and an implicit sort on ID is always added, so keyset paging cannot be used when the ID sort is not supported.
+     * The page size must be set.
+     *
+     * @param pagingAfterId the id of the last entity of the previous page, or null to page by page number
+     * @since 4.13
+     */
+    public void setPagingAfterId(Integer pagingAfterId) {
+        this.pagingAfterId = pagingAfterId;
+    }
+
+    public Integer getPagingAfterId() {
+        return pagingAfterId;
     }
 
     /**
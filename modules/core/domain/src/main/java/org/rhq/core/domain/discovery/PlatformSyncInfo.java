@@ -24,6 +24,7 @@ package org.rhq.core.domain.discovery;
 
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.rhq.core.domain.resource.Resource;
@@ -33,7 +34,9 @@ import org.rhq.core.domain.resource.ResourceCategory;
  * This immutable POJO returns the information necessary for the agent to perform a complete sync with the server
  * inventory.  It does not provide *all* of the sync info, only the platform and its top level *service* hierarchy. It
  * expects the agent to call back to the server for each of the platform's top level servers and therefore provides
- * only the top level server Ids.
+ * only the top level server Ids. Along with each top level server id, it can provide the hash of the server's subtree
+ * (see {@link ResourceSyncInfo#computeSubtreeHash(String, long, org.rhq.core.domain.resource.InventoryStatus, long[])})
+ * so the agent need only call back for those top level servers whose subtrees differ from its own inventory.
  *
  * @author Jay Shaughnessy
  */
@@ -43,12 +46,19 @@ public class PlatformSyncInfo implements Serializable {
     private ResourceSyncInfo platform;
     private Set<ResourceSyncInfo> services;
     private Set<Integer> topLevelServerIds;
+    private Map<Integer, Long> topLevelServerHashes;
 
     public PlatformSyncInfo(ResourceSyncInfo platform, Set<ResourceSyncInfo> services, Set<Integer> topLevelServerIds) {
+        this(platform, services, topLevelServerIds, null);
+    }
+
+    public PlatformSyncInfo(ResourceSyncInfo platform, Set<ResourceSyncInfo> services, Set<Integer> topLevelServerIds,
+        Map<Integer, Long> topLevelServerHashes) {
         super();
         this.platform = platform;
         this.services = services;
         this.topLevelServerIds = topLevelServerIds;
+        this.topLevelServerHashes = topLevelServerHashes;
     }
 
     /**
@@ -72,6 +82,14 @@ public class PlatformSyncInfo implements Serializable {
         return topLevelServerIds;
     }
 
+    /**
+     * @return the subtree hashes of the top level servers keyed on top level server id, may be null if the server
+     * did not compute them. A top level server without a hash must be synced.
+     */
+    public Map<Integer, Long> getTopLevelServerHashes() {
+        return topLevelServerHashes;
+    }
+
     // for testing
     public static PlatformSyncInfo buildPlatformSyncInfo(Resource platform) {
         Set<Integer> toplevelServerIds = new HashSet<Integer>();
@@ -23,6 +23,10 @@
 package org.rhq.core.domain.discovery;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -60,7 +64,12 @@ import org.rhq.core.domain.resource.Resource;
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.id = :resourceId) "
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "   ") })
+        + "   "),
+    @NamedQuery(name = ResourceSyncInfo.QUERY_AGENT_HIERARCHY, query = "" //
+        + "SELECT rr.id, rr.uuid, rr.mtime, rr.inventoryStatus, rr.parentResource.id " //
+        + "  FROM Resource rr " //
+        + " WHERE rr.agent.id = :agentId " //
+        + "   AND rr.parentResource IS NOT NULL ") })
 @Table(name = "RHQ_RESOURCE")
 public class ResourceSyncInfo implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -70,6 +79,9 @@ public class ResourceSyncInfo implements Serializable {
     /** Sync info rooted at the specified top level server and including all of it's hierarchy (up to 5 levels below
      * the top level server. note that we support up to 6 levels below platform but we are starting one level down) */
     public static final String QUERY_TOP_LEVEL_SERVER = "ResourceSyncInfo.topLevelServer";
+    /** The sync info and parent id of every non-platform resource managed by the specified agent, used to compute
+     * the {@link #computeSubtreeHash(String, long, InventoryStatus, long[]) subtree hashes} */
+    public static final String QUERY_AGENT_HIERARCHY = "ResourceSyncInfo.agentHierarchy";
 
     // Native Queries not supported by HQL
     public static final String QUERY_NATIVE_QUERY_TOP_LEVEL_SERVER_ORACLE = "" //
@@ -170,4 +182,58 @@ public class ResourceSyncInfo implements Serializable {
     static public ResourceSyncInfo buildResourceSyncInfo(Resource res) {
         return new ResourceSyncInfo(res.getId(), res.getUuid(), res.getMtime(), res.getInventoryStatus());
     }
+
+    /**
+     * Only resources in these inventory statuses (along with their descendants) are included in subtree hashes.
+     * Deleted, uninventoried and ignored resources are not part of the agent's inventory.
+     *
+     * @param status the inventory status of a resource
+     * @return true if a resource with the given status is included in its parent's subtree hash
+     */
+    static public boolean isIncludedInSubtreeHash(InventoryStatus status) {
+        return InventoryStatus.NEW == status || InventoryStatus.COMMITTED == status;
+    }
+
+    /**
+     * Computes the Merkle-style hash of a resource subtree. The hash covers the resource's uuid, mtime and inventory
+     * status along with the hashes of its children's subtrees, so two subtrees have the same hash only if every
+     * resource in them has the same sync info. The order of the child hashes does not matter. Agent and server both
+     * compute this so they can tell whether a subtree needs to be synced without exchanging its sync info.
+     *
+     * @param uuid the resource's uuid
+     * @param mtime the resource's mtime
+     * @param status the resource's inventory status
+     * @param childHashes the subtree hashes of the resource's included children (this array is sorted in place)
+     * @return the subtree hash
+     */
+    static public long computeSubtreeHash(String uuid, long mtime, InventoryStatus status, long[] childHashes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(String.valueOf(uuid).getBytes(Charset.forName("UTF-8")));
+        updateDigest(digest, mtime);
+        digest.update(String.valueOf(status).getBytes(Charset.forName("UTF-8")));
+
+        Arrays.sort(childHashes);
+        for (long childHash : childHashes) {
+            updateDigest(digest, childHash);
+        }
+
+        byte[] bytes = digest.digest();
+        long hash = 0L;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    static private void updateDigest(MessageDigest digest, long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            digest.update((byte) (value >>> i));
+        }
+    }
 }
@@ -23,6 +23,7 @@
 
 package org.rhq.core.domain.measurement;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
@@ -101,6 +102,13 @@ public class MeasurementDataTrait extends MeasurementData {
 
     private String value;
 
+    /**
+     * The time the server stored the value. It is later than the timestamp, the collection time, when the value was
+     * spooled by the agent or reported late. Null for the values stored before this time was recorded.
+     */
+    @Column(name = "STORED_TIME")
+    private Long storedTime;
+
     /**
      * Create a new trait object with the current system time for the timestamp.
      *
@@ -148,6 +156,14 @@ public class MeasurementDataTrait extends MeasurementData {
         this.value = value;
     }
 
+    public Long getStoredTime() {
+        return storedTime;
+    }
+
+    public void setStoredTime(Long storedTime) {
+        this.storedTime = storedTime;
+    }
+
     @Override
     public String toString() {
         return "MeasurementDataTrait[name=" + getName() + ", value=\"" + this.value + "\", scheduleId="
@@ -68,6 +68,11 @@ import org.rhq.core.domain.resource.Resource;
         + "                          WHERE res.agent.id = :agentId " //
         + "                            AND res.parentResource IS NOT NULL ) " //
         + "     AND ra.availabilityType <> :disabled "),
+    @NamedQuery(name = ResourceAvailability.UPDATE_BY_RESOURCE_IDS, query = "" //
+        + "  UPDATE ResourceAvailability ra" //
+        + "     SET availabilityType = :availabilityType " //
+        + "   WHERE resourceId IN ( :resourceIds ) " //
+        + "     AND ra.availabilityType <> :availabilityType "),
     /*
      * Platform plugins always return up for availability.  Platforms are
      * only down if the check-suspect-agent's backfiller sets them down.
@@ -93,6 +98,7 @@ public class ResourceAvailability implements Serializable {
     public static final String QUERY_FIND_BY_RESOURCE_IDS = "ResourceAvailability.findByResourceIds";
     public static final String UPDATE_CHILD_BY_AGENT_ID = "ResourceAvailability.updateChildByAgentId";
     public static final String UPDATE_PLATFORM_BY_AGENT_ID = "ResourceAvailability.updatePlatformByAgentId";
+    public static final String UPDATE_BY_RESOURCE_IDS = "ResourceAvailability.updateByResourceIds";
     public static final String QUERY_IS_AGENT_BACKFILLED = "ResourceAvailability.isAgentBackfilled";
 
     @SuppressWarnings("unused")
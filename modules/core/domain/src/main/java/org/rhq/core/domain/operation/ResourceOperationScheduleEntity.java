@@ -43,12 +43,15 @@ import org.rhq.core.domain.resource.Resource;
 @NamedQueries( {
     @NamedQuery(name = ResourceOperationScheduleEntity.QUERY_FIND_BY_RESOURCE_ID, query = "SELECT s "
         + "  FROM ResourceOperationScheduleEntity s " + " WHERE s.resource.id = :resourceId "),
+    @NamedQuery(name = ResourceOperationScheduleEntity.QUERY_FIND_RESOURCE_IDS_BY_RESOURCES, query = "SELECT DISTINCT s.resource.id "
+        + "  FROM ResourceOperationScheduleEntity s " + " WHERE s.resource.id IN ( :resourceIds ) "),
     @NamedQuery(name = ResourceOperationScheduleEntity.QUERY_DELETE_BY_RESOURCES, query = "DELETE FROM ResourceOperationScheduleEntity s "
         + " WHERE s.resource.id IN ( :resourceIds ) )") })
 public class ResourceOperationScheduleEntity extends OperationScheduleEntity {
 
     public static final String QUERY_DELETE_BY_RESOURCES = "ResourceOperationScheduleEntity.QUERY_DELETE_BY_RESOURCES";
     public static final String QUERY_FIND_BY_RESOURCE_ID = "ResourceOperationScheduleEntity.findByResourceId";
+    public static final String QUERY_FIND_RESOURCE_IDS_BY_RESOURCES = "ResourceOperationScheduleEntity.findResourceIdsByResources";
 
     private static final long serialVersionUID = 1L;
 
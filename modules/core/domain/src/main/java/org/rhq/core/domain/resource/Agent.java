@@ -148,6 +148,10 @@ import org.rhq.core.domain.cloud.Server;
         + " UPDATE Agent a " //
         + "    SET lastAvailabilityReport = :reportTime, backFilled = FALSE " //
         + "  WHERE id = :agentId "), //
+    @NamedQuery(name = Agent.QUERY_UPDATE_LAST_AVAIL_REPORT_IF_UNCHANGED, query = "" //
+        + " UPDATE Agent a " //
+        + "    SET lastAvailabilityReport = :reportTime " //
+        + "  WHERE id = :agentId AND lastAvailabilityReport = :lastReportTime AND backFilled = FALSE "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_LAST_AVAIL_PING, query = "" //
         + " UPDATE Agent a " //
         + "    SET lastAvailabilityPing = :now " //
@@ -194,6 +198,7 @@ public class Agent implements Serializable {
     public static final String QUERY_UPDATE_STATUS_FOR_ALL = "Agent.updateStatusForAll";
 
     public static final String QUERY_UPDATE_LAST_AVAIL_REPORT = "Agent.updateLastAvailReport";
+    public static final String QUERY_UPDATE_LAST_AVAIL_REPORT_IF_UNCHANGED = "Agent.updateLastAvailReportIfUnchanged";
     public static final String QUERY_UPDATE_LAST_AVAIL_PING = "Agent.updateLastAvailPing";
     public static final String QUERY_UPDATE_LAST_AVAIL_PING_FORCE = "Agent.updateLastAvailPingForce";
 
@@ -698,39 +698,21 @@ import org.rhq.core.domain.util.Summary;
         + "    OR EXISTS (SELECT rr FROM Resource rr WHERE rr.id = :resourceId AND rr.parentResource.parentResource.parentResource.parentResource.parentResource = r) "
         + "    OR EXISTS (SELECT rr FROM Resource rr WHERE rr.id = :resourceId AND rr.parentResource.parentResource.parentResource.parentResource.parentResource.parentResource = r) "
         + "  )"), //
-    @NamedQuery(name = Resource.QUERY_FIND_DESCENDANTS_BY_TYPE_AND_NAME, query = "" //
-        + "SELECT r.id " //
-        + "  FROM Resource r " //
-        + " WHERE ( r.resourceType.id = :resourceTypeId OR :resourceTypeId = 0 ) " //
-        + "   AND ( UPPER(r.name) like :resourceName OR :resourceName = '$$$null$$$' ) " //
-        + "   AND ( r.id = :resourceId " //
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.id = :resourceId) "
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.id = :resourceId) "
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "         OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "      ) "),
-    @NamedQuery(name = Resource.QUERY_FIND_DESCENDANTS, query = "" //
-        + "SELECT r.id " //
-        + "  FROM Resource r " //
-        + " WHERE r.id = :resourceId " //
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.id = :resourceId) "
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.id = :resourceId) "
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "   "),
     @NamedQuery(name = Resource.QUERY_MARK_RESOURCES_FOR_ASYNC_DELETION_QUICK, query = "" //
         + "UPDATE Resource r " //
         + "   SET r.inventoryStatus = :status, " // change to UNINVENTORIED status will remove it from inventory browser
         + "       r.agent = NULL, " // don't have to change ResourceSyncInfo logic
         + "       r.parentResource = NULL, " // resources without hierarchy can be deleted in any order
-        + "       r.resourceKey = 'deleted' " // prevents collision with future discovery reports
+        + "       r.resourceKey = 'deleted', " // prevents collision with future discovery reports
+        + "       r.itime = :now " // lets inventory change detection see the uninventory
         + " WHERE r.id IN (:resourceIds ) "), //
     @NamedQuery(name = Resource.QUERY_FIND_RESOURCES_MARKED_FOR_ASYNC_DELETION, query = "" //
         + "SELECT r.id FROM Resource AS r WHERE r.agent IS NULL"),
+    @NamedQuery(name = Resource.QUERY_FIND_FOR_ASYNC_DELETION, query = "" //
+        + "         SELECT DISTINCT r " //
+        + "           FROM Resource r " //
+        + "LEFT JOIN FETCH r.driftDefinitions " // fetch to remove a query per resource, they are removed with it
+        + "          WHERE r.id IN ( :resourceIds ) "),
 
     @NamedQuery(name = Resource.QUERY_RESOURCE_REPORT, query = ""
         + "SELECT new org.rhq.core.domain.resource.composite.ResourceInstallCount( " //
@@ -895,10 +877,9 @@ public class Resource implements Comparable<Resource>, Serializable {
 
     public static final String QUERY_FIND_ROOT_PLATFORM_OF_RESOURCE = "Resource.findRootPlatformOfResource";
 
-    public static final String QUERY_FIND_DESCENDANTS_BY_TYPE_AND_NAME = "Resource.findDescendantsByTypeAndName";
-    public static final String QUERY_FIND_DESCENDANTS = "Resource.findDescendants";
     public static final String QUERY_MARK_RESOURCES_FOR_ASYNC_DELETION_QUICK = "Resource.markResourcesForAsyncDeletionQuick";
     public static final String QUERY_FIND_RESOURCES_MARKED_FOR_ASYNC_DELETION = "Resource.findResourcesMarkedForAsyncDeletion";
+    public static final String QUERY_FIND_FOR_ASYNC_DELETION = "Resource.findForAsyncDeletion";
 
     public static final String QUERY_RESOURCE_REPORT = "Resource.findResourceReport";
     public static final String QUERY_RESOURCE_VERSION_REPORT = "Resource.findResourceVersionReport";
@@ -907,57 +888,61 @@ public class Resource implements Comparable<Resource>, Serializable {
     public static final String QUERY_RESOURCE_VERSION_AND_DRIFT_OUT_OF_COMPLIANCE = "Resource.findResourceVersionDriftOutOfCompliance";
 
     // Native Queries not supported by HQL
-    public static final String QUERY_NATIVE_FIND_DESCENDANTS_ORACLE = "" //
-        + "           SELECT r.id " //
-        + "             FROM rhq_resource r " //
-        + "       START WITH r.id = :resourceId " //
-        + " CONNECT BY PRIOR r.id = r.parent_resource_id ";
-    public static final String QUERY_NATIVE_FIND_DESCENDANTS_POSTGRES = "" //
-        + " WITH RECURSIVE childResource AS " //
-        + " (   SELECT r.id " //
-        + "       FROM rhq_resource AS r " //
-        + "      WHERE r.id = :resourceId " // non-recursive term
-        + "  UNION ALL " //
-        + "     SELECT r.id " // recursive term
-        + "       FROM rhq_resource AS r " //
-        + "       JOIN childResource AS cr " //
-        + "         ON (r.parent_resource_id = cr.id) " //
-        + " ) " //
-        + " SELECT id " //
-        + "   FROM childResource ";
+    public static final String QUERY_NATIVE_FIND_DESCENDANTS = "" //
+        + "SELECT r.ID " //
+        + "  FROM RHQ_RESOURCE r " //
+        + " WHERE r.ID = :resourceId " //
+        + "    OR r.ID IN ( SELECT a.RESOURCE_ID FROM RHQ_RESOURCE_ANCESTOR a WHERE a.ANCESTOR_ID = :resourceId ) ";
 
     /**
      *  Note, special parameter values to represent NULL, do not use NULL:<pre>
      *    :resourceTypeId = 0
      *    :resourceName   = "$$$null$$$"</pre>
      */
-    public static final String QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME_ORACLE = "" //
-        + "           SELECT r.id " //
-        + "             FROM rhq_resource r " //
-        + "            WHERE ( r.resource_type_id = :resourceTypeId OR :resourceTypeId = 0 ) " //
-        + "              AND ( UPPER(r.name) LIKE :resourceName OR :resourceName = '$$$null$$$' ) " //
-        + "       START WITH r.id = :resourceId " //
-        + " CONNECT BY PRIOR r.id = r.parent_resource_id ";
+    public static final String QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME = "" //
+        + "SELECT r.ID " //
+        + "  FROM RHQ_RESOURCE r " //
+        + " WHERE ( r.RESOURCE_TYPE_ID = :resourceTypeId OR :resourceTypeId = 0 ) " //
+        + "   AND ( UPPER(r.NAME) LIKE :resourceName OR :resourceName = '$$$null$$$' ) " //
+        + "   AND ( r.ID = :resourceId " //
+        + "         OR r.ID IN ( SELECT a.RESOURCE_ID FROM RHQ_RESOURCE_ANCESTOR a WHERE a.ANCESTOR_ID = :resourceId ) ) ";
+
     /**
-     *  Note, special parameter values to represent NULL, do not use NULL:<pre>
-     *    :resourceTypeId = 0
-     *    :resourceName   = "$$$null$$$"</pre>
+     * The ancestors of the resource, parent first.
+     */
+    public static final String QUERY_NATIVE_FIND_ANCESTOR_IDS = "" //
+        + "  SELECT a.ANCESTOR_ID " //
+        + "    FROM RHQ_RESOURCE_ANCESTOR a " //
+        + "   WHERE a.RESOURCE_ID = :resourceId " //
+        + "ORDER BY a.DEPTH ";
+
+    /*
+     * RHQ_RESOURCE_ANCESTOR holds the closure of the resource hierarchy, one row for every resource and each of its
+     * proper ancestors. When a resource is persisted or moved to another parent, its subtree is first unlinked from
+     * its old ancestors, then linked to the ancestors of its current parent. Execute in order.
      */
-    public static final String QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME_POSTGRES = "" //
-        + " WITH RECURSIVE childResource AS " //
-        + " (    SELECT r.id AS resourceId, r.name AS resourceName, r.resource_type_id AS resourceTypeId " //
-        + "        FROM rhq_resource AS r " //
-        + "       WHERE r.id = :resourceId " //
-        + "   UNION ALL " //
-        + "      SELECT r.id AS resourceId, r.name AS resourceName, r.resource_type_id AS resourceTypeId " //
-        + "        FROM rhq_resource AS r " //
-        + "        JOIN childResource AS cr " //
-        + "          ON (r.parent_resource_id = cr.resourceId) " //
-        + " ) " //
-        + " SELECT cr.resourceId " //
-        + "   FROM childResource AS cr " //
-        + "  WHERE ( cr.resourceTypeId = :resourceTypeId OR :resourceTypeId = 0 ) " //
-        + "    AND ( UPPER(cr.resourceName) LIKE :resourceName OR :resourceName = '$$$null$$$' ) ";
+    public static final String QUERY_NATIVE_DELETE_SUBTREE_ANCESTORS = "" //
+        + "DELETE FROM RHQ_RESOURCE_ANCESTOR " //
+        + " WHERE ANCESTOR_ID IN ( SELECT a.ANCESTOR_ID FROM RHQ_RESOURCE_ANCESTOR a WHERE a.RESOURCE_ID = :resourceId ) " //
+        + "   AND ( RESOURCE_ID = :resourceId " //
+        + "         OR RESOURCE_ID IN ( SELECT d.RESOURCE_ID FROM RHQ_RESOURCE_ANCESTOR d WHERE d.ANCESTOR_ID = :resourceId ) ) ";
+    public static final String QUERY_NATIVE_INSERT_PARENT_ANCESTOR = "" //
+        + "INSERT INTO RHQ_RESOURCE_ANCESTOR ( ANCESTOR_ID, RESOURCE_ID, DEPTH ) " //
+        + "     SELECT r.PARENT_RESOURCE_ID, r.ID, 1 " //
+        + "       FROM RHQ_RESOURCE r " //
+        + "      WHERE r.ID IN ( :resourceIds ) AND r.PARENT_RESOURCE_ID IS NOT NULL ";
+    public static final String QUERY_NATIVE_INSERT_PARENT_ANCESTORS = "" //
+        + "INSERT INTO RHQ_RESOURCE_ANCESTOR ( ANCESTOR_ID, RESOURCE_ID, DEPTH ) " //
+        + "     SELECT a.ANCESTOR_ID, r.ID, a.DEPTH + 1 " //
+        + "       FROM RHQ_RESOURCE r, RHQ_RESOURCE_ANCESTOR a " //
+        + "      WHERE r.ID IN ( :resourceIds ) AND a.RESOURCE_ID = r.PARENT_RESOURCE_ID ";
+    public static final String QUERY_NATIVE_INSERT_SUBTREE_ANCESTORS = "" //
+        + "INSERT INTO RHQ_RESOURCE_ANCESTOR ( ANCESTOR_ID, RESOURCE_ID, DEPTH ) " //
+        + "     SELECT up.ANCESTOR_ID, down.RESOURCE_ID, up.DEPTH + down.DEPTH " //
+        + "       FROM RHQ_RESOURCE_ANCESTOR up, RHQ_RESOURCE_ANCESTOR down " //
+        + "      WHERE up.RESOURCE_ID = :resourceId AND down.ANCESTOR_ID = :resourceId ";
+    public static final String QUERY_NATIVE_DELETE_ANCESTORS_BY_RESOURCE_IDS = "" //
+        + "DELETE FROM RHQ_RESOURCE_ANCESTOR WHERE RESOURCE_ID IN ( :resourceIds ) OR ANCESTOR_ID IN ( :resourceIds )";
 
     public static final String QUERY_NATIVE_FIND_RESOURCE_PLATFORM_ORACLE = "" //
         + "           SELECT r.id " //
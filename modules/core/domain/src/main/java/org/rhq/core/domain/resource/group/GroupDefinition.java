@@ -95,7 +95,12 @@ import org.rhq.core.domain.util.StringUtils;
         @NamedQuery(name = GroupDefinition.QUERY_FIND_LIKE_EXPR_NAME, query = "" //
         + "SELECT gd " //
         + "  FROM GroupDefinition AS gd " //
-        + " WHERE gd.cannedExpression LIKE :cannedExpression")})
+        + " WHERE gd.cannedExpression LIKE :cannedExpression"),
+        // a bulk update, so that skipping a definition does not change its modified time
+        @NamedQuery(name = GroupDefinition.QUERY_UPDATE_SKIP_TIME, query = "" //
+        + "UPDATE GroupDefinition gd " //
+        + "   SET gd.lastSkipTime = :skipTime " //
+        + " WHERE gd.id IN ( :ids )")})
 @SequenceGenerator(allocationSize = org.rhq.core.domain.util.Constants.ALLOCATION_SIZE, name = "RHQ_GROUP_DEF_ID_SEQ", sequenceName = "RHQ_GROUP_DEF_ID_SEQ")
 @Table(name = "RHQ_GROUP_DEF")
 public class GroupDefinition implements Serializable {
@@ -112,6 +117,7 @@ public class GroupDefinition implements Serializable {
     public static final String QUERY_FIND_BY_CANNED_EXPR_NAME = "GroupDefinition.findByCannedExpessionName";
     public static final String QUERY_FIND_CREATED_FROM_CANNED_EXPR = "GroupDefinition.findCreatedFromCannedExpression";
     public static final String QUERY_FIND_LIKE_EXPR_NAME = "GroupDefinition.findLikeCannedExpressionName";
+    public static final String QUERY_UPDATE_SKIP_TIME = "GroupDefinition.updateSkipTime";
 
     @Column(name = "ID", nullable = false)
     @GeneratedValue(strategy = GenerationType.AUTO, generator = "RHQ_GROUP_DEF_ID_SEQ")
@@ -136,6 +142,10 @@ public class GroupDefinition implements Serializable {
     @Column(name = "CALC_TIME")
     private Long lastCalculationTime;
 
+    // when the incremental recalculation last found no relevant inventory change and skipped the definition
+    @Column(name = "SKIP_TIME")
+    private Long lastSkipTime;
+
     @Column(name = "CALC_INTERVAL")
     private long recalculationInterval;
 
@@ -227,6 +237,14 @@ public class GroupDefinition implements Serializable {
         this.lastCalculationTime = lastCalculationTime;
     }
 
+    public Long getLastSkipTime() {
+        return lastSkipTime;
+    }
+
+    public void setLastSkipTime(Long lastSkipTime) {
+        this.lastSkipTime = lastSkipTime;
+    }
+
     public Long getRecalculationInterval() {
         return recalculationInterval;
     }
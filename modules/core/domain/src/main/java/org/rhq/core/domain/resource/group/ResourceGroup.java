@@ -182,6 +182,10 @@ import org.rhq.core.domain.tagging.Tag;
         + "FROM Resource res JOIN res.currentAvailability a "
         + "WHERE res.id = :resourceId "
         + "GROUP BY res.resourceType "),
+    @NamedQuery(name = ResourceGroup.QUERY_FIND_AUTOGROUP_BACKING_GROUP_IDS_BY_RESOURCE_IDS, query = "" //
+        + "SELECT g.id " //
+        + "  FROM ResourceGroup g " //
+        + " WHERE g.autoGroupParentResource.id IN ( :resourceIds ) "),
     @NamedQuery(name = ResourceGroup.QUERY_FIND_RESOURCE_NAMES_BY_GROUP_ID, query = ""
         + "SELECT new org.rhq.core.domain.common.composite.IntegerOptionItem(res.id, res.name) " //
         + "  FROM ResourceGroup g " //
@@ -222,6 +226,7 @@ public class ResourceGroup extends Group {
 
     public static final String QUERY_FIND_AUTOGROUP_BY_ID = "ResourceGroup.findAutoGroupById";
     public static final String QUERY_FIND_AUTOGROUP_BY_ID_ADMIN = "ResourceGroup.findAutoGroupById_admin";
+    public static final String QUERY_FIND_AUTOGROUP_BACKING_GROUP_IDS_BY_RESOURCE_IDS = "ResourceGroup.findAutoGroupBackingGroupIdsByResourceIds";
 
     public static final String QUERY_FIND_RESOURCE_NAMES_BY_GROUP_ID = "ResourceGroup.findResourceNamesByGroupId";
     public static final String QUERY_FIND_BY_GROUP_DEFINITION_AND_EXPRESSION = "ResourceGroup.findByGroupDefinitionAndExpression";
@@ -377,24 +382,13 @@ public class ResourceGroup extends Group {
         + "    insert into RHQ_RESOURCE_GROUP_RES_IMP_MAP ( RESOURCE_ID, RESOURCE_GROUP_ID ) " //
         + "         select res.ID, ? " // groupId
         + "           from RHQ_RESOURCE res " //
-        + "left outer join RHQ_RESOURCE g1parent on res.PARENT_RESOURCE_ID = g1parent.ID " //
-        + "left outer join RHQ_RESOURCE g2parent on g1parent.PARENT_RESOURCE_ID = g2parent.ID " //
-        + "left outer join RHQ_RESOURCE g3parent on g2parent.PARENT_RESOURCE_ID = g3parent.ID " //
-        + "left outer join RHQ_RESOURCE g4parent on g3parent.PARENT_RESOURCE_ID = g4parent.ID " //
-        + "left outer join RHQ_RESOURCE g5parent on g4parent.PARENT_RESOURCE_ID = g5parent.ID " //
-        + "left outer join RHQ_RESOURCE g6parent on g5parent.PARENT_RESOURCE_ID = g6parent.ID " //
-        + "          where ( res.ID = ? or " // resourceId
-        + "                  g1parent.ID = ? or " // resourceId
-        + "                  g2parent.ID = ? or " // resourceId
-        + "                  g3parent.ID = ? or " // resourceId
-        + "                  g4parent.ID = ? or " // resourceId
-        + "                  g5parent.ID = ? or " // resourceId
-        + "                  g6parent.ID = ? ) " // resourceId
-        + "            and ( res.ID not in ( select impRes.ID " //
-        + "                                    from RHQ_RESOURCE_GROUP rg " //
-        + "                              inner join RHQ_RESOURCE_GROUP_RES_IMP_MAP implicitMap on rg.ID = implicitMap.RESOURCE_GROUP_ID " //
-        + "                              inner join RHQ_RESOURCE impRes on implicitMap.RESOURCE_ID = impRes.ID " //
-        + "                                   where rg.ID = ? ) ) "; // groupId
+        + "          where ( res.ID in ( @@RESOURCE_IDS@@ ) " // the resources themselves
+        + "                  or res.ID in ( select anc.RESOURCE_ID " // and all of their descendants
+        + "                                   from RHQ_RESOURCE_ANCESTOR anc " //
+        + "                                  where anc.ANCESTOR_ID in ( @@RESOURCE_IDS@@ ) ) ) " //
+        + "            and res.ID not in ( select implicitMap.RESOURCE_ID " // which aren't already implicit members
+        + "                                  from RHQ_RESOURCE_GROUP_RES_IMP_MAP implicitMap " //
+        + "                                 where implicitMap.RESOURCE_GROUP_ID = ? ) "; // groupId
     public static final String QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_EXPLICIT = "" //
         + "    delete from RHQ_RESOURCE_GROUP_RES_EXP_MAP " //
         + "          where RESOURCE_GROUP_ID = ? " // groupId
@@ -406,40 +400,21 @@ public class ResourceGroup extends Group {
     public static final String QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_IMPLICIT_RECURSIVE = "" //
         + "   delete from RHQ_RESOURCE_GROUP_RES_IMP_MAP " // delete mappings
         + "         where RESOURCE_GROUP_ID = ? " // groupId
-        + "           and RESOURCE_ID in " // from any descendant of resourceId, including itself
-        + "               ( select res.id " //
-        + "                   from RHQ_RESOURCE res " //
-        + "        left outer join RHQ_RESOURCE g1parent on res.PARENT_RESOURCE_ID = g1parent.ID " //
-        + "        left outer join RHQ_RESOURCE g2parent on g1parent.PARENT_RESOURCE_ID = g2parent.ID " //
-        + "        left outer join RHQ_RESOURCE g3parent on g2parent.PARENT_RESOURCE_ID = g3parent.ID " //
-        + "        left outer join RHQ_RESOURCE g4parent on g3parent.PARENT_RESOURCE_ID = g4parent.ID " //
-        + "        left outer join RHQ_RESOURCE g5parent on g4parent.PARENT_RESOURCE_ID = g5parent.ID " //
-        + "        left outer join RHQ_RESOURCE g6parent on g5parent.PARENT_RESOURCE_ID = g6parent.ID " //
-        + "                  where ( res.ID = ? or " // resourceId
-        + "                          g1parent.ID = ? or " // resourceId
-        + "                          g2parent.ID = ? or " // resourceId
-        + "                          g3parent.ID = ? or " // resourceId
-        + "                          g4parent.ID = ? or " // resourceId
-        + "                          g5parent.ID = ? or " // resourceId
-        + "                          g6parent.ID = ? ) ) " // resourceId
-        + "           and RESOURCE_ID not in " // which aren't already descendants of members in the explicit set
-        + "               ( select res.id " //
-        + "                   from RHQ_RESOURCE_GROUP_RES_EXP_MAP alreadyMember, RHQ_RESOURCE res " //
-        + "        left outer join RHQ_RESOURCE g1parent on res.PARENT_RESOURCE_ID = g1parent.ID " //
-        + "        left outer join RHQ_RESOURCE g2parent on g1parent.PARENT_RESOURCE_ID = g2parent.ID " //
-        + "        left outer join RHQ_RESOURCE g3parent on g2parent.PARENT_RESOURCE_ID = g3parent.ID " //
-        + "        left outer join RHQ_RESOURCE g4parent on g3parent.PARENT_RESOURCE_ID = g4parent.ID " //
-        + "        left outer join RHQ_RESOURCE g5parent on g4parent.PARENT_RESOURCE_ID = g5parent.ID " //
-        + "        left outer join RHQ_RESOURCE g6parent on g5parent.PARENT_RESOURCE_ID = g6parent.ID " //
+        + "           and ( RESOURCE_ID in ( @@RESOURCE_IDS@@ ) " // from the resources themselves
+        + "                 or RESOURCE_ID in ( select anc.RESOURCE_ID " // and all of their descendants
+        + "                                       from RHQ_RESOURCE_ANCESTOR anc " //
+        + "                                      where anc.ANCESTOR_ID in ( @@RESOURCE_IDS@@ ) ) ) " //
+        + "           and RESOURCE_ID not in " // which aren't members of the remaining explicit set
+        + "               ( select alreadyMember.RESOURCE_ID " //
+        + "                   from RHQ_RESOURCE_GROUP_RES_EXP_MAP alreadyMember " //
+        + "                  where alreadyMember.RESOURCE_GROUP_ID = ? " // groupId
+        + "                    and alreadyMember.RESOURCE_ID not in ( @@RESOURCE_IDS@@ ) ) " //
+        + "           and RESOURCE_ID not in " // nor descendants of them
+        + "               ( select anc.RESOURCE_ID " //
+        + "                   from RHQ_RESOURCE_GROUP_RES_EXP_MAP alreadyMember, RHQ_RESOURCE_ANCESTOR anc " //
         + "                  where alreadyMember.RESOURCE_GROUP_ID = ? " // groupId
-        + "                    and alreadyMember.RESOURCE_ID <> ? " // resourceId
-        + "                    and ( res.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g1parent.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g2parent.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g3parent.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g4parent.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g5parent.ID = alreadyMember.RESOURCE_ID or " //
-        + "                          g6parent.ID = alreadyMember.RESOURCE_ID ) ) ";
+        + "                    and alreadyMember.RESOURCE_ID not in ( @@RESOURCE_IDS@@ ) " //
+        + "                    and anc.ANCESTOR_ID = alreadyMember.RESOURCE_ID ) ";
 
     @Column(name = "ID", nullable = false)
     @GeneratedValue(strategy = GenerationType.AUTO, generator = "RHQ_RESOURCE_GROUP_ID_SEQ")
@@ -0,0 +1,72 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.core.domain.discovery;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.InventoryStatus;
+
+@Test
+public class ResourceSyncInfoTest {
+
+    public void testSubtreeHashIgnoresChildOrder() {
+        long child1 = ResourceSyncInfo.computeSubtreeHash("child1", 1L, InventoryStatus.COMMITTED, new long[0]);
+        long child2 = ResourceSyncInfo.computeSubtreeHash("child2", 2L, InventoryStatus.NEW, new long[0]);
+
+        long hash1 = ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED, new long[] {
+            child1, child2 });
+        long hash2 = ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED, new long[] {
+            child2, child1 });
+
+        assertEquals(hash1, hash2);
+    }
+
+    public void testSubtreeHashDetectsChanges() {
+        long child = ResourceSyncInfo.computeSubtreeHash("child", 1L, InventoryStatus.COMMITTED, new long[0]);
+        long hash = ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED, new long[] { child });
+
+        // a modified descendant changes the hash
+        long modifiedChild = ResourceSyncInfo.computeSubtreeHash("child", 2L, InventoryStatus.COMMITTED, new long[0]);
+        assertNotEquals(ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED,
+            new long[] { modifiedChild }), hash);
+
+        // a committed descendant changes the hash
+        long committedChild = ResourceSyncInfo.computeSubtreeHash("child", 1L, InventoryStatus.NEW, new long[0]);
+        assertNotEquals(ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED,
+            new long[] { committedChild }), hash);
+
+        // a missing descendant changes the hash
+        assertNotEquals(ResourceSyncInfo.computeSubtreeHash("parent", 3L, InventoryStatus.COMMITTED, new long[0]),
+            hash);
+    }
+
+    public void testIncludedStatuses() {
+        assertTrue(ResourceSyncInfo.isIncludedInSubtreeHash(InventoryStatus.NEW));
+        assertTrue(ResourceSyncInfo.isIncludedInSubtreeHash(InventoryStatus.COMMITTED));
+        assertFalse(ResourceSyncInfo.isIncludedInSubtreeHash(InventoryStatus.IGNORED));
+        assertFalse(ResourceSyncInfo.isIncludedInSubtreeHash(InventoryStatus.DELETED));
+        assertFalse(ResourceSyncInfo.isIncludedInSubtreeHash(InventoryStatus.UNINVENTORIED));
+    }
+}
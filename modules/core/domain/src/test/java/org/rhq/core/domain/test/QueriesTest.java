@@ -165,6 +165,7 @@ public class QueriesTest extends AbstractEJB3Test {
                 ids.add(1);
                 q.setParameter("resourceIds", ids);
                 q.setParameter("status", InventoryStatus.UNINVENTORIED);
+                q.setParameter("now", System.currentTimeMillis());
                 q.executeUpdate();
             }
         });
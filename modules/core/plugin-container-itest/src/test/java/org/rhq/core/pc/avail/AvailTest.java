@@ -200,6 +200,7 @@ public class AvailTest extends Arquillian {
         }
         AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
         assertScan(scan, true, true, 29, 29, 29, 28, 0, 0);
+        assertPluginLatencies(scan);
 
         // do a forced avail check again - nothing changed, so we should have an empty report
         report = executor.call();
@@ -532,6 +533,16 @@ public class AvailTest extends Arquillian {
         assertScan(scan, true, false, 29, 0, 17, 16, 0, 12);
     }
 
+    private void assertPluginLatencies(AvailabilityExecutor.Scan scan) {
+        int numChecks = 0;
+        for (AvailabilityExecutor.PluginLatency latency : scan.getPluginLatencies().values()) {
+            Assert.assertTrue(latency.getMaxTime() <= latency.getTotalTime(), latency.toString());
+            numChecks += latency.getNumChecks();
+        }
+        Assert.assertEquals(numChecks, scan.getNumGetAvailabilityCalls(), "every avail check should be timed");
+        Assert.assertTrue(scan.getPluginLatencies().containsKey("availPlugin"), scan.toString());
+    }
+
     private void assertScan(Scan scan, boolean isForced, boolean isFull, int numResources, int numChanges,
         int numCalls, int numSched, int numPushed, int numDeferred) {
         Assert.assertEquals(scan.isForced(), isForced, "Unexpected isForced");
@@ -71,6 +71,8 @@ public class PluginContainerConfiguration {
     public static final long SERVICE_DISCOVERY_INITIAL_DELAY_DEFAULT = 20L; // in seconds
     private static final String SERVICE_DISCOVERY_PERIOD_PROP = PROP_PREFIX + "service-discovery-period";
     public static final long SERVICE_DISCOVERY_PERIOD_DEFAULT = 24 * 60 * 60L; // in seconds
+    private static final String SERVICE_DISCOVERY_PARALLELISM_PROP = PROP_PREFIX + "service-discovery-parallelism";
+    public static final int SERVICE_DISCOVERY_PARALLELISM_DEFAULT = 1;
     private static final String CHILD_RESOURCE_DISCOVERY_DELAY_PROP = PROP_PREFIX + "child-resource-discovery-delay";
     public static final long CHILD_RESOURCE_DISCOVERY_DELAY_DEFAULT = 5L; //in seconds
     private static final String RESOURCE_FACTORY_CORE_POOL_SIZE_PROP = PROP_PREFIX + "resource-factory-core-pool-size";
@@ -80,6 +82,11 @@ public class PluginContainerConfiguration {
     private static final String RESOURCE_FACTORY_KEEP_ALIVE_PROP = PROP_PREFIX + "resource-factory-keep-alive";
     public static final int RESOURCE_FACTORY_KEEP_ALIVE_DEFAULT = 1000;
 
+    // Component invocation ----------
+
+    private static final String COMPONENT_INVOCATION_INLINE_PROP = PROP_PREFIX + "component-invocation-inline";
+    public static final boolean COMPONENT_INVOCATION_INLINE_DEFAULT = false;
+
     // Availability ----------
 
     private static final String AVAILABILITY_SCAN_INITIAL_DELAY_PROP = PROP_PREFIX + "availability-scan-initial-delay";
@@ -89,6 +96,8 @@ public class PluginContainerConfiguration {
     public static final long AVAILABILITY_SCAN_PERIOD_DEFAULT = 30L;
     public static final String AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP = "availability-scan-threadpool-size";
     public static final int AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT = 100;
+    private static final String AVAILABILITY_SCAN_PARALLELISM_PROP = PROP_PREFIX + "availability-scan-parallelism";
+    public static final int AVAILABILITY_SCAN_PARALLELISM_DEFAULT = 4;
 
     // Measurement ----------
 
@@ -502,6 +511,26 @@ public class PluginContainerConfiguration {
         configuration.put(AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * Returns the maximum number of resource subtrees an availability scan will walk concurrently. A value of 1
+     * walks the inventory sequentially.
+     *
+     * @return availability scan parallelism
+     */
+    public int getAvailabilityScanParallelism() {
+        Integer parallelism = (Integer) configuration.get(AVAILABILITY_SCAN_PARALLELISM_PROP);
+        return (parallelism == null) ? AVAILABILITY_SCAN_PARALLELISM_DEFAULT : parallelism.intValue();
+    }
+
+    /**
+     * Sets the maximum number of resource subtrees an availability scan will walk concurrently.
+     *
+     * @param parallelism availability scan parallelism, 1 to walk the inventory sequentially
+     */
+    public void setAvailabilityScanParallelism(int parallelism) {
+        configuration.put(AVAILABILITY_SCAN_PARALLELISM_PROP, Integer.valueOf(parallelism));
+    }
+
     /**
      * Returns the length of time, in seconds, before measurements begin getting collected.
      *
@@ -607,6 +636,27 @@ public class PluginContainerConfiguration {
         configuration.put(SERVICE_DISCOVERY_PERIOD_PROP, Long.valueOf(period));
     }
 
+    /**
+     * Returns the maximum number of top level servers whose children a platform service discovery scan will discover
+     * concurrently. A value of 1 scans the servers one after the other.
+     *
+     * @return service discovery parallelism
+     */
+    public int getServiceDiscoveryParallelism() {
+        Integer parallelism = (Integer) configuration.get(SERVICE_DISCOVERY_PARALLELISM_PROP);
+        return (parallelism == null) ? SERVICE_DISCOVERY_PARALLELISM_DEFAULT : parallelism.intValue();
+    }
+
+    /**
+     * Sets the maximum number of top level servers whose children a platform service discovery scan will discover
+     * concurrently.
+     *
+     * @param parallelism service discovery parallelism, 1 to scan the servers sequentially
+     */
+    public void setServiceDiscoveryParallelism(int parallelism) {
+        configuration.put(SERVICE_DISCOVERY_PARALLELISM_PROP, Integer.valueOf(parallelism));
+    }
+
     /**
      * The length of time, in seconds, before the discovery of child resources on newly
      * committed resources begins.
@@ -943,6 +993,28 @@ public class PluginContainerConfiguration {
         return (time == null) ? RESOURCE_FACTORY_KEEP_ALIVE_DEFAULT : time.intValue();
     }
 
+    /**
+     * Returns whether fast facet calls made through resource component proxies are executed directly on the calling
+     * thread, under the supervision of a watchdog, rather than being handed off to an invoker thread. Facets known
+     * to be slow, and facet methods that have timed out before, are always handed off.
+     *
+     * @return true if fast facet calls are invoked on the calling thread
+     */
+    public boolean isComponentInvocationInline() {
+        Boolean inline = (Boolean) configuration.get(COMPONENT_INVOCATION_INLINE_PROP);
+        return (inline == null) ? COMPONENT_INVOCATION_INLINE_DEFAULT : inline.booleanValue();
+    }
+
+    /**
+     * Sets whether fast facet calls made through resource component proxies are executed on the calling thread.
+     *
+     * @param inline true to invoke fast facet calls on the calling thread
+     * @see #isComponentInvocationInline()
+     */
+    public void setComponentInvocationInline(boolean inline) {
+        configuration.put(COMPONENT_INVOCATION_INLINE_PROP, Boolean.valueOf(inline));
+    }
+
     /**
      * This is the name of the plugin container, as assigned to it by the software component that is embedding the
      * plugin container. This is usually, but doesn't have to be, the fully qualified domain name of the platform where
@@ -39,6 +39,8 @@ import org.rhq.core.clientapi.server.discovery.InventoryReport;
 import org.rhq.core.domain.configuration.PropertyList;
 import org.rhq.core.domain.configuration.PropertyMap;
 import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.pc.inventory.ComponentInvocationStatistics;
+import org.rhq.core.pc.inventory.DiscoveryStatistics;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
 import org.rhq.core.pc.plugin.CanonicalResourceKey;
@@ -299,6 +301,64 @@ public class PluginContainerMBeanImpl implements PluginContainerMBeanImplMBean {
         return this.pluginContainer.getPluginManager().getClassLoaderManager().getNumberOfResourceClassLoaders();
     }
 
+    public OperationResult retrieveComponentInvocationStatistics() {
+        ComponentInvocationStatistics stats = ResourceContainer.getInvocationStatistics();
+        long[] buckets = stats.getHistogramBuckets();
+        long[] inlineCounts = stats.getInlineHistogramCounts();
+        long[] handedOffCounts = stats.getHandedOffHistogramCounts();
+
+        OperationResult info = new OperationResult();
+        info.getComplexResults().put(new PropertySimple("inlineInvocations", stats.getInlineInvocations()));
+        info.getComplexResults().put(new PropertySimple("handedOffInvocations", stats.getHandedOffInvocations()));
+        info.getComplexResults().put(new PropertySimple("inlineTimeouts", stats.getInlineTimeouts()));
+        info.getComplexResults().put(new PropertySimple("hungInvocations", stats.getHungInvocations()));
+        PropertyList list = new PropertyList("proxyOverhead");
+        info.getComplexResults().put(list);
+
+        for (int i = 0; i < buckets.length; i++) {
+            PropertyMap map = new PropertyMap("bucket");
+            map.put(new PropertySimple("upperBound", (i < (buckets.length - 1)) ? ("<=" + buckets[i] + "us") : "more"));
+            map.put(new PropertySimple("inlineInvocations", inlineCounts[i]));
+            map.put(new PropertySimple("handedOffInvocations", handedOffCounts[i]));
+            list.add(map);
+        }
+
+        return info;
+    }
+
+    public OperationResult retrieveDiscoveryStatistics() {
+        DiscoveryStatistics stats = this.pluginContainer.getInventoryManager().getDiscoveryStatistics();
+
+        OperationResult info = new OperationResult();
+        PropertyList list = new PropertyList("resourceTypes");
+        info.getComplexResults().put(list);
+
+        for (DiscoveryStatistics.TypeDiscoveryTime time : stats.getDiscoveryTimes()) {
+            PropertyMap map = new PropertyMap("resourceType");
+            map.put(new PropertySimple("plugin", time.getPlugin()));
+            map.put(new PropertySimple("resourceTypeName", time.getResourceTypeName()));
+            map.put(new PropertySimple("discoveries", time.getDiscoveries()));
+            map.put(new PropertySimple("totalTime", time.getTotalMillis()));
+            map.put(new PropertySimple("maxTime", time.getMaxMillis()));
+            map.put(new PropertySimple("lastTime", time.getLastMillis()));
+            list.add(map);
+        }
+
+        return info;
+    }
+
+    public long getNumberOfInlineComponentInvocations() {
+        return ResourceContainer.getInvocationStatistics().getInlineInvocations();
+    }
+
+    public long getNumberOfHandedOffComponentInvocations() {
+        return ResourceContainer.getInvocationStatistics().getHandedOffInvocations();
+    }
+
+    public long getNumberOfHungComponentInvocations() {
+        return ResourceContainer.getInvocationStatistics().getHungInvocations();
+    }
+
     private String generateInventoryReportString(InventoryReport report) {
         StringBuilder reportStr = new StringBuilder();
         if (report != null) {
@@ -106,4 +106,42 @@ public interface PluginContainerMBeanImplMBean {
      * @return resource classloader count
      */
     int getNumberOfResourceClassLoaders();
+
+    /**
+     * Retrieves statistics on the facet calls made through resource component proxies, including histograms of the
+     * proxy overhead of calls invoked on the calling thread and of calls handed off to invoker threads.
+     *
+     * @return component invocation statistics
+     */
+    OperationResult retrieveComponentInvocationStatistics();
+
+    /**
+     * Retrieves the time spent in discovery components during server and service scans, per resource type, the type
+     * with the largest total discovery time first.
+     *
+     * @return discovery time per resource type
+     */
+    OperationResult retrieveDiscoveryStatistics();
+
+    /**
+     * Returns the number of completed facet calls that were invoked directly on the calling thread.
+     *
+     * @return inline component invocation count
+     */
+    long getNumberOfInlineComponentInvocations();
+
+    /**
+     * Returns the number of completed facet calls that were handed off to an invoker thread.
+     *
+     * @return handed off component invocation count
+     */
+    long getNumberOfHandedOffComponentInvocations();
+
+    /**
+     * Returns the number of facet calls that were still running long after being interrupted for exceeding their
+     * timeout.
+     *
+     * @return hung component invocation count
+     */
+    long getNumberOfHungComponentInvocations();
 }
@@ -63,6 +63,14 @@ public final class ComponentInvocationContextImpl implements ComponentInvocation
         ComponentInvocationContextImpl.localContext.set(localContext);
     }
 
+    /**
+     * @return the {@link LocalContext} instance bound to the current thread. Callers invoking component code on a
+     * thread they do not own should restore it once the invocation is done.
+     */
+    public LocalContext getLocalContext() {
+        return ComponentInvocationContextImpl.localContext.get();
+    }
+
     /**
      * Interrupted status holder. A single instance of this class should be bound to the invocation thread by calling
      * {@link #setLocalContext(org.rhq.core.pc.component.ComponentInvocationContextImpl.LocalContext)}.
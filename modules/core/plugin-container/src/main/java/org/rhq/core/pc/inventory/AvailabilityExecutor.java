@@ -26,11 +26,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -52,6 +61,10 @@ import org.rhq.core.util.stream.StreamUtil;
 
 /**
  * Runs a periodic scan for resource availability.
+ * <p/>
+ * The scan walks the inventory depth first. When the inventory manager provides a subtree executor with idle
+ * threads, sibling subtrees are handed off to it and checked concurrently. A subtree is only ever handed off after
+ * its parent's availability is known, so children of a DOWN parent are still never checked.
  *
  * @author Jay Shaughnessy
  * @author John Mazzitelli
@@ -327,6 +340,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                     LOG.trace("Now checking availability for " + resource);
                 }
 
+                long checkStart = System.currentTimeMillis();
                 try {
                     ++scan.numGetAvailabilityCalls;
 
@@ -358,6 +372,8 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                         + ", availability will be reported as " + DOWN.name() + ", reason=" + t.getMessage());
                     current = DOWN;
                 }
+                scan.addAvailabilityCheckTime(resource.getResourceType().getPlugin(), System.currentTimeMillis()
+                    - checkStart);
             } else {
                 current = previousType;
             }
@@ -396,10 +412,116 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             availabilityReport.addAvailability(availability);
         }
 
-        for (Resource child : this.inventoryManager.getContainerChildren(resource, resourceContainer)) {
-            checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+        checkChildren(resource, resourceContainer, availabilityReport, current, isForced, scan, traceEnabled);
+    }
+
+    /**
+     * Checks the subtrees of the resource's children. A child subtree is handed off to the subtree executor if one of
+     * its threads is idle, otherwise it is checked by the calling thread. The last child is always checked by the
+     * calling thread, which then waits for the handed off subtrees. Each handed off subtree fills its own report and
+     * scan, merged into the caller's once it completes, so neither needs to be thread-safe.
+     *
+     * @throws InterruptedException if this checking thread was interrupted
+     */
+    private void checkChildren(Resource resource, ResourceContainer resourceContainer,
+        AvailabilityReport availabilityReport, AvailabilityType parentAvailType, boolean isForced, Scan scan,
+        boolean traceEnabled) throws InterruptedException {
+
+        Set<Resource> children = this.inventoryManager.getContainerChildren(resource, resourceContainer);
+        ThreadPoolExecutor subtreeExecutor = this.inventoryManager.getAvailabilitySubtreeExecutor();
+
+        // children of a DOWN parent are not checked, there is nothing to gain from handing them off
+        if (null == subtreeExecutor || DOWN == parentAvailType || children.size() < 2) {
+            for (Resource child : children) {
+                checkInventory(child, availabilityReport, parentAvailType, isForced, scan, traceEnabled);
+            }
+            return;
+        }
+
+        List<SubtreeCheck> handedOff = new ArrayList<SubtreeCheck>();
+        try {
+            for (Iterator<Resource> i = children.iterator(); i.hasNext();) {
+                Resource child = i.next();
+
+                if (i.hasNext() && subtreeExecutor.getActiveCount() < subtreeExecutor.getMaximumPoolSize()) {
+                    SubtreeCheck subtreeCheck = new SubtreeCheck(child, availabilityReport, parentAvailType, isForced,
+                        scan, traceEnabled);
+                    try {
+                        subtreeExecutor.execute(subtreeCheck.task);
+                        handedOff.add(subtreeCheck);
+                        continue;
+                    } catch (RejectedExecutionException e) {
+                        // no idle thread after all, check it ourselves
+                    }
+                }
+
+                checkInventory(child, availabilityReport, parentAvailType, isForced, scan, traceEnabled);
+            }
+
+            for (Iterator<SubtreeCheck> i = handedOff.iterator(); i.hasNext();) {
+                i.next().join(availabilityReport, scan);
+                i.remove();
+            }
+        } finally {
+            // only non-empty if we failed or were interrupted, don't leave subtree checks running
+            for (SubtreeCheck subtreeCheck : handedOff) {
+                subtreeCheck.task.cancel(true);
+            }
         }
+    }
 
+    /**
+     * The check of one subtree handed off to the subtree executor.
+     */
+    private class SubtreeCheck implements Callable<Void> {
+        private final Resource root;
+        private final AvailabilityType parentAvailType;
+        private final boolean isForced;
+        private final boolean traceEnabled;
+        private final AvailabilityReport report;
+        private final Scan scan;
+        private final FutureTask<Void> task;
+
+        private SubtreeCheck(Resource root, AvailabilityReport parentReport, AvailabilityType parentAvailType,
+            boolean isForced, Scan parentScan, boolean traceEnabled) {
+            this.root = root;
+            this.parentAvailType = parentAvailType;
+            this.isForced = isForced;
+            this.traceEnabled = traceEnabled;
+            this.report = new AvailabilityReport(parentReport.isChangesOnlyReport(), parentReport.getAgentName());
+            this.scan = new Scan(parentScan);
+            this.task = new FutureTask<Void>(this);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            checkInventory(root, report, parentAvailType, isForced, scan, traceEnabled);
+            return null;
+        }
+
+        /**
+         * Waits for the subtree check to complete and merges its results.
+         */
+        private void join(AvailabilityReport parentReport, Scan parentScan) throws InterruptedException {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+
+            for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+                parentReport.addAvailability(datum);
+            }
+            parentScan.add(scan);
+        }
     }
 
     /**
@@ -493,11 +615,55 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         int numAvailabilityChanges = 0;
         int numDeferToParent = 0;
 
+        // keyed on plugin name
+        private final Map<String, PluginLatency> pluginLatencies = new HashMap<String, PluginLatency>();
+
         public Scan(long startTime, boolean isFull) {
             this.startTime = startTime;
             this.isFull = isFull;
         }
 
+        /**
+         * A scan for a subtree of the parent scan, to be {@link #add(Scan) added} back to it when done.
+         */
+        Scan(Scan parent) {
+            this(parent.startTime, parent.isFull);
+            this.isForced = parent.isForced;
+        }
+
+        /**
+         * Adds the counts of a subtree scan to this scan.
+         */
+        void add(Scan subtreeScan) {
+            isForced |= subtreeScan.isForced;
+            numResources += subtreeScan.numResources;
+            numGetAvailabilityCalls += subtreeScan.numGetAvailabilityCalls;
+            numScheduledRandomly += subtreeScan.numScheduledRandomly;
+            numPushedByInterval += subtreeScan.numPushedByInterval;
+            numAvailabilityChanges += subtreeScan.numAvailabilityChanges;
+            numDeferToParent += subtreeScan.numDeferToParent;
+
+            for (PluginLatency latency : subtreeScan.pluginLatencies.values()) {
+                getPluginLatency(latency.plugin).add(latency);
+            }
+        }
+
+        void addAvailabilityCheckTime(String plugin, long time) {
+            PluginLatency latency = getPluginLatency(plugin);
+            ++latency.numChecks;
+            latency.totalTime += time;
+            latency.maxTime = Math.max(latency.maxTime, time);
+        }
+
+        private PluginLatency getPluginLatency(String plugin) {
+            PluginLatency latency = pluginLatencies.get(plugin);
+            if (null == latency) {
+                latency = new PluginLatency(plugin);
+                pluginLatencies.put(plugin, latency);
+            }
+            return latency;
+        }
+
         public long getStartTime() {
             return startTime;
         }
@@ -551,13 +717,67 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return numDeferToParent;
         }
 
+        /**
+         * @return the availability check latencies of this scan, keyed on plugin name
+         */
+        public Map<String, PluginLatency> getPluginLatencies() {
+            return Collections.unmodifiableMap(pluginLatencies);
+        }
+
         @Override
         public String toString() {
             return "Scan [startTime=" + startTime + ", endTime=" + endTime + ", runtime=" + runtime + ", isFull="
                 + isFull + ", isForced=" + isForced + ", numResources=" + numResources + ", numGetAvailabilityCalls="
                 + numGetAvailabilityCalls + ", numScheduledRandomly=" + numScheduledRandomly + ", numPushedByInterval="
                 + numPushedByInterval + ", numAvailabilityChanges=" + numAvailabilityChanges + ", numDeferToParent="
-                + numDeferToParent + "]";
+                + numDeferToParent + ", pluginLatencies=" + pluginLatencies.values() + "]";
+        }
+    }
+
+    /**
+     * The time spent checking the availability of the resources of one plugin during a scan. This includes the time
+     * spent starting resource components that were not yet started.
+     */
+    public static class PluginLatency {
+        private final String plugin;
+        private int numChecks = 0;
+        private long totalTime = 0L;
+        private long maxTime = 0L;
+
+        PluginLatency(String plugin) {
+            this.plugin = plugin;
+        }
+
+        private void add(PluginLatency other) {
+            numChecks += other.numChecks;
+            totalTime += other.totalTime;
+            maxTime = Math.max(maxTime, other.maxTime);
+        }
+
+        public String getPlugin() {
+            return plugin;
+        }
+
+        public int getNumChecks() {
+            return numChecks;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        public long getAverageTime() {
+            return (numChecks == 0) ? 0L : totalTime / numChecks;
+        }
+
+        @Override
+        public String toString() {
+            return "PluginLatency [plugin=" + plugin + ", numChecks=" + numChecks + ", totalTime=" + totalTime
+                + ", maxTime=" + maxTime + "]";
         }
     }
 }
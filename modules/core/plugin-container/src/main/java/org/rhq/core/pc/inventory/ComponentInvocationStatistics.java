@@ -0,0 +1,169 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics on the facet calls made through {@link ResourceContainer} component proxies. For each call that
+ * completes, the proxy overhead is recorded: the time the caller spent in the proxy minus the time spent acquiring the
+ * facet lock and executing the component method. Calls invoked directly on the calling thread and calls handed off to
+ * an invoker thread are recorded in separate histograms.
+ *
+ * @author John Mazzitelli
+ */
+public class ComponentInvocationStatistics {
+
+    // the upper bounds of the proxy overhead histogram buckets, in microseconds
+    private static final long[] HISTOGRAM_BUCKETS = { 10L, 50L, 100L, 250L, 500L, 1000L, 5000L, 10000L,
+        Long.MAX_VALUE };
+
+    private final AtomicLongArray inlineHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS.length);
+    private final AtomicLongArray handedOffHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS.length);
+    private final AtomicLong inlineInvocations = new AtomicLong();
+    private final AtomicLong handedOffInvocations = new AtomicLong();
+    private final AtomicLong inlineTimeouts = new AtomicLong();
+    private final AtomicLong hungInvocations = new AtomicLong();
+
+    void inlineInvocationCompleted(long overheadNanos) {
+        inlineInvocations.incrementAndGet();
+        inlineHistogram.incrementAndGet(getBucket(overheadNanos));
+    }
+
+    void handedOffInvocationCompleted(long overheadNanos) {
+        handedOffInvocations.incrementAndGet();
+        handedOffHistogram.incrementAndGet(getBucket(overheadNanos));
+    }
+
+    void inlineInvocationTimedOut() {
+        inlineTimeouts.incrementAndGet();
+    }
+
+    void invocationHung() {
+        hungInvocations.incrementAndGet();
+    }
+
+    /**
+     * Returns the upper bounds (inclusive, in microseconds) of the proxy overhead histogram buckets. The last bucket
+     * is unbounded.
+     *
+     * @return histogram bucket upper bounds
+     */
+    public long[] getHistogramBuckets() {
+        return HISTOGRAM_BUCKETS.clone();
+    }
+
+    /**
+     * @return the number of completed calls invoked on the calling thread, per
+     * {@link #getHistogramBuckets() histogram bucket} of proxy overhead
+     */
+    public long[] getInlineHistogramCounts() {
+        return toArray(inlineHistogram);
+    }
+
+    /**
+     * @return the number of completed calls handed off to an invoker thread, per
+     * {@link #getHistogramBuckets() histogram bucket} of proxy overhead
+     */
+    public long[] getHandedOffHistogramCounts() {
+        return toArray(handedOffHistogram);
+    }
+
+    public long getInlineInvocations() {
+        return inlineInvocations.get();
+    }
+
+    public long getHandedOffInvocations() {
+        return handedOffInvocations.get();
+    }
+
+    /**
+     * @return the number of calls invoked on the calling thread that were interrupted by the watchdog because they
+     * exceeded their timeout
+     */
+    public long getInlineTimeouts() {
+        return inlineTimeouts.get();
+    }
+
+    /**
+     * @return the number of calls still running long after they were interrupted for exceeding their timeout
+     */
+    public long getHungInvocations() {
+        return hungInvocations.get();
+    }
+
+    /**
+     * Resets all counts back to 0.
+     */
+    public void clear() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS.length; i++) {
+            inlineHistogram.set(i, 0L);
+            handedOffHistogram.set(i, 0L);
+        }
+        inlineInvocations.set(0L);
+        handedOffInvocations.set(0L);
+        inlineTimeouts.set(0L);
+        hungInvocations.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("ComponentInvocationStatistics[");
+        str.append("inline=").append(inlineInvocations.get());
+        str.append(", handedOff=").append(handedOffInvocations.get());
+        str.append(", inlineTimeouts=").append(inlineTimeouts.get());
+        str.append(", hung=").append(hungInvocations.get());
+        str.append(", inlineHistogram=");
+        appendHistogram(str, inlineHistogram);
+        str.append(", handedOffHistogram=");
+        appendHistogram(str, handedOffHistogram);
+        str.append(']');
+        return str.toString();
+    }
+
+    private static int getBucket(long overheadNanos) {
+        long overheadMicros = overheadNanos / 1000L;
+        for (int i = 0; i < HISTOGRAM_BUCKETS.length; i++) {
+            if (overheadMicros <= HISTOGRAM_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BUCKETS.length - 1;
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    private static void appendHistogram(StringBuilder str, AtomicLongArray histogram) {
+        str.append('[');
+        for (int i = 0; i < HISTOGRAM_BUCKETS.length; i++) {
+            str.append((i > 0) ? ", " : "");
+            str.append((i < (HISTOGRAM_BUCKETS.length - 1)) ? ("<=" + HISTOGRAM_BUCKETS[i] + "us") : "more");
+            str.append('=').append(histogram.get(i));
+        }
+        str.append(']');
+    }
+}
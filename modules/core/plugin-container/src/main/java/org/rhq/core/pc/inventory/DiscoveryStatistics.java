@@ -0,0 +1,142 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.resource.ResourceType;
+
+/**
+ * Statistics on the time spent in discovery components, per resource type being discovered. Every call a server or
+ * service scan makes to a discovery component is recorded.
+ *
+ * @author Jay Shaughnessy
+ */
+public class DiscoveryStatistics {
+
+    private final ConcurrentMap<String, TypeDiscoveryTime> times = new ConcurrentHashMap<String, TypeDiscoveryTime>();
+
+    void discoveryCompleted(ResourceType resourceType, long millis) {
+        String key = resourceType.getPlugin() + ":" + resourceType.getName();
+        TypeDiscoveryTime time = times.get(key);
+        if (time == null) {
+            TypeDiscoveryTime newTime = new TypeDiscoveryTime(resourceType.getPlugin(), resourceType.getName());
+            time = times.putIfAbsent(key, newTime);
+            if (time == null) {
+                time = newTime;
+            }
+        }
+        time.add(millis);
+    }
+
+    /**
+     * @return the discovery time of every resource type discovered so far, the type with the largest total discovery
+     * time first
+     */
+    public List<TypeDiscoveryTime> getDiscoveryTimes() {
+        List<TypeDiscoveryTime> result = new ArrayList<TypeDiscoveryTime>(times.values());
+        Collections.sort(result, new Comparator<TypeDiscoveryTime>() {
+            public int compare(TypeDiscoveryTime t1, TypeDiscoveryTime t2) {
+                long total1 = t1.getTotalMillis();
+                long total2 = t2.getTotalMillis();
+                return (total1 < total2) ? 1 : ((total1 == total2) ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Forgets all recorded discovery times.
+     */
+    public void clear() {
+        times.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveryStatistics" + getDiscoveryTimes();
+    }
+
+    /**
+     * The accumulated discovery time of one resource type.
+     */
+    public static class TypeDiscoveryTime {
+        private final String plugin;
+        private final String resourceTypeName;
+        private final AtomicLong discoveries = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private volatile long lastMillis;
+
+        private TypeDiscoveryTime(String plugin, String resourceTypeName) {
+            this.plugin = plugin;
+            this.resourceTypeName = resourceTypeName;
+        }
+
+        private void add(long millis) {
+            discoveries.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            lastMillis = millis;
+            long max = maxMillis.get();
+            while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+                max = maxMillis.get();
+            }
+        }
+
+        public String getPlugin() {
+            return plugin;
+        }
+
+        public String getResourceTypeName() {
+            return resourceTypeName;
+        }
+
+        /**
+         * @return the number of discovery component calls made for the type
+         */
+        public long getDiscoveries() {
+            return discoveries.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public long getLastMillis() {
+            return lastMillis;
+        }
+
+        @Override
+        public String toString() {
+            return plugin + ":" + resourceTypeName + "[discoveries=" + discoveries.get() + ", total="
+                + totalMillis.get() + "ms, max=" + maxMillis.get() + "ms, last=" + lastMillis + "ms]";
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.pc.component.ComponentInvocationContextImpl.LocalContext;
+import org.rhq.core.pc.util.LoggingThreadFactory;
+
+/**
+ * Supervises facet calls that {@link ResourceContainer} component proxies invoke directly on the calling thread.
+ * <p/>
+ * Each calling thread is assigned a single {@link Watch} the first time it makes an inline call, which is reused for
+ * all of its later calls, so supervising a call allocates nothing. A single daemon thread periodically sweeps the
+ * watches. When a call exceeds its timeout the watchdog marks its invocation context interrupted, interrupts the
+ * calling thread and tells the proxy to hand that facet method off to an invoker thread from now on. A call still
+ * running a full timeout period after having been interrupted is reported as hung, along with the calling thread's
+ * stack.
+ * <p/>
+ * Unlike a pooled invoker thread, which is simply abandoned and replaced by the pool, a hung calling thread cannot be
+ * replaced; demoting the method is what keeps the hang from recurring on other callers.
+ *
+ * @author John Mazzitelli
+ */
+class InlineInvocationWatchdog {
+    private static final Log LOG = LogFactory.getLog(InlineInvocationWatchdog.class);
+
+    private static final String WATCHDOG_THREAD_NAME = "ResourceContainer.invoker.watchdog";
+    private static final long SWEEP_PERIOD_MILLIS = 250L;
+
+    private static final int IDLE = 0;
+    private static final int RUNNING = 1;
+    private static final int TIMED_OUT = 2;
+
+    /**
+     * Called back when an inline call times out, so the proxy can stop invoking the method inline.
+     */
+    interface TimeoutListener {
+        void invocationTimedOut(Method method);
+    }
+
+    private final ComponentInvocationStatistics statistics;
+    private final ConcurrentMap<Thread, Watch> watches = new ConcurrentHashMap<Thread, Watch>();
+    private final ThreadLocal<Watch> currentWatch = new ThreadLocal<Watch>();
+    private final ScheduledExecutorService sweeper;
+
+    InlineInvocationWatchdog(ComponentInvocationStatistics statistics) {
+        this.statistics = statistics;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new LoggingThreadFactory(WATCHDOG_THREAD_NAME,
+            true));
+        this.sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_PERIOD_MILLIS, SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts supervising an inline call on the current thread.
+     *
+     * @param method the facet method about to be invoked
+     * @param timeoutMillis the call's timeout
+     * @param localContext the invocation context to mark interrupted on timeout
+     * @param listener told about a timeout
+     * @param container the container whose component is called, for logging
+     *
+     * @return the watch to pass to {@link #invoking(Watch)} and {@link #stop(Watch)}, or <code>null</code> if the
+     * current thread is already making an inline call, in which case the call must be handed off
+     */
+    Watch start(Method method, long timeoutMillis, LocalContext localContext, TimeoutListener listener,
+        ResourceContainer container) {
+        Watch watch = currentWatch.get();
+        if (watch == null) {
+            watch = new Watch(Thread.currentThread());
+            currentWatch.set(watch);
+            watches.put(watch.thread, watch);
+        }
+
+        synchronized (watch) {
+            if (watch.state != IDLE) {
+                return null;
+            }
+            watch.state = RUNNING;
+            watch.invoking = false;
+            watch.hungReported = false;
+            watch.method = method;
+            watch.timeoutMillis = timeoutMillis;
+            watch.deadline = System.currentTimeMillis() + timeoutMillis;
+            watch.localContext = localContext;
+            watch.listener = listener;
+            watch.container = container;
+        }
+        return watch;
+    }
+
+    /**
+     * Records that the facet lock has been acquired and the component method is about to be invoked. Only a call that
+     * times out in the component method, rather than while waiting for the lock, causes the method to be handed off
+     * from now on.
+     */
+    void invoking(Watch watch) {
+        watch.invoking = true;
+    }
+
+    /**
+     * Stops supervising the call. If the call timed out, the interrupt the watchdog sent to the current thread is
+     * cleared, unless the thread had already been interrupted by someone else when the watchdog interrupted it.
+     *
+     * @return true if the call timed out and its result must be discarded
+     */
+    boolean stop(Watch watch) {
+        boolean timedOut;
+        boolean alreadyInterrupted;
+        synchronized (watch) {
+            timedOut = (watch.state == TIMED_OUT);
+            alreadyInterrupted = watch.alreadyInterrupted;
+            watch.state = IDLE;
+            watch.alreadyInterrupted = false;
+            watch.method = null;
+            watch.localContext = null;
+            watch.listener = null;
+            watch.container = null;
+        }
+        if (timedOut) {
+            Thread.interrupted();
+            if (alreadyInterrupted) {
+                // the interrupt was not the watchdog's alone, keep it for the caller
+                Thread.currentThread().interrupt();
+            }
+        }
+        return timedOut;
+    }
+
+    void shutdown() {
+        sweeper.shutdownNow();
+        watches.clear();
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Iterator<Watch> i = watches.values().iterator(); i.hasNext();) {
+                Watch watch = i.next();
+                if (!watch.thread.isAlive()) {
+                    i.remove();
+                    continue;
+                }
+
+                synchronized (watch) {
+                    if (watch.state == RUNNING && now >= watch.deadline) {
+                        timeOut(watch);
+                    } else if (watch.state == TIMED_OUT && !watch.hungReported
+                        && now >= (watch.deadline + watch.timeoutMillis)) {
+                        watch.hungReported = true;
+                        statistics.invocationHung();
+                        Throwable stack = new Throwable();
+                        stack.setStackTrace(watch.thread.getStackTrace());
+                        LOG.error("Thread [" + watch.thread.getName() + "] is hung in inline call to ["
+                            + getMethodName(watch) + "] on resource [" + watch.container.getResource()
+                            + "] that was interrupted " + (now - watch.deadline)
+                            + "ms ago. The method is now handed off to invoker threads.", stack);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("Inline component invocation watchdog sweep failed", t);
+        }
+    }
+
+    private void timeOut(Watch watch) {
+        watch.state = TIMED_OUT;
+        statistics.inlineInvocationTimedOut();
+        watch.localContext.markInterrupted();
+        if (watch.invoking) {
+            watch.listener.invocationTimedOut(watch.method);
+        }
+        // a pending interrupt cannot be told apart from the watchdog's, so remember it was there
+        watch.alreadyInterrupted = watch.thread.isInterrupted();
+        watch.thread.interrupt();
+        LOG.warn("Inline call to [" + getMethodName(watch) + "] on resource [" + watch.container.getResource()
+            + "] timed out after " + watch.timeoutMillis + "ms - thread [" + watch.thread.getName()
+            + "] has been interrupted" + (watch.invoking ? " and the method will be handed off from now on" : ""));
+    }
+
+    private static String getMethodName(Watch watch) {
+        return watch.method.getDeclaringClass().getSimpleName() + "." + watch.method.getName();
+    }
+
+    /**
+     * The supervision state of one calling thread. All fields but {@link #invoking} are guarded by the watch itself.
+     */
+    static class Watch {
+        private final Thread thread;
+        private int state = IDLE;
+        private volatile boolean invoking;
+        private boolean hungReported;
+        private boolean alreadyInterrupted; // whether the thread was interrupted when the watchdog interrupted it
+        private Method method;
+        private long timeoutMillis;
+        private long deadline;
+        private LocalContext localContext;
+        private TimeoutListener listener;
+        private ResourceContainer container;
+
+        private Watch(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
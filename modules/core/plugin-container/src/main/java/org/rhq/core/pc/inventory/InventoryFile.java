@@ -19,15 +19,34 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,31 +54,76 @@ import org.apache.commons.logging.LogFactory;
 import org.rhq.core.clientapi.agent.PluginContainerException;
 import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
 import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.inventory.ResourceContainer.SynchronizationState;
 
 /**
  * Provides methods to read and write inventory data to a file.
  *
+ * <p>The file is a versioned sequence of checksummed records, one per resource, so that storing the inventory only
+ * appends the records of the resources that changed since the file was last loaded or stored. Once the file has
+ * grown to more than {@link #COMPACTION_RATIO} times the size of its live records it is rewritten. Each record holds
+ * the resource with references to its parent, children and type replaced by placeholders, so records are
+ * independent of each other, and the state of its {@link ResourceContainer}, which is only deserialized when first
+ * accessed. Class descriptors are written once per file in records of their own instead of once per resource.</p>
+ *
+ * <p>The state of a container is only serialized again if it was accessed since it was last written, so that storing
+ * an unchanged inventory only serializes the resources themselves. A compacted file is written to a temporary file
+ * first and never replaces the old file until it is complete and on disk.</p>
+ *
+ * <p>Inventory files written by older agents as a single java serialization stream are still loaded; they are
+ * converted to the record format the next time the inventory is stored.</p>
+ *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
+    private static final int MAGIC = 0x52485149; // "RHQI"
+    // format version 1 was the legacy single java serialization stream
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_OVERHEAD = 9; // type, length and checksum
+
+    private static final byte RECORD_CLASS = 1;
+    private static final byte RECORD_PLATFORM = 2;
+    private static final byte RECORD_CONTAINER = 3;
+    private static final byte RECORD_RESOURCE = 4;
+    private static final byte RECORD_REMOVED = 5;
+
+    private static final int COMPACTION_RATIO = 2;
+    private static final long COMPACTION_MIN_LENGTH = 1024L * 1024L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File inventoryFile;
+    private final long compactionMinLength;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
 
     private final InventoryManager inventoryManager;
 
+    // what this object knows the file to contain, so only changes need to be appended to it
+    private final ClassTable classTable = new ClassTable();
+    private final Map<String, RecordInfo> records = new HashMap<String, RecordInfo>(); // keyed on UUID
+    private String platformUuid;
+    private long liveLength;
+    private long fileLength = -1L; // -1 if the file must be rewritten on the next store
+
     /**
      * Constructor for {@link InventoryFile} that will read and write inventory data to the given file.
      *
      * @param inventoryFile the path to the inventory.dat file
      */
     public InventoryFile(File inventoryFile, InventoryManager inventoryManager) {
+        this(inventoryFile, inventoryManager, COMPACTION_MIN_LENGTH);
+    }
+
+    InventoryFile(File inventoryFile, InventoryManager inventoryManager, long compactionMinLength) {
         this.inventoryFile = inventoryFile;
         this.inventoryManager = inventoryManager;
+        this.compactionMinLength = compactionMinLength;
     }
 
     /**
@@ -75,6 +139,28 @@ public class InventoryFile {
         return inventoryFile;
     }
 
+    /**
+     * Puts the old inventory file back in place if the agent died while a compacted file was replacing it, on file
+     * systems which cannot rename a file over another one. Call this before checking whether the file exists.
+     *
+     * @param inventoryFile the path to the inventory.dat file
+     */
+    public static void recoverInventoryFile(File inventoryFile) {
+        File oldFile = getOldFile(inventoryFile);
+        if (oldFile.exists()) {
+            if (inventoryFile.exists()) {
+                // the new file was in place, only the old one was not deleted yet
+                oldFile.delete();
+            } else if (oldFile.renameTo(inventoryFile)) {
+                log.warn("Inventory file [" + inventoryFile + "] was being replaced - restored the previous file");
+            }
+        }
+    }
+
+    private static File getOldFile(File inventoryFile) {
+        return new File(inventoryFile.getAbsolutePath() + ".old");
+    }
+
     /**
      * Returns the platform resource found in the inventory file.
      *
@@ -111,17 +197,17 @@ public class InventoryFile {
      *                                  inventory
      */
     public void loadInventory() throws PluginContainerException {
-        FileInputStream fis = null;
         try {
-            fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            if (isLegacyFormat()) {
+                loadLegacyInventory();
+            } else {
+                loadRecords();
+            }
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
-            this.platform = (Resource) ois.readObject();
             connectTypes(this.platform, uuidsToIgnore);
-            this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
                 connectTypes(resourceContainer.getResource(), uuidsToIgnore);
             }
@@ -134,14 +220,170 @@ public class InventoryFile {
             removeIgnoredResourcesFromChildren(this.platform, uuidsToIgnore);
             return;
         } catch (Exception e) {
+            this.platform = null;
+            this.resourceContainers = null;
+            this.fileLength = -1L;
             throw new PluginContainerException("Cannot load inventory file: " + inventoryFile, e);
+        }
+    }
+
+    private boolean isLegacyFormat() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(inventoryFile));
+        try {
+            return in.readUnsignedShort() == 0xACED; // java serialization stream magic
+        } finally {
+            in.close();
+        }
+    }
+
+    private void loadLegacyInventory() throws Exception {
+        FileInputStream fis = new FileInputStream(inventoryFile);
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+            this.platform = (Resource) ois.readObject();
+            this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
         } finally {
-            if (fis != null) {
+            fis.close();
+        }
+
+        // the next store will rewrite the file in the record format
+        this.fileLength = -1L;
+    }
+
+    private void loadRecords() throws Exception {
+        Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+        Map<String, ResourceContainer> containers = new LinkedHashMap<String, ResourceContainer>();
+        CRC32 crc = new CRC32();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inventoryFile),
+            BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new StreamCorruptedException("Not an inventory file");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new StreamCorruptedException("Unsupported inventory file format version [" + version + "]");
+            }
+
+            long available = inventoryFile.length();
+            long offset = HEADER_LENGTH;
+            for (int type = in.read(); type != -1; type = in.read()) {
+                byte[] payload;
+                int checksum;
                 try {
-                    fis.close();
-                } catch (Exception e) {
+                    int length = in.readInt();
+                    if (length < 0 || length > (available - offset)) {
+                        throw new StreamCorruptedException("Invalid record length [" + length + "]");
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    checksum = in.readInt();
+                    crc.reset();
+                    crc.update(payload, 0, payload.length);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new StreamCorruptedException("Record checksum mismatch");
+                    }
+                } catch (IOException e) {
+                    // most likely the agent died while appending - everything before this record is still good
+                    log.warn("Inventory file [" + inventoryFile + "] has an incomplete or corrupt record at offset ["
+                        + offset + "] - ignoring it and anything after it: " + e);
+                    break;
+                }
+
+                int recordLength = RECORD_OVERHEAD + payload.length;
+                readRecord((byte) type, payload, new RecordInfo(checksum, recordLength), resources, containers);
+                offset += recordLength;
+            }
+            this.fileLength = offset;
+        } finally {
+            in.close();
+        }
+
+        for (Resource resource : resources.values()) {
+            resolveReferences(resource, resources);
+        }
+
+        this.platform = resources.get(this.platformUuid);
+        if (this.platform == null) {
+            throw new StreamCorruptedException("Inventory file does not contain a platform");
+        }
+        this.resourceContainers = new HashMap<String, ResourceContainer>(containers);
+    }
+
+    private void readRecord(byte type, byte[] payload, RecordInfo info, Map<String, Resource> resources,
+        Map<String, ResourceContainer> containers) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        switch (type) {
+        case RECORD_CLASS: {
+            int id = in.readInt();
+            byte[] descriptor = new byte[payload.length - 4];
+            in.readFully(descriptor);
+            this.classTable.add(id, descriptor);
+            this.liveLength += info.length;
+            break;
+        }
+        case RECORD_PLATFORM: {
+            this.platformUuid = in.readUTF();
+            break;
+        }
+        case RECORD_CONTAINER:
+        case RECORD_RESOURCE: {
+            String uuid = in.readUTF();
+            byte[] resourceBlock = readBlock(in);
+            RecordInputStream ois = new RecordInputStream(new ByteArrayInputStream(resourceBlock), this.classTable);
+            Resource resource = (Resource) ois.readObject();
+            resources.put(uuid, resource);
+            containers.remove(uuid);
+
+            if (type == RECORD_CONTAINER) {
+                ResourceContainer container = new ResourceContainer(resource, null);
+                container.setSynchronizationState((SynchronizationState) ois.readObject());
+                container.setSerializedState(new SerializedState(readBlock(in), this.classTable));
+                containers.put(uuid, container);
+            }
+            putRecord(uuid, new RecordInfo(info.checksum, info.length, checksum(resourceBlock)));
+            break;
+        }
+        case RECORD_REMOVED: {
+            String uuid = in.readUTF();
+            resources.remove(uuid);
+            containers.remove(uuid);
+            removeRecord(uuid);
+            break;
+        }
+        default: {
+            throw new StreamCorruptedException("Unknown inventory file record type [" + type + "]");
+        }
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] block = new byte[in.readInt()];
+        in.readFully(block);
+        return block;
+    }
+
+    /**
+     * Replaces the placeholders a record holds for a resource's parent and children with the loaded resources.
+     */
+    private static void resolveReferences(Resource resource, Map<String, Resource> resources) {
+        Resource parent = resource.getParentResource();
+        if (parent != null) {
+            resource.setParentResource(resources.get(parent.getUuid()));
+        }
+
+        Set<Resource> children = resource.getChildResources();
+        if (children != null && !children.isEmpty()) {
+            List<Resource> resolved = new ArrayList<Resource>(children.size());
+            for (Resource child : children) {
+                Resource loaded = resources.get(child.getUuid());
+                if (loaded != null) {
+                    resolved.add(loaded);
                 }
             }
+            resource.setChildResources(new CopyOnWriteArraySet<Resource>(resolved));
         }
     }
 
@@ -239,26 +481,653 @@ public class InventoryFile {
      * {@link #getInventoryFile() inventory file}. This object's {@link #getPlatform() platform} and
      * {@link #getResourceContainers() resource containers} will be set to those passed to this method.
      *
+     * <p>If this object has loaded or stored the file before, only the records of resources that changed since are
+     * appended to it, and the file is compacted if it has grown too large. Otherwise the file is rewritten.</p>
+     *
      * @param  platformResource
      * @param  containers
      *
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
-        try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
+        long start = System.currentTimeMillis();
+        boolean compact = !isAppendable();
+
+        if (!compact) {
+            int appended;
+            try {
+                appended = appendChanges(platformResource, containers);
+            } catch (IOException e) {
+                this.fileLength = -1L;
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Appended [" + appended + "] changed records to inventory file [" + inventoryFile + "]");
+            }
+            compact = (this.fileLength > this.compactionMinLength)
+                && (this.fileLength > (COMPACTION_RATIO * this.liveLength));
+        }
+
+        if (compact) {
             try {
-                oos.writeObject(platformResource);
-                oos.writeObject(containers);
+                writeCompacted(platformResource, containers);
+            } catch (IOException e) {
+                this.fileLength = -1L;
+                throw e;
+            }
+            log.info("Wrote inventory file [" + inventoryFile + "] with [" + this.records.size() + "] resources and ["
+                + this.fileLength + "] bytes in [" + (System.currentTimeMillis() - start) + "ms]");
+        }
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+    }
 
-                this.platform = platformResource;
-                this.resourceContainers = containers;
+    private boolean isAppendable() throws IOException {
+        if (this.fileLength < HEADER_LENGTH || !inventoryFile.exists()) {
+            return false;
+        }
+
+        long actualLength = inventoryFile.length();
+        if (actualLength < this.fileLength) {
+            return false;
+        }
+        if (actualLength > this.fileLength) {
+            // drop the incomplete record found when loading
+            RandomAccessFile raf = new RandomAccessFile(inventoryFile, "rw");
+            try {
+                raf.setLength(this.fileLength);
             } finally {
-                oos.close();
+                raf.close();
             }
+        }
+        return true;
+    }
+
+    private int appendChanges(Resource platformResource, Map<String, ResourceContainer> containers)
+        throws IOException {
+        final RecordWriter writer = new RecordWriter(inventoryFile, true);
+        try {
+            Set<String> stored = writeRecords(platformResource, containers, true, new RecordSink() {
+                public void write(Record record) throws IOException {
+                    RecordInfo info = records.get(record.uuid);
+                    if (info == null || info.checksum != record.info.checksum || info.length != record.info.length) {
+                        writer.writeClassRecords(classTable.takeUnwritten());
+                        writer.write(record);
+                        putRecord(record.uuid, record.info);
+                    }
+                }
+            });
+
+            if (!platformResource.getUuid().equals(this.platformUuid)) {
+                writer.writePlatform(platformResource.getUuid());
+                this.platformUuid = platformResource.getUuid();
+            }
+
+            for (String uuid : new ArrayList<String>(this.records.keySet())) {
+                if (!stored.contains(uuid)) {
+                    writer.writeRemoved(uuid);
+                    removeRecord(uuid);
+                }
+            }
+        } finally {
+            writer.close();
+            this.liveLength += writer.getClassLength();
+            this.fileLength += writer.getLength();
+        }
+
+        return writer.getCount();
+    }
+
+    private void writeCompacted(Resource platformResource, Map<String, ResourceContainer> containers)
+        throws IOException {
+        File tmpFile = new File(inventoryFile.getAbsolutePath() + ".tmp");
+        this.records.clear();
+        this.liveLength = 0L;
+        this.fileLength = -1L;
+
+        final RecordWriter writer = new RecordWriter(tmpFile, false);
+        try {
+            writer.writeHeader();
+            // rewrite all class descriptors, the lazily loaded container state still refers to them by id
+            writer.writeClassRecords(this.classTable.takeAll());
+            writer.writePlatform(platformResource.getUuid());
+            writeRecords(platformResource, containers, false, new RecordSink() {
+                public void write(Record record) throws IOException {
+                    writer.writeClassRecords(classTable.takeUnwritten());
+                    writer.write(record);
+                    putRecord(record.uuid, record.info);
+                }
+            });
+            writer.sync();
         } finally {
-            fos.close();
+            writer.close();
+        }
+
+        replace(tmpFile, inventoryFile);
+        this.platformUuid = platformResource.getUuid();
+        this.liveLength += writer.getClassLength();
+        this.fileLength = writer.getLength();
+    }
+
+    /**
+     * Replaces the file with the new file. The file is only ever replaced by a complete new file: on file systems which
+     * cannot rename a file over another one, it is first renamed aside and put back by
+     * {@link #recoverInventoryFile(File)} if the agent dies before the new file is in place.
+     */
+    private static void replace(File newFile, File file) throws IOException {
+        if (newFile.renameTo(file)) {
+            return; // atomic where a file can be renamed over another one
+        }
+
+        File oldFile = getOldFile(file);
+        oldFile.delete();
+        if (file.exists() && !file.renameTo(oldFile)) {
+            throw new IOException("Cannot replace inventory file [" + file + "]");
+        }
+        if (!newFile.renameTo(file)) {
+            oldFile.renameTo(file);
+            throw new IOException("Cannot rename [" + newFile + "] to [" + file + "]");
+        }
+        oldFile.delete();
+    }
+
+    /**
+     * Serializes the record of each container, and of each resource in the platform's hierarchy that does not have a
+     * container, one at a time and passes it to the sink.
+     *
+     * @param skipUnchanged whether containers known to be unchanged since their record was written are skipped,
+     *                      rather than passed to the sink
+     * @return the UUIDs of the resources written or skipped
+     */
+    private Set<String> writeRecords(Resource platformResource, Map<String, ResourceContainer> containers,
+        boolean skipUnchanged, RecordSink sink) throws IOException {
+        Set<String> stored = new HashSet<String>(containers.size() * 2);
+        for (Map.Entry<String, ResourceContainer> entry : containers.entrySet()) {
+            RecordInfo info = skipUnchanged ? this.records.get(entry.getKey()) : null;
+            Record record = serializeContainer(entry.getKey(), entry.getValue(), info);
+            if (record != null) {
+                sink.write(record);
+            }
+            stored.add(entry.getKey());
+        }
+
+        List<Resource> orphans = new ArrayList<Resource>();
+        collectResourcesWithoutContainer(platformResource, containers, new HashSet<String>(), orphans);
+        for (Resource resource : orphans) {
+            if (stored.add(resource.getUuid())) {
+                sink.write(serializeResource(resource));
+            }
+        }
+
+        return stored;
+    }
+
+    private static void collectResourcesWithoutContainer(Resource resource, Map<String, ResourceContainer> containers,
+        Set<String> visited, List<Resource> orphans) {
+        if (resource == null || !visited.add(resource.getUuid())) {
+            return;
+        }
+
+        ResourceContainer container = containers.get(resource.getUuid());
+        if (container != null) {
+            resource = container.getResource();
+        } else {
+            orphans.add(resource);
+        }
+
+        Set<Resource> children = resource.getChildResources();
+        if (children != null) {
+            for (Resource child : children) {
+                collectResourcesWithoutContainer(child, containers, visited, orphans);
+            }
+        }
+    }
+
+    /**
+     * @param stored the container's record in the file, or <code>null</code> if it must be serialized anyway
+     * @return the container's record, or <code>null</code> if it is known to be the stored record
+     */
+    private Record serializeContainer(String uuid, ResourceContainer container, RecordInfo stored)
+        throws IOException {
+        // hold the container's lock so its state cannot change, or be deserialized, while it is written
+        synchronized (container) {
+            Resource resource = container.getResource();
+            RecordOutputStream oos = new RecordOutputStream(this.classTable, resource);
+            oos.writeObject(resource);
+            oos.writeObject(container.getSynchronizationState());
+            byte[] resourceBlock = oos.toByteArray();
+            int resourceChecksum = checksum(resourceBlock);
+
+            if (stored != null && stored.resourceChecksum == resourceChecksum && container.isStateWritten()) {
+                // neither the resource nor the state changed, don't serialize the state
+                return null;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(uuid);
+            writeBlock(out, resourceBlock);
+
+            SerializedState state = container.getSerializedState();
+            if (state != null && state.classTable == this.classTable) {
+                // never accessed since it was loaded, still valid as is
+                writeBlock(out, state.bytes);
+            } else {
+                oos = new RecordOutputStream(this.classTable, null);
+                container.writeState(oos);
+                writeBlock(out, oos.toByteArray());
+            }
+            // if the record is not written after all, the file is rewritten with all records on the next store
+            container.setStateWritten(true);
+
+            return new Record(RECORD_CONTAINER, uuid, bytes.toByteArray(), resourceChecksum);
+        }
+    }
+
+    private Record serializeResource(Resource resource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(resource.getUuid());
+
+        RecordOutputStream oos = new RecordOutputStream(this.classTable, resource);
+        oos.writeObject(resource);
+        byte[] resourceBlock = oos.toByteArray();
+        writeBlock(out, resourceBlock);
+
+        return new Record(RECORD_RESOURCE, resource.getUuid(), bytes.toByteArray(), checksum(resourceBlock));
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] block) throws IOException {
+        out.writeInt(block.length);
+        out.write(block);
+    }
+
+    private void putRecord(String uuid, RecordInfo info) {
+        RecordInfo previous = this.records.put(uuid, info);
+        if (previous != null) {
+            this.liveLength -= previous.length;
+        }
+        this.liveLength += info.length;
+    }
+
+    private void removeRecord(String uuid) {
+        RecordInfo previous = this.records.remove(uuid);
+        if (previous != null) {
+            this.liveLength -= previous.length;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The container state read from an inventory file and not deserialized yet. See
+     * {@link ResourceContainer#setSerializedState(SerializedState)}.
+     */
+    static class SerializedState {
+        private final byte[] bytes;
+        private final ClassTable classTable;
+
+        private SerializedState(byte[] bytes, ClassTable classTable) {
+            this.bytes = bytes;
+            this.classTable = classTable;
+        }
+
+        void restore(ResourceContainer container) throws IOException, ClassNotFoundException {
+            container.readState(new RecordInputStream(new ByteArrayInputStream(bytes), classTable));
+        }
+    }
+
+    private static class RecordInfo {
+        private final int checksum;
+        private final int length;
+        private final int resourceChecksum; // of the serialized resource and synchronization state only
+
+        private RecordInfo(int checksum, int length) {
+            this(checksum, length, 0);
+        }
+
+        private RecordInfo(int checksum, int length, int resourceChecksum) {
+            this.checksum = checksum;
+            this.length = length;
+            this.resourceChecksum = resourceChecksum;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String uuid;
+        private final byte[] payload;
+        private final RecordInfo info;
+
+        private Record(byte type, String uuid, byte[] payload, int resourceChecksum) {
+            this.type = type;
+            this.uuid = uuid;
+            this.payload = payload;
+            this.info = new RecordInfo(checksum(payload), RECORD_OVERHEAD + payload.length, resourceChecksum);
+        }
+    }
+
+    private interface RecordSink {
+        void write(Record record) throws IOException;
+    }
+
+    /**
+     * Writes framed records to a file, opening it only once the first record is written.
+     */
+    private static class RecordWriter {
+        private final File file;
+        private final boolean append;
+        private FileOutputStream fileOut;
+        private DataOutputStream out;
+        private long length;
+        private long classLength;
+        private int count;
+
+        private RecordWriter(File file, boolean append) {
+            this.file = file;
+            this.append = append;
+        }
+
+        private DataOutputStream getOutput() throws IOException {
+            if (out == null) {
+                fileOut = new FileOutputStream(file, append);
+                out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            }
+            return out;
+        }
+
+        void writeHeader() throws IOException {
+            getOutput().writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            length += HEADER_LENGTH;
+        }
+
+        void writeClassRecords(List<byte[]> classRecords) throws IOException {
+            for (byte[] payload : classRecords) {
+                writeRecord(RECORD_CLASS, payload, checksum(payload));
+                classLength += RECORD_OVERHEAD + payload.length;
+            }
+        }
+
+        void writePlatform(String uuid) throws IOException {
+            writeRecord(RECORD_PLATFORM, toUTF(uuid));
+        }
+
+        void writeRemoved(String uuid) throws IOException {
+            writeRecord(RECORD_REMOVED, toUTF(uuid));
+        }
+
+        void write(Record record) throws IOException {
+            writeRecord(record.type, record.payload, record.info.checksum);
+            count++;
+        }
+
+        private void writeRecord(byte type, byte[] payload) throws IOException {
+            writeRecord(type, payload, checksum(payload));
+        }
+
+        private void writeRecord(byte type, byte[] payload, int checksum) throws IOException {
+            DataOutputStream output = getOutput();
+            output.writeByte(type);
+            output.writeInt(payload.length);
+            output.write(payload);
+            output.writeInt(checksum);
+            length += RECORD_OVERHEAD + payload.length;
+        }
+
+        private static byte[] toUTF(String uuid) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            new DataOutputStream(bytes).writeUTF(uuid);
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Forces the records written so far to disk.
+         */
+        void sync() throws IOException {
+            if (out != null) {
+                out.flush();
+                fileOut.getFD().sync();
+            }
+        }
+
+        void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getClassLength() {
+            return classLength;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The class descriptors used by the records of an inventory file, each written once to the file in a record of its
+     * own and referred to by id in the records that use it.
+     */
+    static class ClassTable {
+        private final List<ObjectStreamClass> descriptors = new ArrayList<ObjectStreamClass>();
+        private final List<byte[]> classRecords = new ArrayList<byte[]>();
+        // only descriptors matching the local class, so newly written records never use a stale descriptor
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private int written;
+
+        synchronized void add(int id, byte[] descriptor) throws IOException {
+            if (id != descriptors.size()) {
+                throw new StreamCorruptedException("Unexpected class descriptor id [" + id + "]");
+            }
+
+            ObjectStreamClass desc = null;
+            try {
+                desc = (ObjectStreamClass) new ObjectInputStream(new ByteArrayInputStream(descriptor)).readObject();
+                if (isCompatible(desc)) {
+                    ids.put(desc.getName(), id);
+                }
+            } catch (ClassNotFoundException e) {
+                // only records using the class will fail to load
+                log.debug("Inventory file refers to unknown class: " + e.getMessage());
+            }
+            descriptors.add(desc);
+            classRecords.add(toClassRecord(id, descriptor));
+            written = descriptors.size();
+        }
+
+        synchronized ObjectStreamClass get(int id) throws IOException {
+            ObjectStreamClass desc = (id >= 0 && id < descriptors.size()) ? descriptors.get(id) : null;
+            if (desc == null) {
+                throw new InvalidClassException("Inventory file class descriptor [" + id + "] is not available");
+            }
+            return desc;
+        }
+
+        synchronized int getId(ObjectStreamClass desc) throws IOException {
+            Integer id = ids.get(desc.getName());
+            if (id == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(desc);
+                oos.close();
+
+                id = descriptors.size();
+                descriptors.add(desc);
+                classRecords.add(toClassRecord(id, bytes.toByteArray()));
+                ids.put(desc.getName(), id);
+            }
+            return id;
+        }
+
+        /**
+         * @return the class records of the descriptors registered since this was last called
+         */
+        synchronized List<byte[]> takeUnwritten() {
+            List<byte[]> unwritten = new ArrayList<byte[]>(classRecords.subList(written, classRecords.size()));
+            written = classRecords.size();
+            return unwritten;
+        }
+
+        /**
+         * @return the class records of all descriptors
+         */
+        synchronized List<byte[]> takeAll() {
+            written = classRecords.size();
+            return new ArrayList<byte[]>(classRecords);
+        }
+
+        private static boolean isCompatible(ObjectStreamClass desc) {
+            ObjectStreamClass localDesc = ObjectStreamClass.lookupAny(desc.forClass());
+            if (localDesc == null || localDesc.getSerialVersionUID() != desc.getSerialVersionUID()) {
+                return false;
+            }
+
+            ObjectStreamField[] fields = desc.getFields();
+            ObjectStreamField[] localFields = localDesc.getFields();
+            if (fields.length != localFields.length) {
+                return false;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                String typeString = fields[i].getTypeString(); // null for primitive fields
+                if (!fields[i].getName().equals(localFields[i].getName())
+                    || fields[i].getTypeCode() != localFields[i].getTypeCode()
+                    || (typeString != null && !typeString.equals(localFields[i].getTypeString()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte[] toClassRecord(int id, byte[] descriptor) {
+            byte[] payload = new byte[4 + descriptor.length];
+            payload[0] = (byte) (id >>> 24);
+            payload[1] = (byte) (id >>> 16);
+            payload[2] = (byte) (id >>> 8);
+            payload[3] = (byte) id;
+            System.arraycopy(descriptor, 0, payload, 4, descriptor.length);
+            return payload;
+        }
+    }
+
+    /**
+     * Serializes a single record, writing class descriptors as ids into the {@link ClassTable} and resources other
+     * than the record's own resource, and all resource types, as references.
+     */
+    static class RecordOutputStream extends ObjectOutputStream {
+        private final ByteArrayOutputStream bytes;
+        private final ClassTable classTable;
+        private final Resource root;
+
+        RecordOutputStream(ClassTable classTable, Resource root) throws IOException {
+            this(new ByteArrayOutputStream(1024), classTable, root);
+        }
+
+        private RecordOutputStream(ByteArrayOutputStream bytes, ClassTable classTable, Resource root)
+            throws IOException {
+            super(bytes);
+            this.bytes = bytes;
+            this.classTable = classTable;
+            this.root = root;
+            enableReplaceObject(true);
+        }
+
+        byte[] toByteArray() throws IOException {
+            flush();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            // records are always read with a RecordInputStream, the file header identifies the format
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            writeInt(classTable.getId(desc));
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Resource && obj != root) {
+                return new ResourceReference(((Resource) obj).getUuid());
+            } else if (obj instanceof ResourceType) {
+                ResourceType type = (ResourceType) obj;
+                return new ResourceTypeReference(type.getName(), type.getPlugin(), type.getCategory());
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Reads a record written by a {@link RecordOutputStream}. References to other resources are resolved to stub
+     * resources carrying only their UUID, and resource types to stub types carrying their name and plugin, to be
+     * replaced once all records are loaded.
+     */
+    static class RecordInputStream extends ObjectInputStream {
+        private final ClassTable classTable;
+
+        RecordInputStream(InputStream in, ClassTable classTable) throws IOException {
+            super(in);
+            this.classTable = classTable;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            // see RecordOutputStream.writeStreamHeader
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            return classTable.get(readInt());
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ResourceReference) {
+                Resource resource = new Resource();
+                resource.setUuid(((ResourceReference) obj).uuid);
+                return resource;
+            } else if (obj instanceof ResourceTypeReference) {
+                ResourceTypeReference reference = (ResourceTypeReference) obj;
+                return new ResourceType(reference.name, reference.plugin, reference.category, null);
+            }
+            return obj;
+        }
+    }
+
+    private static class ResourceReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String uuid;
+
+        private ResourceReference(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static class ResourceTypeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String plugin;
+        private final ResourceCategory category;
+
+        private ResourceTypeReference(String name, String plugin, ResourceCategory category) {
+            this.name = name;
+            this.plugin = plugin;
+            this.category = category;
         }
     }
 }
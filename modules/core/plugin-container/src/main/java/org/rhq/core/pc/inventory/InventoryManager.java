@@ -42,7 +42,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -159,6 +162,8 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private static final String INVENTORY_THREAD_POOL_NAME = "InventoryManager.discovery";
     private static final String AVAIL_THREAD_POOL_NAME = "InventoryManager.availability";
+    private static final String AVAIL_SUBTREE_THREAD_POOL_NAME = "InventoryManager.availability.subtree";
+    private static final String DISCOVERY_SUBTREE_THREAD_POOL_NAME = "InventoryManager.discovery.subtree";
     private static final int AVAIL_THREAD_POOL_CORE_POOL_SIZE = 1;
 
     private static final int COMPONENT_START_TIMEOUT = 60 * 1000; // 60 seconds
@@ -181,6 +186,8 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
     private ScheduledThreadPoolExecutor availabilityThreadPoolExecutor;
+    private ThreadPoolExecutor availabilitySubtreeThreadPoolExecutor;
+    private ThreadPoolExecutor discoverySubtreeThreadPoolExecutor;
 
     // The executors are Callable
     private final AutoDiscoveryExecutor serverScanExecutor;
@@ -207,6 +214,13 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private final ReentrantReadWriteLock inventoryLock = new ReentrantReadWriteLock(true);
 
+    private final DiscoveryStatistics discoveryStatistics = new DiscoveryStatistics();
+
+    /**
+     * The inventory file loaded at startup, kept so that persisting the inventory only appends what changed since
+     */
+    private InventoryFile inventoryFile;
+
     /**
      * Used only for the outside the agent model to # resources
      */
@@ -301,6 +315,25 @@ public class InventoryManager extends AgentService implements ContainerService,
             availabilityThreadPoolExecutor = new ScheduledThreadPoolExecutor(AVAIL_THREAD_POOL_CORE_POOL_SIZE,
                 new LoggingThreadFactory(AVAIL_THREAD_POOL_NAME, true));
 
+            // The avail check thread walks the inventory itself, these threads let it hand sibling subtrees off.
+            // There is no queue, a subtree is only handed off if a thread is idle; see AvailabilityExecutor.
+            int availScanParallelism = configuration.getAvailabilityScanParallelism();
+            if (availScanParallelism > 1) {
+                availabilitySubtreeThreadPoolExecutor = new ThreadPoolExecutor(availScanParallelism - 1,
+                    availScanParallelism - 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new LoggingThreadFactory(AVAIL_SUBTREE_THREAD_POOL_NAME, true));
+                availabilitySubtreeThreadPoolExecutor.allowCoreThreadTimeOut(true);
+            }
+
+            // A platform service scan can discover the children of top level servers on these threads concurrently.
+            int serviceDiscoveryParallelism = configuration.getServiceDiscoveryParallelism();
+            if (serviceDiscoveryParallelism > 1) {
+                discoverySubtreeThreadPoolExecutor = new ThreadPoolExecutor(serviceDiscoveryParallelism,
+                    serviceDiscoveryParallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new LoggingThreadFactory(DISCOVERY_SUBTREE_THREAD_POOL_NAME, true));
+                discoverySubtreeThreadPoolExecutor.allowCoreThreadTimeOut(true);
+            }
+
             // Never run more than one discovery scan at a time (service and service scans share the same pool).
             inventoryThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new LoggingThreadFactory(
                 INVENTORY_THREAD_POOL_NAME, true));
@@ -337,6 +370,12 @@ public class InventoryManager extends AgentService implements ContainerService,
     public void shutdown() {
         PluginContainer.shutdownExecutorService(this.inventoryThreadPoolExecutor, true);
         PluginContainer.shutdownExecutorService(this.availabilityThreadPoolExecutor, true);
+        if (null != this.availabilitySubtreeThreadPoolExecutor) {
+            PluginContainer.shutdownExecutorService(this.availabilitySubtreeThreadPoolExecutor, true);
+        }
+        if (null != this.discoverySubtreeThreadPoolExecutor) {
+            PluginContainer.shutdownExecutorService(this.discoverySubtreeThreadPoolExecutor, true);
+        }
         if (this.configuration.isInsideAgent()) {
             this.persistToDisk();
         }
@@ -1150,6 +1189,37 @@ public class InventoryManager extends AgentService implements ContainerService,
         return resource;
     }
 
+    /**
+     * Returns the executor availability scans can hand sibling subtrees off to. This is <code>null</code> if
+     * availability scans are configured to walk the inventory sequentially.
+     *
+     * @return the subtree executor or <code>null</code>
+     */
+    @Nullable
+    ThreadPoolExecutor getAvailabilitySubtreeExecutor() {
+        return availabilitySubtreeThreadPoolExecutor;
+    }
+
+    /**
+     * Returns the executor platform service scans discover the children of top level servers on. This is
+     * <code>null</code> if service scans are configured to scan the servers sequentially.
+     *
+     * @return the subtree executor or <code>null</code>
+     */
+    @Nullable
+    ThreadPoolExecutor getDiscoverySubtreeExecutor() {
+        return discoverySubtreeThreadPoolExecutor;
+    }
+
+    /**
+     * Returns the time spent in discovery components so far, per resource type.
+     *
+     * @return the discovery statistics
+     */
+    public DiscoveryStatistics getDiscoveryStatistics() {
+        return discoveryStatistics;
+    }
+
     /**
      * Returns the known availability for the resource. If the availability is not known, <code>null</code> is returned.
      *
@@ -1353,11 +1423,27 @@ public class InventoryManager extends AgentService implements ContainerService,
 
         // then sync the top level servers by calling back to the server for the sync info for each. We
         // do this one at a time to avoid forcing the whole inventory into active memory at one time during the sync.
+        // If the server gave us the subtree hash of a top level server and our subtree has the same hash, nothing
+        // in that subtree changed, so there is no need to call back - we sync with our own copy of the sync info.
         Collection<Integer> topLevelServerIds = platformSyncInfo.getTopLevelServerIds();
+        Map<Integer, Long> topLevelServerHashes = platformSyncInfo.getTopLevelServerHashes();
         if (null != topLevelServerIds) {
             DiscoveryServerService service = configuration.getServerServices().getDiscoveryServerService();
+            int unchangedServers = 0;
 
             for (Integer topLevelServerId : topLevelServerIds) {
+                Long serverHash = (null != topLevelServerHashes) ? topLevelServerHashes.get(topLevelServerId) : null;
+                Collection<ResourceSyncInfo> localSyncInfos = (null != serverHash) ? getLocalSyncInfos(
+                    topLevelServerId, serverHash) : null;
+
+                if (null != localSyncInfos) {
+                    addAllUuids(localSyncInfos, allServerSideUuids);
+                    boolean serverHadSyncedResources = syncResources(topLevelServerId, localSyncInfos);
+                    hadSyncedResources = serverHadSyncedResources || hadSyncedResources;
+                    unchangedServers++;
+                    continue;
+                }
+
                 syncInfos = service.getResourceSyncInfo(topLevelServerId);
                 if (null != syncInfos) {
                     addAllUuids(syncInfos, allServerSideUuids);
@@ -1378,6 +1464,9 @@ public class InventoryManager extends AgentService implements ContainerService,
                     }
                 }
             }
+
+            log.info("Sync: [" + unchangedServers + "] of [" + topLevelServerIds.size()
+                + "] Top Level Servers were unchanged and did not need their sync info from the Server");
         }
 
         purgeObsoleteResources(allServerSideUuids);
@@ -1406,6 +1495,56 @@ public class InventoryManager extends AgentService implements ContainerService,
         }
     }
 
+    /**
+     * Builds the sync info of the local subtree rooted at the given top level server, but only if the subtree's hash
+     * matches the hash computed by the Server. In that case the local sync info is identical to what the Server would
+     * have sent.
+     *
+     * @param topLevelServerId the id of the top level server
+     * @param serverHash the Server's hash of the top level server's subtree
+     * @return the local sync info of the subtree, or null if the local subtree differs from the Server's
+     */
+    private Collection<ResourceSyncInfo> getLocalSyncInfos(int topLevelServerId, long serverHash) {
+        ResourceContainer container = getResourceContainer(topLevelServerId);
+        if (null == container) {
+            return null;
+        }
+
+        List<ResourceSyncInfo> localSyncInfos = new ArrayList<ResourceSyncInfo>();
+        Long localHash = getLocalSubtreeHash(container.getResource(), container, localSyncInfos);
+
+        return (null != localHash && localHash.longValue() == serverHash) ? localSyncInfos : null;
+    }
+
+    /**
+     * Computes the hash of a local subtree the same way the Server does and collects its sync info.
+     *
+     * @return the subtree hash, or null if the resource is not included in its parent's hash
+     */
+    private Long getLocalSubtreeHash(Resource resource, ResourceContainer container,
+        Collection<ResourceSyncInfo> syncInfos) {
+        if (!ResourceSyncInfo.isIncludedInSubtreeHash(resource.getInventoryStatus())) {
+            return null;
+        }
+
+        List<Long> childHashes = new ArrayList<Long>();
+        for (Resource child : getContainerChildren(resource, container)) {
+            Long childHash = getLocalSubtreeHash(child, getResourceContainer(child), syncInfos);
+            if (null != childHash) {
+                childHashes.add(childHash);
+            }
+        }
+
+        long[] childHashArray = new long[childHashes.size()];
+        for (int i = 0; i < childHashArray.length; i++) {
+            childHashArray[i] = childHashes.get(i);
+        }
+
+        syncInfos.add(ResourceSyncInfo.buildResourceSyncInfo(resource));
+        return ResourceSyncInfo.computeSubtreeHash(resource.getUuid(), resource.getMtime(),
+            resource.getInventoryStatus(), childHashArray);
+    }
+
     private void addAllUuids(Collection<ResourceSyncInfo> syncInfos, Set<String> allServerSideUuids) {
         for (ResourceSyncInfo syncInfo : syncInfos) {
             allServerSideUuids.add(syncInfo.getUuid());
@@ -2470,12 +2609,14 @@ public class InventoryManager extends AgentService implements ContainerService,
         File file = null;
         try {
             file = new File(this.configuration.getDataDirectory(), "inventory.dat");
+            InventoryFile.recoverInventoryFile(file);
             if (file.exists()) {
                 long start = System.currentTimeMillis();
                 log.info("Loading inventory from data file [" + file + "]...");
 
                 InventoryFile inventoryFile = new InventoryFile(file, this);
                 inventoryFile.loadInventory();
+                this.inventoryFile = inventoryFile;
 
                 this.platform = inventoryFile.getPlatform();
                 practiceSafeSets(this.platform);
@@ -2495,6 +2636,7 @@ public class InventoryManager extends AgentService implements ContainerService,
             }
         } catch (Exception e) {
             this.platform = null;
+            this.inventoryFile = null;
             this.resourceContainersByUUID.clear();
             this.resourceContainerByResourceId.clear();
             if (file != null) {
@@ -2569,8 +2711,10 @@ public class InventoryManager extends AgentService implements ContainerService,
                 }
             }
             File file = new File(dataDir, "inventory.dat");
-            InventoryFile inventoryFile = new InventoryFile(file, this);
-            inventoryFile.storeInventory(this.platform, this.resourceContainersByUUID);
+            if (this.inventoryFile == null || !file.equals(this.inventoryFile.getInventoryFile())) {
+                this.inventoryFile = new InventoryFile(file, this);
+            }
+            this.inventoryFile.storeInventory(this.platform, this.resourceContainersByUUID);
         } catch (Exception e) {
             log.error("Could not persist inventory data to disk", e);
         }
@@ -3043,6 +3187,7 @@ public class InventoryManager extends AgentService implements ContainerService,
         } catch (Throwable e) {
             // TODO GH: Add server/parent - up/down semantics so this won't happen just because a server is not up
             long elapsedTime = System.currentTimeMillis() - startTime;
+            this.discoveryStatistics.discoveryCompleted(resourceType, elapsedTime);
             if (!PluginContainer.getInstance().isRunning()) {
                 log.warn("Could not complete discovery, plugin container was shut down.");
             } else {
@@ -3053,6 +3198,7 @@ public class InventoryManager extends AgentService implements ContainerService,
         }
 
         long elapsedTime = System.currentTimeMillis() - startTime;
+        this.discoveryStatistics.discoveryCompleted(resourceType, elapsedTime);
         if (elapsedTime > 20000)
             log.info("Discovery for [" + resourceType.getName() + "] resources took [" + elapsedTime + "] ms");
         else
@@ -23,6 +23,10 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.THashSet;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
@@ -61,11 +65,21 @@ import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.pc.PluginContainerConfiguration;
 import org.rhq.core.pc.component.ComponentInvocationContextImpl;
 import org.rhq.core.pc.component.ComponentInvocationContextImpl.LocalContext;
+import org.rhq.core.pc.inventory.InlineInvocationWatchdog.Watch;
 import org.rhq.core.pc.util.FacetLockType;
 import org.rhq.core.pc.util.LoggingThreadFactory;
 import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+import org.rhq.core.pluginapi.bundle.BundleFacet;
+import org.rhq.core.pluginapi.bundle.BundleHandoverFacet;
+import org.rhq.core.pluginapi.configuration.ConfigurationFacet;
+import org.rhq.core.pluginapi.configuration.ResourceConfigurationFacet;
+import org.rhq.core.pluginapi.content.ContentFacet;
+import org.rhq.core.pluginapi.inventory.CreateChildResourceFacet;
+import org.rhq.core.pluginapi.inventory.DeleteResourceFacet;
 import org.rhq.core.pluginapi.inventory.ResourceComponent;
 import org.rhq.core.pluginapi.inventory.ResourceContext;
+import org.rhq.core.pluginapi.operation.OperationFacet;
+import org.rhq.core.pluginapi.support.SupportFacet;
 import org.rhq.core.util.exception.ThrowableUtil;
 
 /**
@@ -105,6 +119,20 @@ public class ResourceContainer implements Serializable {
      */
     private static ExecutorService AVAIL_CHECK_THREAD_POOL;
 
+    /**
+     * Facets whose methods are expected to run long or to block on the managed resource. Calls to them are always
+     * handed off to an invoker thread, even when fast facet calls are invoked on the calling thread.
+     */
+    private static final Set<Class<?>> SLOW_FACETS = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+        ResourceComponent.class, OperationFacet.class, ContentFacet.class, CreateChildResourceFacet.class,
+        DeleteResourceFacet.class, BundleFacet.class, BundleHandoverFacet.class, SupportFacet.class,
+        ConfigurationFacet.class, ResourceConfigurationFacet.class));
+
+    private static final ComponentInvocationStatistics INVOCATION_STATISTICS = new ComponentInvocationStatistics();
+
+    // not null only if fast facet calls are invoked on the calling thread
+    private static volatile InlineInvocationWatchdog INLINE_WATCHDOG;
+
     // non-transient fields
     private final Resource resource;
     private SynchronizationState synchronizationState = SynchronizationState.NEW;
@@ -126,6 +154,10 @@ public class ResourceContainer implements Serializable {
     // the time at which this resource is up for an avail check. 0 indicates unscheduled.
     private transient long availabilityScheduleTime;
     private transient AvailabilityProxy availabilityProxy;
+    // the schedules, packages and drift definitions as loaded from the inventory file, until first accessed
+    private transient volatile InventoryFile.SerializedState serializedState;
+    // whether the schedules, packages and drift definitions were not handed out or changed since last persisted
+    private transient volatile boolean stateWritten;
 
     /**
      * Initialize the ResourceContainer's internals, such as its thread pools.
@@ -140,6 +172,8 @@ public class ResourceContainer implements Serializable {
         NON_DAEMON_THREAD_POOL = Executors.newCachedThreadPool(nonDaemonFactory);
         AVAIL_CHECK_THREAD_POOL = Executors.newFixedThreadPool(pcConfig.getAvailabilityScanThreadPoolSize(),
             availCheckFactory);
+        INLINE_WATCHDOG = pcConfig.isComponentInvocationInline() ? new InlineInvocationWatchdog(
+            INVOCATION_STATISTICS) : null;
     }
 
     /**
@@ -150,6 +184,18 @@ public class ResourceContainer implements Serializable {
         DAEMON_THREAD_POOL.shutdown();
         NON_DAEMON_THREAD_POOL.shutdown();
         AVAIL_CHECK_THREAD_POOL.shutdown();
+        InlineInvocationWatchdog watchdog = INLINE_WATCHDOG;
+        INLINE_WATCHDOG = null;
+        if (watchdog != null) {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * @return statistics on the facet calls made through component proxies, including histograms of proxy overhead
+     */
+    public static ComponentInvocationStatistics getInvocationStatistics() {
+        return INVOCATION_STATISTICS;
     }
 
     public ResourceContainer(Resource resource, ClassLoader resourceClassLoader) {
@@ -210,6 +256,7 @@ public class ResourceContainer implements Serializable {
 
     public Set<ResourcePackageDetails> getInstalledPackages() {
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (this.installedPackages == null) {
                 return Collections.emptySet();
             }
@@ -219,6 +266,7 @@ public class ResourceContainer implements Serializable {
 
     public void setInstalledPackages(Set<ResourcePackageDetails> installedPackages) {
         synchronized (this) {
+            restoreSerializedStateForChange();
             this.installedPackages = installedPackages;
         }
     }
@@ -250,6 +298,7 @@ public class ResourceContainer implements Serializable {
 
     public Set<MeasurementScheduleRequest> getMeasurementSchedule() {
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (this.measurementSchedule == null) {
                 return Collections.emptySet();
             } else {
@@ -260,6 +309,7 @@ public class ResourceContainer implements Serializable {
 
     public void setMeasurementSchedule(Set<MeasurementScheduleRequest> measurementSchedule) {
         synchronized (this) {
+            restoreSerializedStateForChange();
             this.measurementSchedule = new THashSet<MeasurementScheduleRequest>(measurementSchedule);
 
             // this should not happen but if it does, protect against it because it will sink the agent
@@ -285,6 +335,8 @@ public class ResourceContainer implements Serializable {
         // platforms don't have a schedule but other types should. If one has not yet been set (this can
         // happen in various upgrade scenarios) set one, using a default interval.
         synchronized (this) {
+            // only read here, unless a default schedule is set below
+            restoreSerializedState();
             if (null == availabilitySchedule) {
                 switch (this.resource.getResourceType().getCategory()) {
                 case PLATFORM:
@@ -298,6 +350,9 @@ public class ResourceContainer implements Serializable {
                         MeasurementDefinition.AVAILABILITY_DEFAULT_PERIOD_SERVICE, true, DataType.AVAILABILITY);
                     break;
                 }
+                if (null != availabilitySchedule) {
+                    this.stateWritten = false;
+                }
             }
         }
 
@@ -306,6 +361,7 @@ public class ResourceContainer implements Serializable {
 
     public void setAvailabilitySchedule(MeasurementScheduleRequest availabilitySchedule) {
         synchronized (this) {
+            restoreSerializedStateForChange();
             this.availabilitySchedule = availabilitySchedule;
             // when the schedule is (re)set just 0 out the schedule time and it will get rescheduled on the
             // next avail execution.
@@ -364,6 +420,7 @@ public class ResourceContainer implements Serializable {
         }
 
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (this.measurementSchedule == null) {
                 this.measurementSchedule = new HashSet<MeasurementScheduleRequest>(measurementScheduleUpdate.size());
             }
@@ -383,6 +440,7 @@ public class ResourceContainer implements Serializable {
 
     public Collection<DriftDefinition> getDriftDefinitions() {
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (driftDefinitions == null) {
                 return Collections.emptyList();
             }
@@ -392,6 +450,7 @@ public class ResourceContainer implements Serializable {
 
     public boolean containsDriftDefinition(DriftDefinition d) {
         synchronized (this) {
+            restoreSerializedState();
             if (driftDefinitions == null)
                 return false;
             return driftDefinitions.containsKey(d.getName());
@@ -400,6 +459,7 @@ public class ResourceContainer implements Serializable {
 
     public void addDriftDefinition(DriftDefinition d) {
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (driftDefinitions == null) {
                 driftDefinitions = new HashMap<String, DriftDefinition>(1);
             }
@@ -409,6 +469,7 @@ public class ResourceContainer implements Serializable {
 
     public void removeDriftDefinition(DriftDefinition d) {
         synchronized (this) {
+            restoreSerializedStateForChange();
             if (driftDefinitions != null) {
                 driftDefinitions.remove(d.getName());
 
@@ -457,6 +518,95 @@ public class ResourceContainer implements Serializable {
         this.resourceClassLoader = resourceClassLoader;
     }
 
+    /**
+     * Defers deserializing the state loaded from the inventory file until it is first accessed. Most containers are
+     * never asked for their schedules, packages or drift definitions before the server sends them anew, so this keeps
+     * agent startup from paying for deserializing them all.
+     *
+     * @param serializedState the container's serialized state as read by {@link InventoryFile}
+     */
+    void setSerializedState(InventoryFile.SerializedState serializedState) {
+        this.serializedState = serializedState;
+        this.stateWritten = true;
+    }
+
+    /**
+     * @return the state still waiting to be deserialized, or <code>null</code> if it has been accessed
+     */
+    InventoryFile.SerializedState getSerializedState() {
+        return this.serializedState;
+    }
+
+    private void restoreSerializedState() {
+        if (this.serializedState == null) {
+            return;
+        }
+
+        synchronized (this) {
+            InventoryFile.SerializedState state = this.serializedState;
+            if (state != null) {
+                this.serializedState = null;
+                try {
+                    state.restore(this);
+                } catch (Exception e) {
+                    LogFactory.getLog(ResourceContainer.class).error(
+                        "Cannot restore the persisted state of resource [" + resource
+                            + "] - its schedules will be resent by the server", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the serialized state before it is handed out to, or changed by, the caller, so that it is persisted
+     * again.
+     */
+    private void restoreSerializedStateForChange() {
+        restoreSerializedState();
+        this.stateWritten = false;
+    }
+
+    /**
+     * @return whether the state persisted for this container is known to be unchanged since it was last written by
+     * {@link #writeState(ObjectOutput)} or loaded
+     */
+    boolean isStateWritten() {
+        return this.stateWritten;
+    }
+
+    void setStateWritten(boolean stateWritten) {
+        this.stateWritten = stateWritten;
+    }
+
+    /**
+     * Writes the state persisted for this container, other than its resource and synchronization state. Callers must
+     * hold this container's lock.
+     */
+    void writeState(ObjectOutput out) throws IOException {
+        restoreSerializedState();
+        out.writeObject(this.measurementSchedule);
+        out.writeObject(this.installedPackages);
+        out.writeObject(this.driftDefinitions);
+        out.writeObject(this.availabilitySchedule);
+    }
+
+    /**
+     * Reads the state written by {@link #writeState(ObjectOutput)}.
+     */
+    void readState(ObjectInput in) throws IOException, ClassNotFoundException {
+        synchronized (this) {
+            this.measurementSchedule = (Set<MeasurementScheduleRequest>) in.readObject();
+            this.installedPackages = (Set<ResourcePackageDetails>) in.readObject();
+            this.driftDefinitions = (Map<String, DriftDefinition>) in.readObject();
+            this.availabilitySchedule = (MeasurementScheduleRequest) in.readObject();
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        restoreSerializedState();
+        out.defaultWriteObject();
+    }
+
     @Override
     public String toString() {
         AvailabilityType avail = (this.currentAvailType != null) ? this.currentAvailType : null;
@@ -584,8 +734,14 @@ public class ResourceContainer implements Serializable {
      *   1) obtain a facet lock before passing the invocation call to the actual component, and/or
      *   2) interrupt the invocation thread and throw a {@link TimeoutException} if its execution time exceeds a
      *      specified timeout
+     *
+     * If the plugin container is configured to invoke fast facet calls inline, calls that would run in a daemon thread
+     * and have the caller's interruption transferred are instead invoked directly on the calling thread, supervised by
+     * the {@link InlineInvocationWatchdog}. Calls to {@link ResourceContainer#SLOW_FACETS slow facets}, to methods that
+     * have timed out inline before, and calls nested in another inline call are still handed off to pooled threads.
      */
-    private static class ResourceComponentInvocationHandler implements InvocationHandler {
+    private static class ResourceComponentInvocationHandler implements InvocationHandler,
+        InlineInvocationWatchdog.TimeoutListener {
         private static final Log LOG = LogFactory.getLog(ResourceComponentInvocationHandler.class);
 
         private final ResourceContainer container;
@@ -594,6 +750,9 @@ public class ResourceContainer implements Serializable {
         private final boolean daemonThread;
         private final Class facetInterface;
         private final boolean transferInterrupt;
+        private final boolean inlineCandidate;
+        // methods that timed out when invoked inline, copied on write
+        private volatile Set<Method> slowMethods = Collections.emptySet();
 
         /**
          *
@@ -631,10 +790,15 @@ public class ResourceContainer implements Serializable {
             this.daemonThread = daemonThread;
             this.facetInterface = facetInterface;
             this.transferInterrupt = transferInterrupt;
+            this.inlineCandidate = daemonThread && transferInterrupt && !SLOW_FACETS.contains(facetInterface);
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             if (method.getDeclaringClass().equals(this.facetInterface)) {
+                InlineInvocationWatchdog watchdog = INLINE_WATCHDOG;
+                if (watchdog != null && this.inlineCandidate && !this.slowMethods.contains(method)) {
+                    return invokeInCurrentThreadWithLock(watchdog, method, args);
+                }
                 return invokeInNewThreadWithLock(method, args);
             } else {
                 // toString(), etc.
@@ -642,12 +806,103 @@ public class ResourceContainer implements Serializable {
             }
         }
 
+        public void invocationTimedOut(Method method) {
+            synchronized (this) {
+                Set<Method> methods = new HashSet<Method>(this.slowMethods);
+                methods.add(method);
+                this.slowMethods = methods;
+            }
+        }
+
+        private Object invokeInCurrentThreadWithLock(InlineInvocationWatchdog watchdog, Method method, Object[] args)
+            throws Throwable {
+            long start = System.nanoTime();
+            ComponentInvocationContextImpl componentInvocationContext = (ComponentInvocationContextImpl) this.container
+                .getResourceContext().getComponentInvocationContext();
+            LocalContext localContext = new LocalContext();
+            Watch watch = watchdog.start(method, this.timeoutInSeconds * 1000L, localContext, this, this.container);
+            if (watch == null) {
+                // already inside an inline call, e.g. a component calling into its parent - don't nest
+                return invokeInNewThreadWithLock(method, args);
+            }
+
+            Thread thread = Thread.currentThread();
+            ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+            LocalContext originalLocalContext = componentInvocationContext.getLocalContext();
+            long executionStart = System.nanoTime();
+            long executionTime = -1L;
+            boolean locked = false;
+            boolean interruptedWaitingForLock = false;
+            Throwable failure = null;
+            Object result = null;
+            try {
+                if (this.lock != null) {
+                    try {
+                        this.lock.lockInterruptibly();
+                    } catch (InterruptedException e) {
+                        interruptedWaitingForLock = true;
+                        throw e;
+                    }
+                    locked = true;
+                }
+                ClassLoader pluginClassLoader = this.container.getResourceClassLoader();
+                if (pluginClassLoader == null) {
+                    throw new IllegalStateException("No plugin class loader was specified for " + this + ".");
+                }
+                componentInvocationContext.setLocalContext(localContext);
+                thread.setContextClassLoader(pluginClassLoader);
+                watchdog.invoking(watch);
+                // This is the actual call into the resource component's facet interface.
+                result = method.invoke(this.container.getResourceComponent(), args);
+                executionTime = System.nanoTime() - executionStart;
+            } catch (InvocationTargetException e) {
+                failure = (e.getCause() != null) ? e.getCause() : e;
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                thread.setContextClassLoader(originalContextClassLoader);
+                componentInvocationContext.setLocalContext(originalLocalContext);
+                if (locked) {
+                    this.lock.unlock();
+                }
+            }
+
+            if (watchdog.stop(watch)) {
+                String msg = invokedMethodString(method, args, "timed out after " + timeoutInSeconds
+                    + " seconds - calling thread was interrupted.");
+                LOG.debug(msg);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(this.container.getFacetLockStatus());
+                }
+                throw new TimeoutException(msg).initCause(failure);
+            }
+            if (interruptedWaitingForLock) {
+                thread.interrupt();
+                LOG.error("Thread [" + thread.getName() + "] was interrupted.");
+                localContext.markInterrupted();
+                throw new RuntimeException(invokedMethodString(method, args, "was rudely interrupted."), failure);
+            }
+            if (failure != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(invokedMethodString(method, args, "failed."), failure);
+                }
+                throw failure;
+            }
+
+            INVOCATION_STATISTICS.inlineInvocationCompleted((System.nanoTime() - start) - executionTime);
+            return result;
+        }
+
         private Object invokeInNewThreadWithLock(Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
             ExecutorService threadPool = this.daemonThread ? DAEMON_THREAD_POOL : NON_DAEMON_THREAD_POOL;
             ComponentInvocation componentInvocation = new ComponentInvocation(this.container, method, args, this.lock);
             Future<?> future = threadPool.submit(componentInvocation);
             try {
-                return future.get(this.timeoutInSeconds, TimeUnit.SECONDS);
+                Object result = future.get(this.timeoutInSeconds, TimeUnit.SECONDS);
+                INVOCATION_STATISTICS.handedOffInvocationCompleted((System.nanoTime() - start)
+                    - componentInvocation.getExecutionTime());
+                return result;
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 LOG.error("Thread [" + Thread.currentThread().getName() + "] was interrupted.");
@@ -711,6 +966,7 @@ public class ResourceContainer implements Serializable {
         private final ComponentInvocationContextImpl componentInvocationContext;
         private final LocalContext localContext;
         private volatile Thread thread;
+        private volatile long executionTime;
 
         ComponentInvocation(ResourceContainer resourceContainer, Method method, Object[] args, Lock lock) {
             this.resourceContainer = resourceContainer;
@@ -732,7 +988,16 @@ public class ResourceContainer implements Serializable {
             return thread.getStackTrace();
         }
 
+        /**
+         * Returns the time, in nanoseconds, the call spent acquiring the lock and executing the component method.
+         * Only valid once the call has completed.
+         */
+        public long getExecutionTime() {
+            return executionTime;
+        }
+
         public Object call() throws Exception {
+            long executionStart = System.nanoTime();
             this.thread = Thread.currentThread();
             if (this.lock != null) {
                 try {
@@ -771,6 +1036,7 @@ public class ResourceContainer implements Serializable {
                 }
                 this.thread.setContextClassLoader(originalContextClassLoader);
                 this.thread = null;
+                this.executionTime = System.nanoTime() - executionStart;
             }
         }
 
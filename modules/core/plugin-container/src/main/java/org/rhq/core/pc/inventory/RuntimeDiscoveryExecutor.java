@@ -21,11 +21,16 @@ package org.rhq.core.pc.inventory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +58,11 @@ import org.rhq.core.util.exception.Severity;
  * discovering children of existing resources.  It recursively walks the hierarchy looking for new resources, which
  * are typically services (but could be non-top-level servers).  It is complemented by {@link AutoDiscoveryExecutor}
  * which looks for new top level servers.
+ * <p/>
+ * If the inventory manager has a {@link InventoryManager#getDiscoverySubtreeExecutor() discovery subtree executor},
+ * the children of the platform, typically top level servers, are scanned concurrently on it, each into a report of its
+ * own that is merged into the scan's report once all have completed. Only the discovery components run concurrently;
+ * merging discovered resources into the inventory is still done one resource type at a time.
  *
  * @author Greg Hinkle
  * @author Ian Springer
@@ -63,6 +73,9 @@ public class RuntimeDiscoveryExecutor implements Runnable, Callable<InventoryRep
     private final InventoryManager inventoryManager;
     private final PluginContainerConfiguration pluginContainerConfiguration;
 
+    // serializes merging discovered resources into the inventory when subtrees are scanned concurrently
+    private final Object mergeLock = new Object();
+
     /**
      * Resource to scan. If null, the entire platform will be scanned.
      */
@@ -106,6 +119,7 @@ public class RuntimeDiscoveryExecutor implements Runnable, Callable<InventoryRep
             if (log.isDebugEnabled()) {
                 log.debug(String.format("Runtime discovery scan took %d ms.",
                     (report.getEndTime() - report.getStartTime())));
+                log.debug("Discovery times per resource type: " + inventoryManager.getDiscoveryStatistics());
             }
             // TODO: This is always zero for embedded because we don't populate the report.
             int numAddedRoots = report.getAddedRoots().size();
@@ -282,26 +296,35 @@ public class RuntimeDiscoveryExecutor implements Runnable, Callable<InventoryRep
                     .executeComponentDiscovery(childResourceType, discoveryComponent, parentContainer,
                         Collections.<ProcessScanResult> emptyList());
 
-                // For each discovered child resource, update it in the inventory manager
-                Map<String, Resource> mergedResources = new HashMap<String, Resource>();
-                for (Resource discoveredChildResource : discoveredChildResources) {
-                    Resource mergedResource;
-                    mergedResource = this.inventoryManager.mergeResourceFromDiscovery(discoveredChildResource, parent);
-                    mergedResources.put(mergedResource.getUuid(), mergedResource);
-                    if ((mergedResource.getId() == 0) && !parentReported) {
-                        report.addAddedRoot(parent);
-                        parentReported = true;
+                synchronized (this.mergeLock) {
+                    // For each discovered child resource, update it in the inventory manager
+                    Map<String, Resource> mergedResources = new HashMap<String, Resource>();
+                    for (Resource discoveredChildResource : discoveredChildResources) {
+                        Resource mergedResource;
+                        mergedResource = this.inventoryManager.mergeResourceFromDiscovery(discoveredChildResource,
+                            parent);
+                        mergedResources.put(mergedResource.getUuid(), mergedResource);
+                        if ((mergedResource.getId() == 0) && !parentReported) {
+                            report.addAddedRoot(parent);
+                            parentReported = true;
+                        }
                     }
-                }
 
-                // get rid of any child resources of this type that were not yet committed and are now gone
-                removeStaleResources(parent, childResourceType, mergedResources);
+                    // get rid of any child resources of this type that were not yet committed and are now gone
+                    removeStaleResources(parent, childResourceType, mergedResources);
+                }
             }
 
             // now, recursively perform discovery on all of the parent's children, which includes the newly
             // merged children as well as previously existing children.
-            for (Resource childResource : parent.getChildResources()) {
-                discoverForResource(childResource, report, parentReported);
+            ExecutorService subtreeExecutor = this.inventoryManager.getDiscoverySubtreeExecutor();
+            if (null != subtreeExecutor && ResourceCategory.PLATFORM == parent.getResourceType().getCategory()
+                && parent.getChildResources().size() > 1) {
+                discoverChildrenConcurrently(parent, report, parentReported, subtreeExecutor);
+            } else {
+                for (Resource childResource : parent.getChildResources()) {
+                    discoverForResource(childResource, report, parentReported);
+                }
             }
 
         } catch (InterruptedException e) {
@@ -314,6 +337,54 @@ public class RuntimeDiscoveryExecutor implements Runnable, Callable<InventoryRep
         return;
     }
 
+    /**
+     * Performs discovery on each child of the parent on the subtree executor and merges the children's reports into
+     * the parent's report. If interrupted, the children's scans are canceled.
+     */
+    private void discoverChildrenConcurrently(Resource parent, InventoryReport report, final boolean parentReported,
+        ExecutorService subtreeExecutor) throws InterruptedException {
+
+        List<Future<InventoryReport>> futures = new ArrayList<Future<InventoryReport>>();
+        for (final Resource childResource : parent.getChildResources()) {
+            futures.add(subtreeExecutor.submit(new Callable<InventoryReport>() {
+                public InventoryReport call() {
+                    InventoryReport subtreeReport = new InventoryReport(inventoryManager.getAgent());
+                    try {
+                        discoverForResource(childResource, subtreeReport, parentReported);
+                    } catch (InterruptedException e) {
+                        log.debug("Service discovery of [" + childResource + "] interrupted.");
+                    } catch (Exception e) {
+                        subtreeReport.addError(new ExceptionPackage(Severity.Severe, e));
+                        log.error("Error in runtime discovery of [" + childResource + "]", e);
+                    }
+                    return subtreeReport;
+                }
+            }));
+        }
+
+        try {
+            for (Future<InventoryReport> future : futures) {
+                try {
+                    InventoryReport subtreeReport = future.get();
+                    for (Resource addedRoot : subtreeReport.getAddedRoots()) {
+                        report.addAddedRoot(addedRoot);
+                    }
+                    for (ExceptionPackage error : subtreeReport.getErrors()) {
+                        report.addError(error);
+                    }
+                } catch (ExecutionException e) {
+                    report.addError(new ExceptionPackage(Severity.Severe, e.getCause()));
+                    log.error("Error in runtime discovery", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<InventoryReport> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
     // TODO: Move this to InventoryManager, so it can be used by AutoDiscoveryExecutor too.
     private void removeStaleResources(Resource parent, ResourceType childResourceType,
         Map<String, Resource> mergedResources) {
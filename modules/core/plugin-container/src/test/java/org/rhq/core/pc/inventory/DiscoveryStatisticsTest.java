@@ -0,0 +1,65 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+/**
+ * @author Jay Shaughnessy
+ */
+@Test
+public class DiscoveryStatisticsTest {
+
+    public void testDiscoveryTimesAreAccumulatedPerType() {
+        ResourceType fastType = new ResourceType("Fast", "test", ResourceCategory.SERVICE, null);
+        ResourceType slowType = new ResourceType("Slow", "test", ResourceCategory.SERVICE, null);
+        DiscoveryStatistics stats = new DiscoveryStatistics();
+
+        stats.discoveryCompleted(fastType, 5L);
+        stats.discoveryCompleted(slowType, 300L);
+        stats.discoveryCompleted(slowType, 100L);
+        stats.discoveryCompleted(new ResourceType("Fast", "test", ResourceCategory.SERVICE, null), 10L);
+
+        List<DiscoveryStatistics.TypeDiscoveryTime> times = stats.getDiscoveryTimes();
+        assertEquals(times.size(), 2);
+
+        DiscoveryStatistics.TypeDiscoveryTime slow = times.get(0);
+        assertEquals(slow.getResourceTypeName(), "Slow", "the type with the largest total time should be first");
+        assertEquals(slow.getDiscoveries(), 2L);
+        assertEquals(slow.getTotalMillis(), 400L);
+        assertEquals(slow.getMaxMillis(), 300L);
+        assertEquals(slow.getLastMillis(), 100L);
+
+        DiscoveryStatistics.TypeDiscoveryTime fast = times.get(1);
+        assertEquals(fast.getDiscoveries(), 2L);
+        assertEquals(fast.getTotalMillis(), 15L);
+
+        stats.clear();
+        assertTrue(stats.getDiscoveryTimes().isEmpty());
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.PluginContainerConfiguration;
+
+/**
+ * Writes inventories with {@link InventoryFile} and reads them back.
+ */
+@Test
+public class InventoryFileTest {
+    private static final int SERVERS = 20;
+
+    private File dataDir;
+
+    @BeforeClass
+    protected void beforeClass() {
+        PluginContainerConfiguration config = new PluginContainerConfiguration();
+        dataDir = new File("target/InventoryFileTest");
+        dataDir.mkdirs();
+        config.setDataDirectory(dataDir);
+        PluginContainer pc = PluginContainer.getInstance();
+        pc.setConfiguration(config);
+        pc.initialize();
+    }
+
+    @AfterClass
+    protected void afterClass() {
+        PluginContainer.getInstance().shutdown();
+    }
+
+    public void testAppendOnlyWritesChanges() throws Exception {
+        File file = getFile("append");
+        Inventory inventory = new Inventory();
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventory.store(inventoryFile);
+        long length = file.length();
+
+        inventory.store(inventoryFile);
+        assertEquals(file.length(), length, "an unchanged inventory must not append anything");
+
+        inventory.setInterval(3, 120000L);
+        inventory.store(inventoryFile);
+        long appended = file.length() - length;
+        assertTrue(appended > 0L && appended < length / 4, "only the changed record must be appended: " + appended);
+
+        inventory.remove(5);
+        inventory.store(inventoryFile);
+
+        InventoryFile loaded = load(file);
+        assertEquals(loaded.getResourceContainers().size(), SERVERS, "the platform and the remaining servers");
+        assertFalse(loaded.getResourceContainers().containsKey(inventory.getUuid(5)));
+        assertEquals(getInterval(loaded, inventory.getUuid(3)), 120000L);
+        assertEquals(getInterval(loaded, inventory.getUuid(4)), 30000L);
+
+        Resource platform = loaded.getPlatform();
+        assertEquals(platform.getUuid(), inventory.platform.getUuid());
+        assertEquals(platform.getChildResources().size(), SERVERS - 1);
+        Resource server = loaded.getResourceContainers().get(inventory.getUuid(3)).getResource();
+        assertSame(server.getParentResource(), platform);
+        assertTrue(platform.getChildResources().contains(server));
+    }
+
+    public void testCompaction() throws Exception {
+        File file = getFile("compaction");
+        Inventory inventory = new Inventory();
+        // compacts as soon as more than half of the file is stale
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager(), 0L);
+        inventory.store(inventoryFile);
+        long length = file.length();
+
+        // each round makes every record stale, a compacted file holds one record per resource again
+        int compactions = 0;
+        for (int round = 1; round <= 5; round++) {
+            for (int i = 0; i < SERVERS; i++) {
+                inventory.setInterval(i, 30000L + round * 1000L);
+            }
+            inventory.store(inventoryFile);
+            if (file.length() == length) {
+                compactions++;
+            }
+        }
+        assertTrue(compactions > 0, "the file must have been compacted");
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        InventoryFile loaded = load(file);
+        assertEquals(loaded.getResourceContainers().size(), SERVERS + 1);
+        for (int i = 0; i < SERVERS; i++) {
+            assertEquals(getInterval(loaded, inventory.getUuid(i)), 35000L);
+        }
+
+        // a file loaded by another instance is replaced as a whole
+        new InventoryFile(file, getInventoryManager()).storeInventory(inventory.platform, inventory.containers);
+        assertEquals(getInterval(load(file), inventory.getUuid(0)), 35000L);
+    }
+
+    public void testTruncatedLastRecordIsIgnored() throws Exception {
+        File file = getFile("truncated");
+        Inventory inventory = new Inventory();
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventory.store(inventoryFile);
+        inventory.setInterval(1, 120000L);
+        inventory.store(inventoryFile);
+
+        // as if the agent died while appending the last record
+        setLength(file, file.length() - 3L);
+
+        InventoryFile loaded = load(file);
+        assertEquals(loaded.getResourceContainers().size(), SERVERS + 1);
+        assertEquals(getInterval(loaded, inventory.getUuid(1)), 30000L, "the torn record must be ignored");
+
+        // the torn record is dropped before anything is appended after it
+        loaded.getResourceContainers().get(inventory.getUuid(2)).setMeasurementSchedule(
+            Collections.singleton(new MeasurementScheduleRequest(2, "metric", 240000L, true, DataType.MEASUREMENT)));
+        loaded.storeInventory(loaded.getPlatform(), loaded.getResourceContainers());
+
+        InventoryFile reloaded = load(file);
+        assertEquals(getInterval(reloaded, inventory.getUuid(1)), 30000L);
+        assertEquals(getInterval(reloaded, inventory.getUuid(2)), 240000L);
+    }
+
+    public void testChecksumMismatchIsIgnored() throws Exception {
+        File file = getFile("checksum");
+        Inventory inventory = new Inventory();
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventory.store(inventoryFile);
+        inventory.setInterval(1, 120000L);
+        inventory.store(inventoryFile);
+
+        // corrupt the payload of the last record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length() - 10L);
+            int b = raf.read();
+            raf.seek(file.length() - 10L);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        InventoryFile loaded = load(file);
+        assertEquals(loaded.getResourceContainers().size(), SERVERS + 1);
+        assertEquals(getInterval(loaded, inventory.getUuid(1)), 30000L, "the corrupt record must be ignored");
+        assertEquals(getInterval(loaded, inventory.getUuid(2)), 30000L);
+    }
+
+    public void testRecoverReplacedFile() throws Exception {
+        File file = getFile("recover");
+        Inventory inventory = new Inventory();
+        inventory.store(new InventoryFile(file, getInventoryManager()));
+
+        // as if the agent died after renaming the old file aside, before the new one was in place
+        File oldFile = new File(file.getAbsolutePath() + ".old");
+        oldFile.delete();
+        assertTrue(file.renameTo(oldFile));
+        InventoryFile.recoverInventoryFile(file);
+        assertTrue(file.exists());
+        assertFalse(oldFile.exists());
+        assertEquals(load(file).getResourceContainers().size(), SERVERS + 1);
+
+        // as if the agent died before deleting the old file
+        assertTrue(oldFile.createNewFile());
+        InventoryFile.recoverInventoryFile(file);
+        assertFalse(oldFile.exists());
+        assertEquals(load(file).getResourceContainers().size(), SERVERS + 1);
+    }
+
+    private File getFile(String name) {
+        File file = new File(dataDir, name + ".dat");
+        file.delete();
+        return file;
+    }
+
+    private static InventoryManager getInventoryManager() {
+        return PluginContainer.getInstance().getInventoryManager();
+    }
+
+    private static InventoryFile load(File file) throws Exception {
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventoryFile.loadInventory();
+        return inventoryFile;
+    }
+
+    private static long getInterval(InventoryFile inventoryFile, String uuid) {
+        ResourceContainer container = inventoryFile.getResourceContainers().get(uuid);
+        assertNotNull(container, uuid);
+        return container.getMeasurementSchedule().iterator().next().getInterval();
+    }
+
+    private static void setLength(File file, long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A platform with {@link #SERVERS} child servers, each with a container holding one schedule.
+     */
+    private static class Inventory {
+        private final Resource platform;
+        private final Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+
+        private Inventory() {
+            platform = newResource("platform");
+            containers.put(platform.getUuid(), new ResourceContainer(platform, null));
+
+            for (int i = 0; i < SERVERS; i++) {
+                Resource server = newResource("server" + i);
+                platform.addChildResource(server);
+                ResourceContainer container = new ResourceContainer(server, null);
+                container.setMeasurementSchedule(Collections.singleton(new MeasurementScheduleRequest(i, "metric",
+                    30000L, true, DataType.MEASUREMENT)));
+                containers.put(server.getUuid(), container);
+            }
+        }
+
+        private static Resource newResource(String key) {
+            Resource resource = new Resource(key, key, PluginMetadataManager.TEST_PLATFORM_TYPE);
+            resource.setUuid(key);
+            return resource;
+        }
+
+        private String getUuid(int server) {
+            return newResource("server" + server).getUuid();
+        }
+
+        private void setInterval(int server, long interval) {
+            containers.get(getUuid(server)).setMeasurementSchedule(
+                Collections.singleton(new MeasurementScheduleRequest(server, "metric", interval, true,
+                    DataType.MEASUREMENT)));
+        }
+
+        private void remove(int server) {
+            ResourceContainer container = containers.remove(getUuid(server));
+            platform.removeChildResource(container.getResource());
+        }
+
+        private void store(InventoryFile inventoryFile) throws Exception {
+            inventoryFile.storeInventory(platform, containers);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.component.ComponentInvocationContextImpl;
+import org.rhq.core.pc.util.FacetLockType;
+import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+import org.rhq.core.pluginapi.inventory.ResourceComponent;
+import org.rhq.core.pluginapi.inventory.ResourceContext;
+import org.rhq.core.pluginapi.operation.OperationFacet;
+import org.rhq.core.pluginapi.operation.OperationResult;
+
+/**
+ * Tests the {@link ResourceContainer} component proxies when fast facet calls are invoked on the calling thread.
+ *
+ * @author John Mazzitelli
+ */
+@Test
+public class ResourceContainerInlineInvocationTest {
+
+    @BeforeClass
+    protected void beforeClass() {
+        PluginContainerConfiguration config = new PluginContainerConfiguration();
+        config.setComponentInvocationInline(true);
+        ResourceContainer.initialize(config);
+    }
+
+    @AfterClass
+    protected void afterClass() {
+        ResourceContainer.shutdown();
+    }
+
+    public void testFastFacetCallIsInvokedInline() throws Exception {
+        MockResourceComponent component = new MockResourceComponent();
+        AvailabilityFacet proxy = getResourceContainer(component).createResourceComponentProxy(
+            AvailabilityFacet.class, FacetLockType.READ, SECONDS.toMillis(5L), true, false, true);
+        long inline = ResourceContainer.getInvocationStatistics().getInlineInvocations();
+
+        assertEquals(proxy.getAvailability(), AvailabilityType.UP);
+        assertSame(component.invocationThread, Thread.currentThread());
+        assertEquals(ResourceContainer.getInvocationStatistics().getInlineInvocations(), inline + 1);
+    }
+
+    public void testSlowFacetCallIsHandedOff() throws Exception {
+        MockResourceComponent component = new MockResourceComponent();
+        OperationFacet proxy = getResourceContainer(component).createResourceComponentProxy(OperationFacet.class,
+            FacetLockType.WRITE, SECONDS.toMillis(5L), true, false, true);
+
+        proxy.invokeOperation("op", new Configuration());
+        assertNotSame(component.invocationThread, Thread.currentThread());
+    }
+
+    public void testTimedOutMethodIsHandedOff() throws Exception {
+        MockResourceComponent component = new MockResourceComponent();
+        component.sleepMillis = SECONDS.toMillis(10L);
+        AvailabilityFacet proxy = getResourceContainer(component).createResourceComponentProxy(
+            AvailabilityFacet.class, FacetLockType.READ, SECONDS.toMillis(1L), true, false, true);
+
+        try {
+            proxy.getAvailability();
+            fail("Expected getAvailability to throw a TimeoutException");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertSame(component.invocationThread, Thread.currentThread());
+        assertTrue(component.interrupted, "the watchdog should have interrupted the calling thread");
+        assertFalse(Thread.currentThread().isInterrupted(), "the watchdog interrupt should have been cleared");
+
+        component.sleepMillis = 0L;
+        assertEquals(proxy.getAvailability(), AvailabilityType.UP);
+        assertNotSame(component.invocationThread, Thread.currentThread());
+    }
+
+    public void testOtherInterruptIsKept() throws Exception {
+        MockResourceComponent component = new MockResourceComponent();
+        component.spinMillis = SECONDS.toMillis(3L);
+        component.interruptSelf = true;
+        AvailabilityFacet proxy = getResourceContainer(component).createResourceComponentProxy(
+            AvailabilityFacet.class, FacetLockType.READ, SECONDS.toMillis(1L), true, false, true);
+
+        try {
+            proxy.getAvailability();
+            fail("Expected getAvailability to throw a TimeoutException");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertSame(component.invocationThread, Thread.currentThread());
+        // also clears the interrupt for the other tests
+        assertTrue(Thread.interrupted(), "an interrupt the watchdog did not send should have been kept");
+    }
+
+    private ResourceContainer getResourceContainer(ResourceComponent resourceComponent) throws Exception {
+        Resource resource = new Resource("TestPlatformKey", "MyTestPlatform", PluginMetadataManager.TEST_PLATFORM_TYPE);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        ResourceContainer resourceContainer = new ResourceContainer(resource, contextClassLoader);
+        ResourceContext resourceContext = new ResourceContext(resource, null, null, null, null, null, null, null, null,
+            null, null, null, null, null, new ComponentInvocationContextImpl());
+        resourceContainer.setResourceContext(resourceContext);
+        resourceContainer.setResourceComponent(resourceComponent);
+        resourceComponent.start(resourceContext);
+        return resourceContainer;
+    }
+
+    private static class MockResourceComponent implements ResourceComponent, OperationFacet {
+        volatile long sleepMillis;
+        volatile long spinMillis; // busy, ignoring interrupts
+        volatile boolean interruptSelf; // interrupted by someone else than the watchdog
+        volatile Thread invocationThread;
+        volatile boolean interrupted;
+
+        @Override
+        public void start(ResourceContext resourceContext) throws Exception {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public AvailabilityType getAvailability() {
+            invocationThread = Thread.currentThread();
+            if (interruptSelf) {
+                Thread.currentThread().interrupt();
+            }
+            long spinEnd = System.currentTimeMillis() + spinMillis;
+            while (System.currentTimeMillis() < spinEnd) {
+                Thread.yield();
+            }
+            if (sleepMillis > 0L) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    return AvailabilityType.DOWN;
+                }
+            }
+            return AvailabilityType.UP;
+        }
+
+        @Override
+        public OperationResult invokeOperation(String name, Configuration parameters) throws Exception {
+            invocationThread = Thread.currentThread();
+            return new OperationResult();
+        }
+    }
+}
@@ -582,6 +582,41 @@ public class AgentConfiguration {
         return value;
     }
 
+    /**
+     * Returns <code>true</code> if the client sender should send queued asynchronous commands together in batches.
+     *
+     * @return batching flag
+     *
+     * @see    #getClientCommandSenderConfiguration()
+     */
+    public boolean isClientSenderBatchingEnabled() {
+        boolean flag = m_preferences.getBoolean(AgentConfigurationConstants.CLIENT_SENDER_BATCHING_ENABLED,
+            AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_BATCHING_ENABLED);
+        return flag;
+    }
+
+    /**
+     * Returns the maximum number of commands that the client sender will send in a single batch.
+     *
+     * @return batch max commands value
+     *
+     * @see    #getClientCommandSenderConfiguration()
+     */
+    public int getClientSenderBatchMaxCommands() {
+        int value = m_preferences.getInt(AgentConfigurationConstants.CLIENT_SENDER_BATCH_MAX_COMMANDS,
+            AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_BATCH_MAX_COMMANDS);
+
+        if (value < 1) {
+            LOG.warn(AgentI18NResourceKeys.PREF_MUST_BE_GREATER_THAN_0,
+                AgentConfigurationConstants.CLIENT_SENDER_BATCH_MAX_COMMANDS, value,
+                AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_BATCH_MAX_COMMANDS);
+
+            value = AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_BATCH_MAX_COMMANDS;
+        }
+
+        return value;
+    }
+
     /**
      * Returns the default timeout that the client sender will wait for a command to be processed by the server. The
      * timeout may be less than or equal to zero in which case the default will be to never timeout commands.
@@ -902,6 +937,8 @@ public class AgentConfiguration {
 
         config.defaultTimeoutMillis = getClientSenderCommandTimeout();
         config.maxConcurrent = getClientSenderMaxConcurrent();
+        config.enableBatching = isClientSenderBatchingEnabled();
+        config.batchMaxCommands = getClientSenderBatchMaxCommands();
         config.queueSize = getClientSenderQueueSize();
         config.dataDirectory = getDataDirectory();
         config.serverPollingIntervalMillis = getClientSenderServerPollingInterval();
@@ -1133,6 +1170,11 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_SERVICE_DISCOVERY_INITIAL_DELAY,
             AgentConfigurationConstants.DEFAULT_PLUGINS_SERVICE_DISCOVERY_INITIAL_DELAY);
 
+        // get the number of servers a service scan can discover children of concurrently
+        int service_discovery_parallelism = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_SERVICE_DISCOVERY_PARALLELISM,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_SERVICE_DISCOVERY_PARALLELISM);
+
         long childResourceDiscoveryDelay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_CHILD_RESOURCE_DISOVERY_PERIOD,
             AgentConfigurationConstants.DEFAULT_PLUGINS_CHILD_RESOURCE_DISCOVERY_PERIOD);
@@ -1149,6 +1191,16 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE);
 
+        // get the number of subtrees an avail scan can walk concurrently
+        int avail_scan_parallelism = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_PARALLELISM,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM);
+
+        // determine if fast facet calls should be invoked on the calling thread
+        boolean component_invocation_inline = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_COMPONENT_INVOCATION_INLINE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_COMPONENT_INVOCATION_INLINE);
+
         // get the initial delay before measurement collections begin
         long meas_scan_initial_delay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_INITIAL_DELAY,
@@ -1268,10 +1320,13 @@ public class AgentConfiguration {
         config.setServerDiscoveryPeriod(server_discovery_period);
         config.setServiceDiscoveryInitialDelay(service_discovery_initial_delay);
         config.setServiceDiscoveryPeriod(service_discovery_period);
+        config.setServiceDiscoveryParallelism(service_discovery_parallelism);
         config.setChildResourceDiscoveryDelay(childResourceDiscoveryDelay);
         config.setAvailabilityScanInitialDelay(avail_scan_initial_delay);
         config.setAvailabilityScanPeriod(avail_scan_period);
         config.setAvailabilityScanThreadPoolSize(avail_scan_threadpool_size);
+        config.setAvailabilityScanParallelism(avail_scan_parallelism);
+        config.setComponentInvocationInline(component_invocation_inline);
         config.setMeasurementCollectionThreadPoolSize(meas_threadpool_size);
         config.setMeasurementCollectionInitialDelay(meas_scan_initial_delay);
         config.setDriftDetectionInitialDelay(drift_initial_delay);
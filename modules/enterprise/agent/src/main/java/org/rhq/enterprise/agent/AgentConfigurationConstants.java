@@ -273,6 +273,26 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_CLIENT_SENDER_MAX_CONCURRENT = 5;
 
+    /**
+     * Flag to indicate if the client sender should send queued asynchronous commands together in batches.
+     */
+    String CLIENT_SENDER_BATCHING_ENABLED = PROPERTY_NAME_PREFIX + "client.batching-enabled";
+
+    /**
+     * If the client sender batching flag is not specified, this is the default.
+     */
+    boolean DEFAULT_CLIENT_SENDER_BATCHING_ENABLED = false;
+
+    /**
+     * The maximum number of commands the client sender will send in a single batch.
+     */
+    String CLIENT_SENDER_BATCH_MAX_COMMANDS = PROPERTY_NAME_PREFIX + "client.batch-max-commands";
+
+    /**
+     * If the client sender batch max commands value is not specified, this is the default.
+     */
+    int DEFAULT_CLIENT_SENDER_BATCH_MAX_COMMANDS = 25;
+
     /**
      * The time in milliseconds that the client sender will wait before aborting a command. This is the amount of time
      * in milliseconds that the server has in order to process commands. A command can override this by setting its own
@@ -617,6 +637,16 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_SERVICE_DISCOVERY_PERIOD = PluginContainerConfiguration.SERVICE_DISCOVERY_PERIOD_DEFAULT;
 
+    /**
+     * Defines how many top level servers a service discovery scan can discover children of concurrently.
+     */
+    String PLUGINS_SERVICE_DISCOVERY_PARALLELISM = PROPERTY_NAME_PREFIX + "plugins.service-discovery.parallelism";
+
+    /**
+     * The default service discovery parallelism.
+     */
+    int DEFAULT_PLUGINS_SERVICE_DISCOVERY_PARALLELISM = PluginContainerConfiguration.SERVICE_DISCOVERY_PARALLELISM_DEFAULT;
+
     /**
      * Defines, in seconds, the delay between resource committed into the inventory and child resource discovery scan
      */
@@ -659,6 +689,27 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE = PluginContainerConfiguration.AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT;
 
+    /**
+     * Defines how many resource subtrees an availability scan can walk concurrently.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PROPERTY_NAME_PREFIX + "plugins.availability-scan.parallelism";
+
+    /**
+     * The default availability scan parallelism.
+     */
+    int DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PluginContainerConfiguration.AVAILABILITY_SCAN_PARALLELISM_DEFAULT;
+
+    /**
+     * If true, fast facet calls into resource components are invoked directly on the calling thread, under the
+     * supervision of a watchdog, instead of being handed off to an invoker thread.
+     */
+    String PLUGINS_COMPONENT_INVOCATION_INLINE = PROPERTY_NAME_PREFIX + "plugins.component-invocation.inline";
+
+    /**
+     * The default for whether fast facet calls are invoked on the calling thread.
+     */
+    boolean DEFAULT_PLUGINS_COMPONENT_INVOCATION_INLINE = PluginContainerConfiguration.COMPONENT_INVOCATION_INLINE_DEFAULT;
+
     /**
      * If defined, this is to be the size of the measurement collection thread pool. If not defined, the plugin
      * container should default to something it considers appropriate.
@@ -607,6 +607,36 @@ public class AgentManagement implements AgentManagementMBean, MBeanRegistration
         }
     }
 
+    public long getNumberBatchesSent() {
+        ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
+            return getClientSideMetrics().getNumberBatchesSent();
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalCL);
+        }
+    }
+
+    public long getAverageBatchSize() {
+        ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
+            return getClientSideMetrics().getAverageBatchSize();
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalCL);
+        }
+    }
+
+    public long getAverageBatchRoundTripTime() {
+        ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
+            return getClientSideMetrics().getAverageBatchRoundTripTime();
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalCL);
+        }
+    }
+
     public long getNumberSuccessfulCommandsSent() {
         ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
         try {
@@ -319,6 +319,21 @@ public interface AgentManagementMBean {
      */
     long getAverageExecutionTimeSent();
 
+    /**
+     * @see ClientCommandSenderMetrics#getNumberBatchesSent()
+     */
+    long getNumberBatchesSent();
+
+    /**
+     * @see ClientCommandSenderMetrics#getAverageBatchSize()
+     */
+    long getAverageBatchSize();
+
+    /**
+     * @see ClientCommandSenderMetrics#getAverageBatchRoundTripTime()
+     */
+    long getAverageBatchRoundTripTime();
+
     /**
      * @see ClientCommandSenderMetrics#getNumberSuccessfulCommandsSent()
      */
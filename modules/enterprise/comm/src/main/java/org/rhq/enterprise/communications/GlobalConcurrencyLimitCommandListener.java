@@ -18,15 +18,22 @@
  */
 package org.rhq.enterprise.communications;
 
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import mazz.i18n.Logger;
+import org.rhq.core.communications.command.annotation.LimitedConcurrency;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.CommandResponse;
 import org.rhq.enterprise.communications.command.client.CommandPreprocessor;
+import org.rhq.enterprise.communications.command.impl.remotepojo.RemotePojoInvocationCommand;
 import org.rhq.enterprise.communications.command.server.CommandListener;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+import org.rhq.enterprise.communications.util.ClassUtil;
+import org.rhq.enterprise.communications.util.ConcurrencyManager;
 import org.rhq.enterprise.communications.util.ConcurrencyManager.Permit;
 import org.rhq.enterprise.communications.util.NotPermittedException;
 
@@ -36,6 +43,9 @@ import org.rhq.enterprise.communications.util.NotPermittedException;
  * many incoming commands at the same time, we'll start dropping additional incoming commands under the command
  * processor can catch up.
  *
+ * <p>When commands have to wait for the global limit, remote POJO invocations whose methods are annotated with a
+ * {@link LimitedConcurrency#priority() priority} are admitted according to that priority.</p>
+ *
  * @author John Mazzitelli
  */
 public class GlobalConcurrencyLimitCommandListener implements CommandListener {
@@ -47,6 +57,9 @@ public class GlobalConcurrencyLimitCommandListener implements CommandListener {
     private final ConcurrentLinkedQueue<Permit> permitsObtained;
     private final Semaphore droppedCommands;
 
+    // caches the priorities of remote POJO methods (key=interface name + method name + signature)
+    private final Map<String, Integer> priorities = new ConcurrentHashMap<String, Integer>();
+
     public GlobalConcurrencyLimitCommandListener(ServiceContainer serviceContainer) {
         this.serviceContainer = serviceContainer;
         this.permitsObtained = new ConcurrentLinkedQueue<Permit>();
@@ -61,7 +74,8 @@ public class GlobalConcurrencyLimitCommandListener implements CommandListener {
      */
     public void receivedCommand(Command command) {
         try {
-            Permit permit = this.serviceContainer.getConcurrencyManager().getPermit(CONCURRENCY_LIMIT_NAME);
+            Permit permit = this.serviceContainer.getConcurrencyManager().getPermit(CONCURRENCY_LIMIT_NAME,
+                getPriority(command));
             this.permitsObtained.add(permit);
         } catch (NotPermittedException npe) {
             LOG.debug(CommI18NResourceKeys.COMMAND_NOT_PERMITTED, command, npe.getSleepBeforeRetry());
@@ -96,4 +110,49 @@ public class GlobalConcurrencyLimitCommandListener implements CommandListener {
             this.serviceContainer.getConcurrencyManager().releasePermit(this.permitsObtained.poll());
         }
     }
+
+    /**
+     * Determines the priority of the given command. If the command is a remote POJO invocation of a method annotated
+     * with {@link LimitedConcurrency}, that annotation's priority is used; otherwise the default priority is used.
+     *
+     * @param  command the incoming command
+     *
+     * @return the priority the command should get when waiting for a permit
+     */
+    private int getPriority(Command command) {
+        if (!RemotePojoInvocationCommand.COMMAND_TYPE.equals(command.getCommandType())) {
+            return ConcurrencyManager.DEFAULT_PRIORITY;
+        }
+
+        try {
+            RemotePojoInvocationCommand remotePojoCommand = new RemotePojoInvocationCommand(command);
+            String interfaceName = remotePojoCommand.getTargetInterfaceName();
+            String methodName = remotePojoCommand.getNameBasedInvocation().getMethodName();
+            String[] signature = remotePojoCommand.getNameBasedInvocation().getSignature();
+
+            StringBuilder key = new StringBuilder(interfaceName).append('.').append(methodName);
+            for (String param : signature) {
+                key.append(',').append(param);
+            }
+
+            Integer priority = this.priorities.get(key.toString());
+            if (priority == null) {
+                Class<?>[] classSignature = new Class[signature.length];
+                for (int x = 0; x < signature.length; x++) {
+                    classSignature[x] = ClassUtil.getClassFromTypeName(signature[x]);
+                }
+
+                Method method = Class.forName(interfaceName).getMethod(methodName, classSignature);
+                LimitedConcurrency limitedConcurrency = method.getAnnotation(LimitedConcurrency.class);
+                priority = (limitedConcurrency != null) ? limitedConcurrency.priority()
+                    : ConcurrencyManager.DEFAULT_PRIORITY;
+                this.priorities.put(key.toString(), priority);
+            }
+
+            return priority.intValue();
+        } catch (Exception e) {
+            // the invocation is probably bad and will fail later anyway, let it through with default priority
+            return ConcurrencyManager.DEFAULT_PRIORITY;
+        }
+    }
 }
\ No newline at end of file
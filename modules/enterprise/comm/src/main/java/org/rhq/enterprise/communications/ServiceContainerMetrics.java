@@ -18,17 +18,19 @@
  */
 package org.rhq.enterprise.communications;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.rhq.enterprise.communications.command.server.CommandProcessor;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
+import org.rhq.enterprise.communications.util.ConcurrencyManager;
 
 /**
  * MBean implementation that emits metrics from the server-side comm components.
  */
 public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
     private CommandProcessor commandProcessor;
-    private ServiceContainer serviceContainer; // useful for future, but not used yet
+    private ServiceContainer serviceContainer;
 
     /**
      * Creates a new {@link ServiceContainerMetrics} object.
@@ -43,6 +45,11 @@ public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
 
     public void clear() {
         commandProcessor.getCommandProcessorMetrics().clear();
+
+        ConcurrencyManager concurrencyManager = serviceContainer.getConcurrencyManager();
+        if (concurrencyManager != null) {
+            concurrencyManager.clearStatistics();
+        }
     }
 
     public long getNumberSuccessfulCommandsReceived() {
@@ -75,4 +82,13 @@ public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
         Map<String, Calltime> callTimeData = commandProcessor.getCommandProcessorMetrics().getCallTimeData();
         return callTimeData;
     }
+
+    public Map<String, ConcurrencyManager.Statistics> getConcurrencyLimitStatistics() {
+        ConcurrencyManager concurrencyManager = serviceContainer.getConcurrencyManager();
+        if (concurrencyManager == null) {
+            return new HashMap<String, ConcurrencyManager.Statistics>();
+        }
+
+        return concurrencyManager.getAllStatistics();
+    }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@ import javax.management.ObjectName;
 import org.rhq.core.util.ObjectNameFactory;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
+import org.rhq.enterprise.communications.util.ConcurrencyManager;
 
 /**
  * This is the interface to the MBean that emits metric information on the server-side comm components.
@@ -38,7 +39,8 @@ public interface ServiceContainerMetricsMBean {
     ObjectName OBJECTNAME_METRICS = ObjectNameFactory.create(ServiceContainer.JMX_DOMAIN + ":type=CommServerMetrics");
 
     /**
-     * Clears the metrics data, starting all values back to 0 as if starting fresh.
+     * Clears the metrics data, starting all values back to 0 as if starting fresh. This includes the
+     * {@link #getConcurrencyLimitStatistics() concurrency limit statistics}.
      */
     void clear();
 
@@ -108,4 +110,14 @@ public interface ServiceContainerMetricsMBean {
      * @see CommandProcessorMetrics#getCallTimeDataReceived()
      */
     public Map<String, Calltime> getCallTimeDataReceived();
+
+    /**
+     * Returns a map of the named concurrency limits and their statistics such as the number of permits granted and
+     * denied and a histogram of the times commands had to wait in the queue before being permitted to run.
+     *
+     * @return concurrency limit statistics keyed on limit name
+     *
+     * @see ConcurrencyManager#getAllStatistics()
+     */
+    public Map<String, ConcurrencyManager.Statistics> getConcurrencyLimitStatistics();
 }
\ No newline at end of file
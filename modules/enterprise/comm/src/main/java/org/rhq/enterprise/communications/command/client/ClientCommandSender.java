@@ -21,6 +21,7 @@ package org.rhq.enterprise.communications.command.client;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -29,6 +30,7 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import mazz.i18n.Logger;
@@ -36,6 +38,8 @@ import mazz.i18n.Logger;
 import org.rhq.core.util.stream.StreamUtil;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.CommandResponse;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommand;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommandResponse;
 import org.rhq.enterprise.communications.command.impl.generic.GenericCommandClient;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
@@ -110,6 +114,11 @@ public class ClientCommandSender {
      */
     private static final Logger LOG = CommI18NFactory.getLogger(ClientCommandSender.class);
 
+    /**
+     * The maximum number of commands taken from the command spool at one time when the spool is unloaded.
+     */
+    private static final int UNSPOOL_BATCH_SIZE = 100;
+
     /**
      * The object that defines what server to send commands to.
      */
@@ -154,6 +163,39 @@ public class ClientCommandSender {
      */
     private boolean m_isSending;
 
+    /**
+     * The time, in milliseconds, batching is suspended after the remote endpoint failed to process a batch. It doubles
+     * with each consecutive failure, up to {@link #BATCHING_MAX_RETRY_INTERVAL}.
+     */
+    static final long BATCHING_RETRY_INTERVAL = 60000L;
+
+    /**
+     * The maximum time, in milliseconds, batching is suspended after consecutive batch failures.
+     */
+    static final long BATCHING_MAX_RETRY_INTERVAL = 3600000L;
+
+    /**
+     * If <code>true</code>, asynchronous commands waiting in the queue will be sent together in batches, unless
+     * batching is {@link #m_batchingSuspendedUntil suspended}.
+     */
+    private final boolean m_batchingEnabled;
+
+    /**
+     * When the remote endpoint fails to process a batch, e.g. because it does not support batches, commands are sent
+     * individually until this time.
+     */
+    private volatile long m_batchingSuspendedUntil;
+
+    /**
+     * The number of consecutive batches the remote endpoint failed to process.
+     */
+    private final AtomicInteger m_batchFailures = new AtomicInteger();
+
+    /**
+     * See {@link #BATCHING_RETRY_INTERVAL}.
+     */
+    private volatile long m_batchingRetryInterval = BATCHING_RETRY_INTERVAL;
+
     /**
      * This object is locked when this object is currently in the process of {@link #startSending() starting} or
      * {@link #stopSending() stopping}. We need to synchronize on this object when we don't want the mode changing while
@@ -248,6 +290,7 @@ public class ClientCommandSender {
         m_timerThreadPool = null;
         m_queue = new CommandQueue(config);
         m_sendThrottle = new SendThrottle(config);
+        m_batchingEnabled = config.enableBatching && (config.batchMaxCommands > 1);
         m_preprocessors = null;
         m_sendCallbacks = null;
 
@@ -574,7 +617,8 @@ public class ClientCommandSender {
 
             synchronized (m_changingModeLock) {
                 if (isSending()) {
-                    m_executor.submit((Runnable) task);
+                    // execute, rather than submit, so the task itself sits in our queue where it can be batched
+                    m_executor.execute(task);
                 } else {
                     // If this command wants its delivery guaranteed, we need to spool it to disk - when we start sending, it'll be queued up.
                     // Otherwise, we just queue it up in memory - if the JVM dies before we start sending commands, it is lost but so be it.
@@ -1070,6 +1114,22 @@ public class ClientCommandSender {
      * @throws Throwable if failed to send the command
      */
     CommandResponse send(Command command) throws Throwable {
+        return send(command, true);
+    }
+
+    /**
+     * Same as {@link #send(Command)}, except that the pre-send callbacks are not executed unless asked to. This is for
+     * commands whose pre-send callbacks were already executed when they were part of a batch that the remote endpoint
+     * could not process.
+     *
+     * @param  command                 the command to send
+     * @param  executePreSendCallbacks <code>false</code> if the pre-send callbacks were already executed
+     *
+     * @return the response of the command as returned by the server
+     *
+     * @throws Throwable if failed to send the command
+     */
+    CommandResponse send(Command command, boolean executePreSendCallbacks) throws Throwable {
         // Keep this method short and simple - all it should do is blindly send the command, return or throw exceptions.
         // Do not attempt to recover or otherwise persist information - callers will be responsible for error handling.
         CommandResponse response;
@@ -1078,7 +1138,9 @@ public class ClientCommandSender {
             GenericCommandClient client = new GenericCommandClient(m_remoteCommunicator);
 
             // Give the pre-send callbacks a chance to execute
-            executePreSendCallbacks(command);
+            if (executePreSendCallbacks) {
+                executePreSendCallbacks(command);
+            }
 
             long start = System.currentTimeMillis();
             response = client.invoke(command);
@@ -1107,6 +1169,142 @@ public class ClientCommandSender {
         return response;
     }
 
+    /**
+     * Sends the given commands to the server in a single {@link BatchCommand batch}. Each command gets its pre-send and
+     * post-send callbacks executed and is counted in the metrics as if it were sent individually. This method always
+     * sends, regardless of the value of {@link #isSending()}.
+     *
+     * <p>This is package-scoped because this is the method that the {@link ClientCommandSenderTask} will use to send
+     * a batch of commands.</p>
+     *
+     * @param  commands the commands to send
+     *
+     * @return the responses of the commands, in the same order as the commands; <code>null</code> if the server could
+     *         not process the batch as a whole (in which case batching is suspended for a while and the commands should
+     *         be sent individually, without executing their pre-send callbacks again)
+     *
+     * @throws Throwable if failed to send the batch
+     */
+    List<CommandResponse> sendBatch(List<Command> commands) throws Throwable {
+        List<CommandResponse> responses;
+        int size = commands.size();
+
+        try {
+            GenericCommandClient client = new GenericCommandClient(m_remoteCommunicator);
+
+            for (Command command : commands) {
+                executePreSendCallbacks(command);
+            }
+
+            long start = System.currentTimeMillis();
+            CommandResponse batch_response = client.invoke(new BatchCommand(commands));
+            long elapsed = System.currentTimeMillis() - start;
+
+            if (!(batch_response instanceof BatchCommandResponse) || !batch_response.isSuccessful()
+                || (((BatchCommandResponse) batch_response).getResponses() == null)
+                || (((BatchCommandResponse) batch_response).getResponses().size() != size)) {
+                // the remote endpoint does not know about batches (or failed to process one) - stop batching for a while
+                long interval = suspendBatching();
+                LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_BATCHING_UNSUPPORTED, m_remoteCommunicator,
+                    interval, (batch_response != null) ? batch_response.getException() : null);
+                return null;
+            }
+
+            m_batchFailures.set(0);
+
+            // calculate the running average round trip time - num is the current batch count
+            long num = m_metrics.batchesSent.incrementAndGet();
+            long currentAvg = m_metrics.averageBatchRoundTripTime.get();
+            currentAvg = (((num - 1) * currentAvg) + elapsed) / num;
+            m_metrics.averageBatchRoundTripTime.set(currentAvg);
+            m_metrics.batchedCommandsSent.addAndGet(size);
+            if (size > m_metrics.largestBatchSent.get()) {
+                m_metrics.largestBatchSent.set(size); // not atomic, but good enough for our simple monitoring needs
+            }
+
+            responses = new ArrayList<CommandResponse>(((BatchCommandResponse) batch_response).getResponses());
+
+            for (int i = 0; i < size; i++) {
+                CommandResponse response = executePostSendCallbacks(commands.get(i), responses.get(i));
+                responses.set(i, response);
+
+                if ((response != null) && response.isSuccessful()) {
+                    num = m_metrics.successfulCommands.incrementAndGet();
+
+                    // each command in the batch took as long as the whole batch did
+                    currentAvg = m_metrics.averageExecutionTime.get();
+                    currentAvg = (((num - 1) * currentAvg) + elapsed) / num;
+                    m_metrics.averageExecutionTime.set(currentAvg);
+                } else {
+                    m_metrics.failedCommands.incrementAndGet();
+                }
+            }
+        } catch (Throwable t) {
+            m_metrics.failedCommands.addAndGet(size);
+            throw t;
+        }
+
+        return responses;
+    }
+
+    /**
+     * Suspends batching after the remote endpoint failed to process a batch. The more consecutive batches failed, the
+     * longer batching is suspended.
+     *
+     * @return the time, in milliseconds, batching is suspended
+     */
+    private long suspendBatching() {
+        int failures = m_batchFailures.incrementAndGet();
+        long interval = m_batchingRetryInterval;
+        for (int i = 1; (i < failures) && (interval < BATCHING_MAX_RETRY_INTERVAL); i++) {
+            interval *= 2;
+        }
+        interval = Math.min(interval, BATCHING_MAX_RETRY_INTERVAL);
+        m_batchingSuspendedUntil = System.currentTimeMillis() + interval;
+        return interval;
+    }
+
+    /**
+     * Sets the time batching is suspended after the remote endpoint first failed to process a batch. This is
+     * package-scoped for tests only.
+     *
+     * @param interval the time, in milliseconds
+     */
+    void setBatchingRetryInterval(long interval) {
+        m_batchingRetryInterval = interval;
+    }
+
+    /**
+     * Removes from the queue those asynchronous tasks that can be sent in the same batch as the given task. Nothing is
+     * removed if batching is disabled or the given task cannot itself be batched. Tasks are only removed if the queue
+     * throttle allows it.
+     *
+     * <p>This is package-scoped because this is the method that the {@link ClientCommandSenderTask} will use to
+     * determine what other commands it should send along with its own command.</p>
+     *
+     * @param  lead the task that is about to send its command
+     *
+     * @return the tasks whose commands should be sent along with the lead task's command (may be empty)
+     */
+    List<ClientCommandSenderTask> pollBatchableTasks(ClientCommandSenderTask lead) {
+        List<ClientCommandSenderTask> batch = new ArrayList<ClientCommandSenderTask>();
+
+        if (m_batchingEnabled && (System.currentTimeMillis() >= m_batchingSuspendedUntil) && isBatchable(lead)) {
+            int max = m_configuration.batchMaxCommands - 1; // the lead task is also in the batch
+
+            for (Iterator<Runnable> iter = m_queue.iterator(); iter.hasNext() && (batch.size() < max);) {
+                Runnable next = iter.next();
+
+                if ((next instanceof ClientCommandSenderTask) && isBatchable((ClientCommandSenderTask) next)
+                    && m_queue.removeIfPermitted(next)) {
+                    batch.add((ClientCommandSenderTask) next);
+                }
+            }
+        }
+
+        return batch;
+    }
+
     /**
      * This method is called by {@link ClientCommandSenderTask} to indicate the task attempted to send the command but
      * failed and since the command needs guaranteed delivery, it should be retried.
@@ -1242,6 +1440,18 @@ public class ClientCommandSender {
         return value;
     }
 
+    /**
+     * Determines if the given task's command can be sent in a {@link BatchCommand batch}. Only asynchronous commands
+     * are batched since the callers of synchronous commands are waiting for them.
+     *
+     * @param  task the task whose command is to be sent
+     *
+     * @return <code>true</code> if the command can be batched
+     */
+    private boolean isBatchable(ClientCommandSenderTask task) {
+        return task.isAsync() && !(task.getCommandAndCallback().getCommand() instanceof BatchCommand);
+    }
+
     /**
      * Given a command, will determine what timeout should be used when sending it. A command define its own timeout to
      * be used in its {@link Command#getConfiguration() configuration}. If it is not defined, the default timeout will
@@ -1282,7 +1492,6 @@ public class ClientCommandSender {
                 try {
                     long timeout;
                     ClientCommandSenderTask task;
-                    CommandAndCallback cnc;
                     long num_commands_persisted = m_commandStore.count();
                     long total_store_size = num_commands_persisted;
 
@@ -1290,13 +1499,15 @@ public class ClientCommandSender {
                         m_remoteCommunicator);
 
                     while (num_commands_persisted > 0) {
-                        cnc = unspoolCommandAndCallback();
-
-                        if (cnc != null) {
-                            timeout = getCommandTimeout(cnc.getCommand());
-                            task = new ClientCommandSenderTask(this, cnc, timeout, true, null);
-                            m_executor.execute(task);
-                            num_commands_persisted--;
+                        List<CommandAndCallback> cncs = unspoolCommandAndCallbacks(UNSPOOL_BATCH_SIZE);
+
+                        if (!cncs.isEmpty()) {
+                            for (CommandAndCallback cnc : cncs) {
+                                timeout = getCommandTimeout(cnc.getCommand());
+                                task = new ClientCommandSenderTask(this, cnc, timeout, true, null);
+                                m_executor.execute(task);
+                                num_commands_persisted--;
+                            }
                         } else {
                             // this else should never have occurred since the count should have matched what is in the store
                             // unless someone else is unspooling from the store too (which should never happen, but, just in case...)
@@ -1336,6 +1547,7 @@ public class ClientCommandSender {
                     // Note that we put back on the queue the volatile commands just in case we are told to start sending again.
                     // We do not put the guaranteed commands back on the queue because startSending will do that.
                     LinkedList<Runnable> remaining_tasks = new LinkedList<Runnable>();
+                    List<CommandAndCallback> to_spool = new ArrayList<CommandAndCallback>();
                     m_queue.drainTo(remaining_tasks);
 
                     while (remaining_tasks.size() > 0) {
@@ -1343,13 +1555,16 @@ public class ClientCommandSender {
                         Command task_command = next_task.getCommandAndCallback().getCommand();
 
                         if (isDeliveryGuaranteed(task_command)) {
-                            spoolCommandAndCallback(next_task.getCommandAndCallback());
+                            to_spool.add(next_task.getCommandAndCallback());
                             commands_persisted++;
                         } else {
                             m_queue.put(next_task);
                             volatile_commands++;
                         }
                     }
+
+                    // spool them all at once, this is much faster than spooling them one at a time
+                    spoolCommandAndCallbacks(to_spool);
                 } catch (Exception e) {
                     LOG.warn(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_SPOOL_FAILURE, m_remoteCommunicator);
                 }
@@ -1375,20 +1590,34 @@ public class ClientCommandSender {
      */
     private void spoolCommandAndCallback(CommandAndCallback cnc) {
         if (m_commandStore != null) {
-            byte[] serialized_bytes;
-
             try {
-                serialized_bytes = StreamUtil.serialize(cnc);
-            } catch (RuntimeException e) {
-                // assume the callback was not serializable, just serialize the command in a cnc
-                LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_CALLBACK_NOT_SERIALIZABLE, e);
-                serialized_bytes = StreamUtil.serialize(new CommandAndCallback(cnc.getCommand(), null));
+                m_commandStore.put(serializeCommandAndCallback(cnc));
+            } catch (IOException e) {
+                LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_PERSIST_FAILURE, cnc.getCommand());
+            }
+        }
+
+        return;
+    }
+
+    /**
+     * Spools all the given command/callback pairs to the command spool file in a single batch. See
+     * {@link #spoolCommandAndCallback(CommandAndCallback)} for details on how each pair is serialized.
+     *
+     * @param cncs the command/callbacks to persist to the local spool file
+     */
+    private void spoolCommandAndCallbacks(List<CommandAndCallback> cncs) {
+        if ((m_commandStore != null) && !cncs.isEmpty()) {
+            List<byte[]> serialized = new ArrayList<byte[]>(cncs.size());
+
+            for (CommandAndCallback cnc : cncs) {
+                serialized.add(serializeCommandAndCallback(cnc));
             }
 
             try {
-                m_commandStore.put(serialized_bytes);
+                m_commandStore.putAll(serialized);
             } catch (IOException e) {
-                LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_PERSIST_FAILURE, cnc.getCommand());
+                LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_PERSIST_FAILURE, cncs.get(0).getCommand());
             }
         }
 
@@ -1396,19 +1625,56 @@ public class ClientCommandSender {
     }
 
     /**
-     * This will take the next avaialable command/callback pair from the spool file and return it.
+     * Serializes the given command/callback pair. If the callback is not serializable, the pair is serialized with a
+     * <code>null</code> callback.
+     *
+     * @param  cnc the command/callback to serialize
+     *
+     * @return the serialized bytes
+     */
+    private byte[] serializeCommandAndCallback(CommandAndCallback cnc) {
+        byte[] serialized_bytes;
+
+        try {
+            serialized_bytes = StreamUtil.serialize(cnc);
+        } catch (RuntimeException e) {
+            // assume the callback was not serializable, just serialize the command in a cnc
+            LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_CALLBACK_NOT_SERIALIZABLE, e);
+            serialized_bytes = StreamUtil.serialize(new CommandAndCallback(cnc.getCommand(), null));
+        }
+
+        return serialized_bytes;
+    }
+
+    /**
+     * This will take up to <code>max</code> command/callback pairs from the spool file and return them, oldest first.
+     * A pair that cannot be deserialized is logged and skipped; the other pairs taken with it are still returned.
      *
-     * @return the next command/callback found in the local spool file; or <code>null</code> if the spool file is empty
+     * @param  max the maximum number of pairs to unspool
+     *
+     * @return the next command/callbacks found in the local spool file; empty if the spool file is empty
      */
-    private CommandAndCallback unspoolCommandAndCallback() {
-        CommandAndCallback next = null;
+    private List<CommandAndCallback> unspoolCommandAndCallbacks(int max) {
+        List<CommandAndCallback> next = new ArrayList<CommandAndCallback>();
 
         if (m_commandStore != null) {
+            List<byte[]> taken;
+
             try {
-                next = (CommandAndCallback) m_commandStore.takeObject();
+                taken = m_commandStore.take(max);
             } catch (Exception e) {
                 LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE,
                     m_remoteCommunicator);
+                return next;
+            }
+
+            for (byte[] serialized_bytes : taken) {
+                try {
+                    next.add((CommandAndCallback) StreamUtil.deserialize(serialized_bytes));
+                } catch (Exception e) {
+                    LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE,
+                        m_remoteCommunicator);
+                }
             }
         }
 
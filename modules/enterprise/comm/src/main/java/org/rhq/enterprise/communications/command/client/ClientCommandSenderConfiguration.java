@@ -99,6 +99,22 @@ public class ClientCommandSenderConfiguration implements Serializable {
      */
     public long sendThrottleQuietPeriodDurationMillis = 5000L;
 
+    /**
+     * If <code>true</code>, the sender will coalesce asynchronous commands that are waiting in its queue into a single
+     * {@link org.rhq.enterprise.communications.command.impl.batch.BatchCommand batch command} so they are all sent in
+     * one round trip. Up to {@link #maxConcurrent} batches can be in flight at the same time. Only enable this if the
+     * remote endpoint knows how to process batch commands; if it does not, or fails to process a batch, the sender
+     * will go back to sending commands individually for a while before it tries batching again.
+     */
+    public boolean enableBatching = false;
+
+    /**
+     * The maximum number of commands that will be sent in a single batch.
+     *
+     * <p>This will be ignored if {@link #enableBatching} is <code>false</code>.</p>
+     */
+    public int batchMaxCommands = 25;
+
     /**
      * If larger than 0, this indicates the sender should periodically poll the server to make sure its still up or (if
      * it was down) see when it comes back up. The value is the number of milliseconds to wait in between polls.
@@ -245,6 +261,8 @@ public class ClientCommandSenderConfiguration implements Serializable {
         config_copy.enableSendThrottling = this.enableSendThrottling;
         config_copy.sendThrottleMaxCommands = this.sendThrottleMaxCommands;
         config_copy.sendThrottleQuietPeriodDurationMillis = this.sendThrottleQuietPeriodDurationMillis;
+        config_copy.enableBatching = this.enableBatching;
+        config_copy.batchMaxCommands = this.batchMaxCommands;
         config_copy.serverPollingIntervalMillis = this.serverPollingIntervalMillis;
         config_copy.dataDirectory = this.dataDirectory;
         config_copy.retryInterval = this.retryInterval;
@@ -45,6 +45,10 @@ public class ClientCommandSenderMetrics {
     AtomicLong successfulCommands = new AtomicLong(0L);
     AtomicLong failedCommands = new AtomicLong(0L);
     AtomicLong averageExecutionTime = new AtomicLong(0L);
+    AtomicLong batchesSent = new AtomicLong(0L);
+    AtomicLong batchedCommandsSent = new AtomicLong(0L);
+    AtomicLong largestBatchSent = new AtomicLong(0L);
+    AtomicLong averageBatchRoundTripTime = new AtomicLong(0L);
 
     /**
      * Creates a new {@link ClientCommandSenderMetrics} object given the queue and store used by the sender object whose
@@ -119,6 +123,55 @@ public class ClientCommandSenderMetrics {
         return averageExecutionTime.get();
     }
 
+    /**
+     * Returns the number of {@link ClientCommandSenderConfiguration#enableBatching batches} that have been sent,
+     * regardless of whether they succeeded or not.
+     *
+     * @return number of batches sent
+     */
+    public long getNumberBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /**
+     * Returns the total number of commands that were sent as part of a batch. These commands are also counted in
+     * {@link #getNumberSuccessfulCommandsSent()} and {@link #getNumberFailedCommandsSent()}.
+     *
+     * @return number of commands sent in batches
+     */
+    public long getNumberBatchedCommandsSent() {
+        return batchedCommandsSent.get();
+    }
+
+    /**
+     * Returns the average number of commands that were sent in a single batch.
+     *
+     * @return average batch size (0 if no batches were sent)
+     */
+    public long getAverageBatchSize() {
+        long batches = batchesSent.get();
+        return (batches > 0L) ? (batchedCommandsSent.get() / batches) : 0L;
+    }
+
+    /**
+     * Returns the largest number of commands that were sent in a single batch.
+     *
+     * @return largest batch size (0 if no batches were sent)
+     */
+    public long getLargestBatchSize() {
+        return largestBatchSent.get();
+    }
+
+    /**
+     * Returns the average amount of time (in milliseconds) it took for a batch to make its round trip - that is, the
+     * time from when the batch was sent until all of its responses were received.
+     *
+     * @return average batch round trip time
+     */
+    public long getAverageBatchRoundTripTime() {
+        return averageBatchRoundTripTime.get();
+    }
+
     /**
      * Returns the approximate number of commands that are currently in the queue waiting to be sent.
      *
@@ -212,6 +265,10 @@ public class ClientCommandSenderMetrics {
         buf.append(",queue-throttle-burst-period=" + getQueueThrottleBurstPeriodMillis());
         buf.append(",send-throttle-max-commands=" + getSendThrottleMaxCommands());
         buf.append(",send-throttle-max-commands=" + getSendThrottleMaxCommands());
+        buf.append(",num-batches-sent=" + getNumberBatchesSent());
+        buf.append(",avg-batch-size=" + getAverageBatchSize());
+        buf.append(",largest-batch-size=" + getLargestBatchSize());
+        buf.append(",avg-batch-round-trip-time=" + getAverageBatchRoundTripTime());
         buf.append(']');
 
         return buf.toString();
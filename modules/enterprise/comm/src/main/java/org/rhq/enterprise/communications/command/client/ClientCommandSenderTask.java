@@ -19,6 +19,8 @@
 package org.rhq.enterprise.communications.command.client;
 
 import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -64,6 +66,12 @@ class ClientCommandSenderTask implements Callable<CommandResponse>, Runnable {
     private final boolean m_isAsync;
     private final CommandResponse[] m_response;
 
+    /**
+     * <code>true</code> once the command went through the send throttle and had its pre-send callbacks executed as
+     * part of a batch the remote endpoint could not process, so that neither happens again when it is sent on its own.
+     */
+    private boolean m_preparedInBatch;
+
     /**
      * Constructor for {@link ClientCommandSenderTask}. The <code>reponse</code> is an array so it can be used as an
      * "out" parameter; the response will be stored in the first element of that array. <code>response</code> may be
@@ -120,43 +128,160 @@ class ClientCommandSenderTask implements Callable<CommandResponse>, Runnable {
      * {@link #getCommandAndCallback() callback} will be notified of the response unless the command is to be retried
      * due to the command having its guaranteed delivery flag enabled.
      *
+     * <p>If this task is asynchronous and the sender has batching enabled, other asynchronous tasks waiting in the
+     * queue will have their commands sent in the same batch as this task's command.</p>
+     *
      * @see java.lang.Runnable#run()
      */
     public void run() {
-        CommandResponse response;
-        Command command = m_cnc.getCommand();
-        boolean notify_callback = (m_cnc.getCallback() != null); // only notify the callback if we actually have one
+        if (m_isAsync) {
+            List<ClientCommandSenderTask> batch = m_sender.pollBatchableTasks(this);
+            if (!batch.isEmpty()) {
+                batch.add(0, this);
+                runBatch(batch);
+                return;
+            }
+        }
+
+        runSingle();
+        return;
+    }
+
+    /**
+     * Sends this task's command by itself and waits for it to complete or timeout. The command goes through the send
+     * throttle first, unless it already did as part of a batch.
+     */
+    private void runSingle() {
+        CommandResponse response = null;
+        Throwable failure = null;
 
         try {
-            m_sender.waitForSendThrottle(command);
-
-            if (m_timeout > 0) {
-                // this may need to spawn another thread and effect overall performance
-                // if the timer thread pool is null, the sender is shutdown, so immediately abort
-                ThreadPoolExecutor timerThreadPool = m_sender.getTimerThreadPool();
-                if (timerThreadPool == null) {
-                    throw new InterruptedException();
-                }
+            if (!m_preparedInBatch) {
+                m_sender.waitForSendThrottle(m_cnc.getCommand());
+            }
+            response = invokeWithTimeout(this, m_timeout);
+        } catch (Throwable t) {
+            failure = t;
+        }
 
-                Future<CommandResponse> futureTask = timerThreadPool.submit((Callable<CommandResponse>) this);
-                try {
-                    response = futureTask.get(m_timeout, TimeUnit.MILLISECONDS);
-                } catch (ExecutionException ee) {
-                    throw ee.getCause();
-                } catch (TimeoutException te) {
-                    // our timeout has expired, cancel the command and abort
-                    futureTask.cancel(true);
-                    throw te;
-                } catch (InterruptedException ie) {
-                    // waiting for the future was interrupted, the sender executor thread pool is probably shutting down
-                    futureTask.cancel(true);
-                    throw ie;
-                }
-            } else {
-                // we won't timeout - let the thread take as long as it needs - no need to spawn another thread
-                response = call();
+        finish(response, failure);
+        return;
+    }
+
+    /**
+     * Sends the commands of all the given tasks in a single batch and waits for it to complete or timeout. The batch
+     * will timeout after the longest of the tasks' timeouts; it will not timeout at all if one of the tasks does not
+     * timeout. If the remote endpoint could not process the batch, or did not return one response per command, each
+     * task will be sent individually, without going through the send throttle or the pre-send callbacks again.
+     *
+     * @param tasks the tasks whose commands are to be sent, this task being the first
+     */
+    private void runBatch(final List<ClientCommandSenderTask> tasks) {
+        List<CommandResponse> responses = null;
+        Throwable failure = null;
+
+        final List<Command> commands = new ArrayList<Command>(tasks.size());
+        long timeout = 0L;
+
+        for (ClientCommandSenderTask task : tasks) {
+            commands.add(task.m_cnc.getCommand());
+            if ((task.m_timeout <= 0) || (timeout < 0)) {
+                timeout = -1L;
+            } else if (task.m_timeout > timeout) {
+                timeout = task.m_timeout;
+            }
+        }
+
+        try {
+            for (Command command : commands) {
+                m_sender.waitForSendThrottle(command);
             }
+
+            final ClientCommandSender sender = m_sender;
+            responses = invokeWithTimeout(new Callable<List<CommandResponse>>() {
+                public List<CommandResponse> call() throws Exception {
+                    try {
+                        return sender.sendBatch(commands);
+                    } catch (Exception e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new Exception(t);
+                    }
+                }
+            }, timeout);
         } catch (Throwable t) {
+            failure = t;
+        }
+
+        if ((failure == null) && ((responses == null) || (responses.size() != tasks.size()))) {
+            // the remote endpoint could not process the batch - fallback to sending each command on its own
+            for (ClientCommandSenderTask task : tasks) {
+                task.m_preparedInBatch = true;
+                task.runSingle();
+            }
+            return;
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).finish((responses != null) ? responses.get(i) : null, failure);
+        }
+
+        return;
+    }
+
+    /**
+     * Invokes the given callable and waits for it to complete or timeout.
+     *
+     * @param  callable the thing to invoke
+     * @param  timeout  the amount of time to wait for the callable to complete - if less than 1, will not timeout
+     *
+     * @return the results of the callable
+     *
+     * @throws Throwable if the callable failed, timed out or was interrupted
+     */
+    private <T> T invokeWithTimeout(Callable<T> callable, long timeout) throws Throwable {
+        if (timeout > 0) {
+            // this may need to spawn another thread and effect overall performance
+            // if the timer thread pool is null, the sender is shutdown, so immediately abort
+            ThreadPoolExecutor timerThreadPool = m_sender.getTimerThreadPool();
+            if (timerThreadPool == null) {
+                throw new InterruptedException();
+            }
+
+            Future<T> futureTask = timerThreadPool.submit(callable);
+            try {
+                return futureTask.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ee) {
+                throw ee.getCause();
+            } catch (TimeoutException te) {
+                // our timeout has expired, cancel the command and abort
+                futureTask.cancel(true);
+                throw te;
+            } catch (InterruptedException ie) {
+                // waiting for the future was interrupted, the sender executor thread pool is probably shutting down
+                futureTask.cancel(true);
+                throw ie;
+            }
+        }
+
+        // we won't timeout - let the thread take as long as it needs - no need to spawn another thread
+        return callable.call();
+    }
+
+    /**
+     * Completes this task after its command attempt finished (regardless of success or failure). If the command
+     * failed, it will be retried if it needs guaranteed delivery; otherwise the callback is notified of the results.
+     *
+     * @param response the response to the command (ignored if <code>failure</code> is not <code>null</code>)
+     * @param failure  the exception that caused the command to fail, <code>null</code> if it was sent
+     */
+    private void finish(CommandResponse response, Throwable failure) {
+        Command command = m_cnc.getCommand();
+        boolean notify_callback = (m_cnc.getCallback() != null); // only notify the callback if we actually have one
+
+        if (failure != null) {
+            Throwable t = failure;
+
             // See if the failing command was a ping and th exception was a CanNotConnectException
             boolean isPing = false;
             if (command instanceof RemotePojoInvocationCommand) {
@@ -205,6 +330,15 @@ class ClientCommandSenderTask implements Callable<CommandResponse>, Runnable {
         return;
     }
 
+    /**
+     * Returns <code>true</code> if this task is executed asynchronously from the caller that submitted the command.
+     *
+     * @return async flag
+     */
+    public boolean isAsync() {
+        return m_isAsync;
+    }
+
     /**
      * Returns the command/callback pair that this task will use.
      *
@@ -226,7 +360,7 @@ class ClientCommandSenderTask implements Callable<CommandResponse>, Runnable {
      * @throws Throwable if failed to send the command
      */
     protected CommandResponse send(ClientCommandSender sender, CommandAndCallback cnc) throws Throwable {
-        return sender.send(cnc.getCommand());
+        return sender.send(cnc.getCommand(), !m_preparedInBatch);
     }
 
     /**
@@ -276,6 +276,35 @@ class CommandQueue implements BlockingQueue<Runnable> {
         return m_queue.peek(); // bypasses throttle
     }
 
+    /**
+     * Removes the given command from wherever it is in the queue, but only if the throttling algorithm allows a
+     * command to be taken right now. Unlike {@link #take()}, this never waits for the throttle.
+     *
+     * @param  o the command to remove
+     *
+     * @return <code>true</code> if the command was removed; <code>false</code> if it was not in the queue or the
+     *         throttle does not allow another command to be taken yet
+     */
+    public boolean removeIfPermitted(Runnable o) {
+        Semaphore semaphore;
+
+        synchronized (m_throttleLock) {
+            semaphore = m_throttleSemaphore;
+        }
+
+        if ((semaphore != null) && !semaphore.tryAcquire()) {
+            return false;
+        }
+
+        boolean removed = m_queue.remove(o);
+
+        if (!removed && (semaphore != null)) {
+            semaphore.release(); // someone else took it; give back the permit we didn't use
+        }
+
+        return removed;
+    }
+
     /**
      * This quickly drains the queue. Throttling is ignored even if throttling is enabled, this will drain all items as
      * fast as possible.
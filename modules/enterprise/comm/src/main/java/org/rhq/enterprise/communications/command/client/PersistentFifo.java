@@ -19,13 +19,24 @@
 package org.rhq.enterprise.communications.command.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import mazz.i18n.Logger;
@@ -36,38 +47,34 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 import org.rhq.enterprise.communications.util.DumpBytes;
 
 /**
- * Persists byte arrays in a FIFO queue file. The file will grow to a limited, maximum size. If more entries are put on
- * the queue and those new entries cause the file to grow beyond the maximum file size, the file will be compressed and,
- * quite possibly, older entries will get deleted to shrink the file back down under a configured percentage of used
- * space.
+ * Persists byte arrays in a FIFO queue. The queue will grow to a limited, maximum size. If more entries are put on the
+ * queue and those new entries cause the queue to grow beyond the maximum size, the oldest entries will get deleted to
+ * shrink the queue back down under a configured percentage of used space.
  *
- * <p>This queue is implemented as a linked list with each entry in the file sequentially written (that is, the linked
- * list is actually a chain link running from start to end of the file - the next linked entry is always the next entry
- * in the file). Each list entry consists of a next pointer (a long) followed by a byte array that contains the entry's
- * true data. The next pointer is actually relative to the entry - meaning the next pointer is really the size of the
- * entry in bytes not including the size of the next pointer itself. If you know the file position of the next pointer
- * and the next pointer value itself, add the two together along with the size of the next pointer itself (a <code>
- * long</code> which is 8-bytes usually) and you get the file position of the next entry. We do it this way in order to
- * make the purging more efficient - since all the next pointers are relative to the actual position of the file (and we
- * know all entries are written sequentially in the file), we don't have to update the next pointers if we shift all
- * entries down in the file en masse.</p>
+ * <p>The queue is stored in a series of append-only <i>segment</i> files that live next to the configured file. A
+ * segment file is named after the configured file with a sequence number appended (e.g. <code>
+ * command-spool.dat.42</code>). New entries are always appended to the last (tail) segment; entries are always taken
+ * from the first (head) segment. When the tail segment is full, a new segment is started. When all entries of the head
+ * segment have been taken, the segment file is simply deleted. Purging is done the same way - whole segments holding
+ * the oldest entries are deleted, so a purge never has to rewrite or move any data.</p>
  *
- * <p>The first <code>long</code> in the file is the count of elements in the FIFO - this allows you to know the number
- * of entries in the FIFO without walking all the links to count along the way. The second <code>long</code> in the file
- * is the head pointer. The third <code>long</code> in the file is the tail pointer. If the head pointer is -1, the FIFO
- * queue is considered empty. If it is 0 or larger, it is the file pointer position within the file where the first
- * entry starts. When entries are put on the queue, they are added to the tail. When entries are taken from the queue,
- * they are removed from head.</p>
+ * <p>The head and tail segments are memory-mapped. Each segment starts with a small header followed by the entries:</p>
  *
  * <pre>
- * count | HEAD | TAIL | next | entry-byte-array-data | next | entry-byte-array-data | next | entry | EOF
- *          |      |     ^  |                           ^  |                           ^ ^
- *          |      |     |  |                           |  |                           | |
- *          |      |     |  +---------------------------+  +---------------------------+ |
- *          |      +-----|---------------------------------------------------------------+
- *          +------------+
+ * MAGIC | VERSION | write-pos | read-pos | put-count | take-count | length | entry-bytes | length | entry-bytes | ...
  * </pre>
  *
+ * <p>The write position is the offset of the first unused byte in the segment, the read position is the offset of the
+ * next entry to be taken. The number of entries still in the segment is the put count minus the take count. Every
+ * entry is an <code>int</code> length followed by the entry data.</p>
+ *
+ * <p>Older agents stored the whole queue in the single configured file. If such a file is found, its entries are written
+ * to a separate migration file, the old file is deleted, and only then is the migration file renamed into a segment,
+ * so an entry is never found in both.</p>
+ *
+ * <p>Each instance guards its own state; there is no class-wide lock, so independent queues do not contend with one
+ * another. Only one instance should ever write to a given queue, though.</p>
+ *
  * @author John Mazzitelli
  */
 public class PersistentFifo {
@@ -76,19 +83,35 @@ public class PersistentFifo {
      */
     private static final Logger LOG = CommI18NFactory.getLogger(PersistentFifo.class);
 
-    private static final Object m_fileLock = PersistentFifo.class;
-
-    private File m_file;
-    private RandomAccessFile m_randomAccessFile;
+    private static final int SEGMENT_MAGIC = 0x52485153; // "RHQS"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int MAGIC_POSITION = 0;
+    private static final int VERSION_POSITION = 4;
+    private static final int WRITE_POSITION = 8;
+    private static final int READ_POSITION = 12;
+    private static final int PUT_COUNT_POSITION = 16;
+    private static final int TAKE_COUNT_POSITION = 20;
+    private static final int HEADER_SIZE = 24;
+    private static final int ENTRY_LENGTH_SIZE = 4;
+
+    // segments are sized relative to the max size of the queue but kept within these bounds
+    private static final int MIN_SEGMENT_SIZE = 512;
+    private static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int SEGMENTS_PER_QUEUE = 16;
+
+    // the suffix of the file the entries of an old-style queue are written to until the old file is deleted
+    private static final String MIGRATION_SUFFIX = ".migrated";
+
+    private final Object m_lock = new Object();
+
+    private final File m_file;
+    private final LinkedList<Segment> m_segments = new LinkedList<Segment>(); // head segment is first, tail is last
+    private final int m_segmentSize; // the size of a new segment (a single entry larger than this gets its own segment)
+    private long m_nextSegmentNumber;
     private long m_count; // the current count of entries in the FIFO
-    private long m_head; // the position pointed to by the head pointer
-    private long m_tail; // the position pointed to by the tail pointer
-    private long m_countPosition; // the file position where the count is stored (i.e. the number of entries in the fifo)
-    private long m_headPosition; // the file position where the head pointer can be found
-    private long m_tailPosition; // the file position where the tail pointer can be found
-    private long m_longSize; // the size in bytes that it takes to store a long number
-    private long m_maxSizeBytes; // size of the file that, when reached, triggers a purge
-    private long m_purgeResultMaxBytes; // the number of bytes the file must be less than after a purge
+    private long m_usedBytes; // the number of bytes used by all segments
+    private long m_maxSizeBytes; // size of the queue that, when reached, triggers a purge
+    private long m_purgeResultMaxBytes; // the number of bytes the queue must be less than after a purge
     private boolean m_compress; // will be true if we are to compress the data before persisting
 
     /**
@@ -122,6 +145,9 @@ public class PersistentFifo {
      * objects and thus their <code>toString()</code> is dumped. Otherwise, a dump of each entry's raw byte array is
      * retrieved in the given <code>raw_byte_base</code>, where a base of 10 is for decimal, 16 is for hexidecimal, etc.
      *
+     * <p>This only reads the queue - it never modifies it, so it is safe to call while another {@link PersistentFifo}
+     * instance is using the same queue. Both the segment files and an old-style single file are dumped.</p>
+     *
      * @param  out           the stream to dump the output
      * @param  fifo_file     the FIFO file that contains 0 or more persisted entries
      * @param  compressed    if <code>true</code>, the entries will be assumed to be compressed in the file
@@ -134,10 +160,16 @@ public class PersistentFifo {
      */
     public static void dumpContents(PrintWriter out, File fifo_file, boolean compressed, int raw_byte_base)
         throws IOException {
-        PersistentFifo fifo = new PersistentFifo(fifo_file, Long.MAX_VALUE, 99, compressed);
+        List<byte[]> legacy_entries = readLegacyEntries(fifo_file);
+        File[] segment_files = listSegmentFiles(fifo_file);
+        long count = legacy_entries.size();
+
+        for (File segment_file : segment_files) {
+            count += readSegmentCount(segment_file);
+        }
 
         out.println(fifo_file);
-        out.println(fifo.count());
+        out.println(count);
         out.flush();
 
         // don't bother to continue, return immediately if caller only wanted to see the number of entries
@@ -145,95 +177,65 @@ public class PersistentFifo {
             return;
         }
 
-        RandomAccessFile raf = fifo.getRandomAccessFile();
-        boolean last_entry = (fifo.m_head == -1L); // if head is -1, there are no entries
         long entry_num = 0;
-        byte[] entry;
 
-        // go to the first entry
-        if (!last_entry) {
-            raf.seek(fifo.m_head);
+        for (byte[] entry : legacy_entries) {
+            dumpEntry(out, entry_num++, entry, compressed, raw_byte_base);
         }
 
-        while (!last_entry) {
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
-
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
-
-            // fully read in the entry
-            raf.readFully(entry);
-
-            if (fifo.m_compress) {
-                entry = fifo.decompress(entry);
+        for (File segment_file : segment_files) {
+            for (byte[] entry : readSegmentEntries(segment_file)) {
+                dumpEntry(out, entry_num++, entry, compressed, raw_byte_base);
             }
+        }
 
-            String entry_string;
-
-            out.print("[" + entry_num++ + "] ");
-
-            if (raw_byte_base == 0) {
-                Object obj = StreamUtil.deserialize(entry);
-                entry_string = obj.toString();
-            } else {
-                out.println();
-
-                switch (raw_byte_base) {
-                case DumpBytes.BASE_HEX: {
-                    entry_string = DumpBytes.dumpHexData(entry);
-                    break;
-                }
-
-                case DumpBytes.BASE_DEC: {
-                    entry_string = DumpBytes.dumpDecData(entry);
-                    break;
-                }
+        out.flush();
 
-                case DumpBytes.BASE_OCT: {
-                    entry_string = DumpBytes.dumpOctData(entry);
-                    break;
-                }
+        return;
+    }
 
-                case DumpBytes.BASE_BIN: {
-                    entry_string = DumpBytes.dumpBinData(entry);
-                    break;
-                }
+    /**
+     * Deletes the given FIFO file along with all of its segment files. Use this when the queue is no longer needed and
+     * no {@link PersistentFifo} instance is using it.
+     *
+     * @param  fifo_file the FIFO file whose data is to be deleted
+     *
+     * @return <code>true</code> if everything was deleted; <code>false</code> if at least one file could not be deleted
+     */
+    public static boolean delete(File fifo_file) {
+        boolean deleted = true;
 
-                default: {
-                    entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
-                }
-                }
-            }
+        for (File segment_file : listSegmentFiles(fifo_file)) {
+            deleted &= segment_file.delete();
+        }
 
-            out.println(entry_string);
+        if (fifo_file.exists()) {
+            deleted &= fifo_file.delete();
         }
 
-        out.flush();
+        File migration_file = getMigrationFile(fifo_file);
+        if (migration_file.exists()) {
+            deleted &= migration_file.delete();
+        }
 
-        return;
+        return deleted;
     }
 
     /**
-     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum size this file
-     * is allowed to grow before a purge is triggered. If this threshold is crossed (that is, if the file grows larger
-     * than the maximum size allowed), the file is compressed and, if needed, the oldest entries in the queue will get
-     * deleted to make room for new entries. The amount of space purged will be enough to lower the used space
-     * percentage down to <code>purge_percentage</code> or less.
+     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum size this
+     * queue is allowed to grow before a purge is triggered. If this threshold is crossed (that is, if the queue grows
+     * larger than the maximum size allowed), the oldest entries in the queue will get deleted to make room for new
+     * entries. The amount of space purged will be enough to lower the used space percentage down to <code>
+     * purge_percentage</code> or less (the newest segment is never purged).
      *
-     * @param  file             the file containing the FIFO data
-     * @param  max_size_bytes   the maximum size, in bytes, the persistent file is allowed to grow before a purge is
+     * @param  file             the file containing the FIFO data; segment files are stored next to it
+     * @param  max_size_bytes   the maximum size, in bytes, the persistent queue is allowed to grow before a purge is
      *                          triggered
      * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
      *                          space down to this percentage of the total max space
      * @param  compress         if <code>true</code>, the data spooled to the file should be compressed
      *
-     * @throws IOException              if the file does not exist but cannot be created
+     * @throws IOException              if the segment files do not exist but cannot be created
      * @throws IllegalArgumentException if purge_percentage is not between 0 and 99 or max_size_bytes is less than 1000
      */
     public PersistentFifo(File file, long max_size_bytes, int purge_percentage, boolean compress) throws IOException {
@@ -248,30 +250,15 @@ public class PersistentFifo {
         }
 
         m_file = file;
-        m_purgeResultMaxBytes = (int) (max_size_bytes * (purge_percentage / 100.0f));
+        m_purgeResultMaxBytes = (long) (max_size_bytes * (purge_percentage / 100.0f));
         m_maxSizeBytes = max_size_bytes;
         m_compress = compress;
+        m_segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, max_size_bytes
+            / SEGMENTS_PER_QUEUE));
 
-        synchronized (m_fileLock) {
-            // if file doesn't exist or is virtually empty
-            if (!m_file.exists() || (m_file.length() < 8)) {
-                initializeEmptyFile();
-            } else {
-                // file exists, let's get our count, head and tail pointers and their positions
-                RandomAccessFile raf = getRandomAccessFile();
-
-                // count is first, head is second, tail is third
-                m_countPosition = 0L;
-                readCount(raf);
-                m_headPosition = raf.getFilePointer();
-                readHead(raf);
-                m_tailPosition = raf.getFilePointer();
-                readTail(raf);
-            }
-
-            // this is me being paranoid - rather than hardcode the obvious value of 8, let's calculate it in case for some strange
-            // reason, the value is different on some platform
-            m_longSize = m_tailPosition - m_headPosition;
+        synchronized (m_lock) {
+            loadSegments();
+            migrateLegacyFile();
         }
 
         return;
@@ -319,38 +306,38 @@ public class PersistentFifo {
      * @throws IOException if failed to access the file
      */
     public void put(byte[] bytes) throws IOException {
-        if (m_compress) {
-            bytes = compress(bytes);
-        }
-
-        synchronized (m_fileLock) {
-            RandomAccessFile raf = getRandomAccessFile();
-            long new_entry_pos = raf.length(); // where the new entry will start
-            boolean is_first_entry = (m_head == -1);
+        putAll(Collections.singletonList(bytes));
+        return;
+    }
 
-            // bump up the count
-            writeCount(raf, ++m_count);
+    /**
+     * Puts several entries on the FIFO queue, in the order they are found in the given list. This is more efficient
+     * than putting each entry individually since the queue only needs to be locked, and checked for a needed purge,
+     * once.
+     *
+     * @param  entries the data to put in the queue
+     *
+     * @throws IOException if failed to access the file
+     */
+    public void putAll(List<byte[]> entries) throws IOException {
+        List<byte[]> to_write = entries;
 
-            if (is_first_entry) {
-                // this will be the first item in the queue, set the head to indicate we have data now
-                writeHead(raf, new_entry_pos);
-            } else {
-                // update the previous entry's next pointer
-                raf.seek(m_tail);
-                raf.writeLong(new_entry_pos - m_tail - m_longSize);
+        // compress outside of the lock so we don't block takers while we do CPU-bound work
+        if (m_compress) {
+            to_write = new ArrayList<byte[]>(entries.size());
+            for (byte[] entry : entries) {
+                to_write.add(compress(entry));
             }
+        }
 
-            // go to the new entry's position and write its next pointer and the data
-            raf.seek(new_entry_pos);
-            raf.writeLong(-1L); // sets the next pointer to indicate this is the last entry
-            raf.write(bytes);
-
-            // finally, update the tail
-            writeTail(raf, new_entry_pos);
+        synchronized (m_lock) {
+            for (byte[] entry : to_write) {
+                append(entry);
+            }
 
-            // if we went over the maximum file size limit, start purging some entries to make room
-            if (raf.length() > m_maxSizeBytes) {
-                purge(raf, raf.length() - m_purgeResultMaxBytes);
+            // if we went over the maximum size limit, drop some of the oldest entries to make room
+            if (m_usedBytes > m_maxSizeBytes) {
+                purge();
             }
         }
 
@@ -365,50 +352,44 @@ public class PersistentFifo {
      * @throws IOException
      */
     public byte[] take() throws IOException {
-        synchronized (m_fileLock) {
-            // return immediately if there are no entries in the queue
-            if (m_head == -1L) {
-                return null;
-            }
-
-            RandomAccessFile raf = getRandomAccessFile();
-            boolean last_entry = false;
-            byte[] entry;
-
-            // go to the first entry
-            raf.seek(m_head);
-
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
-
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
-
-            // fully read in the entry
-            raf.readFully(entry);
+        List<byte[]> entries = take(1);
+        return (entries.isEmpty()) ? null : entries.get(0);
+    }
 
-            if (last_entry) {
-                // this was the last entry - let's shrink the file down to its minimal size
-                initializeEmptyFile();
-            } else {
-                // move the head to the next entry
-                writeHead(raf, m_head + next + m_longSize);
+    /**
+     * Takes up to <code>max_entries</code> entries from the queue and returns them in the order they were put. An
+     * entry that cannot be decompressed is corrupt; it is logged and dropped, the other entries are still returned.
+     *
+     * @param  max_entries the maximum number of entries to take
+     *
+     * @return the entries taken from the queue; will be empty (but not <code>null</code>) if the queue is empty
+     *
+     * @throws IOException
+     */
+    public List<byte[]> take(int max_entries) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
 
-                // decrement the count
-                writeCount(raf, --m_count);
+        synchronized (m_lock) {
+            while ((entries.size() < max_entries) && (m_count > 0L)) {
+                entries.add(removeFirst());
             }
+        }
 
-            if (m_compress) {
-                entry = decompress(entry);
+        // decompress outside of the lock so we don't block putters while we do CPU-bound work
+        if (m_compress) {
+            List<byte[]> decompressed = new ArrayList<byte[]>(entries.size());
+            for (byte[] entry : entries) {
+                try {
+                    decompressed.add(decompress(entry));
+                } catch (IOException e) {
+                    LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_CORRUPT_ENTRY, m_file, e);
+                }
             }
 
-            return entry;
+            entries = decompressed;
         }
+
+        return entries;
     }
 
     /**
@@ -420,233 +401,571 @@ public class PersistentFifo {
      * @throws IOException if failed to access the file
      */
     public boolean isEmpty() throws IOException {
-        synchronized (m_fileLock) {
-            return readHead(getRandomAccessFile()) == -1;
-        }
+        return count() == 0L;
     }
 
     /**
-     * Returns the number of entries currently in the FIFO.
+     * Returns the number of entries currently in the FIFO. This is the count kept by this instance as entries are put,
+     * taken and purged; the segment files are not read.
      *
      * @return the number of entries
      *
      * @throws IOException if failed to access the file
      */
     public long count() throws IOException {
-        synchronized (m_fileLock) {
-            return readCount(getRandomAccessFile());
+        synchronized (m_lock) {
+            return m_count;
         }
     }
 
     /**
-     * This initializes the file to indicate that the queue is empty - call this when the file does not yet exist or if
-     * you want to shrink the file down to its minimal size.
+     * This initializes the queue to indicate that it is empty - all segments are deleted and a single, empty segment
+     * is started. Call this if you want to shrink the queue down to its minimal size.
      *
      * @throws IOException
      */
     public void initializeEmptyFile() throws IOException {
-        synchronized (m_fileLock) {
+        synchronized (m_lock) {
+            while (!m_segments.isEmpty()) {
+                m_segments.removeFirst().delete();
+            }
+
             m_count = 0L;
-            m_head = -1L; // -1 means the FIFO queue is empty
-            m_tail = -1L;
+            m_usedBytes = 0L;
 
-            RandomAccessFile raf = getRandomAccessFile();
+            // also get rid of any segments we didn't know about, just in case someone else left them behind
+            for (File orphan : listSegmentFiles(m_file)) {
+                orphan.delete();
+            }
 
-            // the first number in the file is the count
-            m_countPosition = 0L;
-            raf.seek(m_countPosition);
-            raf.writeLong(m_count);
+            addSegment(m_segmentSize);
+        }
 
-            // the second number in the file is the head pointer
-            m_headPosition = raf.getFilePointer();
-            raf.seek(m_headPosition);
-            raf.writeLong(m_head);
+        return;
+    }
 
-            // the third number in the file is the tail pointer
-            m_tailPosition = raf.getFilePointer();
-            raf.writeLong(m_tail);
+    /**
+     * Forces any data still in memory out to the segment files and releases the memory mappings. The queue can still
+     * be used after this is called; segments will be remapped as they are needed.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (m_lock) {
+            for (Segment segment : m_segments) {
+                segment.unmap();
+            }
+        }
 
-            // set the file length to right after the tail pointer thus shrinking the file size down to its minimal size
-            raf.setLength(raf.getFilePointer());
+        return;
+    }
+
+    /**
+     * Finds all existing segment files and determines the number of entries and bytes they hold. Segments whose entries
+     * have all been taken (other than the tail) and any segment that is not valid are deleted. Only the head and tail
+     * segments are mapped.
+     *
+     * @throws IOException
+     */
+    private void loadSegments() throws IOException {
+        m_segments.clear();
+        m_count = 0L;
+        m_usedBytes = 0L;
+        m_nextSegmentNumber = 0L;
+
+        File[] segment_files = listSegmentFiles(m_file);
+
+        for (int i = 0; i < segment_files.length; i++) {
+            File segment_file = segment_files[i];
+            long number = getSegmentNumber(segment_file);
+            m_nextSegmentNumber = Math.max(m_nextSegmentNumber, number + 1);
+
+            Segment segment = new Segment(segment_file, number);
+            if (!segment.readHeader()) {
+                LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_INVALID_SEGMENT, segment_file);
+                segment.delete();
+            } else if ((segment.count() == 0) && (i < (segment_files.length - 1))) {
+                segment.delete(); // fully consumed; the last segment is kept even if empty since it is the tail
+            } else {
+                m_segments.add(segment);
+                m_count += segment.count();
+                m_usedBytes += segment.m_writePos;
+            }
+        }
+
+        if (m_segments.isEmpty()) {
+            addSegment(m_segmentSize);
+        } else {
+            m_segments.getFirst().map();
+            m_segments.getLast().map();
         }
 
         return;
     }
 
     /**
-     * This purges the file by compressing the old entries that have already been taken and, if that isn't possible,
-     * will remove head entries (i.e. the oldest entries) and moves all items down in the file, thus shrinking the file.
-     * The number of bytes to free up (that is, the number of bytes to shrink the file by) is determined by the <code>
-     * bytes_to_purge</code> parameter. The file will be shrink by at least (but maybe more) that number of bytes.
+     * If an old-style, single file queue exists, this moves all of its entries into a segment and deletes the file.
+     * The old file's entries are older than anything put in segments, but since the old file is only ever found when
+     * upgrading, there should not be any segments yet anyway.
      *
-     * @param  raf            the file
-     * @param  bytes_to_purge the minimum amount of bytes to purge
+     * <p>The entries are first written to a migration file next to the old file, which is not a segment. Deleting the
+     * old file commits the migration, after which the migration file is renamed into a segment. If anything fails
+     * before the old file is deleted, the migration file is dropped and the old file is migrated again the next time
+     * the queue is loaded. If the rename fails, or the agent dies before it, the migration file is renamed the next time
+     * the queue is loaded.</p>
+     */
+    private void migrateLegacyFile() {
+        File migration_file = getMigrationFile(m_file);
+
+        if (!m_file.exists()) {
+            if (migration_file.exists()) {
+                completeMigration(migration_file); // the old file was deleted but the migration was not swapped in
+            }
+
+            return;
+        }
+
+        List<byte[]> legacy_entries;
+
+        try {
+            legacy_entries = readLegacyEntries(m_file);
+
+            // entries are copied as-is, if they were compressed they remain compressed
+            writeSegmentFile(migration_file, legacy_entries);
+        } catch (Exception e) {
+            migration_file.delete();
+            LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_LEGACY_MIGRATION_FAILED, m_file, e);
+            return;
+        }
+
+        if (!m_file.delete()) {
+            // the old file would be migrated again, so its entries must not stay in the migration file
+            migration_file.delete();
+            LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_LEGACY_NOT_DELETED, m_file);
+            return;
+        }
+
+        if (completeMigration(migration_file)) {
+            LOG.info(CommI18NResourceKeys.PERSISTENT_FIFO_LEGACY_MIGRATED, legacy_entries.size(), m_file);
+        }
+
+        return;
+    }
+
+    /**
+     * Renames the migration file into a new tail segment. An empty tail is deleted first, so the segment holding the
+     * migrated entries does not follow a segment with no entries to take.
+     *
+     * @param  migration_file the migration file, whose old file has been deleted
      *
-     * @throws IOException if failed to access file
+     * @return <code>true</code> if the migrated entries are now in the queue
      */
-    private void purge(RandomAccessFile raf, long bytes_to_purge) throws IOException {
-        // first see if there are any unused bytes in the beginning of the file (entries that have already been taken from the queue
-        // but not yet deleted from the file)
-        long first_data_byte = m_tailPosition + m_longSize;
-        long unused_bytes = m_head - first_data_byte;
+    private boolean completeMigration(File migration_file) {
+        long number = m_nextSegmentNumber++;
+        File segment_file = new File(m_file.getAbsoluteFile().getParentFile(), m_file.getName() + "." + number);
+
+        if (!migration_file.renameTo(segment_file)) {
+            LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_MIGRATION_NOT_RENAMED, migration_file, segment_file);
+            return false;
+        }
 
-        while (unused_bytes < bytes_to_purge) {
-            // not enough unused bytes - we must sacrifice the oldest entry (at the head) to free up some more space
-            take();
+        try {
+            Segment segment = new Segment(segment_file, number);
+            if (!segment.readHeader()) {
+                LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_INVALID_SEGMENT, segment_file);
+                segment.delete();
+                return false;
+            }
 
-            if (m_head == -1) {
-                return; // nothing left to purge
+            Segment tail = m_segments.getLast();
+            if (tail.count() == 0) {
+                m_segments.removeLast();
+                m_usedBytes -= tail.m_writePos;
+                tail.delete();
+            } else if (m_segments.size() > 1) {
+                tail.unmap(); // it is no longer the tail
             }
 
-            unused_bytes = m_head - first_data_byte;
+            m_segments.add(segment);
+            m_count += segment.count();
+            m_usedBytes += segment.m_writePos;
+            m_segments.getFirst().map();
+            segment.map();
+        } catch (IOException e) {
+            // the segment file is in place, it is loaded along with the others the next time
+            LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_LEGACY_MIGRATION_FAILED, m_file, e);
+            return false;
         }
 
-        // now move all the entries down to the beginning of the file; need to move in chunks so as not to override the data we want to keep
-        // we start at the head and read in chunks to move down
-        // chunk = the size of each full chunk that we move
-        // total_bytes_to_move = the size of all the data we are moving down
-        // num_full_chunks = the total number of fully filled chunks to be moved
-        // final_chunk_size = the size of the last chunk to be moved, may be a partially filled chunk
-        // cur_pos_to_read = the file position of the current chunk we are reading in
-        // cur_pos_to_write = the file position where the current chunk will be moved to
-        byte[] chunk = new byte[(int) unused_bytes];
-        long total_bytes_to_move = raf.length() - first_data_byte - unused_bytes;
-        long num_full_chunks = total_bytes_to_move / unused_bytes;
-        long final_chunk_size = total_bytes_to_move % unused_bytes;
-        long cur_pos_to_read = m_head;
-        long cur_pos_to_write = first_data_byte;
+        return true;
+    }
 
-        for (int i = 0; i < num_full_chunks; i++) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk);
+    /**
+     * Appends the given (already compressed, if needed) entry to the tail segment, starting a new tail segment if the
+     * entry does not fit. Caller must own the lock.
+     *
+     * @param  entry the data to append
+     *
+     * @throws IOException
+     */
+    private void append(byte[] entry) throws IOException {
+        Segment tail = m_segments.getLast();
+
+        if (!tail.hasRoomFor(entry.length)) {
+            // the head segment stays mapped since we'll be taking from it; the old tail no longer needs to be
+            if (m_segments.size() > 1) {
+                tail.unmap();
+            }
 
-            cur_pos_to_read += chunk.length;
-            cur_pos_to_write += chunk.length;
+            tail = addSegment(Math.max(m_segmentSize, HEADER_SIZE + ENTRY_LENGTH_SIZE + entry.length));
         }
 
-        // do the last, partial chunk
-        if (final_chunk_size > 0) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk, 0, (int) final_chunk_size);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk, 0, (int) final_chunk_size);
+        m_usedBytes -= tail.m_writePos;
+        tail.append(entry);
+        m_usedBytes += tail.m_writePos;
+        m_count++;
+
+        return;
+    }
+
+    /**
+     * Removes the next entry from the head segment. If that was the last entry in the head segment, the segment is
+     * deleted (or, if it is also the tail segment, emptied so it can be reused). Caller must own the lock and must have
+     * ensured the queue is not empty.
+     *
+     * @return the (possibly compressed) entry data
+     *
+     * @throws IOException
+     */
+    private byte[] removeFirst() throws IOException {
+        Segment head = m_segments.getFirst();
+        byte[] entry = head.removeFirst();
+        m_count--;
+
+        if (head.count() == 0) {
+            m_usedBytes -= head.m_writePos;
+
+            if (m_segments.size() > 1) {
+                // the whole segment has been consumed, there is nothing to compact - just get rid of it
+                m_segments.removeFirst().delete();
+                m_segments.getFirst().map();
+            } else {
+                // this is also the tail, so the queue is now empty; start writing at the beginning again
+                head.reset();
+                m_usedBytes += head.m_writePos;
+            }
         }
 
-        // we've purged and compacted the file - now let's shrink the file so its smaller
-        raf.setLength(raf.getFilePointer());
+        return entry;
+    }
+
+    /**
+     * Drops whole segments, oldest first, until the used space is at or below the purge result size. The tail segment
+     * is never dropped. Caller must own the lock.
+     *
+     * @throws IOException
+     */
+    private void purge() throws IOException {
+        while ((m_usedBytes > m_purgeResultMaxBytes) && (m_segments.size() > 1)) {
+            Segment oldest = m_segments.removeFirst();
+            int dropped = oldest.count();
+
+            m_count -= dropped;
+            m_usedBytes -= oldest.m_writePos;
+            oldest.delete();
 
-        // fix our head and tail pointers by moving them back the number of bytes we just purged
-        writeHead(raf, first_data_byte);
-        writeTail(raf, m_tail - unused_bytes);
+            LOG.debug(CommI18NResourceKeys.PERSISTENT_FIFO_SEGMENT_PURGED, oldest.m_file, dropped);
+        }
+
+        m_segments.getFirst().map();
 
         return;
     }
 
     /**
-     * Returns the <code>RandomAccessFile</code> object representation of the file that enables the caller to read
-     * and/or write the file using random access.
+     * Creates a new, empty segment and adds it to the end of the queue. Caller must own the lock.
+     *
+     * @param  size the size of the new segment file
      *
-     * @return the file that can be randomly accessed
+     * @return the new tail segment
      *
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    private RandomAccessFile getRandomAccessFile() throws FileNotFoundException {
-        if (m_randomAccessFile == null) {
-            m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+    private Segment addSegment(int size) throws IOException {
+        long number = m_nextSegmentNumber++;
+        Segment segment = new Segment(new File(m_file.getAbsoluteFile().getParentFile(), m_file.getName() + "."
+            + number), number);
+        segment.create(size);
+        m_segments.add(segment);
+        m_usedBytes += segment.m_writePos;
+        return segment;
+    }
+
+    /**
+     * Returns all the segment files of the given FIFO file, ordered from oldest to newest.
+     *
+     * @param  fifo_file the FIFO file
+     *
+     * @return the segment files (will be empty if there are none)
+     */
+    private static File[] listSegmentFiles(File fifo_file) {
+        final String prefix = fifo_file.getName() + ".";
+        File dir = fifo_file.getAbsoluteFile().getParentFile();
+        File[] segment_files = (dir != null) ? dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                String name = f.getName();
+                return f.isFile() && name.startsWith(prefix) && (name.length() > prefix.length())
+                    && name.substring(prefix.length()).matches("\\d+");
+            }
+        }) : null;
+
+        if (segment_files == null) {
+            return new File[0];
         }
 
-        return m_randomAccessFile;
+        Arrays.sort(segment_files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long n1 = getSegmentNumber(f1);
+                long n2 = getSegmentNumber(f2);
+                return (n1 < n2) ? -1 : ((n1 == n2) ? 0 : 1);
+            }
+        });
+
+        return segment_files;
     }
 
     /**
-     * Reads and returns the count - this is the number of entries currently in the FIFO.
+     * Returns the sequence number of the given segment file, which is found at the end of the file name.
      *
-     * @param  raf the file
+     * @param  segment_file the segment file
      *
-     * @return the number of entries currently in the FIFO
+     * @return the segment's sequence number
+     */
+    private static long getSegmentNumber(File segment_file) {
+        String name = segment_file.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Returns the file the entries of the given old-style FIFO file are written to while they are migrated.
      *
-     * @throws IOException if failed to access the file
+     * @param  fifo_file the FIFO file
+     *
+     * @return the migration file
      */
-    private long readCount(RandomAccessFile raf) throws IOException {
-        raf.seek(m_countPosition);
-        m_count = raf.readLong();
-        return m_count;
+    private static File getMigrationFile(File fifo_file) {
+        return new File(fifo_file.getAbsoluteFile().getParentFile(), fifo_file.getName() + MIGRATION_SUFFIX);
     }
 
     /**
-     * Writes the given count to the file.
+     * Writes a segment file holding exactly the given entries and forces it to disk. The file is written without
+     * mapping it, so it can be renamed right away on any platform.
      *
-     * @param  raf   the file
-     * @param  count the new count to store
+     * @param  segment_file the segment file to create
+     * @param  entries      the raw (possibly compressed) entries
      *
-     * @throws IOException if failed to write to the file
+     * @throws IOException if the entries do not fit in a segment or cannot be written
      */
-    private void writeCount(RandomAccessFile raf, long count) throws IOException {
-        raf.seek(m_countPosition);
-        raf.writeLong(count);
-        m_count = count;
+    private static void writeSegmentFile(File segment_file, List<byte[]> entries) throws IOException {
+        long size = HEADER_SIZE;
+        for (byte[] entry : entries) {
+            size += ENTRY_LENGTH_SIZE + entry.length;
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries for a single segment: " + size + " bytes");
+        }
+
+        FileOutputStream file_out = new FileOutputStream(segment_file);
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file_out));
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(SEGMENT_VERSION);
+            out.writeInt((int) size); // write-pos
+            out.writeInt(HEADER_SIZE); // read-pos
+            out.writeInt(entries.size()); // put-count
+            out.writeInt(0); // take-count
+
+            for (byte[] entry : entries) {
+                out.writeInt(entry.length);
+                out.write(entry);
+            }
+
+            out.flush();
+            file_out.getFD().sync();
+        } finally {
+            file_out.close();
+        }
+
         return;
     }
 
     /**
-     * Reads the head pointer from the file.
+     * Reads the number of entries remaining in a segment file without modifying it.
      *
-     * @param  raf the file
+     * @param  segment_file the segment file
      *
-     * @return the current position that the head pointer points to
+     * @return the number of entries in the segment (0 if the file is not a valid segment)
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException
      */
-    private long readHead(RandomAccessFile raf) throws IOException {
-        raf.seek(m_headPosition);
-        m_head = raf.readLong();
-        return m_head;
+    private static int readSegmentCount(File segment_file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment_file, "r");
+
+        try {
+            if ((raf.length() < HEADER_SIZE) || (raf.readInt() != SEGMENT_MAGIC)) {
+                return 0;
+            }
+
+            raf.seek(PUT_COUNT_POSITION);
+            int put_count = raf.readInt();
+            int take_count = raf.readInt();
+            return put_count - take_count;
+        } finally {
+            raf.close();
+        }
     }
 
     /**
-     * Writes the head pointer to the file.
+     * Reads the entries remaining in a segment file without modifying it.
      *
-     * @param  raf      the file
-     * @param  head_pos the new position of the head pointer
+     * @param  segment_file the segment file
      *
-     * @throws IOException if failed to write to the file
+     * @return the raw (possibly compressed) entries
+     *
+     * @throws IOException
      */
-    private void writeHead(RandomAccessFile raf, long head_pos) throws IOException {
-        raf.seek(m_headPosition);
-        raf.writeLong(head_pos);
-        m_head = head_pos;
-        return;
+    private static List<byte[]> readSegmentEntries(File segment_file) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
+        RandomAccessFile raf = new RandomAccessFile(segment_file, "r");
+
+        try {
+            if ((raf.length() < HEADER_SIZE) || (raf.readInt() != SEGMENT_MAGIC)) {
+                return entries;
+            }
+
+            raf.seek(WRITE_POSITION);
+            int write_pos = raf.readInt();
+            int read_pos = raf.readInt();
+
+            raf.seek(read_pos);
+            while (raf.getFilePointer() < write_pos) {
+                byte[] entry = new byte[raf.readInt()];
+                raf.readFully(entry);
+                entries.add(entry);
+            }
+        } finally {
+            raf.close();
+        }
+
+        return entries;
     }
 
     /**
-     * Reads the tail pointer from the file.
+     * Reads the entries of an old-style, single file queue. That file starts with three <code>long</code>s - the
+     * count, the head pointer and the tail pointer - followed by a chain of entries, each of which is a relative next
+     * pointer (a <code>long</code>, -1 for the last entry) followed by the entry data. The file is not modified.
      *
-     * @param  raf the file
+     * @param  fifo_file the old-style FIFO file
      *
-     * @return the current position that the tail pointer points to
+     * @return the raw (possibly compressed) entries; empty if the file does not exist or is empty
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException
      */
-    private long readTail(RandomAccessFile raf) throws IOException {
-        raf.seek(m_tailPosition);
-        m_tail = raf.readLong();
-        return m_tail;
+    private static List<byte[]> readLegacyEntries(File fifo_file) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
+
+        if (!fifo_file.isFile() || (fifo_file.length() < 24L)) {
+            return entries;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(fifo_file, "r");
+
+        try {
+            raf.readLong(); // the count, we don't need it since we walk the chain
+            long head = raf.readLong();
+            boolean last_entry = (head == -1L); // if head is -1, there are no entries
+
+            if (!last_entry) {
+                raf.seek(head);
+            }
+
+            while (!last_entry) {
+                // get the next pointer; if this is the last entry, then we'll read to the end of the file
+                long next = raf.readLong();
+                if (next == -1) {
+                    next = raf.length() - raf.getFilePointer();
+                    last_entry = true;
+                }
+
+                byte[] entry = new byte[(int) next];
+                raf.readFully(entry);
+                entries.add(entry);
+            }
+        } finally {
+            raf.close();
+        }
+
+        return entries;
     }
 
     /**
-     * Writes the tail pointer to the file pointing to the last entry in the queue.
+     * Dumps a single entry to the given stream. See {@link #dumpContents(PrintWriter, File, boolean, int)}.
      *
-     * @param  raf      the file
-     * @param  tail_pos the new position of the tail pointer
+     * @param  out           the stream to dump the output
+     * @param  entry_num     the number of the entry within the queue
+     * @param  entry         the raw entry data
+     * @param  compressed    if <code>true</code>, the entry is compressed
+     * @param  raw_byte_base the base in which to dump the data, or 0 to dump the entry as an object
      *
-     * @throws IOException if failed to write to the file
+     * @throws IOException
      */
-    private void writeTail(RandomAccessFile raf, long tail_pos) throws IOException {
-        raf.seek(m_tailPosition);
-        raf.writeLong(tail_pos);
-        m_tail = tail_pos;
+    private static void dumpEntry(PrintWriter out, long entry_num, byte[] entry, boolean compressed,
+        int raw_byte_base) throws IOException {
+        if (compressed) {
+            entry = decompress(entry);
+        }
+
+        String entry_string;
+
+        out.print("[" + entry_num + "] ");
+
+        if (raw_byte_base == 0) {
+            Object obj = StreamUtil.deserialize(entry);
+            entry_string = obj.toString();
+        } else {
+            out.println();
+
+            switch (raw_byte_base) {
+            case DumpBytes.BASE_HEX: {
+                entry_string = DumpBytes.dumpHexData(entry);
+                break;
+            }
+
+            case DumpBytes.BASE_DEC: {
+                entry_string = DumpBytes.dumpDecData(entry);
+                break;
+            }
+
+            case DumpBytes.BASE_OCT: {
+                entry_string = DumpBytes.dumpOctData(entry);
+                break;
+            }
+
+            case DumpBytes.BASE_BIN: {
+                entry_string = DumpBytes.dumpBinData(entry);
+                break;
+            }
+
+            default: {
+                entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
+            }
+            }
+        }
+
+        out.println(entry_string);
+
         return;
     }
 
@@ -659,7 +978,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to compress the bytes
      */
-    private byte[] compress(byte[] bytes) throws IOException {
+    private static byte[] compress(byte[] bytes) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
         GZIPOutputStream gzip = new GZIPOutputStream(baos);
 
@@ -680,7 +999,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to decompress the bytes
      */
-    private byte[] decompress(byte[] entry) throws IOException {
+    private static byte[] decompress(byte[] entry) throws IOException {
         ByteArrayOutputStream decompressed = new ByteArrayOutputStream(entry.length);
         ByteArrayInputStream in = new ByteArrayInputStream(entry);
         GZIPInputStream gzip_in = new GZIPInputStream(in);
@@ -690,4 +1009,185 @@ public class PersistentFifo {
 
         return entry;
     }
-}
\ No newline at end of file
+
+    /**
+     * A single segment file of the queue. The header values are cached in memory so the segment's count and size are
+     * known even when the segment is not mapped. None of the methods are thread safe - the owning queue's lock must be
+     * held.
+     */
+    private static class Segment {
+        private final File m_file;
+        private final long m_number;
+        private MappedByteBuffer m_buffer; // null when the segment is not mapped
+        private int m_size;
+        private int m_writePos;
+        private int m_readPos;
+        private int m_putCount;
+        private int m_takeCount;
+
+        Segment(File file, long number) {
+            m_file = file;
+            m_number = number;
+        }
+
+        /**
+         * Creates the segment file with the given size and writes an empty header.
+         */
+        void create(int size) throws IOException {
+            m_size = size;
+            map();
+            m_buffer.putInt(MAGIC_POSITION, SEGMENT_MAGIC);
+            m_buffer.putInt(VERSION_POSITION, SEGMENT_VERSION);
+            reset();
+        }
+
+        /**
+         * Reads the header of an existing segment file.
+         *
+         * @return <code>false</code> if the file is not a valid segment
+         */
+        boolean readHeader() throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+
+            try {
+                long length = raf.length();
+                if ((length < HEADER_SIZE) || (length > Integer.MAX_VALUE)) {
+                    return false;
+                }
+
+                if ((raf.readInt() != SEGMENT_MAGIC) || (raf.readInt() != SEGMENT_VERSION)) {
+                    return false;
+                }
+
+                m_size = (int) length;
+                m_writePos = raf.readInt();
+                m_readPos = raf.readInt();
+                m_putCount = raf.readInt();
+                m_takeCount = raf.readInt();
+
+                return (m_readPos >= HEADER_SIZE) && (m_readPos <= m_writePos) && (m_writePos <= m_size)
+                    && (m_takeCount <= m_putCount);
+            } finally {
+                raf.close();
+            }
+        }
+
+        int count() {
+            return m_putCount - m_takeCount;
+        }
+
+        boolean hasRoomFor(int entry_length) {
+            return ((long) m_writePos + ENTRY_LENGTH_SIZE + entry_length) <= m_size;
+        }
+
+        void append(byte[] entry) throws IOException {
+            map();
+            m_buffer.position(m_writePos);
+            m_buffer.putInt(entry.length);
+            m_buffer.put(entry);
+
+            // only now that the data is in place do we move the write position to include it
+            m_writePos += ENTRY_LENGTH_SIZE + entry.length;
+            m_putCount++;
+            m_buffer.putInt(WRITE_POSITION, m_writePos);
+            m_buffer.putInt(PUT_COUNT_POSITION, m_putCount);
+        }
+
+        byte[] removeFirst() throws IOException {
+            map();
+            m_buffer.position(m_readPos);
+            byte[] entry = new byte[m_buffer.getInt()];
+            m_buffer.get(entry);
+
+            m_readPos += ENTRY_LENGTH_SIZE + entry.length;
+            m_takeCount++;
+            m_buffer.putInt(READ_POSITION, m_readPos);
+            m_buffer.putInt(TAKE_COUNT_POSITION, m_takeCount);
+
+            return entry;
+        }
+
+        /**
+         * Empties the segment so its space can be reused from the beginning.
+         */
+        void reset() throws IOException {
+            map();
+            m_writePos = HEADER_SIZE;
+            m_readPos = HEADER_SIZE;
+            m_putCount = 0;
+            m_takeCount = 0;
+            m_buffer.putInt(WRITE_POSITION, m_writePos);
+            m_buffer.putInt(READ_POSITION, m_readPos);
+            m_buffer.putInt(PUT_COUNT_POSITION, m_putCount);
+            m_buffer.putInt(TAKE_COUNT_POSITION, m_takeCount);
+        }
+
+        void map() throws IOException {
+            if (m_buffer == null) {
+                RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+
+                try {
+                    // the mapping stays valid after the channel is closed
+                    m_buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_size);
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+
+        void force() {
+            if (m_buffer != null) {
+                m_buffer.force();
+            }
+        }
+
+        /**
+         * Forces the mapped data to disk and drops the mapping, which is released once the buffer is garbage
+         * collected.
+         */
+        void unmap() {
+            if (m_buffer != null) {
+                m_buffer.force();
+                m_buffer = null;
+            }
+        }
+
+        /**
+         * Unmaps and deletes the segment file. A purge deletes segments that still hold entries, so if the file
+         * cannot be deleted (e.g. the platform won't delete a file whose mapping has not been garbage collected yet)
+         * the segment is marked as fully taken in its header instead. The next load then sees an empty segment and
+         * deletes it, rather than bringing the purged entries back.
+         */
+        void delete() {
+            m_buffer = null;
+
+            if (m_file.delete() || !m_file.exists()) {
+                return;
+            }
+
+            try {
+                RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+
+                try {
+                    raf.seek(READ_POSITION);
+                    raf.writeInt(m_writePos);
+                    raf.seek(TAKE_COUNT_POSITION);
+                    raf.writeInt(m_putCount);
+                    raf.getFD().sync();
+                } finally {
+                    raf.close();
+                }
+
+                m_readPos = m_writePos;
+                m_takeCount = m_putCount;
+            } catch (IOException e) {
+                LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_SEGMENT_NOT_DELETED, m_file, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_file.getName() + "#" + m_number;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.rhq.enterprise.communications.command.AbstractCommand;
+import org.rhq.enterprise.communications.command.Command;
+import org.rhq.enterprise.communications.command.CommandType;
+import org.rhq.enterprise.communications.command.param.InvalidParameterDefinitionException;
+import org.rhq.enterprise.communications.command.param.ParameterDefinition;
+import org.rhq.enterprise.communications.i18n.CommI18NFactory;
+import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+
+/**
+ * An envelope that carries several commands to a server in a single round trip. The server processes each command as
+ * if it were sent on its own and returns a {@link BatchCommandResponse} containing one response per command, in the
+ * same order as the commands were found in the batch.
+ *
+ * <p>Batches are not to be nested - a batch command must not contain another batch command.</p>
+ */
+public class BatchCommand extends AbstractCommand {
+    /**
+     * command type constant identifying this type of command
+     */
+    public static final CommandType COMMAND_TYPE = new CommandType("batch", 1);
+
+    /**
+     * the required command parameter that contains the list of commands to be processed
+     */
+    public static final ParameterDefinition PARAM_COMMANDS = new ParameterDefinition("commands", ArrayList.class
+        .getName(), ParameterDefinition.REQUIRED, ParameterDefinition.NOT_NULLABLE, ParameterDefinition.NOT_HIDDEN,
+        CommI18NFactory.getMsg().getMsg(CommI18NResourceKeys.BATCH_COMMAND_COMMANDS));
+
+    /**
+     * the Serializable UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor for {@link BatchCommand}.
+     *
+     * @see AbstractCommand#AbstractCommand()
+     */
+    public BatchCommand() throws IllegalArgumentException, InvalidParameterDefinitionException {
+        super();
+    }
+
+    /**
+     * Constructor for {@link BatchCommand} that will contain the given commands.
+     *
+     * @param commands the commands to be sent in the batch
+     */
+    public BatchCommand(List<Command> commands) throws IllegalArgumentException, InvalidParameterDefinitionException {
+        super();
+        setCommands(commands);
+    }
+
+    /**
+     * Constructor for {@link BatchCommand}.
+     *
+     * @see AbstractCommand#AbstractCommand(Map)
+     */
+    public BatchCommand(Map<String, Object> commandParameters) throws IllegalArgumentException,
+        InvalidParameterDefinitionException {
+        super(commandParameters);
+    }
+
+    /**
+     * Constructor for {@link BatchCommand}.
+     *
+     * @see AbstractCommand#AbstractCommand(Command)
+     */
+    public BatchCommand(Command commandToTransform) {
+        super(commandToTransform);
+    }
+
+    /**
+     * Returns the commands that are contained in this batch.
+     *
+     * @return the batched commands
+     */
+    @SuppressWarnings("unchecked")
+    public List<Command> getCommands() {
+        return (List<Command>) getParameterValue(PARAM_COMMANDS.getName());
+    }
+
+    /**
+     * Sets the commands that are to be sent in this batch.
+     *
+     * @param commands the commands to batch
+     */
+    public void setCommands(List<Command> commands) {
+        setParameterValue(PARAM_COMMANDS.getName(), new ArrayList<Command>(commands));
+    }
+
+    /**
+     * @see AbstractCommand#buildCommandType()
+     */
+    protected CommandType buildCommandType() {
+        return COMMAND_TYPE;
+    }
+
+    /**
+     * @see AbstractCommand#buildParameterDefinitions()
+     */
+    protected ParameterDefinition[] buildParameterDefinitions() {
+        return new ParameterDefinition[] { PARAM_COMMANDS };
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rhq.enterprise.communications.command.AbstractCommandResponse;
+import org.rhq.enterprise.communications.command.Command;
+import org.rhq.enterprise.communications.command.CommandResponse;
+
+/**
+ * Encapsulates the results of a {@link BatchCommand batch} command. The batch itself is successful if the server was
+ * able to process all of the batched commands - each individual command's response must still be examined to see if
+ * that command was itself successful.
+ */
+public class BatchCommandResponse extends AbstractCommandResponse {
+    /**
+     * the Serializable UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor for {@link BatchCommandResponse} that defines a successfully processed batch.
+     *
+     * @param cmd       the {@link BatchCommand batch} command that was executed (may be <code>null</code>)
+     * @param responses the responses of the batched commands, in the same order as the commands were in the batch
+     */
+    public BatchCommandResponse(Command cmd, List<CommandResponse> responses) {
+        super(cmd, true, new ArrayList<CommandResponse>(responses), null);
+    }
+
+    /**
+     * Constructor for {@link BatchCommandResponse} that defines a batch that could not be processed.
+     *
+     * @param cmd       the {@link BatchCommand batch} command that was executed (may be <code>null</code>)
+     * @param exception the exception that caused the failure, if available (may be <code>null</code>)
+     */
+    public BatchCommandResponse(Command cmd, Throwable exception) {
+        super(cmd, false, null, exception);
+    }
+
+    /**
+     * Constructor for {@link BatchCommandResponse}.
+     *
+     * @see AbstractCommandResponse#AbstractCommandResponse(CommandResponse)
+     */
+    public BatchCommandResponse(CommandResponse responseToTransform) {
+        super(responseToTransform);
+    }
+
+    /**
+     * Returns the responses of the batched commands, in the same order as the commands were found in the batch.
+     *
+     * @return the individual command responses (<code>null</code> if the batch failed)
+     */
+    @SuppressWarnings("unchecked")
+    public List<CommandResponse> getResponses() {
+        return (List<CommandResponse>) getResults();
+    }
+}
@@ -164,7 +164,7 @@ public class RemotePojoInvocationCommandService extends CommandService implement
             Method target_method = target_interface.getMethod(method_name, class_signature);
             LimitedConcurrency limited_concurrency = target_method.getAnnotation(LimitedConcurrency.class);
             if ((limited_concurrency != null) && (concurrency_manager != null)) {
-                permit = concurrency_manager.getPermit(limited_concurrency.value());
+                permit = concurrency_manager.getPermit(limited_concurrency.value(), limited_concurrency.priority());
             }
 
             // if a parameter is a remote stream, we have to create a sender for it to use
@@ -39,6 +39,8 @@ import org.jboss.remoting.stream.StreamInvocationHandler;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.CommandResponse;
 import org.rhq.enterprise.communications.command.CommandType;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommand;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommandResponse;
 import org.rhq.enterprise.communications.command.impl.generic.GenericCommandResponse;
 import org.rhq.enterprise.communications.command.impl.identify.IdentifyCommand;
 import org.rhq.enterprise.communications.command.impl.remotepojo.RemotePojoInvocationCommand;
@@ -225,17 +227,74 @@ public class CommandProcessor implements StreamInvocationHandler {
      * @see    #handleStream(InputStream, InvocationRequest)
      */
     private Object handleIncomingInvocationRequest(InputStream in, InvocationRequest invocation) {
+        // get the subsystem - find the command service in this subsystem that will execute our command
+        String subsystem = invocation.getSubsystem();
+        Object parameter = invocation.getParameter();
+
+        if (parameter instanceof BatchCommand) {
+            return handleBatchCommand(subsystem, (BatchCommand) parameter, in);
+        }
+
+        return handleCommand(subsystem, parameter, in);
+    }
+
+    /**
+     * Processes each command found in the given batch, in order, exactly as if each command was sent individually -
+     * each command is authenticated, given to the command listeners and counted in the metrics on its own. The batch
+     * itself is not given to the listeners; it is only an envelope.
+     *
+     * @param  subsystem the subsystem where the command services that execute the batched commands are registered
+     * @param  batch     the batch of commands
+     * @param  in        the input stream if this is a streaming request (may be <code>null</code>)
+     *
+     * @return the response containing the responses of all the batched commands
+     */
+    private CommandResponse handleBatchCommand(String subsystem, BatchCommand batch, InputStream in) {
+        try {
+            List<Command> commands = batch.getCommands();
+            List<CommandResponse> responses = new ArrayList<CommandResponse>(commands.size());
+
+            for (Command command : commands) {
+                if (command instanceof BatchCommand) {
+                    responses.add(new GenericCommandResponse(command, false, null, new IllegalArgumentException(LOG
+                        .getMsgString(CommI18NResourceKeys.COMMAND_PROCESSOR_NESTED_BATCH))));
+                } else {
+                    responses.add(handleCommand(subsystem, command, null));
+                }
+            }
+
+            return new BatchCommandResponse(batch, responses);
+        } catch (Throwable t) {
+            return new BatchCommandResponse(batch, t);
+        } finally {
+            // as per JBoss/Remoting docs, you must ensure you close the input stream
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Throwable t) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a single command. See {@link #handleIncomingInvocationRequest(InputStream, InvocationRequest)}.
+     *
+     * @param  subsystem the subsystem where the command service that executes the command is registered
+     * @param  parameter the invocation parameter, which should be the command to execute
+     * @param  in        the input stream if this is a streaming request (may be <code>null</code>)
+     *
+     * @return the response
+     */
+    private CommandResponse handleCommand(String subsystem, Object parameter, InputStream in) {
         Command cmd = null;
         CommandResponse ret_response = null;
 
         long elapsed = 0L; // will be the time in ms that it took to invoked the command service if we did invoke it
 
         try {
-            // get the subsystem - find the command service in this subsystem that will execute our command
-            String subsystem = invocation.getSubsystem();
-
             // get the Command the client wants to execute
-            cmd = (Command) invocation.getParameter();
+            cmd = (Command) parameter;
             IncomingCommandTrace.start(cmd);
 
             if (cmd != null) {
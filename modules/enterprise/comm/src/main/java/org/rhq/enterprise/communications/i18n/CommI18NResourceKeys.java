@@ -237,6 +237,30 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Maximalgrüße [{0}] muss größer oder gleich [{1}] sein", locale = "de") })
     String INVALID_MAX_SIZE = "PersistentFifo.invalid-max-size";
 
+    @I18NMessages( { @I18NMessage("Migrated [{0}] entries from the old single-file spool [{1}] into spool segments") })
+    String PERSISTENT_FIFO_LEGACY_MIGRATED = "PersistentFifo.legacy-migrated";
+
+    @I18NMessages( { @I18NMessage("Failed to migrate the old single-file spool [{0}] - it is kept and will be migrated again the next time the spool is loaded. Cause: {1}") })
+    String PERSISTENT_FIFO_LEGACY_MIGRATION_FAILED = "PersistentFifo.legacy-migration-failed";
+
+    @I18NMessages( { @I18NMessage("Spool segment [{0}] is not valid and will be discarded") })
+    String PERSISTENT_FIFO_INVALID_SEGMENT = "PersistentFifo.invalid-segment";
+
+    @I18NMessages( { @I18NMessage("The old single-file spool [{0}] was migrated but could not be deleted - the migrated entries are discarded so they are not sent twice, the file will be migrated again the next time the spool is loaded") })
+    String PERSISTENT_FIFO_LEGACY_NOT_DELETED = "PersistentFifo.legacy-not-deleted";
+
+    @I18NMessages( { @I18NMessage("Could not rename the migrated spool entries [{0}] to the spool segment [{1}] - they will be renamed the next time the spool is loaded") })
+    String PERSISTENT_FIFO_MIGRATION_NOT_RENAMED = "PersistentFifo.migration-not-renamed";
+
+    @I18NMessages( { @I18NMessage("Spool is over its maximum size; dropped segment [{0}] containing [{1}] entries") })
+    String PERSISTENT_FIFO_SEGMENT_PURGED = "PersistentFifo.segment-purged";
+
+    @I18NMessages( { @I18NMessage("Spool segment [{0}] could not be deleted nor marked as empty - its entries may be sent again. Cause: {1}") })
+    String PERSISTENT_FIFO_SEGMENT_NOT_DELETED = "PersistentFifo.segment-not-deleted";
+
+    @I18NMessages( { @I18NMessage("Dropped a corrupt entry taken from spool [{0}]. Cause: {1}") })
+    String PERSISTENT_FIFO_CORRUPT_ENTRY = "PersistentFifo.corrupt-entry";
+
     @I18NMessages( { @I18NMessage("Failed to execute remote POJO method [{0}]. Cause: {1}") })
     String CLIENT_REMOTE_POJO_INVOKER_EXECUTION_FAILURE = "ClientRemotePojoFactory.execution-failure";
 
@@ -439,6 +463,15 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Nachricht, die an den Client zurückgesandt wird", locale = "de") })
     String ECHO_COMMAND_MESSAGE = "EchoCommand.message";
 
+    @I18NMessages( { @I18NMessage("The list of commands to be processed in the batch") })
+    String BATCH_COMMAND_COMMANDS = "BatchCommand.commands";
+
+    @I18NMessages( { @I18NMessage("Batch commands cannot be nested - a batch command cannot contain another batch command") })
+    String COMMAND_PROCESSOR_NESTED_BATCH = "CommandProcessor.nested-batch";
+
+    @I18NMessages( { @I18NMessage("The remote endpoint [{0}] could not process a batch of commands - commands will be sent individually for the next [{1}] ms before batching is tried again. Cause: {2}") })
+    String CLIENT_COMMAND_SENDER_BATCHING_UNSUPPORTED = "ClientCommandSender.batching-unsupported";
+
     @I18NMessages( {
         @I18NMessage("A string prepended to the message when echoed back"),
         @I18NMessage(value = "Eine Zeichenkette, die der Nachricht vorangestellt wird, die zurückgesendet wird", locale = "de") })
@@ -18,10 +18,12 @@
  */
 package org.rhq.enterprise.communications.util;
 
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Random;
 import mazz.i18n.Logger;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
@@ -30,42 +32,216 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
  * This is basically a thread gatekeeper that allows a thread to ask for permission to continue.
  *
  * <p>Under the covers, this object uses a set of named counting semaphores. A calling thread asks for permission by
- * giving a name to {@link #getPermit(String)}; if no more permits are available on the named semaphore, this manager
- * will throw a runtime exception. In effect, it will abort a thread unless that thread is permitted to continue.
- * Because this manager maintains a dynamic set of named counting semaphores, you can have groups of threads that are
- * allowed to operate independently of other groups of threads (i.e. each group of threads can use their own named
- * semaphore).
+ * giving a name to {@link #getPermit(String)}; if no more permits are available on the named semaphore, the thread
+ * will be queued and will wait a short amount of time for another thread to release its permit. If no permit becomes
+ * available in that time (or the queue is already full), this manager will throw a runtime exception. In effect, it
+ * will abort a thread unless that thread is permitted to continue. Because this manager maintains a dynamic set of
+ * named counting semaphores, you can have groups of threads that are allowed to operate independently of other groups
+ * of threads (i.e. each group of threads can use their own named semaphore).
  *
  * <p>Each counting semaphore will be given a default number of total permits. You can set a custom number of permits
  * per counting semaphore by passing in a set of names with their associated number-of-permits-allowed to the
  * constructor.</p>
  *
+ * <p>Threads waiting in a semaphore's queue are admitted by {@link #getPermit(String, int) priority}; threads of the
+ * same priority are admitted in the order they arrived. A waiting thread gains priority the longer it waits so low
+ * priority threads are never starved. The amount of time threads had to wait for their permits is tracked per
+ * semaphore - see {@link #getAllStatistics()}.</p>
+ *
  * @author John Mazzitelli
  */
 public class ConcurrencyManager {
     public static class Permit {
         private String name;
         private int managerId;
+        private long grantedTime;
     }
 
+    /**
+     * A snapshot of the statistics of one named semaphore, including a histogram of the times threads had to wait in
+     * the queue before they were given their permits.
+     */
+    public static class Statistics implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int permitsAllowed;
+        private final int permitsInUse;
+        private final int queueDepth;
+        private final long numberGranted;
+        private final long numberDenied;
+        private final long maxQueueTime;
+        private final long totalQueueTime;
+        private final long[] histogramCounts;
+
+        private Statistics(String name, Limit limit) {
+            this.name = name;
+            this.permitsAllowed = limit.permitsAllowed;
+            this.permitsInUse = limit.permitsAllowed - limit.available;
+            this.queueDepth = limit.waiters.size();
+            this.numberGranted = limit.granted;
+            this.numberDenied = limit.denied;
+            this.maxQueueTime = limit.maxQueueTime;
+            this.totalQueueTime = limit.totalQueueTime;
+            this.histogramCounts = limit.histogram.clone();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPermitsAllowed() {
+            return permitsAllowed;
+        }
+
+        public int getPermitsInUse() {
+            return permitsInUse;
+        }
+
+        /**
+         * @return number of threads that were waiting for a permit when this snapshot was taken
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getNumberGranted() {
+            return numberGranted;
+        }
+
+        public long getNumberDenied() {
+            return numberDenied;
+        }
+
+        /**
+         * @return the longest time, in milliseconds, a thread had to wait before being granted a permit
+         */
+        public long getMaxQueueTime() {
+            return maxQueueTime;
+        }
+
+        /**
+         * @return the average time, in milliseconds, threads had to wait before being granted their permits
+         */
+        public long getAverageQueueTime() {
+            return (numberGranted > 0) ? (totalQueueTime / numberGranted) : 0L;
+        }
+
+        /**
+         * Returns the upper bounds (inclusive, in milliseconds) of the queue time histogram buckets. The last bucket
+         * has no upper bound; its value is {@link Long#MAX_VALUE}.
+         *
+         * @return histogram bucket upper bounds
+         */
+        public long[] getHistogramBuckets() {
+            return HISTOGRAM_BUCKETS.clone();
+        }
+
+        /**
+         * Returns the number of granted permits whose queue times fell into each of the
+         * {@link #getHistogramBuckets() histogram buckets}.
+         *
+         * @return histogram counts
+         */
+        public long[] getHistogramCounts() {
+            return histogramCounts.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder(name);
+            str.append(": allowed=").append(permitsAllowed);
+            str.append(", in-use=").append(permitsInUse);
+            str.append(", queued=").append(queueDepth);
+            str.append(", granted=").append(numberGranted);
+            str.append(", denied=").append(numberDenied);
+            str.append(", avg-queue-time=").append(getAverageQueueTime());
+            str.append(", max-queue-time=").append(maxQueueTime);
+            str.append(", histogram=[");
+            for (int i = 0; i < HISTOGRAM_BUCKETS.length; i++) {
+                str.append((i > 0) ? ", " : "");
+                str.append((i < (HISTOGRAM_BUCKETS.length - 1)) ? ("<=" + HISTOGRAM_BUCKETS[i]) : "more");
+                str.append('=').append(histogramCounts[i]);
+            }
+            str.append(']');
+            return str.toString();
+        }
+    }
+
+    /**
+     * The name of the system property that defines the maximum time, in milliseconds, a thread will wait in a queue for
+     * a permit before being denied.
+     */
+    public static final String MAX_QUEUE_TIME_PROPERTY = "rhq.communications.concurrency-manager.max-queue-time";
+
+    /**
+     * The priority given to threads that do not ask for a specific one (this is the same as
+     * {@link org.rhq.core.communications.command.annotation.LimitedConcurrency#PRIORITY_NORMAL}).
+     */
+    public static final int DEFAULT_PRIORITY = 5;
+
     private static final Logger LOG = CommI18NFactory.getLogger(ConcurrencyManager.class);
     private static final int DEFAULT_PERMITS = 50;
+    private static final long DEFAULT_MAX_QUEUE_TIME = 1000L;
+
+    // no matter how few permits a semaphore has, this many threads can wait in its queue
+    private static final int MIN_QUEUE_DEPTH = 10;
+
+    // the priority of a queued thread goes up by one for every this many milliseconds it has waited
+    private static final long PRIORITY_AGING_MILLIS = 100L;
+
+    // we never ask the client to wait less than this or more than that before retrying a denied request
+    private static final long MIN_SLEEP_BEFORE_RETRY = 1000L;
+    private static final long MAX_SLEEP_BEFORE_RETRY = 15000L;
+
+    // the upper bounds of the queue time histogram buckets, in milliseconds
+    private static final long[] HISTOGRAM_BUCKETS = { 0L, 10L, 50L, 100L, 250L, 500L, 1000L, 5000L, Long.MAX_VALUE };
 
     // keys on permit name, value is the number of permits allowed to be concurrently held, this never changes after instantiation
     private final Map<String, Integer> numPermitsAllowed = new HashMap<String, Integer>();
 
     // the named counting semaphores (key=semaphore name, value=semaphore)
-    private final Map<String, Semaphore> semaphores = new HashMap<String, Semaphore>();
+    private final Map<String, Limit> limits = new HashMap<String, Limit>();
 
-    // Number of threads that were denied permission to a named semaphore (key=semaphore name, value=denied count).
-    // The count will be reset whenever a semaphore permit is released (in effect, this tracks the number
-    // of consecutive denials since the last release of a semaphore permit).
-    private final Map<String, AtomicInteger> deniedCounts = new HashMap<String, AtomicInteger>();
+    // the longest amount of time a thread will wait in a queue for a permit
+    private final long maxQueueTime;
+
+    // used to spread out the retries of denied clients
+    private final Random random = new Random();
 
     public ConcurrencyManager(Map<String, Integer> newPermitsAllowed) {
+        this(newPermitsAllowed, Long.getLong(MAX_QUEUE_TIME_PROPERTY, DEFAULT_MAX_QUEUE_TIME).longValue());
+    }
+
+    /**
+     * Creates the manager with the given permit limits.
+     *
+     * @param newPermitsAllowed the number of permits allowed, keyed on permit name (may be <code>null</code>)
+     * @param maxQueueTime      the maximum time, in milliseconds, a thread will wait in a queue for a permit before
+     *                          being denied - if 0 or less, threads are immediately denied when no permits are available
+     */
+    public ConcurrencyManager(Map<String, Integer> newPermitsAllowed, long maxQueueTime) {
         if (newPermitsAllowed != null) {
             numPermitsAllowed.putAll(newPermitsAllowed);
         }
+
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Asks to obtain a permit to continue with the {@link #DEFAULT_PRIORITY default priority}.
+     *
+     * @param  name the name of the semaphore to acquire the permit from (may be <code>null</code>)
+     *
+     * @return the permit that allows the thread to continue. The caller must eventually
+     *         {@link #releasePermit(Permit) release it}.
+     *
+     * @throws NotPermittedException if the calling thread cannot obtain a permit
+     *
+     * @see    #getPermit(String, int)
+     */
+    public Permit getPermit(String name) throws NotPermittedException {
+        return getPermit(name, DEFAULT_PRIORITY);
     }
 
     /**
@@ -73,15 +249,22 @@ public class ConcurrencyManager {
      * to acquire. If <code>name</code> is <code>null</code>, this method will return always (in effect, the null
      * semaphore allows an unlimited number of permits).
      *
-     * @param  name the name of the semaphore to acquire the permit from (note: this has nothing to do with the name of
-     *              a thread or thread group) (may be <code>null</code>)
+     * <p>If there are no permits available, the calling thread will wait in the semaphore's queue for a short period
+     * of time. Other threads releasing their permits will hand them to the queued thread with the highest priority.
+     * If the queue is full or the thread waited too long, this throws an exception whose sleep-before-retry hint is
+     * based on how busy the semaphore is.</p>
+     *
+     * @param  name     the name of the semaphore to acquire the permit from (note: this has nothing to do with the name
+     *                  of a thread or thread group) (may be <code>null</code>)
+     * @param  priority the priority of the caller; the higher the number, the sooner it will be admitted when it has to
+     *                  wait for a permit
      *
      * @return the permit that allows the thread to continue. The caller must eventually
      *         {@link #releasePermit(Permit) release it}.
      *
      * @throws NotPermittedException if the calling thread cannot obtain a permit
      */
-    public Permit getPermit(String name) throws NotPermittedException {
+    public Permit getPermit(String name, int priority) throws NotPermittedException {
         Permit permit = new Permit();
         permit.name = name;
         permit.managerId = this.hashCode(); // identifes this manager as the originator of this permit
@@ -90,19 +273,46 @@ public class ConcurrencyManager {
             return permit;
         }
 
-        Semaphore semaphore = getSemaphore(name);
-        if (semaphore == null) {
+        Limit limit = getLimit(name);
+        if (limit == null) {
             // there is no limit, always allow it
             permit.name = null;
             return permit;
         }
 
-        boolean permitted = semaphore.tryAcquire();
+        long start = System.currentTimeMillis();
+
+        synchronized (limit) {
+            if ((limit.available > 0) && limit.waiters.isEmpty()) {
+                limit.available--;
+            } else {
+                // we only queue up about as many threads as there are permits - any more than that and we'd just
+                // be tying up threads that would not be admitted within the short time we allow them to wait
+                if ((maxQueueTime <= 0) || (limit.waiters.size() >= Math.max(MIN_QUEUE_DEPTH, limit.permitsAllowed))) {
+                    throw deny(limit, priority);
+                }
+
+                Waiter waiter = new Waiter(priority, start);
+                limit.waiters.add(waiter);
+
+                try {
+                    long remaining = maxQueueTime;
+                    while (!waiter.granted && (remaining > 0)) {
+                        limit.wait(remaining);
+                        remaining = maxQueueTime - (System.currentTimeMillis() - start);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (!waiter.granted) {
+                    limit.waiters.remove(waiter);
+                    throw deny(limit, priority);
+                }
+            }
 
-        if (!permitted) {
-            int deniedCount = getDeniedCount(name).incrementAndGet(); // don't worry about this not being atomic with aquire, no biggie
-            long sleepBeforeRetry = getSleepBeforeRetryHint(deniedCount);
-            throw new NotPermittedException(sleepBeforeRetry);
+            permit.grantedTime = System.currentTimeMillis();
+            limit.recordGranted(permit.grantedTime - start);
         }
 
         return permit;
@@ -116,12 +326,21 @@ public class ConcurrencyManager {
     public void releasePermit(Permit permit) {
         // ignore this permit if it is null, indicated an infinite limit or if it was not granted by this specific concurrency manager instance
         if ((permit != null) && (permit.name != null) && (permit.managerId == this.hashCode())) {
-            Semaphore semaphore = getSemaphore(permit.name);
-            if (semaphore != null) {
-                semaphore.release();
+            Limit limit = getLimit(permit.name);
+            if (limit != null) {
+                synchronized (limit) {
+                    limit.recordReleased(System.currentTimeMillis() - permit.grantedTime);
+
+                    // hand our permit directly to the next thread in line; if no one is waiting, put it back
+                    Waiter next = limit.nextWaiter();
+                    if (next != null) {
+                        next.granted = true;
+                        limit.notifyAll();
+                    } else {
+                        limit.available++;
+                    }
+                }
             }
-
-            getDeniedCount(permit.name).set(0); // we can reset this now; don't worry about this not being atomic with the release, no biggie
         }
 
         return;
@@ -170,6 +389,40 @@ public class ConcurrencyManager {
         return number.intValue();
     }
 
+    /**
+     * Returns the statistics of all the named semaphores that have been used by this manager. The returned map is a
+     * snapshot and is not backed by this manager.
+     *
+     * @return map keyed on permit names whose values are the statistics of the named semaphores
+     */
+    public Map<String, Statistics> getAllStatistics() {
+        Map<String, Statistics> stats = new HashMap<String, Statistics>();
+
+        synchronized (limits) {
+            for (Map.Entry<String, Limit> entry : limits.entrySet()) {
+                Limit limit = entry.getValue();
+                synchronized (limit) {
+                    stats.put(entry.getKey(), new Statistics(entry.getKey(), limit));
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * Resets the granted/denied counts and queue time histograms of all named semaphores back to 0.
+     */
+    public void clearStatistics() {
+        synchronized (limits) {
+            for (Limit limit : limits.values()) {
+                synchronized (limit) {
+                    limit.clear();
+                }
+            }
+        }
+    }
+
     /**
      * If this semaphore does not yet exist, create it. Note that this class does NOT cleanup or otherwise destroy
      * semaphores once they are created so make sure you use this class such that it only manages a fixed set of named
@@ -186,56 +439,162 @@ public class ConcurrencyManager {
      *
      * @return the semaphore, or <code>null</code> if there is no limit for the given name
      */
-    private Semaphore getSemaphore(String name) {
-        Semaphore semaphore;
+    private Limit getLimit(String name) {
+        Limit limit;
 
-        synchronized (semaphores) {
-            semaphore = semaphores.get(name);
+        synchronized (limits) {
+            limit = limits.get(name);
 
-            if (semaphore == null) {
+            if (limit == null) {
                 int permits = getConfiguredNumberOfPermitsAllowed(name);
                 if (permits > 0) {
-                    semaphore = new Semaphore(permits, false);
-                    semaphores.put(name, semaphore);
+                    limit = new Limit(permits);
+                    limits.put(name, limit);
                 }
             }
         }
 
-        return semaphore;
+        return limit;
     }
 
-    private AtomicInteger getDeniedCount(String name) {
-        AtomicInteger deniedCount;
+    /**
+     * Builds the exception that denies a thread its permit. The caller must hold the limit's lock.
+     *
+     * @param  limit    the semaphore the thread was denied
+     * @param  priority the priority of the denied thread
+     *
+     * @return the exception to throw
+     */
+    private NotPermittedException deny(Limit limit, int priority) {
+        limit.denied++;
+        return new NotPermittedException(getSleepBeforeRetryHint(limit, priority));
+    }
 
-        synchronized (deniedCounts) {
-            deniedCount = deniedCounts.get(name);
+    private long getSleepBeforeRetryHint(Limit limit, int priority) {
+        // Estimate how long it will take for the threads currently holding or waiting for permits to get through.
+        // Every permit in use and every waiting thread will take roughly the average hold time; the semaphore
+        // can work on permitsAllowed of them at the same time. Higher priority callers are told to come back
+        // sooner since they will jump ahead of the others anyway. We add some random jitter so a large number
+        // of clients that were denied at the same time (like all agents reconnecting after a server restart)
+        // do not all come back at the same time and get denied again.
+        long backlog = (limit.permitsAllowed - limit.available) + limit.waiters.size();
+        long estimate = (backlog * limit.averageHoldTime) / limit.permitsAllowed;
 
-            if (deniedCount == null) {
-                deniedCount = new AtomicInteger(0);
-                deniedCounts.put(name, deniedCount);
-            }
+        estimate = (estimate * DEFAULT_PRIORITY) / Math.max(1, priority);
+
+        estimate = Math.max(MIN_SLEEP_BEFORE_RETRY, Math.min(MAX_SLEEP_BEFORE_RETRY, estimate));
+
+        long jitter;
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * estimate * 0.5);
         }
 
-        return deniedCount;
+        return Math.min(MAX_SLEEP_BEFORE_RETRY, estimate + jitter);
     }
 
-    private long getSleepBeforeRetryHint(int deniedCount) {
-        // If the denied count is low, there is some but not alot of contention.
-        // In this case, we can tell the client to just wait a little bit before retrying.
-        // If the denied count is high, then there is alot of contention and we'll
-        // want to ask the client to wait longer to help clear up the heavy load.  This
-        // is really just to put some space between large amounts of requests.
-        // We'll never ask the client to wait less than 5 seconds or more than 15 seconds
-        // BTW: there is no reasoning behind the numbers I've picked - its really just to
-        // put some different/larger distances between large amounts of requests.  I could have
-        // made it random and probably get the same results.  We could just return
-        // a fixed 5000ms delay time and probably still get good performance, but hey,
-        // this looks smrter.
+    /**
+     * A thread waiting for a permit.
+     */
+    private static class Waiter {
+        private final int priority;
+        private final long queuedTime;
+        private boolean granted = false;
+
+        private Waiter(int priority, long queuedTime) {
+            this.priority = priority;
+            this.queuedTime = queuedTime;
+        }
+
+        private long getEffectivePriority(long now) {
+            return priority + ((now - queuedTime) / PRIORITY_AGING_MILLIS);
+        }
+    }
 
-        if (deniedCount > 100) {
-            return 15000L; // never more than 15s
+    /**
+     * A named counting semaphore along with its queue of waiting threads and its statistics. All access must be done
+     * while holding this object's lock.
+     */
+    private static class Limit {
+        private final int permitsAllowed;
+        private int available;
+        private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+        private long granted;
+        private long denied;
+        private long maxQueueTime;
+        private long totalQueueTime;
+        private final long[] histogram = new long[HISTOGRAM_BUCKETS.length];
+
+        private long released;
+        private long averageHoldTime;
+
+        private Limit(int permitsAllowed) {
+            this.permitsAllowed = permitsAllowed;
+            this.available = permitsAllowed;
         }
 
-        return 5000L + ((deniedCount / 10) * 1000L); // never less than 5s, never more than 15s
+        /**
+         * Removes and returns the waiter that should be admitted next - the one with the highest effective priority.
+         * Since waiters are queued in arrival order, the earliest one wins a tie.
+         *
+         * @return the next waiter or <code>null</code> if no one is waiting
+         */
+        private Waiter nextWaiter() {
+            if (waiters.isEmpty()) {
+                return null;
+            }
+
+            long now = System.currentTimeMillis();
+            Waiter best = null;
+            long bestPriority = Long.MIN_VALUE;
+
+            for (Waiter waiter : waiters) {
+                long effective = waiter.getEffectivePriority(now);
+                if (effective > bestPriority) {
+                    best = waiter;
+                    bestPriority = effective;
+                }
+            }
+
+            for (Iterator<Waiter> iter = waiters.iterator(); iter.hasNext();) {
+                if (iter.next() == best) {
+                    iter.remove();
+                    break;
+                }
+            }
+
+            return best;
+        }
+
+        private void recordGranted(long queueTime) {
+            granted++;
+            totalQueueTime += queueTime;
+            if (queueTime > maxQueueTime) {
+                maxQueueTime = queueTime;
+            }
+
+            for (int i = 0; i < HISTOGRAM_BUCKETS.length; i++) {
+                if (queueTime <= HISTOGRAM_BUCKETS[i]) {
+                    histogram[i]++;
+                    break;
+                }
+            }
+        }
+
+        private void recordReleased(long holdTime) {
+            // the running average is not reset when the statistics are cleared, it drives the retry hints
+            released++;
+            averageHoldTime = (((released - 1) * averageHoldTime) + holdTime) / released;
+        }
+
+        private void clear() {
+            granted = 0L;
+            denied = 0L;
+            maxQueueTime = 0L;
+            totalQueueTime = 0L;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = 0L;
+            }
+        }
     }
 }
\ No newline at end of file
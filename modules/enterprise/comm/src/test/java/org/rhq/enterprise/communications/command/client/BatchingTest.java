@@ -0,0 +1,268 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.enterprise.communications.command.Command;
+import org.rhq.enterprise.communications.command.CommandResponse;
+import org.rhq.enterprise.communications.command.CommandType;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommand;
+import org.rhq.enterprise.communications.command.impl.batch.BatchCommandResponse;
+import org.rhq.enterprise.communications.command.impl.generic.GenericCommand;
+import org.rhq.enterprise.communications.command.impl.generic.GenericCommandResponse;
+
+/**
+ * Tests the sending of queued asynchronous commands in batches, and the fallback to sending them individually. The
+ * commands are queued while the sender is not sending and a task is run in the test thread, so that the batch it sends
+ * is known in advance.
+ */
+@Test(groups = "comm.client")
+public class BatchingTest {
+    private static final int BATCH_SIZE = 5;
+
+    /**
+     * Tests that the queued commands are sent in a single batch.
+     *
+     * @throws Exception
+     */
+    public void testBatch() throws Exception {
+        BatchingRemoteCommunicator comm = new BatchingRemoteCommunicator();
+        ClientCommandSender sender = createSender(comm);
+        CountingSendCallback sendCallback = new CountingSendCallback();
+        sender.setSendCallbacks(new SendCallback[] { sendCallback });
+
+        List<CommandResponse> responses = sendBatch(sender, BATCH_SIZE);
+
+        assert comm.m_batches.get() == 1 : comm.m_batches;
+        assert comm.m_batchedCommands.get() == BATCH_SIZE : comm.m_batchedCommands;
+        assert comm.getSentCount() == 0 : "no command should have been sent individually";
+        assertAllSuccessful(responses, BATCH_SIZE);
+        assert sendCallback.m_sending.get() == BATCH_SIZE : sendCallback.m_sending;
+        assert sendCallback.m_sent.get() == BATCH_SIZE : sendCallback.m_sent;
+        assert sender.getMetrics().getNumberBatchesSent() == 1L;
+        assert sender.getMetrics().getNumberBatchedCommandsSent() == BATCH_SIZE;
+        assert sender.getMetrics().getNumberSuccessfulCommandsSent() == BATCH_SIZE;
+        assert sender.drainQueuedCommands().isEmpty();
+    }
+
+    /**
+     * Tests that the commands of a batch the remote endpoint cannot process are sent individually, going through the
+     * pre-send callbacks only once, and that batching is suspended afterwards.
+     *
+     * @throws Exception
+     */
+    public void testFallbackWhenBatchFails() throws Exception {
+        BatchingRemoteCommunicator comm = new BatchingRemoteCommunicator();
+        comm.m_mode = BatchMode.FAIL;
+        ClientCommandSender sender = createSender(comm);
+        CountingSendCallback sendCallback = new CountingSendCallback();
+        sender.setSendCallbacks(new SendCallback[] { sendCallback });
+
+        List<CommandResponse> responses = sendBatch(sender, BATCH_SIZE);
+
+        assert comm.m_batches.get() == 1 : comm.m_batches;
+        assert comm.getSentCount() == BATCH_SIZE : "each command should have been sent individually";
+        assertAllSuccessful(responses, BATCH_SIZE);
+        assert sendCallback.m_sending.get() == BATCH_SIZE : "pre-send callbacks ran more than once: "
+            + sendCallback.m_sending;
+        assert sendCallback.m_sent.get() == BATCH_SIZE : sendCallback.m_sent;
+        assert sender.getMetrics().getNumberBatchesSent() == 0L : "a failed batch must not be counted as sent";
+
+        // batching is suspended - the task sends its own command without trying a batch, the others stay queued
+        comm.m_mode = BatchMode.OK;
+        responses = sendBatch(sender, BATCH_SIZE);
+        assert comm.m_batches.get() == 1 : comm.m_batches;
+        assert comm.getSentCount() == BATCH_SIZE + 1 : comm.getSentCount();
+        assertAllSuccessful(responses, 1);
+        assert sender.drainQueuedCommands().size() == BATCH_SIZE - 1;
+    }
+
+    /**
+     * Tests that a batch response that does not have one response per command is not used.
+     *
+     * @throws Exception
+     */
+    public void testFallbackOnResponseCountMismatch() throws Exception {
+        BatchingRemoteCommunicator comm = new BatchingRemoteCommunicator();
+        comm.m_mode = BatchMode.MISSING_RESPONSE;
+        ClientCommandSender sender = createSender(comm);
+        CountingSendCallback sendCallback = new CountingSendCallback();
+        sender.setSendCallbacks(new SendCallback[] { sendCallback });
+
+        List<CommandResponse> responses = sendBatch(sender, BATCH_SIZE);
+
+        assert comm.m_batches.get() == 1 : comm.m_batches;
+        assert comm.getSentCount() == BATCH_SIZE : comm.getSentCount();
+        assertAllSuccessful(responses, BATCH_SIZE);
+        assert sendCallback.m_sent.get() == BATCH_SIZE : "post-send callbacks must run once per command";
+        assert sender.getMetrics().getNumberBatchesSent() == 0L;
+        assert sender.getMetrics().getNumberBatchedCommandsSent() == 0L;
+    }
+
+    /**
+     * Tests that batching is tried again once the backoff expired.
+     *
+     * @throws Exception
+     */
+    public void testBatchingResumesAfterBackoff() throws Exception {
+        BatchingRemoteCommunicator comm = new BatchingRemoteCommunicator();
+        comm.m_mode = BatchMode.FAIL;
+        ClientCommandSender sender = createSender(comm);
+        sender.setBatchingRetryInterval(100L);
+
+        assertAllSuccessful(sendBatch(sender, BATCH_SIZE), BATCH_SIZE);
+        assert comm.m_batches.get() == 1 : comm.m_batches;
+
+        Thread.sleep(200L);
+        comm.m_mode = BatchMode.OK;
+        assertAllSuccessful(sendBatch(sender, BATCH_SIZE), BATCH_SIZE);
+        assert comm.m_batches.get() == 2 : "batching should have been tried again: " + comm.m_batches;
+        assert comm.getSentCount() == BATCH_SIZE : comm.getSentCount();
+        assert sender.getMetrics().getNumberBatchesSent() == 1L;
+    }
+
+    /**
+     * Queues <code>count - 1</code> asynchronous commands while the sender is not sending, then runs a task for one
+     * more command in this thread, which sends the queued commands along with its own.
+     */
+    private List<CommandResponse> sendBatch(ClientCommandSender sender, int count) throws Exception {
+        List<CommandResponse> responses = Collections.synchronizedList(new ArrayList<CommandResponse>());
+        CollectingCallback callback = new CollectingCallback(responses);
+
+        for (int i = 1; i < count; i++) {
+            sender.sendAsynch(createGenericCommand(), callback);
+        }
+
+        ClientCommandSenderTask lead = new ClientCommandSenderTask(sender, new CommandAndCallback(
+            createGenericCommand(), callback), -1L, true, null);
+        lead.run();
+
+        return responses;
+    }
+
+    private void assertAllSuccessful(List<CommandResponse> responses, int count) {
+        assert responses.size() == count : responses;
+        for (CommandResponse response : responses) {
+            assert response.isSuccessful() : response;
+        }
+    }
+
+    private ClientCommandSender createSender(RemoteCommunicator comm) {
+        ClientCommandSenderConfiguration config = new ClientCommandSenderConfiguration();
+
+        config.dataDirectory = new File(System.getProperty("java.io.tmpdir"));
+        config.defaultTimeoutMillis = -1L;
+        config.maxConcurrent = 1;
+        config.commandSpoolFileName = "command-spool.dat";
+        config.commandSpoolFileMaxSize = 100000L;
+        config.commandSpoolFilePurgePercentage = 90;
+        config.serverPollingIntervalMillis = 0L;
+        config.retryInterval = 10000L;
+        config.queueSize = 100;
+        config.enableQueueThrottling = false;
+        config.enableSendThrottling = false;
+        config.enableBatching = true;
+        config.batchMaxCommands = BATCH_SIZE;
+
+        return new ClientCommandSender(comm, config);
+    }
+
+    private GenericCommand createGenericCommand() {
+        GenericCommand cmd = new GenericCommand();
+        cmd.setCommandType(new CommandType("test", 1));
+        return cmd;
+    }
+
+    private enum BatchMode {
+        OK, FAIL, MISSING_RESPONSE
+    }
+
+    /**
+     * Processes batch commands as the server would, or fails to. Commands sent individually are counted by the
+     * superclass.
+     */
+    private static class BatchingRemoteCommunicator extends DummyRemoteCommunicator {
+        private final AtomicInteger m_batches = new AtomicInteger();
+        private final AtomicInteger m_batchedCommands = new AtomicInteger();
+        private volatile BatchMode m_mode = BatchMode.OK;
+
+        @Override
+        public CommandResponse send(Command command) throws Exception {
+            if (!(command instanceof BatchCommand)) {
+                return super.send(command);
+            }
+
+            m_batches.incrementAndGet();
+            List<Command> commands = ((BatchCommand) command).getCommands();
+
+            switch (m_mode) {
+            case FAIL:
+                return new BatchCommandResponse(command, new Exception("cannot process batches"));
+
+            case MISSING_RESPONSE:
+                commands = commands.subList(1, commands.size());
+                break;
+
+            default:
+                m_batchedCommands.addAndGet(commands.size());
+            }
+
+            List<CommandResponse> responses = new ArrayList<CommandResponse>();
+            for (Command batched : commands) {
+                responses.add(new GenericCommandResponse(batched, true, null, null));
+            }
+            return new BatchCommandResponse(command, responses);
+        }
+    }
+
+    private static class CountingSendCallback implements SendCallback {
+        private final AtomicInteger m_sending = new AtomicInteger();
+        private final AtomicInteger m_sent = new AtomicInteger();
+
+        public void sending(Command command) {
+            m_sending.incrementAndGet();
+        }
+
+        public CommandResponse sent(Command command, CommandResponse response) {
+            m_sent.incrementAndGet();
+            return response;
+        }
+    }
+
+    private static class CollectingCallback implements CommandResponseCallback {
+        private static final long serialVersionUID = 1L;
+
+        private final List<CommandResponse> m_responses;
+
+        private CollectingCallback(List<CommandResponse> responses) {
+            m_responses = responses;
+        }
+
+        public void commandSent(CommandResponse response) {
+            m_responses.add(response);
+        }
+    }
+}
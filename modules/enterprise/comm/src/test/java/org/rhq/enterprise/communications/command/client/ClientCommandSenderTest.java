@@ -408,7 +408,7 @@ public class ClientCommandSenderTest {
             }
 
             // now try to delete it
-            ret_file.delete();
+            PersistentFifo.delete(ret_file);
         }
 
         return ret_file;
@@ -18,7 +18,15 @@
  */
 package org.rhq.enterprise.communications.command.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import org.testng.annotations.Test;
 
 /**
@@ -190,10 +198,239 @@ public class PersistentFifoTest {
         } catch (Throwable t) {
             t.printStackTrace();
         } finally {
-            fifoFile.delete();
+            PersistentFifo.delete(fifoFile);
         }
     }
 
+    /**
+     * Tests putting and taking batches of entries.
+     *
+     * @throws Exception
+     */
+    public void testBatchPutTake() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-batch.data");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 1000000L, 75, true);
+            List<byte[]> entries = new ArrayList<byte[]>();
+            for (int i = 0; i < 1000; i++) {
+                entries.add(("batch entry " + i).getBytes());
+            }
+
+            fifo.putAll(entries);
+            assert fifo.count() == 1000 : "count should be 1000: " + fifo.count();
+
+            List<byte[]> taken = fifo.take(600);
+            assert taken.size() == 600 : "should have taken 600: " + taken.size();
+            assert "batch entry 0".equals(new String(taken.get(0)));
+            assert "batch entry 599".equals(new String(taken.get(599)));
+
+            taken = fifo.take(600);
+            assert taken.size() == 400 : "only 400 left to take: " + taken.size();
+            assert "batch entry 999".equals(new String(taken.get(399)));
+
+            assert fifo.take(10).isEmpty() : "SHOULD NOT BE ABLE TO TAKE";
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that entries survive a new instance being created on the same file and that purging drops the oldest
+     * segments.
+     *
+     * @throws Exception
+     */
+    public void testReopenAndPurge() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-reopen.data");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            for (int i = 0; i < 100; i++) {
+                fifo.put(("reopen " + i).getBytes());
+            }
+
+            assert "reopen 0".equals(new String(fifo.take()));
+            fifo.close();
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert fifo.count() == 99 : "entries should have been persisted: " + fifo.count();
+            assert "reopen 1".equals(new String(fifo.take()));
+
+            // overflow the queue - the oldest entries get dropped, the newest must survive
+            for (int i = 0; i < 20000; i++) {
+                fifo.put(("0123456789012345678901234567890123456789x-" + i).getBytes());
+            }
+
+            long count = fifo.count();
+            assert count < 20000 : "should have purged some entries: " + count;
+
+            // purged segments must stay purged when the queue is loaded again
+            fifo.close();
+            fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert fifo.count() == count : "purged entries came back: " + fifo.count() + " != " + count;
+
+            byte[] data;
+            byte[] last_good = null;
+            while ((data = fifo.take()) != null) {
+                last_good = data;
+            }
+
+            assert "0123456789012345678901234567890123456789x-19999".equals(new String(last_good));
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a spool file written in the old, single file format is moved into segments.
+     *
+     * @throws Exception
+     */
+    public void testLegacyFileMigration() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-legacy.data");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            // count | head | tail | next | entry | next | entry
+            byte[] entry1 = "legacy 1".getBytes();
+            byte[] entry2 = "legacy 2!".getBytes();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(fifoFile));
+            out.writeLong(2L);
+            out.writeLong(24L);
+            out.writeLong(24L + 8L + entry1.length);
+            out.writeLong(entry1.length);
+            out.write(entry1);
+            out.writeLong(-1L);
+            out.write(entry2);
+            out.close();
+
+            StringWriter dump = new StringWriter();
+            PersistentFifo.dumpContents(new PrintWriter(dump), fifoFile, false, -1);
+            assert dump.toString().contains("2") : "dump should have seen the old entries: " + dump;
+
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert !fifoFile.exists() : "old file should have been removed after migration";
+            assert fifo.count() == 2 : "old entries should have been migrated: " + fifo.count();
+            assert "legacy 1".equals(new String(fifo.take()));
+            assert "legacy 2!".equals(new String(fifo.take()));
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a legacy spool file that cannot be migrated is kept, so its entries are not lost.
+     *
+     * @throws Exception
+     */
+    public void testFailedLegacyFileMigrationKeepsFile() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-legacy-bad.data");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            // count | head | tail | next - the next pointer claims more data than the file has
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(fifoFile));
+            out.writeLong(1L);
+            out.writeLong(24L);
+            out.writeLong(24L);
+            out.writeLong(1000L);
+            out.write("short".getBytes());
+            out.close();
+
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert fifoFile.exists() : "old file must be kept when its migration failed";
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a migration interrupted before the old file was deleted is done again from the old file, and one
+     * interrupted after it was deleted is completed, so no entry is lost or taken twice.
+     *
+     * @throws Exception
+     */
+    public void testInterruptedLegacyFileMigration() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-legacy-interrupted.data");
+        File migrationFile = new File(System.getProperty("java.io.tmpdir"), "TEST-legacy-interrupted.data.migrated");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            // the old file is still there, the leftover migration file must not add its entries
+            byte[] entry = "legacy".getBytes();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(fifoFile));
+            out.writeLong(1L);
+            out.writeLong(24L);
+            out.writeLong(24L);
+            out.writeLong(-1L);
+            out.write(entry);
+            out.close();
+            writeMigrationFile(migrationFile, entry);
+
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert !fifoFile.exists() : "old file should have been removed after migration";
+            assert !migrationFile.exists() : "migration file should have been renamed into a segment";
+            assert fifo.count() == 1 : "old entries should have been migrated once: " + fifo.count();
+            assert "legacy".equals(new String(fifo.take()));
+            fifo.close();
+
+            // the old file was deleted, the migration file holds its entries
+            writeMigrationFile(migrationFile, "migrated".getBytes());
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            assert !migrationFile.exists() : "migration file should have been renamed into a segment";
+            assert fifo.count() == 1 : "migrated entries should have been kept: " + fifo.count();
+            fifo.put("new".getBytes());
+            assert "migrated".equals(new String(fifo.take()));
+            assert "new".equals(new String(fifo.take()));
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a corrupt entry taken along with others only drops that one entry.
+     *
+     * @throws Exception
+     */
+    public void testCorruptCompressedEntryIsSkipped() throws Exception {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), "TEST-corrupt.data");
+        PersistentFifo.delete(fifoFile);
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            fifo.put(gzip("first"));
+            fifo.put("not compressed".getBytes());
+            fifo.put(gzip("third"));
+            fifo.close();
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 50, true);
+            List<byte[]> taken = fifo.take(10);
+            assert taken.size() == 2 : "only the corrupt entry should be dropped: " + taken.size();
+            assert "first".equals(new String(taken.get(0)));
+            assert "third".equals(new String(taken.get(1)));
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            PersistentFifo.delete(fifoFile);
+        }
+    }
+
+    private byte[] gzip(String data) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(data.getBytes());
+        gzip.close();
+        return baos.toByteArray();
+    }
+
     /**
      * In case something goes wrong in this test, we can manually enable it to dump things to stdout here.
      *
@@ -205,4 +442,21 @@ public class PersistentFifoTest {
             System.out.println(obj);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a segment holding the entry, as written by a migration.
+     */
+    private void writeMigrationFile(File migrationFile, byte[] entry) throws Exception {
+        // magic | version | write-pos | read-pos | put-count | take-count | length | entry
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(migrationFile));
+        out.writeInt(0x52485153);
+        out.writeInt(1);
+        out.writeInt(24 + 4 + entry.length);
+        out.writeInt(24);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(entry.length);
+        out.write(entry);
+        out.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.batch;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.util.stream.StreamUtil;
+import org.rhq.enterprise.communications.command.Command;
+import org.rhq.enterprise.communications.command.CommandResponse;
+import org.rhq.enterprise.communications.command.CommandType;
+import org.rhq.enterprise.communications.command.impl.generic.GenericCommand;
+import org.rhq.enterprise.communications.command.impl.generic.GenericCommandResponse;
+import org.rhq.enterprise.communications.command.param.InvalidParameterValueException;
+
+/**
+ * Tests the batch command and its response.
+ */
+@Test
+public class BatchCommandTest {
+    /**
+     * Tests that a batch keeps its own copy of the commands, in order.
+     */
+    public void testCommands() {
+        List<Command> commands = createCommands(3);
+        BatchCommand batch = new BatchCommand(commands);
+        commands.clear();
+
+        assertEquals(BatchCommand.COMMAND_TYPE, batch.getCommandType());
+        batch.checkParameterValidity(false);
+
+        List<Command> batched = batch.getCommands();
+        assertEquals(3, batched.size());
+        for (int i = 0; i < batched.size(); i++) {
+            assertEquals("cmd" + i, batched.get(i).getCommandType().getName());
+        }
+    }
+
+    /**
+     * Tests that a batch without commands is not valid.
+     */
+    public void testMissingCommands() {
+        try {
+            new BatchCommand().checkParameterValidity(false);
+            fail("a batch must have commands");
+        } catch (InvalidParameterValueException e) {
+            // to be expected
+        }
+    }
+
+    /**
+     * Tests that a batch survives serialization, as it does when sent to the server.
+     *
+     * @throws Exception
+     */
+    public void testSerialization() throws Exception {
+        BatchCommand batch = new BatchCommand(createCommands(2));
+        BatchCommand copy = (BatchCommand) StreamUtil.deserialize(StreamUtil.serialize(batch));
+
+        assertEquals(BatchCommand.COMMAND_TYPE, copy.getCommandType());
+        assertEquals(2, copy.getCommands().size());
+        assertEquals("cmd0", copy.getCommands().get(0).getCommandType().getName());
+        assertEquals("cmd1", copy.getCommands().get(1).getCommandType().getName());
+    }
+
+    /**
+     * Tests the responses of processed and failed batches.
+     */
+    public void testResponses() {
+        BatchCommand batch = new BatchCommand(createCommands(2));
+        List<CommandResponse> responses = new ArrayList<CommandResponse>();
+        for (Command command : batch.getCommands()) {
+            responses.add(new GenericCommandResponse(command, true, command.getCommandType().getName(), null));
+        }
+
+        BatchCommandResponse response = new BatchCommandResponse(batch, responses);
+        responses.clear();
+        assertTrue(response.isSuccessful());
+        assertEquals(2, response.getResponses().size());
+        assertEquals("cmd0", response.getResponses().get(0).getResults());
+        assertEquals("cmd1", response.getResponses().get(1).getResults());
+
+        Exception exception = new Exception("cannot process the batch");
+        response = new BatchCommandResponse(batch, exception);
+        assertFalse(response.isSuccessful());
+        assertSame(exception, response.getException());
+        assertNull(response.getResponses());
+    }
+
+    private List<Command> createCommands(int count) {
+        List<Command> commands = new ArrayList<Command>();
+        for (int i = 0; i < count; i++) {
+            GenericCommand command = new GenericCommand();
+            command.setCommandType(new CommandType("cmd" + i, 1));
+            commands.add(command);
+        }
+        return commands;
+    }
+}
@@ -18,7 +18,10 @@
  */
 package org.rhq.enterprise.communications.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import org.testng.annotations.Test;
 import org.rhq.enterprise.communications.util.ConcurrencyManager.Permit;
 
@@ -91,4 +94,86 @@ public class ConcurrencyManagerTest {
         cm2.releasePermit(permit2);
         cm2.releasePermit(permit1); // a no-op since permit1 wasn't granted by cm2
     }
+
+    public void testPriorityQueue() throws Exception {
+        final String foo = "foo";
+
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put(foo, 1);
+        final ConcurrencyManager cm = new ConcurrencyManager(map, 10000L);
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+
+        Permit permit = cm.getPermit(foo);
+
+        Thread low = new Thread(new Runnable() {
+            public void run() {
+                Permit p = cm.getPermit(foo, 1);
+                admitted.add("low");
+                cm.releasePermit(p);
+            }
+        });
+        Thread high = new Thread(new Runnable() {
+            public void run() {
+                Permit p = cm.getPermit(foo, 10);
+                admitted.add("high");
+                cm.releasePermit(p);
+            }
+        });
+
+        low.start();
+        Thread.sleep(20L);
+        high.start();
+
+        int loopMax = 100;
+        while ((cm.getAllStatistics().get(foo).getQueueDepth() < 2) && (loopMax-- > 0)) {
+            Thread.sleep(10L);
+        }
+        assert cm.getAllStatistics().get(foo).getQueueDepth() == 2 : cm.getAllStatistics();
+
+        cm.releasePermit(permit);
+        low.join(10000L);
+        high.join(10000L);
+
+        assert admitted.size() == 2 : admitted;
+        assert "high".equals(admitted.get(0)) : "high priority thread should have been admitted first: " + admitted;
+
+        ConcurrencyManager.Statistics stats = cm.getAllStatistics().get(foo);
+        assert stats.getNumberGranted() == 3 : stats;
+        assert stats.getNumberDenied() == 0 : stats;
+        assert stats.getPermitsInUse() == 0 : stats;
+        assert stats.getQueueDepth() == 0 : stats;
+        assert stats.getMaxQueueTime() > 0 : stats;
+
+        long total = 0;
+        for (long count : stats.getHistogramCounts()) {
+            total += count;
+        }
+        assert total == 3 : stats;
+        assert stats.getHistogramCounts()[0] == 1 : "first permit should not have waited: " + stats;
+
+        cm.clearStatistics();
+        assert cm.getAllStatistics().get(foo).getNumberGranted() == 0;
+    }
+
+    public void testDeniedWithRetryHint() {
+        String foo = "foo";
+
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put(foo, 1);
+        ConcurrencyManager cm = new ConcurrencyManager(map, 0L); // do not queue, deny immediately
+
+        Permit permit = cm.getPermit(foo);
+
+        try {
+            cm.getPermit(foo);
+            assert false : "should not have succeeded";
+        } catch (NotPermittedException e) {
+            assert e.getSleepBeforeRetry() >= 1000L : e.getSleepBeforeRetry();
+            assert e.getSleepBeforeRetry() <= 15000L : e.getSleepBeforeRetry();
+        }
+
+        assert cm.getAllStatistics().get(foo).getNumberDenied() == 1;
+        cm.releasePermit(permit);
+        assert null != cm.getPermit(foo);
+    }
 }
\ No newline at end of file
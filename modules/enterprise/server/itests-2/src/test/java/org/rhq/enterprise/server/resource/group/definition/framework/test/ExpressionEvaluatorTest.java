@@ -27,6 +27,7 @@ import org.testng.annotations.Test;
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
+import org.rhq.enterprise.server.resource.group.definition.framework.GroupDefinitionDependencies;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.util.QueryUtility;
 
@@ -266,6 +267,70 @@ public class ExpressionEvaluatorTest extends AbstractEJB3Test {
         }
     }
 
+    @Test(groups = "integration.session")
+    public void testResourceTypeDependencies() throws Exception {
+        GroupDefinitionDependencies dependencies = getDependencies("resource.type.plugin = JBossAS7",
+            "resource.type.name = Datasource", "resource.name.contains = ExampleDS");
+
+        assert !dependencies.isAlwaysRecalculated();
+        assert !dependencies.isTraitDependent();
+        assert dependencies.isResourceTypeDependent("JBossAS7", "Datasource");
+        assert !dependencies.isResourceTypeDependent("JBossAS7", "Deployment");
+        assert !dependencies.isResourceTypeDependent("Platforms", "Datasource");
+
+        // the type of the parent does not restrict the type of the members
+        dependencies = getDependencies("resource.parent.type.plugin = JBossAS7");
+        assert dependencies.isResourceTypeDependent("Platforms", "Linux");
+
+        // neither does a type that is not matched exactly
+        dependencies = getDependencies("resource.type.plugin.contains = JBoss");
+        assert dependencies.isResourceTypeDependent("Platforms", "Linux");
+    }
+
+    @Test(groups = "integration.session")
+    public void testTraitDependencies() throws Exception {
+        GroupDefinitionDependencies dependencies = getDependencies("resource.type.plugin = Platforms",
+            "resource.trait[Trait.hostname] = localhost");
+
+        assert !dependencies.isAlwaysRecalculated();
+        assert dependencies.isTraitDependent();
+        assert dependencies.getTraitNames().equals(Collections.singleton("trait.hostname")) : dependencies;
+        assert !dependencies.isPluginConfigurationDependent();
+        assert dependencies.isResourceTypeDependent("Platforms", "Linux");
+        assert !dependencies.isResourceTypeDependent("JBossAS7", "Datasource");
+
+        dependencies = getDependencies("resource.child.trait[Trait.hostname] = localhost");
+        assert dependencies.isTraitDependent();
+        assert dependencies.isResourceTypeDependent("JBossAS7", "Datasource") : "a child of any type can match";
+    }
+
+    @Test(groups = "integration.session")
+    public void testConfigurationDependencies() throws Exception {
+        GroupDefinitionDependencies dependencies = getDependencies("resource.pluginConfiguration[partition] = a");
+        assert dependencies.isPluginConfigurationDependent();
+        assert !dependencies.isResourceConfigurationDependent();
+
+        dependencies = getDependencies("resource.resourceConfiguration[partition] = a");
+        assert !dependencies.isPluginConfigurationDependent();
+        assert dependencies.isResourceConfigurationDependent();
+    }
+
+    @Test(groups = "integration.session")
+    public void testAlwaysRecalculatedDependencies() throws Exception {
+        assert getDependencies("resource.name = joseph", "memberof = Group Name").isAlwaysRecalculated() : "membership";
+        assert getDependencies("resource.availability = UP").isAlwaysRecalculated() : "availability";
+        assert getDependencies("resource.version = 1.0").isAlwaysRecalculated() : "version";
+        assert !getDependencies("resource.name = joseph").isAlwaysRecalculated();
+    }
+
+    private GroupDefinitionDependencies getDependencies(String... expressions) throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        for (String expression : expressions) {
+            evaluator.addExpression(expression);
+        }
+        return evaluator.getDependencies();
+    }
+
     private static interface ExpressionGenerator {
         String[] getExpressions();
     }
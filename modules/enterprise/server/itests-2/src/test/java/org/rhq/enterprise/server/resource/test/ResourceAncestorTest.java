@@ -0,0 +1,234 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource.test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.db.DatabaseTypeFactory;
+import org.rhq.core.db.upgrade.ResourceAncestorUpgradeTask;
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.authz.Permission;
+import org.rhq.core.domain.authz.Role;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.test.AbstractEJB3Test;
+import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.enterprise.server.util.ResourceTreeHelper;
+import org.rhq.enterprise.server.util.SessionTestHelper;
+
+/**
+ * Tests the maintenance of the RHQ_RESOURCE_ANCESTOR rows, their population by the upgrade, and the recursive group
+ * queries that read them. Each test rolls back what it did.
+ */
+@Test(groups = "integration.session")
+public class ResourceAncestorTest extends AbstractEJB3Test {
+
+    private static final String FIND_ANCESTOR_ROWS = "" //
+        + "SELECT ANCESTOR_ID, RESOURCE_ID, DEPTH FROM RHQ_RESOURCE_ANCESTOR";
+
+    private ResourceManagerLocal resourceManager;
+    private ResourceGroupManagerLocal resourceGroupManager;
+
+    @Override
+    protected void beforeMethod() throws Exception {
+        resourceManager = LookupUtil.getResourceManager();
+        resourceGroupManager = LookupUtil.getResourceGroupManager();
+        prepareScheduler();
+    }
+
+    @Override
+    protected void afterMethod() throws Exception {
+        unprepareScheduler();
+    }
+
+    public void testInsertMoveAndDelete() throws Exception {
+        getTransactionManager().begin();
+        try {
+            EntityManager em = getEntityManager();
+            List<Resource> tree = ResourceTreeHelper.createTree(em, "A=1,2; 1=a; a=i,ii");
+            Resource nodeBigA = ResourceTreeHelper.findNode(tree, "A");
+            Resource nodeOne = ResourceTreeHelper.findNode(tree, "1");
+            Resource nodeTwo = ResourceTreeHelper.findNode(tree, "2");
+            Resource nodeLittleA = ResourceTreeHelper.findNode(tree, "a");
+            Resource nodeI = ResourceTreeHelper.findNode(tree, "i");
+            Resource nodeII = ResourceTreeHelper.findNode(tree, "ii");
+            assertAncestors(nodeI, nodeLittleA, nodeOne, nodeBigA);
+
+            // insert
+            Resource newChild = new Resource("new child", "new child", nodeI.getResourceType());
+            newChild.setUuid("" + new Random().nextInt());
+            newChild.setInventoryStatus(InventoryStatus.COMMITTED);
+            resourceManager.createResource(getOverlord(), newChild, nodeI.getId());
+            assertAncestors(newChild, nodeI, nodeLittleA, nodeOne, nodeBigA);
+
+            // move the subtree under 'a' from '1' to '2'
+            Resource attachedLittleA = em.find(Resource.class, nodeLittleA.getId());
+            attachedLittleA.setParentResource(em.find(Resource.class, nodeTwo.getId()));
+            resourceManager.updateResourceAncestors(nodeLittleA.getId());
+            assertAncestors(nodeLittleA, nodeTwo, nodeBigA);
+            assertAncestors(nodeI, nodeLittleA, nodeTwo, nodeBigA);
+            assertAncestors(newChild, nodeI, nodeLittleA, nodeTwo, nodeBigA);
+            assertAncestors(nodeOne, nodeBigA);
+
+            // delete a leaf, its rows go with it
+            ResourceTreeHelper.deleteResource(em, em.find(Resource.class, nodeII.getId()));
+            em.flush();
+            for (String row : getAncestorRows()) {
+                assert !row.contains(":" + nodeII.getId() + ":") : "Row left for a deleted resource: " + row;
+            }
+
+            // unlink a subtree as the uninventory does
+            List<Integer> subtreeIds = Arrays.asList(nodeLittleA.getId(), nodeI.getId(), newChild.getId());
+            Query query = em.createNativeQuery(Resource.QUERY_NATIVE_DELETE_ANCESTORS_BY_RESOURCE_IDS);
+            query.setParameter("resourceIds", subtreeIds);
+            query.executeUpdate();
+            for (Integer id : subtreeIds) {
+                assertEquals(Collections.<Integer> emptyList(), resourceManager.getResourceIdLineage(id));
+            }
+            assertAncestors(nodeTwo, nodeBigA);
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
+    public void testUpgradeTaskPopulatesTheSameRows() throws Exception {
+        getTransactionManager().begin();
+        try {
+            EntityManager em = getEntityManager();
+            ResourceTreeHelper.createTree(em, "A=1,2; 1=a,b; a=i,ii; b=iii,iv; B=3");
+            Set<String> maintainedRows = getAncestorRows();
+            assert !maintainedRows.isEmpty();
+
+            em.createNativeQuery("DELETE FROM RHQ_RESOURCE_ANCESTOR").executeUpdate();
+            assertEquals(0, getAncestorRows().size());
+
+            // the connection is enlisted in the test transaction
+            Connection connection = getConnection();
+            try {
+                new ResourceAncestorUpgradeTask().execute(DatabaseTypeFactory.getDatabaseType(connection),
+                    connection);
+            } finally {
+                connection.close();
+            }
+
+            assertEquals(maintainedRows, getAncestorRows());
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
+    public void testRecursiveGroupDeeperThanSixLevels() throws Exception {
+        getTransactionManager().begin();
+        try {
+            EntityManager em = getEntityManager();
+            Subject subject = SessionTestHelper.createNewSubject(em, "fake subject");
+            Role role = SessionTestHelper.createNewRoleForSubject(em, subject, "fake role",
+                Permission.MANAGE_INVENTORY);
+            ResourceGroup recursiveGroup = SessionTestHelper.createNewMixedGroupForRole(em, role, "fake group", true);
+
+            List<Resource> tree = ResourceTreeHelper.createTree(em, "A=1; 1=2; 2=3; 3=4; 4=5; 5=6; 6=7; 7=8");
+            Resource nodeBigA = ResourceTreeHelper.findNode(tree, "A");
+            Resource nodeOne = ResourceTreeHelper.findNode(tree, "1");
+            Resource leaf = ResourceTreeHelper.findNode(tree, "8");
+
+            List<Integer> expectedLineage = new ArrayList<Integer>();
+            for (Resource ancestor = leaf.getParentResource(); ancestor != null; ancestor = ancestor
+                .getParentResource()) {
+                expectedLineage.add(ancestor.getId());
+            }
+            assertEquals(8, expectedLineage.size());
+            assertEquals(expectedLineage, resourceManager.getResourceIdLineage(leaf.getId()));
+
+            resourceGroupManager.addResourcesToGroup(subject, recursiveGroup.getId(), new int[] { nodeOne.getId() });
+            List<Resource> expected = ResourceTreeHelper.getSubtree(nodeOne);
+            assertEquals(getIds(expected), new HashSet<Integer>(resourceManager
+                .findImplicitResourceIdsByResourceGroup(recursiveGroup.getId())));
+
+            // a new descendant of an explicit member joins the group
+            Resource newLeaf = new Resource("new leaf", "new leaf", leaf.getResourceType());
+            newLeaf.setUuid("" + new Random().nextInt());
+            newLeaf.setInventoryStatus(InventoryStatus.COMMITTED);
+            resourceManager.createResource(getOverlord(), newLeaf, leaf.getId());
+            expected.add(newLeaf);
+            assertEquals(getIds(expected), new HashSet<Integer>(resourceManager
+                .findImplicitResourceIdsByResourceGroup(recursiveGroup.getId())));
+            assert !resourceManager.findImplicitResourceIdsByResourceGroup(recursiveGroup.getId()).contains(
+                nodeBigA.getId());
+
+            resourceGroupManager.removeResourcesFromGroup(subject, recursiveGroup.getId(),
+                new int[] { nodeOne.getId() });
+            assertEquals(0, resourceManager.findImplicitResourceIdsByResourceGroup(recursiveGroup.getId()).size());
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
+    private Subject getOverlord() {
+        return LookupUtil.getSubjectManager().getOverlord();
+    }
+
+    /**
+     * Asserts the ancestor ids of the resource, parent first.
+     */
+    private void assertAncestors(Resource resource, Resource... ancestors) {
+        List<Integer> expected = new ArrayList<Integer>();
+        for (Resource ancestor : ancestors) {
+            expected.add(ancestor.getId());
+        }
+        assertEquals("Wrong ancestors of " + resource.getName(), expected,
+            resourceManager.getResourceIdLineage(resource.getId()));
+    }
+
+    /**
+     * @return all the ancestor rows, as 'ancestorId:resourceId:depth'
+     */
+    private Set<String> getAncestorRows() {
+        Set<String> result = new HashSet<String>();
+        for (Object row : getEntityManager().createNativeQuery(FIND_ANCESTOR_ROWS).getResultList()) {
+            Object[] columns = (Object[]) row;
+            result.add(((Number) columns[0]).intValue() + ":" + ((Number) columns[1]).intValue() + ":"
+                + ((Number) columns[2]).intValue());
+        }
+        return result;
+    }
+
+    private static Set<Integer> getIds(List<Resource> resources) {
+        Set<Integer> result = new HashSet<Integer>();
+        for (Resource resource : resources) {
+            result.add(resource.getId());
+        }
+        return result;
+    }
+}
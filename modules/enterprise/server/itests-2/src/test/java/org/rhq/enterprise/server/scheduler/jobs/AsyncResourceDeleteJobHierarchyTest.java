@@ -0,0 +1,165 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.scheduler.jobs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+import org.rhq.enterprise.server.test.AbstractEJB3Test;
+import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.enterprise.server.util.ResourceTreeHelper;
+
+/**
+ * Deletes uninventoried resource hierarchies with the {@link AsyncResourceDeleteJob}, in batches smaller than the
+ * hierarchy, and checks that nothing of them is left.
+ */
+@Test(groups = "integration.session")
+public class AsyncResourceDeleteJobHierarchyTest extends AbstractEJB3Test {
+
+    private static final String TREE = "A=1,2; 1=a,b; 2=c; a=i,ii; c=iii";
+
+    private List<Integer> resourceIds;
+    private int backingGroupId;
+    private int resourceTypeId;
+
+    @Override
+    protected void beforeMethod() throws Exception {
+        getTransactionManager().begin();
+        try {
+            EntityManager em = getEntityManager();
+            List<Resource> roots = ResourceTreeHelper.createTree(em, TREE);
+            Resource root = roots.get(0);
+            resourceTypeId = root.getResourceType().getId();
+            resourceIds = new ArrayList<Integer>();
+            for (Resource resource : ResourceTreeHelper.getSubtree(root)) {
+                resourceIds.add(resource.getId());
+            }
+
+            // the services of '1' are autogrouped
+            ResourceGroup backingGroup = new ResourceGroup("async delete backing group", root.getResourceType());
+            backingGroup.setAutoGroupParentResource(ResourceTreeHelper.findNode(roots, "1"));
+            backingGroup.setVisible(false);
+            em.persist(backingGroup);
+            backingGroupId = backingGroup.getId();
+
+            getTransactionManager().commit();
+        } catch (Exception e) {
+            getTransactionManager().rollback();
+            throw e;
+        }
+
+        // mark the whole hierarchy as the uninventory does
+        getTransactionManager().begin();
+        try {
+            Query query = getEntityManager().createNamedQuery(Resource.QUERY_MARK_RESOURCES_FOR_ASYNC_DELETION_QUICK);
+            query.setParameter("status", InventoryStatus.UNINVENTORIED);
+            query.setParameter("now", System.currentTimeMillis());
+            query.setParameter("resourceIds", resourceIds);
+            query.executeUpdate();
+            getTransactionManager().commit();
+        } catch (Exception e) {
+            getTransactionManager().rollback();
+            throw e;
+        }
+
+        prepareScheduler();
+    }
+
+    @Override
+    protected void afterMethod() throws Exception {
+        try {
+            // clean up whatever a failed test left behind
+            getTransactionManager().begin();
+            EntityManager em = getEntityManager();
+            ResourceGroup backingGroup = em.find(ResourceGroup.class, backingGroupId);
+            if (backingGroup != null) {
+                em.remove(backingGroup);
+            }
+            for (Integer resourceId : resourceIds) {
+                ResourceTreeHelper.deleteResource(em, em.find(Resource.class, resourceId));
+            }
+            em.flush();
+            em.createQuery("DELETE FROM ResourceType rt WHERE rt.id = :id AND rt.resources IS EMPTY")
+                .setParameter("id", resourceTypeId).executeUpdate();
+            getTransactionManager().commit();
+        } finally {
+            unprepareScheduler();
+        }
+    }
+
+    public void testDeleteHierarchyInBatches() throws Exception {
+        new AsyncResourceDeleteJob(3, 0L) {
+        }.executeJobCode(null);
+
+        assertHierarchyDeleted();
+    }
+
+    public void testDeleteHierarchyWhenBatchesFail() throws Exception {
+        final ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
+        final List<List<Integer>> failedBatches = new ArrayList<List<Integer>>();
+        // the batch deletion reports errors, so each resource has to be deleted on its own
+        final ResourceManagerLocal failingResourceManager = (ResourceManagerLocal) Proxy.newProxyInstance(getClass()
+            .getClassLoader(), new Class<?>[] { ResourceManagerLocal.class }, new InvocationHandler() {
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("uninventoryResourcesAsyncWork")) {
+                    failedBatches.add((List<Integer>) args[1]);
+                    return false;
+                }
+                try {
+                    return method.invoke(resourceManager, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+
+        new AsyncResourceDeleteJob(3, 0L) {
+            @Override
+            protected ResourceManagerLocal getResourceManager() {
+                return failingResourceManager;
+            }
+        }.executeJobCode(null);
+
+        assert failedBatches.size() >= 3 : "the hierarchy should have been deleted in batches: " + failedBatches;
+        assertHierarchyDeleted();
+    }
+
+    private void assertHierarchyDeleted() {
+        EntityManager em = getEntityManager();
+        for (Integer resourceId : resourceIds) {
+            assertNull("Resource was not deleted: " + resourceId, em.find(Resource.class, resourceId));
+        }
+        assertNull("Autogroup backing group was not deleted", em.find(ResourceGroup.class, backingGroupId));
+    }
+}
@@ -35,6 +35,7 @@ import org.rhq.core.domain.resource.InventoryStatus;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 
 /**
  * Will create a tree of resources based off of a short-hand, string representation of the tree Pre-condition: resource
@@ -144,12 +145,37 @@ public class ResourceTreeHelper {
         }
 
         // only flush when we are in persisting mode
-        if (entityManager != null)
+        if (entityManager != null) {
             entityManager.flush();
+            linkAncestors(roots);
+        }
 
         return roots;
     }
 
+    /*
+     * Adds the RHQ_RESOURCE_ANCESTOR rows of the persisted trees, one level at a time since the parents of a level
+     * must already be linked. The resources were persisted directly, not by the ResourceManager, which maintains them.
+     */
+    private static void linkAncestors(List<Resource> roots) {
+        ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
+        List<Resource> level = new ArrayList<Resource>();
+        for (Resource root : roots) {
+            level.addAll(root.getChildResources());
+        }
+
+        while (!level.isEmpty()) {
+            List<Integer> levelIds = new ArrayList<Integer>();
+            List<Resource> nextLevel = new ArrayList<Resource>();
+            for (Resource resource : level) {
+                levelIds.add(resource.getId());
+                nextLevel.addAll(resource.getChildResources());
+            }
+            resourceManager.insertResourceAncestors(levelIds);
+            level = nextLevel;
+        }
+    }
+
     public static void deleteForest(EntityManager entityManager, List<Resource> roots) {
 
         for (Resource root : roots) {
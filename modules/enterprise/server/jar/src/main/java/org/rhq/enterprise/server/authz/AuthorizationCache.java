@@ -0,0 +1,198 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.authz;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.rhq.core.domain.authz.Permission;
+import org.rhq.enterprise.server.util.TransactionSynchronizationUtil;
+
+/**
+ * A per-subject cache of the permissions looked up by {@link AuthorizationManagerBean}. For each subject it keeps the
+ * permissions granted by the subject's roles and, for every resource and group the subject's permissions were checked
+ * against, the permissions granted on it through the subject's roles. Each set of permissions is kept as a bitset of
+ * {@link Permission} ordinals, so a single lookup answers the check of any permission.
+ * <p/>
+ * Changes to roles, role assignments and group membership made by this server invalidate the whole cache once their
+ * transaction has completed, see {@link #invalidateAfterCompletion()}. Such changes made by another server of the cloud
+ * are not propagated: they are seen by this server only when the cached permissions expire, after {@link #MAX_AGE} ms.
+ */
+public class AuthorizationCache {
+
+    /**
+     * The time, in ms, the permissions of a subject are kept, "rhq.server.authz-cache.max-age", 30 s by default. This is
+     * also how long a server may keep granting permissions revoked through another server of the cloud, or keep
+     * denying permissions granted through it. 0 disables the cache.
+     */
+    public static final long MAX_AGE;
+
+    /**
+     * The maximum number of resources, and of groups, whose permissions are kept for a subject.
+     */
+    public static final int MAX_ENTRIES;
+
+    static {
+        long maxAge = 30000L;
+        try {
+            maxAge = Long.parseLong(System.getProperty("rhq.server.authz-cache.max-age", "30000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_AGE = maxAge;
+
+        int maxEntries = 10000;
+        try {
+            maxEntries = Integer.parseInt(System.getProperty("rhq.server.authz-cache.max-entries", "10000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_ENTRIES = maxEntries;
+    }
+
+    private static final AuthorizationCache singleton = new AuthorizationCache(MAX_AGE, MAX_ENTRIES);
+
+    private final long maxAge;
+    private final int maxEntries;
+    private final ConcurrentMap<Integer, SubjectPermissions> subjects = new ConcurrentHashMap<Integer, SubjectPermissions>();
+
+    AuthorizationCache(long maxAge, int maxEntries) {
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+    }
+
+    public static AuthorizationCache getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * Permissions learned by the caller should be stored in the returned object, which is dropped from the cache when
+     * it is invalidated. This way permissions read before an invalidation are never served after it.
+     *
+     * @return the cached permissions of the subject, empty if they are not cached or have expired
+     */
+    public SubjectPermissions getSubjectPermissions(int subjectId, long now) {
+        if (maxAge <= 0L) {
+            return new SubjectPermissions(now, 0);
+        }
+
+        SubjectPermissions permissions = subjects.get(subjectId);
+        if (null != permissions && (now - permissions.loadTime) < maxAge) {
+            return permissions;
+        }
+
+        SubjectPermissions newPermissions = new SubjectPermissions(now, maxEntries);
+        if (null == permissions) {
+            permissions = subjects.putIfAbsent(subjectId, newPermissions);
+            return (null == permissions) ? newPermissions : permissions;
+        }
+        return subjects.replace(subjectId, permissions, newPermissions) ? newPermissions : getSubjectPermissions(
+            subjectId, now);
+    }
+
+    /**
+     * Drops the permissions of all subjects.
+     */
+    public void invalidate() {
+        subjects.clear();
+    }
+
+    /**
+     * Drops the permissions of all subjects once the current transaction has completed. To be called whenever a role,
+     * a role assignment or the membership of a group changes; dropping them before the commit would let a concurrent
+     * check cache the old permissions again.
+     */
+    public void invalidateAfterCompletion() {
+        TransactionSynchronizationUtil.runAfterCompletion(new Runnable() {
+            public void run() {
+                invalidate();
+            }
+
+            @Override
+            public String toString() {
+                return "authorization cache invalidation";
+            }
+        });
+    }
+
+    public int size() {
+        return subjects.size();
+    }
+
+    public static long toBitset(Collection<Permission> permissions) {
+        long bitset = 0L;
+        for (Permission permission : permissions) {
+            bitset |= (1L << permission.ordinal());
+        }
+        return bitset;
+    }
+
+    public static boolean contains(long bitset, Permission permission) {
+        return (bitset & (1L << permission.ordinal())) != 0L;
+    }
+
+    /**
+     * The cached permissions of one subject, as bitsets of {@link Permission} ordinals. A null bitset means the
+     * permissions are not cached.
+     */
+    public static class SubjectPermissions {
+        private final long loadTime;
+        private final int maxEntries;
+        private volatile Long globalPermissions;
+        private final ConcurrentMap<Integer, Long> resourcePermissions = new ConcurrentHashMap<Integer, Long>();
+        private final ConcurrentMap<Integer, Long> groupPermissions = new ConcurrentHashMap<Integer, Long>();
+
+        private SubjectPermissions(long loadTime, int maxEntries) {
+            this.loadTime = loadTime;
+            this.maxEntries = maxEntries;
+        }
+
+        public Long getGlobalPermissions() {
+            return globalPermissions;
+        }
+
+        public void setGlobalPermissions(long bitset) {
+            globalPermissions = bitset;
+        }
+
+        public Long getResourcePermissions(int resourceId) {
+            return resourcePermissions.get(resourceId);
+        }
+
+        public void putResourcePermissions(int resourceId, long bitset) {
+            put(resourcePermissions, resourceId, bitset);
+        }
+
+        public Long getGroupPermissions(int groupId) {
+            return groupPermissions.get(groupId);
+        }
+
+        public void putGroupPermissions(int groupId, long bitset) {
+            put(groupPermissions, groupId, bitset);
+        }
+
+        private void put(ConcurrentMap<Integer, Long> permissions, int id, long bitset) {
+            if (permissions.containsKey(id) || permissions.size() < maxEntries) {
+                permissions.put(id, bitset);
+            }
+        }
+    }
+}
@@ -35,8 +35,12 @@ import org.rhq.core.domain.authz.Permission.Target;
 import org.rhq.core.domain.content.Repo;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.enterprise.server.RHQConstants;
+import org.rhq.enterprise.server.authz.AuthorizationCache.SubjectPermissions;
 
 /**
+ * The permissions checked by hasGlobalPermission, hasGroupPermission and hasResourcePermission are kept in the
+ * {@link AuthorizationCache}, as those are called on every remote and REST call.
+ *
  * @author Joseph Marques
  */
 // we exclude the default interceptors because the required permissions interceptor calls into some of these
@@ -131,50 +135,40 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public boolean hasGlobalPermission(Subject subject, Permission permission) {
         if (isOverlord(subject)) {
             return true;
         }
+        if (null == subject) {
+            return false;
+        }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_GLOBAL_PERMISSION);
-        query.setParameter("subject", subject);
-        query.setParameter("permission", permission);
-        long count = (Long) query.getSingleResult();
-        return (count != 0);
+        SubjectPermissions permissions = getCachedPermissions(subject);
+        Long bitset = permissions.getGlobalPermissions();
+        if (null == bitset) {
+            // all permissions of the subject's roles, not only the global ones, as they may be asked for too
+            Query query = entityManager.createNamedQuery(Subject.QUERY_GET_GLOBAL_PERMISSIONS);
+            query.setParameter("subject", subject);
+            bitset = AuthorizationCache.toBitset((List<Permission>) query.getResultList());
+            permissions.setGlobalPermissions(bitset);
+        }
+        return AuthorizationCache.contains(bitset, permission);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean hasGroupPermission(Subject subject, Permission permission, int groupId) {
         if (isInventoryManager(subject)) {
             return true;
         }
 
-        ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
-        Subject owner = group.getSubject();
-
-        if (null == owner) {
-            // role-owned group
-            Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_GROUP_PERMISSION);
-            query.setParameter("subject", subject);
-            query.setParameter("permission", permission);
-            query.setParameter("groupId", groupId);
-            long count = (Long) query.getSingleResult();
-            return (count != 0);
-
-        } else {
-            // don't let a user other than the owner do anything with this group
-            if (!subject.equals(owner)) {
-                return false;
-            }
-
-            Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_PRIVATE_GROUP_PERMISSION);
-            query.setParameter("subjectId", subject.getId());
-            query.setParameter("permission", permission);
-            query.setParameter("privateGroupId", groupId);
-            List<Object[]> resultList = query.getResultList();
-            return (!resultList.isEmpty());
+        SubjectPermissions permissions = getCachedPermissions(subject);
+        Long bitset = permissions.getGroupPermissions(groupId);
+        if (null == bitset) {
+            bitset = AuthorizationCache.toBitset(getExplicitGroupPermissions(subject, groupId));
+            permissions.putGroupPermissions(groupId, bitset);
         }
+        return AuthorizationCache.contains(bitset, permission);
     }
 
     @Override
@@ -183,12 +177,17 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_RESOURCE_PERMISSION);
-        query.setParameter("subject", subject);
-        query.setParameter("permission", permission);
-        query.setParameter("resourceId", resourceId);
-        long count = (Long) query.getSingleResult();
-        return (count != 0);
+        SubjectPermissions permissions = getCachedPermissions(subject);
+        Long bitset = permissions.getResourcePermissions(resourceId);
+        if (null == bitset) {
+            bitset = AuthorizationCache.toBitset(getExplicitResourcePermissions(subject, resourceId));
+            permissions.putResourcePermissions(resourceId, bitset);
+        }
+        return AuthorizationCache.contains(bitset, permission);
+    }
+
+    private SubjectPermissions getCachedPermissions(Subject subject) {
+        return AuthorizationCache.getSingleton().getSubjectPermissions(subject.getId(), System.currentTimeMillis());
     }
 
     @SuppressWarnings("unchecked")
@@ -141,6 +141,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public Role createRole(Subject whoami, Role newRole) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         // Make sure there's not an existing role with the same name.
         RoleCriteria criteria = new RoleCriteria();
         criteria.addFilterName(newRole.getName());
@@ -189,6 +191,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void deleteRoles(Subject subject, int[] doomedRoleIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if (doomedRoleIds != null) {
             for (int roleId : doomedRoleIds) {
                 Role doomedRole = entityManager.find(Role.class, roleId);
@@ -255,6 +259,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
      */
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addRolesToSubject(Subject subject, int subjectId, int[] roleIds, boolean isLdap) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if (roleIds != null) {
             Subject subjectToModify = subjectManager.getSubjectById(subjectId); // attach it
             if (subjectToModify == null) {
@@ -288,6 +294,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addSubjectsToRole(Subject subject, int roleId, int[] subjectIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if (subjectIds != null) {
             Role role = getRoleById(roleId); // attach it
             if (role == null) {
@@ -320,6 +328,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromSubject(Subject subject, int subjectId, int[] roleIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if (roleIds != null) {
             Subject subjectToModify = subjectManager.getSubjectById(subjectId); // attach it
 
@@ -387,6 +397,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void setPermissions(Subject subject, Integer roleId, Set<Permission> permissions) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         Role role = entityManager.find(Role.class, roleId);
         Set<Permission> rolePermissions = role.getPermissions();
         rolePermissions.clear();
@@ -412,6 +424,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public Role updateRole(Subject whoami, Role role) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         Role attachedRole = entityManager.find(Role.class, role.getId());
         if (attachedRole == null) {
             throw new IllegalStateException("Cannot update " + role + ", since no role exists with that id.");
@@ -646,6 +660,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addResourceGroupsToRole(Subject subject, int roleId, int[] groupIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if ((groupIds != null) && (groupIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -694,6 +710,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeResourceGroupsFromRole(Subject subject, int roleId, int[] groupIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if ((groupIds != null) && (groupIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -807,6 +825,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeSubjectsFromRole(Subject subject, int roleId, int[] subjectIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if ((subjectIds != null) && (subjectIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -889,6 +909,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromResourceGroup(Subject subject, int groupId, int[] roleIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if ((roleIds != null) && (roleIds.length > 0)) {
             ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
             if (group == null) {
@@ -941,6 +963,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addRolesToResourceGroup(Subject subject, int groupId, int[] roleIds) {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         if ((roleIds != null) && (roleIds.length > 0)) {
             ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
             if (group == null) {
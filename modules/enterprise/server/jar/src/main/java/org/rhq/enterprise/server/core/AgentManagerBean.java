@@ -23,8 +23,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -40,6 +46,7 @@ import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,6 +68,7 @@ import org.rhq.core.domain.util.PageList;
 import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.core.util.obfuscation.Obfuscator;
 import org.rhq.core.util.stream.StreamUtil;
 import org.rhq.enterprise.server.RHQConstants;
@@ -77,6 +85,7 @@ import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.enterprise.server.util.TransactionSynchronizationUtil;
 import org.rhq.enterprise.server.util.concurrent.AvailabilityReportSerializer;
 
 /**
@@ -91,9 +100,18 @@ import org.rhq.enterprise.server.util.concurrent.AvailabilityReportSerializer;
 public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
     private static final Log LOG = LogFactory.getLog(AgentManagerBean.class);
 
+    private static final String AGENT_PING_UPDATE_STMT = "" //
+        + "UPDATE RHQ_AGENT SET LAST_AVAILABILITY_PING = ? WHERE NAME = ? AND BACKFILLED = ?";
+
+    private static final String AGENT_PING_UPDATE_FORCE_STMT = "" //
+        + "UPDATE RHQ_AGENT SET LAST_AVAILABILITY_PING = ? WHERE NAME = ?";
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @javax.annotation.Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
+    private DataSource dataSource;
+
     @EJB
     //@IgnoreDependency
     private FailoverListManagerLocal failoverListManager;
@@ -387,15 +405,28 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
 
         List<AgentLastAvailabilityPingComposite> records;
 
+        // write the pings buffered by this server first, so that they are seen by the query
+        AgentPingBuffer pingBuffer = AgentPingBuffer.getSingleton();
+        if (pingBuffer.startFlush()) {
+            flushAgentPings(pingBuffer);
+        }
+
         long nowEpoch = System.currentTimeMillis();
+        long dateThreshold = nowEpoch - maximumQuietTimeAllowed;
 
         Query q = entityManager.createNamedQuery(Agent.QUERY_FIND_ALL_SUSPECT_AGENTS);
-        q.setParameter("dateThreshold", nowEpoch - maximumQuietTimeAllowed);
+        q.setParameter("dateThreshold", dateThreshold);
         records = q.getResultList();
 
         ServerCommunicationsServiceMBean serverComm = null;
 
         for (AgentLastAvailabilityPingComposite record : records) {
+            // the agent may have pinged us since, and the ping not be written yet (e.g. the flush failed)
+            Long bufferedPing = pingBuffer.getLastPing(record.getAgentName());
+            if (null != bufferedPing && bufferedPing.longValue() >= dateThreshold) {
+                continue;
+            }
+
             long lastReport = record.getLastAvailabilityPing();
             long timeSinceLastReport = nowEpoch - lastReport;
 
@@ -451,6 +482,7 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
             // can take time.  Performing this after the backfill to minimize the window between the commits as
             // much as possible.
             agentManager.setAgentBackfilledInNewTransaction(agentId, true);
+            AgentPingBuffer.getSingleton().setBackfilled(agentName, true);
 
         } finally {
             AvailabilityReportSerializer.getSingleton().unlock(agentName);
@@ -800,8 +832,20 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
         long now = System.currentTimeMillis();
 
         if (request.isRequestUpdateAvailability()) {
-            request.setReplyAgentIsBackfilled(updateLastAvailabilityPing(request.getAgentName(), now));
+            // the ping time is buffered and written later, along with the pings of the other agents. It is written
+            // through only if we do not know yet whether the agent is backfilled.
+            AgentPingBuffer pingBuffer = AgentPingBuffer.getSingleton();
+            Boolean backfilled = pingBuffer.ping(request.getAgentName(), now);
+            if (null == backfilled) {
+                backfilled = updateLastAvailabilityPing(request.getAgentName(), now);
+                pingBuffer.pingWritten(request.getAgentName(), now, backfilled);
+            }
+            request.setReplyAgentIsBackfilled(backfilled);
             request.setReplyUpdateAvailability(true);
+
+            if (pingBuffer.startFlush(now)) {
+                flushAgentPings(pingBuffer);
+            }
         }
 
         if (request.isRequestServerTimestamp()) {
@@ -838,6 +882,98 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
         return false;
     }
 
+    private void flushAgentPings(AgentPingBuffer pingBuffer) {
+        try {
+            agentManager.flushAgentPingsInNewTransaction();
+        } catch (Exception e) {
+            LOG.warn("Failed to write buffered agent pings, will try again later: " + ThrowableUtil.getAllMessages(e));
+        } finally {
+            pingBuffer.flushFinished(System.currentTimeMillis());
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void flushAgentPingsInNewTransaction() {
+        final AgentPingBuffer pingBuffer = AgentPingBuffer.getSingleton();
+        final Map<String, Long> pings = pingBuffer.getUnflushedPings();
+        if (pings.isEmpty()) {
+            return;
+        }
+
+        final String[] agentNames = pings.keySet().toArray(new String[pings.size()]);
+        final Boolean[] backfilled = new Boolean[agentNames.length];
+        final boolean[] deleted = new boolean[agentNames.length];
+        List<Integer> forced = new ArrayList<Integer>();
+
+        Connection conn = null;
+        PreparedStatement ps = null;
+        try {
+            conn = dataSource.getConnection();
+
+            // same as QUERY_UPDATE_LAST_AVAIL_PING, an agent whose row is not updated is backfilled
+            ps = conn.prepareStatement(AGENT_PING_UPDATE_STMT);
+            for (String agentName : agentNames) {
+                ps.setLong(1, pings.get(agentName));
+                ps.setString(2, agentName);
+                ps.setBoolean(3, false);
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            JDBCUtil.safeClose(ps);
+            ps = null;
+
+            for (int i = 0; i < agentNames.length; i++) {
+                if (counts[i] == 0) {
+                    forced.add(i);
+                } else if (counts[i] > 0) {
+                    backfilled[i] = Boolean.FALSE;
+                }
+                // else the driver did not tell, the state will be learned again by writing the next ping through
+            }
+
+            if (!forced.isEmpty()) {
+                ps = conn.prepareStatement(AGENT_PING_UPDATE_FORCE_STMT);
+                for (int i : forced) {
+                    ps.setLong(1, pings.get(agentNames[i]));
+                    ps.setString(2, agentNames[i]);
+                    ps.addBatch();
+                }
+                counts = ps.executeBatch();
+
+                for (int j = 0; j < counts.length; j++) {
+                    int i = forced.get(j);
+                    if (counts[j] == 0) {
+                        // the agent no longer exists
+                        deleted[i] = true;
+                    } else if (counts[j] > 0 || counts[j] == Statement.SUCCESS_NO_INFO) {
+                        backfilled[i] = Boolean.TRUE;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to write the pings of " + agentNames.length + " agents", e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, null);
+        }
+
+        // the pings are only written once the transaction commits, until then they must be flushed again
+        TransactionSynchronizationUtil.runAfterCommit(new Runnable() {
+            public void run() {
+                for (int i = 0; i < agentNames.length; i++) {
+                    if (deleted[i]) {
+                        pingBuffer.remove(agentNames[i]);
+                    } else {
+                        pingBuffer.flushed(agentNames[i], pings.get(agentNames[i]), backfilled[i]);
+                    }
+                }
+            }
+        });
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wrote the buffered pings of [" + agentNames.length + "] agents");
+        }
+    }
+
     @ExcludeDefaultInterceptors
     public Boolean pingAgentByResourceId(Subject subject, int resourceId) {
         Boolean pingResults = Boolean.FALSE;
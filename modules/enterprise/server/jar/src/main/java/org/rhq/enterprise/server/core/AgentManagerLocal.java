@@ -328,6 +328,12 @@ public interface AgentManagerLocal extends AgentManagerRemote {
      */
     void setAgentBackfilledInNewTransaction(int agentId, boolean backfilled);
 
+    /**
+     * Writes the agent pings buffered by {@link AgentPingBuffer} with a single batched update. Do this in its own
+     * transaction to minimize locking on the agent table.
+     */
+    void flushAgentPingsInNewTransaction();
+
     /**
      * Returns <code>true</code> if the agent is "suspect" and has been backfilled. A "suspect agent" means one that the
      * server suspects is down. When an agent is suspect, all of its resources, including the platform, will be
@@ -0,0 +1,199 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A write-behind buffer of the agent pings received by this server. Rather than updating the agent's
+ * lastAvailabilityPing column on every ping, the latest ping time of each agent is kept in memory and written for all
+ * agents at once, in one batch, at most every {@link #FLUSH_INTERVAL} ms.
+ * <p/>
+ * A ping reply must tell the agent whether it is backfilled, which used to be learned from the ping update itself.
+ * The buffer therefore also remembers the backfilled state of each agent, as learned from the last write of its ping.
+ * It is kept current by this server's own backfills and availability reports, and refreshed by every flush, so a
+ * change made by another server of the cloud is picked up within one flush interval. A ping from an agent whose state
+ * is not known is written through immediately.
+ * <p/>
+ * The buffer is not a source of truth. Losing it (e.g. server restart) loses at most the pings of the last flush
+ * interval, and {@link AgentManagerLocal#checkForSuspectAgents()} flushes it and consults it before suspecting an
+ * agent.
+ *
+ * @author John Mazzitelli
+ */
+public class AgentPingBuffer {
+
+    /**
+     * The minimum time between two flushes, in ms. Set it to 0 to write every ping through immediately.
+     */
+    public static final long FLUSH_INTERVAL;
+
+    static {
+        long flushInterval = 5000L;
+        try {
+            flushInterval = Long.parseLong(System.getProperty("rhq.server.agent-ping.flush-interval", "5000"));
+        } catch (Throwable t) {
+            //
+        }
+        FLUSH_INTERVAL = flushInterval;
+    }
+
+    private static final AgentPingBuffer singleton = new AgentPingBuffer(FLUSH_INTERVAL);
+
+    private final long flushInterval;
+    private final ConcurrentMap<String, AgentPing> agents = new ConcurrentHashMap<String, AgentPing>();
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private volatile long lastFlushTime;
+
+    AgentPingBuffer(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public static AgentPingBuffer getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * Buffers a ping.
+     *
+     * @return whether the agent is backfilled, or null if that is not known, in which case the caller must write the
+     * ping through and report it with {@link #pingWritten(String, long, boolean)}
+     */
+    public Boolean ping(String agentName, long pingTime) {
+        AgentPing agentPing = agents.get(agentName);
+        if (null == agentPing) {
+            AgentPing newAgentPing = new AgentPing();
+            agentPing = agents.putIfAbsent(agentName, newAgentPing);
+            if (null == agentPing) {
+                agentPing = newAgentPing;
+            }
+        }
+
+        synchronized (agentPing) {
+            agentPing.lastPing = Math.max(agentPing.lastPing, pingTime);
+            return (flushInterval > 0L) ? agentPing.backfilled : null;
+        }
+    }
+
+    /**
+     * Records that a ping has been written to the database.
+     */
+    public void pingWritten(String agentName, long pingTime, boolean backfilled) {
+        flushed(agentName, pingTime, backfilled);
+    }
+
+    /**
+     * Records a change of the agent's backfilled state made by this server. Nothing is done if the agent's state is
+     * not known.
+     */
+    public void setBackfilled(String agentName, boolean backfilled) {
+        AgentPing agentPing = agents.get(agentName);
+        if (null != agentPing) {
+            synchronized (agentPing) {
+                if (null != agentPing.backfilled) {
+                    agentPing.backfilled = backfilled;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the latest ping time received by this server from the agent, or null if the agent has not pinged this
+     * server
+     */
+    public Long getLastPing(String agentName) {
+        AgentPing agentPing = agents.get(agentName);
+        if (null != agentPing) {
+            synchronized (agentPing) {
+                return (agentPing.lastPing > 0L) ? agentPing.lastPing : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts a flush if one is due and none is in progress. If true is returned, the caller must flush the buffer and
+     * then call {@link #flushFinished(long)}.
+     */
+    public boolean startFlush(long now) {
+        return (flushInterval > 0L) && (now - lastFlushTime >= flushInterval) && flushing.compareAndSet(false, true);
+    }
+
+    /**
+     * Starts a flush, whether or not one is due, unless one is in progress. If true is returned, the caller must flush
+     * the buffer and then call {@link #flushFinished(long)}.
+     */
+    public boolean startFlush() {
+        return flushing.compareAndSet(false, true);
+    }
+
+    public void flushFinished(long now) {
+        lastFlushTime = now;
+        flushing.set(false);
+    }
+
+    /**
+     * @return the agent names and latest ping times of the pings not yet written to the database
+     */
+    public Map<String, Long> getUnflushedPings() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, AgentPing> entry : agents.entrySet()) {
+            AgentPing agentPing = entry.getValue();
+            synchronized (agentPing) {
+                if (agentPing.lastPing > agentPing.flushedPing) {
+                    result.put(entry.getKey(), agentPing.lastPing);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records that a buffered ping has been written to the database.
+     *
+     * @param backfilled the agent's backfilled state as learned from the write, or null if it could not be learned
+     */
+    public void flushed(String agentName, long pingTime, Boolean backfilled) {
+        AgentPing agentPing = agents.get(agentName);
+        if (null != agentPing) {
+            synchronized (agentPing) {
+                agentPing.flushedPing = Math.max(agentPing.flushedPing, pingTime);
+                agentPing.backfilled = backfilled;
+            }
+        }
+    }
+
+    /**
+     * Forgets the agent, e.g. because it has been deleted.
+     */
+    public void remove(String agentName) {
+        agents.remove(agentName);
+    }
+
+    private static class AgentPing {
+        private long lastPing;
+        private long flushedPing;
+        private Boolean backfilled;
+    }
+}
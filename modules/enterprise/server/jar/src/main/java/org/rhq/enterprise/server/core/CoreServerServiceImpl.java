@@ -59,6 +59,8 @@ import org.rhq.enterprise.server.cloud.PartitionEventManagerLocal;
 import org.rhq.enterprise.server.cloud.instance.ServerManagerLocal;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceMBean;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceUtil;
+import org.rhq.enterprise.server.measurement.MeasurementScheduleManagerLocal;
+import org.rhq.enterprise.server.measurement.MeasurementTraitCache;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -72,6 +74,7 @@ public class CoreServerServiceImpl implements CoreServerService {
     private AgentManagerLocal agentManager;
     private AlertConditionCacheManagerLocal alertConditionCacheManager;
     private FailoverListManagerLocal failoverListManager;
+    private MeasurementScheduleManagerLocal measurementScheduleManager;
     private PartitionEventManagerLocal partitionEventManager;
     private ServerManagerLocal serverManager;
     private SubjectManagerLocal subjectManager;
@@ -357,6 +360,12 @@ public class CoreServerServiceImpl implements CoreServerService {
 
         getAlertConditionCacheManager().reloadCachesForAgent(agent.getId());
 
+        // the agent's traits may have been stored by another server since we last cached them
+        MeasurementTraitCache traitCache = MeasurementTraitCache.getSingleton();
+        if (traitCache.size() > 0) {
+            traitCache.removeAll(getMeasurementScheduleManager().findTraitScheduleIdsByAgent(agent.getId()));
+        }
+
         getPartitionEventManager().auditPartitionEvent(getSubjectManager().getOverlord(),
             PartitionEventType.AGENT_CONNECT, agentName + " - " + server.getName());
 
@@ -510,6 +519,14 @@ public class CoreServerServiceImpl implements CoreServerService {
         return this.failoverListManager;
     }
 
+    private MeasurementScheduleManagerLocal getMeasurementScheduleManager() {
+        if (this.measurementScheduleManager == null) {
+            this.measurementScheduleManager = LookupUtil.getMeasurementScheduleManager();
+        }
+
+        return this.measurementScheduleManager;
+    }
+
     private PartitionEventManagerLocal getPartitionEventManager() {
         if (this.partitionEventManager == null) {
             this.partitionEventManager = LookupUtil.getPartitionEventManager();
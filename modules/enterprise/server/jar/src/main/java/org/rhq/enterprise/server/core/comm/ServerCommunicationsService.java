@@ -69,6 +69,7 @@ import org.rhq.enterprise.communications.ServiceContainerMetricsMBean;
 import org.rhq.enterprise.communications.command.client.ClientCommandSender;
 import org.rhq.enterprise.communications.command.client.ClientCommandSenderConfiguration;
 import org.rhq.enterprise.communications.command.client.ClientRemotePojoFactory;
+import org.rhq.enterprise.communications.command.client.PersistentFifo;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
 import org.rhq.enterprise.communications.command.server.discovery.AutoDiscoveryListener;
 import org.rhq.enterprise.communications.util.ConcurrencyManager;
@@ -447,10 +448,10 @@ public class ServerCommunicationsService implements ServerCommunicationsServiceM
                 if (sender_config.commandSpoolFileName != null) {
                     spool_file = new File(sender_config.dataDirectory, sender_config.commandSpoolFileName);
                     if (spool_file.exists()) {
-                        // first truncate it, in case Windows is locking it; then try to delete
+                        // first truncate it, in case Windows is locking it
                         new FileOutputStream(spool_file, false).close();
-                        spool_file.delete();
                     }
+                    PersistentFifo.delete(spool_file);
                 }
             } catch (Exception e) {
                 LOG.warn("Failed to truncate/delete spool for deleted agent [" + agent + "]"
@@ -32,7 +32,6 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -298,11 +297,95 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
         ResourceSyncInfo platformSyncInfo = ResourceSyncInfo.buildResourceSyncInfo(platform);
         Set<ResourceSyncInfo> topLevelServiceSyncInfo = getToplevelServiceSyncInfo(toplevelServices);
-        PlatformSyncInfo result = new PlatformSyncInfo(platformSyncInfo, topLevelServiceSyncInfo, topLevelServerIds);
+        Map<Integer, Long> topLevelServerHashes = getTopLevelServerHashes(knownAgent, topLevelServerIds);
+        PlatformSyncInfo result = new PlatformSyncInfo(platformSyncInfo, topLevelServiceSyncInfo, topLevelServerIds,
+            topLevelServerHashes);
 
         return result;
     }
 
+    /**
+     * Computes the subtree hash of each top level server so the agent can skip the sync of the servers whose
+     * subtrees have not changed. This pulls the (narrow) sync info rows of the agent's whole inventory in one query,
+     * which is far cheaper than pulling each server's sync info and sending it all to the agent.
+     *
+     * @param knownAgent the agent whose platform is being synced
+     * @param topLevelServerIds the ids of the platform's top level servers
+     * @return the subtree hashes keyed on top level server id. A top level server not found in the map (that is,
+     * not NEW or COMMITTED) has no hash.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Long> getTopLevelServerHashes(Agent knownAgent, Set<Integer> topLevelServerIds) {
+        Map<Integer, Long> result = new HashMap<Integer, Long>(topLevelServerIds.size());
+        if (topLevelServerIds.isEmpty()) {
+            return result;
+        }
+
+        Query query = entityManager.createNamedQuery(ResourceSyncInfo.QUERY_AGENT_HIERARCHY);
+        query.setParameter("agentId", knownAgent.getId());
+        List<Object[]> rows = query.getResultList();
+
+        Map<Integer, Object[]> rowsById = new HashMap<Integer, Object[]>(rows.size());
+        Map<Integer, List<Integer>> childIdsByParentId = new HashMap<Integer, List<Integer>>();
+        for (Object[] row : rows) {
+            Integer id = (Integer) row[0];
+            Integer parentId = (Integer) row[4];
+            rowsById.put(id, row);
+
+            List<Integer> childIds = childIdsByParentId.get(parentId);
+            if (null == childIds) {
+                childIds = new ArrayList<Integer>();
+                childIdsByParentId.put(parentId, childIds);
+            }
+            childIds.add(id);
+        }
+        rows = null; // release to GC
+
+        Map<Integer, Long> hashes = new HashMap<Integer, Long>(rowsById.size());
+        for (Integer topLevelServerId : topLevelServerIds) {
+            Long hash = getSubtreeHash(topLevelServerId, rowsById, childIdsByParentId, hashes);
+            if (null != hash) {
+                result.put(topLevelServerId, hash);
+            }
+        }
+
+        return result;
+    }
+
+    private Long getSubtreeHash(Integer resourceId, Map<Integer, Object[]> rowsById,
+        Map<Integer, List<Integer>> childIdsByParentId, Map<Integer, Long> hashes) {
+
+        Object[] row = rowsById.get(resourceId);
+        if (null == row || !ResourceSyncInfo.isIncludedInSubtreeHash((InventoryStatus) row[3])) {
+            return null;
+        }
+
+        Long hash = hashes.get(resourceId);
+        if (null == hash) {
+            List<Long> childHashes = new ArrayList<Long>();
+            List<Integer> childIds = childIdsByParentId.get(resourceId);
+            if (null != childIds) {
+                for (Integer childId : childIds) {
+                    Long childHash = getSubtreeHash(childId, rowsById, childIdsByParentId, hashes);
+                    if (null != childHash) {
+                        childHashes.add(childHash);
+                    }
+                }
+            }
+
+            long[] childHashArray = new long[childHashes.size()];
+            for (int i = 0; i < childHashArray.length; i++) {
+                childHashArray[i] = childHashes.get(i);
+            }
+
+            hash = ResourceSyncInfo.computeSubtreeHash((String) row[1], (Long) row[2], (InventoryStatus) row[3],
+                childHashArray);
+            hashes.put(resourceId, hash);
+        }
+
+        return hash;
+    }
+
     /**
      * At the time of writing (4.10) platform top level services don't have children so this will be quick, but
      * write it to handle any future children.  In general this will still be a relatively small number of resources.
@@ -839,6 +922,8 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
             if (isUpgradeAll && needsUpgrade(resource.getName(), name)) {
                 resource.setName(name);
+                // a name change must bump the mtime, the ResourceTextIndex relies on it to see the change
+                resource.setAgentSynchronizationNeeded();
                 logMessage.append("name, ");
                 ret.setUpgradedResourceName(resource.getName());
             }
@@ -931,6 +1016,10 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
      * <p>Does not require an existing transaction.  The resource and each child will be merged in an isolated
      * transaction</p>
      *
+     * <p>The tree is merged one level at a time. Once a level has been merged, its resources are detached from the
+     * report tree - their children are given a lightweight reference to their merged parent - so the memory held by
+     * the already merged part of a large report can be reclaimed while the rest of the report is being merged.</p>
+     *
      * @param  resource       NotNull pojo, the resource to be merged, should have parent and children pojos set
      * @param  agent          NotNull detached entity, the agent that should be set on the resource being merged
      *
@@ -944,75 +1033,119 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             LOG.debug("Merging [" + resource + "]...");
         }
 
+        // if we are to ignore this resource's type, don't bother doing anything since all is to be ignored
+        if (resource.getResourceType().isIgnored()) {
+            return;
+        }
+
         // We don't merge the entire resource tree. Instead we batch them in order to reduce transaction overhead
-        // while ensuring no transaction is too big (and thus risks timeout). To do this we need to flatten the
-        // tree and chunk through it.  Parents must be merged before children, so use a breadth first approach.
+        // while ensuring no transaction is too big (and thus risks timeout). Parents must be merged before children,
+        // so we chunk through the tree breadth first, one level at a time.
         // NOTE: this will also strip out all resources that are to be ignored; thus, ignored resources won't get merged
-        List<Resource> resourceList = treeToBreadthFirstList(resource);
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Preparing to merge [" + resourceList.size() + "] Resources with a batch size of ["
-                + MERGE_BATCH_SIZE + "]");
-        }
+        List<Resource> level = new ArrayList<Resource>(1);
+        level.add(resource);
+        Map<Integer, Resource> references = new HashMap<Integer, Resource>();
+        int total = 0;
 
         Map<Resource, Set<PostMergeAction>> postMergeActions = new HashMap<Resource, Set<PostMergeAction>>();
-        while (!resourceList.isEmpty()) {
-            int size = resourceList.size();
-            int end = (MERGE_BATCH_SIZE < size) ? MERGE_BATCH_SIZE : size;
-
-            List<Resource> resourceBatch = resourceList.subList(0, end);
-            discoveryBoss.mergeResourceInNewTransaction(resourceBatch, agent, postMergeActions);
-            if (!postMergeActions.isEmpty()) {
-                performPostMergeActions(postMergeActions);
+        while (!level.isEmpty()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Preparing to merge a level of [" + level.size() + "] Resources with a batch size of ["
+                    + MERGE_BATCH_SIZE + "]");
             }
 
-            // Advance our progress and possibly help GC. This will remove the processed resources from the backing list
-            resourceBatch.clear();
+            for (int i = 0, size = level.size(); i < size; i += MERGE_BATCH_SIZE) {
+                List<Resource> resourceBatch = level.subList(i, Math.min(i + MERGE_BATCH_SIZE, size));
+                discoveryBoss.mergeResourceInNewTransaction(resourceBatch, agent, postMergeActions);
+                if (!postMergeActions.isEmpty()) {
+                    performPostMergeActions(postMergeActions);
+                }
+            }
+
+            total += level.size();
+            level = detachMergedLevel(level, references);
         }
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Resource and children merged: resource/millis=" + resource.getName() + '/'
+            LOG.debug("Resource and children merged: resource/count/millis=" + resource.getName() + '/' + total + '/'
                 + (System.currentTimeMillis() - start));
         }
     }
 
-    private void performPostMergeActions(Map<Resource, Set<PostMergeAction>> postMergeActions) {
-        for (Resource r : postMergeActions.keySet()) {
-            for (PostMergeAction a : postMergeActions.get(r)) {
-                switch (a) {
-                case LINK_STORAGE_NODE:
-                    storageNodeManager.linkResource(r);
+    /**
+     * Returns the next level of the report tree to be merged - the children of the given, already merged, resources
+     * minus those that are to be ignored. The given resources are detached from that next level; that is, they no
+     * longer reference their children and their children reference a lightweight copy of them that holds only what the
+     * merge of the children needs (the id, the type and the parent). This allows the merged resources, along with
+     * their configurations and other data, to be garbage collected.
+     *
+     * @param  mergedLevel resources that were just merged, all on the same level of the report tree
+     * @param  references  the lightweight copies created so far, keyed on resource id
+     *
+     * @return the resources on the next level of the report tree
+     */
+    private List<Resource> detachMergedLevel(List<Resource> mergedLevel, Map<Integer, Resource> references) {
+        List<Resource> nextLevel = new ArrayList<Resource>();
+
+        for (Resource merged : mergedLevel) {
+            Set<Resource> children = merged.getChildResources();
+            if (children.isEmpty()) {
+                continue;
+            }
+
+            Resource reference = toReference(merged, references);
+
+            for (Resource child : children) {
+                // if this node is to be ignored, don't traverse it and don't merge it
+                if (child.getResourceType().isIgnored()) {
+                    continue;
                 }
+
+                // the ancestry will be set properly when the child is persisted with its attached parent
+                child.setParentResourceWithoutAncestry(reference);
+                nextLevel.add(child);
             }
-        }
-        postMergeActions.clear();
-    }
 
-    private List<Resource> treeToBreadthFirstList(Resource resource) {
-        // if we are to ignore this resource's type, don't bother doing anything since all is to be ignored
-        if (resource.getResourceType().isIgnored()) {
-            return new ArrayList<Resource>(0);
+            merged.setChildResources(new HashSet<Resource>(0));
         }
 
-        List<Resource> result = new ArrayList<Resource>(MERGE_BATCH_SIZE);
+        return nextLevel;
+    }
 
-        LinkedList<Resource> queue = new LinkedList<Resource>();
-        queue.add(resource);
-        while (!queue.isEmpty()) {
-            Resource node = queue.remove();
+    /**
+     * Returns a lightweight copy of the given merged resource; its parent will also be a lightweight copy if one was
+     * already created, otherwise the original parent is kept (e.g. the root, or an entity that was found when the
+     * resource was persisted - such an entity never has its lazy children loaded).
+     */
+    private Resource toReference(Resource resource, Map<Integer, Resource> references) {
+        Resource reference = references.get(resource.getId());
 
-            // if this node is to be ignored, don't traverse it and don't add it to the returned results
-            if (node.getResourceType().isIgnored()) {
-                continue;
+        if (null == reference) {
+            Resource parent = resource.getParentResource();
+            if (null != parent && Resource.ROOT != parent && references.containsKey(parent.getId())) {
+                parent = references.get(parent.getId());
             }
 
-            result.add(node);
-            for (Resource child : node.getChildResources()) {
-                queue.add(child);
-            }
+            reference = new Resource(resource.getId());
+            reference.setResourceType(resource.getResourceType());
+            reference.setName(resource.getName());
+            reference.setParentResourceWithoutAncestry(parent);
+            references.put(resource.getId(), reference);
         }
 
-        return result;
+        return reference;
+    }
+
+    private void performPostMergeActions(Map<Resource, Set<PostMergeAction>> postMergeActions) {
+        for (Resource r : postMergeActions.keySet()) {
+            for (PostMergeAction a : postMergeActions.get(r)) {
+                switch (a) {
+                case LINK_STORAGE_NODE:
+                    storageNodeManager.linkResource(r);
+                }
+            }
+        }
+        postMergeActions.clear();
     }
 
     @Override
@@ -1024,6 +1157,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         boolean isDebugEnabled = LOG.isDebugEnabled();
         // Cache parent resources we've already fetched from the DB, many resources will have the same parent
         Map<Integer, Resource> parentMap = new HashMap<Integer, Resource>();
+        List<Resource> persistedResources = new ArrayList<Resource>();
 
         for (Resource resource : resourceBatch) {
             Resource existingResource;
@@ -1038,6 +1172,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             } else {
                 presetAgent(resource, agent);
                 persistResource(resource, parentMap, postMergeActions);
+                persistedResources.add(resource);
             }
 
             if (isDebugEnabled) {
@@ -1049,6 +1184,10 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         // Help out the GC
         parentMap.clear();
 
+        if (!persistedResources.isEmpty()) {
+            linkPersistedResources(persistedResources);
+        }
+
         if (isDebugEnabled) {
             long delta = (System.currentTimeMillis() - batchStart);
             LOG.debug("Resource Batch merged: size/average/millis=" + resourceBatch.size() + "/" + delta
@@ -1247,6 +1386,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 } else {
                     existingResource.setParentResource(Resource.ROOT);
                 }
+                resourceManager.updateResourceAncestors(existingResource.getId());
 
             } else {
                 if (LOG.isDebugEnabled()) {
@@ -1404,10 +1544,25 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         resource.setModifiedBy(overlord.getName());
 
         setInventoryStatus(parentResource, resource, postMergeActions);
+    }
 
-        // Extend implicit (recursive) group membership of the parent to the new child
-        if (null != parentResource) {
-            groupManager.updateImplicitGroupMembership(overlord, resource);
+    /**
+     * Links the resources persisted by a merge batch into the resource ancestry, then extends the implicit (recursive)
+     * group membership of their parents to them, which reads that ancestry. The batch holds one level of the report
+     * tree, so the parents were linked by an earlier batch or are already in inventory.
+     */
+    private void linkPersistedResources(List<Resource> persistedResources) {
+        List<Integer> persistedResourceIds = new ArrayList<Integer>(persistedResources.size());
+        for (Resource resource : persistedResources) {
+            persistedResourceIds.add(resource.getId());
+        }
+        resourceManager.insertResourceAncestors(persistedResourceIds);
+
+        Subject overlord = subjectManager.getOverlord();
+        for (Resource resource : persistedResources) {
+            if (null != resource.getParentResource()) {
+                groupManager.updateImplicitGroupMembership(overlord, resource);
+            }
         }
     }
 
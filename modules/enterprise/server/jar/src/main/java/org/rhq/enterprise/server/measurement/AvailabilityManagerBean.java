@@ -74,6 +74,7 @@ import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationCacheEle
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.core.AgentManagerLocal;
+import org.rhq.enterprise.server.core.AgentPingBuffer;
 import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
@@ -719,6 +720,8 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
 
         Integer agentToUpdate = agentManager.getAgentIdByName(agentName);
         MergeInfo mergeInfo = new MergeInfo(report);
+        CurrentAvailabilityIndex index = CurrentAvailabilityIndex.getSingleton();
+        int numSkipped = 0;
 
         // For agent reports (not a server-side report)
         if (!report.isServerSideReport() && agentToUpdate != null) {
@@ -729,9 +732,29 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                 mergeInfo.setAskForFullReport(true);
             }
 
-            // update the lastAvailReport time and unset the backfill flag if it is set.
-            availabilityManager.updateLastAvailabilityReportInNewTransaction(agentToUpdate.intValue());
-
+            // update the lastAvailReport time and unset the backfill flag if it is set. This also tells us whether
+            // anything other than this server has touched the agent since its previous report, in which case the
+            // index entries for the agent can no longer be trusted.
+            long reportTime = System.currentTimeMillis();
+            boolean indexCurrent = availabilityManager.updateLastAvailabilityReportInNewTransaction(
+                agentToUpdate.intValue(), index.getLastReportTime(agentToUpdate.intValue()), reportTime);
+            int generation = index.reportReceived(agentToUpdate.intValue(), reportTime, indexCurrent);
+            AgentPingBuffer.getSingleton().setBackfilled(agentName, false);
+            mergeInfo.setIndexGeneration(agentToUpdate, generation);
+
+            // Drop the avails that would not change anything. Full reports are always merged against the db, they
+            // are what brings the server back in sync and they refresh the index.
+            if (report.isChangesOnlyReport()) {
+                numSkipped = index.removeUnchanged(agentToUpdate.intValue(), generation, availabilities);
+
+                if (numSkipped > 0 && log.isDebugEnabled()) {
+                    log.debug("Agent [" + agentName + "]: skipped [" + numSkipped + "] of [" + reportSize
+                        + "] reported availabilities, they match the current availability");
+                }
+            }
+        } else if (agentToUpdate != null) {
+            // a server-side report for a known agent, don't trust anything indexed for the agent from here on
+            index.invalidateAgent(agentToUpdate.intValue());
         }
 
         // process the report in batches to avoid an overly long transaction and to potentially increase the
@@ -742,14 +765,31 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             int end = (MERGE_BATCH_SIZE < size) ? MERGE_BATCH_SIZE : size;
 
             List<Availability> availBatch = availabilities.subList(0, end);
-            availabilityManager.mergeAvailabilitiesInNewTransaction(availBatch, mergeInfo);
+            try {
+                availabilityManager.mergeAvailabilitiesInNewTransaction(availBatch, mergeInfo);
+                updateIndex(index, availBatch, mergeInfo);
+
+            } catch (RuntimeException e) {
+                if (null != agentToUpdate) {
+                    index.invalidateAgent(agentToUpdate.intValue());
+                } else {
+                    index.remove(getResourceIds(availBatch));
+                }
+                throw e;
+            }
 
             // Advance our progress and possibly help GC. This will remove the processed avails from the backing list
             availBatch.clear();
         }
 
+        if (agentToUpdate != null && report.isServerSideReport()) {
+            // invalidate again, an agent report may have been merged concurrently with this one
+            index.invalidateAgent(agentToUpdate.intValue());
+        }
+
         MeasurementMonitor.getMBean().incrementAvailabilityReports(report.isChangesOnlyReport());
         MeasurementMonitor.getMBean().incrementAvailabilitiesInserted(mergeInfo.getNumInserted());
+        MeasurementMonitor.getMBean().incrementAvailabilitiesSkipped(numSkipped);
         MeasurementMonitor.getMBean().incrementAvailabilityInsertTime(watch.getElapsed());
         watch.reset();
 
@@ -771,10 +811,34 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         return true; // everything is OK and things look to be in sync
     }
 
+    // Called after a successfully committed batch. For agent reports index the resulting latest avails, for
+    // anything else make sure nothing stale is left behind.
+    private void updateIndex(CurrentAvailabilityIndex index, List<Availability> availBatch, MergeInfo mergeInfo) {
+        if (mergeInfo.isIndexed()) {
+            index.putAll(mergeInfo.getAgentId(), mergeInfo.getIndexGeneration(), mergeInfo.getLatestAvailabilities());
+        } else {
+            index.remove(getResourceIds(availBatch));
+        }
+
+        mergeInfo.getLatestAvailabilities().clear();
+    }
+
+    private List<Integer> getResourceIds(List<Availability> availabilities) {
+        List<Integer> resourceIds = new ArrayList<Integer>(availabilities.size());
+        for (Availability availability : availabilities) {
+            resourceIds.add(availability.getResource().getId());
+        }
+        return resourceIds;
+    }
+
     static class MergeInfo {
         private AvailabilityReport report;
         private int numInserted = 0;
         private boolean askForFullReport = false;
+        private Integer agentId;
+        private int indexGeneration;
+        // the latest avail of each merged resource, only collected for indexed (agent) reports
+        private Map<Integer, Availability> latestAvailabilities = new HashMap<Integer, Availability>();
 
         public MergeInfo(AvailabilityReport report) {
             super();
@@ -808,6 +872,37 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         public String toString(boolean includeAll) {
             return report.toString(includeAll);
         }
+
+        public void setIndexGeneration(Integer agentId, int indexGeneration) {
+            this.agentId = agentId;
+            this.indexGeneration = indexGeneration;
+        }
+
+        public boolean isIndexed() {
+            return null != agentId;
+        }
+
+        public Integer getAgentId() {
+            return agentId;
+        }
+
+        public int getIndexGeneration() {
+            return indexGeneration;
+        }
+
+        public Map<Integer, Availability> getLatestAvailabilities() {
+            return latestAvailabilities;
+        }
+
+        /**
+         * @param resourceId the merged resource
+         * @param latest the resource's latest avail after the merge, or null if it should not be indexed
+         */
+        public void setLatestAvailability(Integer resourceId, Availability latest) {
+            if (isIndexed()) {
+                latestAvailabilities.put(resourceId, latest);
+            }
+        }
     }
 
     @Override
@@ -865,6 +960,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                     // expected case
                     log.info("Skipping mergeAvailabilityReport() for stale resource [" + reported.getResource()
                         + "]. These messages should go away after the next agent synchronization with the server.");
+                    mergeInfo.setLatestAvailability(resourceId, null);
 
                     continue;
 
@@ -901,6 +997,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                     } catch (Throwable t) {
                         log.warn("Unable to repair NoResult latest availablity for Resource [" + reported.getResource()
                             + "]", t);
+                        mergeInfo.setLatestAvailability(resourceId, null);
                         continue;
                     }
                 }
@@ -945,6 +1042,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                     log.warn(
                         "Unable to repair NonUnique Result latest availablity for Resource [" + reported.getResource()
                             + "]", t);
+                    mergeInfo.setLatestAvailability(resourceId, null);
                     continue;
                 }
             } else {
@@ -962,6 +1060,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                 // dedicated SLSB method to do this work.
                 boolean uninventoried = resourceManager.handleMissingResourceInNewTransaction(resourceId);
                 if (uninventoried) {
+                    mergeInfo.setLatestAvailability(resourceId, null);
                     continue;
                 } else {
                     if (log.isDebugEnabled()) {
@@ -978,6 +1077,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             if (AvailabilityType.DISABLED == latestType) {
                 if (!(mergeInfo.isEnablementReport() && (AvailabilityType.UNKNOWN == reportedType))) {
                     disabledAvailabilities.add(reported);
+                    mergeInfo.setLatestAvailability(resourceId, latest);
                     continue;
                 }
             }
@@ -999,6 +1099,10 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                     latest = entityManager.merge(latest);
 
                     changedAvailabilities.add(reported);
+                    mergeInfo.setLatestAvailability(resourceId, reported);
+
+                } else {
+                    mergeInfo.setLatestAvailability(resourceId, latest);
                 }
 
                 // our last known state was unknown, ask for a full report to ensure we are in sync with agent
@@ -1013,6 +1117,8 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                 // We need to insert it into our past timeline.
                 insertAvailability(reported);
                 mergeInfo.incrementNumInserted();
+                // the timeline was changed in the past, don't index what we can't easily know to be current
+                mergeInfo.setLatestAvailability(resourceId, null);
 
                 // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
                 mergeInfo.setAskForFullReport(true);
@@ -1057,53 +1163,66 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         }
     }
 
-    // pulls all the ResourceAvailabilities in one query to reduce DB round trips
+    // Updates the ResourceAvailabilities with one bulk update per reported type, as opposed to loading and merging
+    // each of them, to reduce DB round trips. Stale resources simply have no row to update.
     private void updateResourceAvailabilities(List<Availability> reportedChanges) {
         if (null == reportedChanges || reportedChanges.isEmpty()) {
             return;
         }
 
-        Query q = entityManager.createNamedQuery(ResourceAvailability.QUERY_FIND_BY_RESOURCE_IDS);
-        List<Integer> resourceIds = new ArrayList<Integer>(reportedChanges.size());
+        // multiple changes for the same resource may be reported, the last one wins
+        Map<Integer, AvailabilityType> latestTypes = new HashMap<Integer, AvailabilityType>(reportedChanges.size());
         for (Availability reported : reportedChanges) {
-            resourceIds.add(reported.getResource().getId());
+            latestTypes.put(reported.getResource().getId(), reported.getAvailabilityType());
         }
-        q.setParameter("resourceIds", resourceIds);
-        List<ResourceAvailability> resourceAvailabilityList = q.getResultList();
-        resourceIds.clear(); // done with this, perhaps helps GC
-        resourceIds = null;
 
-        // populate Map of resourceIds to resourceAvailability
-        Map<Integer, ResourceAvailability> resourceAvailabilities = new HashMap(reportedChanges.size());
-        for (ResourceAvailability resourceAvailability : resourceAvailabilityList) {
-            resourceAvailabilities.put(resourceAvailability.getResourceId(), resourceAvailability);
+        Map<AvailabilityType, List<Integer>> resourceIdsByType = new HashMap<AvailabilityType, List<Integer>>();
+        for (Map.Entry<Integer, AvailabilityType> entry : latestTypes.entrySet()) {
+            List<Integer> resourceIds = resourceIdsByType.get(entry.getValue());
+            if (null == resourceIds) {
+                resourceIds = new ArrayList<Integer>();
+                resourceIdsByType.put(entry.getValue(), resourceIds);
+            }
+            resourceIds.add(entry.getKey());
         }
 
-        for (Availability reported : reportedChanges) {
-            ResourceAvailability currentAvailability = resourceAvailabilities.get(reported.getResource().getId());
-
-            // update the last known availability data for this resource but only if necessary (actually changed)
-            updateResourceAvailabilityIfNecessary(reported, currentAvailability);
+        for (Map.Entry<AvailabilityType, List<Integer>> entry : resourceIdsByType.entrySet()) {
+            Query q = entityManager.createNamedQuery(ResourceAvailability.UPDATE_BY_RESOURCE_IDS);
+            q.setParameter("availabilityType", entry.getKey());
+            q.setParameter("resourceIds", entry.getValue());
+            q.executeUpdate();
         }
-
-        resourceAvailabilities.clear(); // done with these, perhaps helps GC
-        resourceAvailabilities = null;
     }
 
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void updateLastAvailabilityReportInNewTransaction(int agentId) {
+    public boolean updateLastAvailabilityReportInNewTransaction(int agentId, Long lastReportTime, long reportTime) {
         // should we catch exceptions here, or allow them to bubble up and be caught?
 
+        // if the row still holds the time we last wrote, and is not backfilled, then nobody else has touched the
+        // agent's availabilities since. This costs nothing extra since we have to update the row anyway.
+        if (null != lastReportTime) {
+            Query query = entityManager.createNamedQuery(Agent.QUERY_UPDATE_LAST_AVAIL_REPORT_IF_UNCHANGED);
+            query.setParameter("reportTime", reportTime);
+            query.setParameter("lastReportTime", lastReportTime);
+            query.setParameter("agentId", agentId);
+
+            if (query.executeUpdate() > 0) {
+                return true;
+            }
+        }
+
         /*
          * since we already know we have to update the agent row with the last avail report time, might as well
          * set the backfilled to false here (as opposed to called agentManager.setBackfilled(agentId, false)
          */
         Query query = entityManager.createNamedQuery(Agent.QUERY_UPDATE_LAST_AVAIL_REPORT);
-        query.setParameter("reportTime", System.currentTimeMillis());
+        query.setParameter("reportTime", reportTime);
         query.setParameter("agentId", agentId);
 
         query.executeUpdate();
+
+        return false;
     }
 
     @Override
@@ -1114,6 +1233,9 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         platformAvailType = (null == platformAvailType) ? AvailabilityType.DOWN : platformAvailType;
         childAvailType = (null == childAvailType) ? AvailabilityType.UNKNOWN : childAvailType;
 
+        // the agent's availabilities are changed outside of an agent report
+        CurrentAvailabilityIndex.getSingleton().invalidateAgent(agentId);
+
         // get the platform resource if not already at platformAvailType (since this is the one
         // we need to change)
         Query query = entityManager
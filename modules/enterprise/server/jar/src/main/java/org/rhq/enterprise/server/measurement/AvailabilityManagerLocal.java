@@ -175,8 +175,12 @@ public interface AvailabilityManagerLocal extends AvailabilityManagerRemote {
      * SIDE-EFFECT: will unset the backfill flag if currently set on the agent.
      *
      * @param agentId the id of the agent
+     * @param lastReportTime the lastAvailabilityReport time this server last set for the agent, or null if not known
+     * @param reportTime the new lastAvailabilityReport time
+     * @return true if the agent still had <code>lastReportTime</code> set and was not backfilled, meaning nothing
+     * else changed the agent's availabilities since this server processed its previous report
      */
-    void updateLastAvailabilityReportInNewTransaction(int agentId);
+    boolean updateLastAvailabilityReportInNewTransaction(int agentId, Long lastReportTime, long reportTime);
 
     /**
      * Update availabilities for all resources managed by the given agent to the given availability type (which may be
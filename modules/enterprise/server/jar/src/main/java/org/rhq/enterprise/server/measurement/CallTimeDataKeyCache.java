@@ -0,0 +1,124 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory cache of the call-time data keys, mapping a schedule id and call destination to the id of the
+ * RHQ_CALLTIME_DATA_KEY row. It allows {@link CallTimeDataManagerLocal#insertCallTimeDataKeys(java.util.Set)} to skip
+ * the destinations already known to exist, and {@link CallTimeDataManagerLocal#insertCallTimeDataValues(java.util.Set)}
+ * to insert the values by key id rather than joining to the key table for every row.
+ * <p/>
+ * Key rows are never updated, and are only deleted together with their schedule, so a cached key id can only be stale
+ * if its schedule is gone. The cache is cleared should an insert by key id fail, and also when it is full, which keeps
+ * keys of deleted schedules from accumulating.
+ *
+ * @author Jay Shaughnessy
+ */
+public class CallTimeDataKeyCache {
+
+    private static final int MAX_SIZE;
+
+    static {
+        int maxSize = 200000;
+        try {
+            maxSize = Integer.parseInt(System.getProperty("rhq.server.calltime-key-cache.max-size", "200000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_SIZE = maxSize;
+    }
+
+    private static final CallTimeDataKeyCache singleton = new CallTimeDataKeyCache(MAX_SIZE);
+
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final ConcurrentMap<Key, Integer> keyIds = new ConcurrentHashMap<Key, Integer>();
+
+    CallTimeDataKeyCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static CallTimeDataKeyCache getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @param callDestination the destination as stored, i.e. already clipped to its maximum length
+     * @return the key id, or null if it is not cached
+     */
+    public Integer getKeyId(int scheduleId, String callDestination) {
+        return keyIds.get(new Key(scheduleId, callDestination));
+    }
+
+    /**
+     * @param callDestination the destination as stored, i.e. already clipped to its maximum length
+     */
+    public void put(int scheduleId, String callDestination, int keyId) {
+        if (maxSize <= 0) {
+            return;
+        }
+        if (size.get() >= maxSize) {
+            clear();
+        }
+        if (null == keyIds.put(new Key(scheduleId, callDestination), keyId)) {
+            size.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        keyIds.clear();
+        size.set(0);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private static class Key {
+        private final int scheduleId;
+        private final String callDestination;
+
+        private Key(int scheduleId, String callDestination) {
+            this.scheduleId = scheduleId;
+            this.callDestination = callDestination;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * scheduleId + callDestination.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return scheduleId == other.scheduleId && callDestination.equals(other.callDestination);
+        }
+    }
+}
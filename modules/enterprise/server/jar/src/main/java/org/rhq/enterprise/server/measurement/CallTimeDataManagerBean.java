@@ -21,9 +21,15 @@ package org.rhq.enterprise.server.measurement;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
@@ -95,6 +101,25 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         + "(key_id, begin_time, end_time, minimum, maximum, total, count) SELECT key.id, ?, ?, ?, ?, ?, ? FROM "
         + DATA_KEY_TABLE_NAME + " key WHERE key.schedule_id = ? AND key.call_destination = ?";
 
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_ID_STATEMENT = "INSERT INTO " + DATA_VALUE_TABLE_NAME
+        + "(id, key_id, begin_time, end_time, minimum, maximum, total, count) VALUES ";
+
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_ID_ROW = "(%s, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_ID_STATEMENT_AUTOINC = "INSERT INTO "
+        + DATA_VALUE_TABLE_NAME + "(key_id, begin_time, end_time, minimum, maximum, total, count) VALUES ";
+
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_ID_ROW_AUTOINC = "(?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String CALLTIME_KEY_SELECT_STATEMENT = "SELECT id, schedule_id, call_destination FROM "
+        + DATA_KEY_TABLE_NAME + " WHERE schedule_id IN ( @@SCHEDULE_IDS@@ )";
+
+    // 7 parameters per row, well below the bind parameter limits
+    private static final int MAX_VALUE_ROWS_PER_INSERT = 500;
+
+    // Oracle limits IN lists to 1000 elements
+    private static final int CALLTIME_KEY_SELECT_BATCH_SIZE = 1000;
+
     private final Log log = LogFactory.getLog(CallTimeDataManagerBean.class);
 
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
@@ -128,7 +153,9 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
         // Finally, add the stats themselves to the value table.
         callTimeDataManager.insertCallTimeDataValues(callTimeDataSet);
-        MeasurementMonitor.getMBean().incrementCallTimeInsertTime(System.currentTimeMillis() - startTime);
+        long insertTime = System.currentTimeMillis() - startTime;
+        MeasurementMonitor.getMBean().incrementCallTimeInsertTime(insertTime);
+        MeasurementMonitor.getMBean().addCallTimeReportInsertTime(insertTime);
 
     }
 
@@ -283,6 +310,41 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void insertCallTimeDataKeys(Set<CallTimeData> callTimeDataSet) {
+        long startTime = System.currentTimeMillis();
+        CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getSingleton();
+        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+
+        // Only the destinations not known to have a key row need the NOT EXISTS insert.
+        Map<Integer, Set<String>> uncachedDestinations = new HashMap<Integer, Set<String>>();
+        int cachedKeyCount = 0;
+        int uncachedKeyCount = 0;
+        for (CallTimeData callTimeData : callTimeDataSet) {
+            int scheduleId = callTimeData.getScheduleId();
+            for (String callDestination : callTimeData.getValues().keySet()) {
+                // make sure the destination string is safe for storage, clip as needed
+                String safeCallDestination = dbType.getString(callDestination, CallTimeDataKey.DESTINATION_MAX_LENGTH);
+                if (null != keyCache.getKeyId(scheduleId, safeCallDestination)) {
+                    ++cachedKeyCount;
+                    continue;
+                }
+                Set<String> destinations = uncachedDestinations.get(scheduleId);
+                if (null == destinations) {
+                    destinations = new HashSet<String>();
+                    uncachedDestinations.put(scheduleId, destinations);
+                }
+                if (destinations.add(safeCallDestination)) {
+                    ++uncachedKeyCount;
+                }
+            }
+        }
+
+        MeasurementMonitor.getMBean().incrementCallTimeKeyCacheHits(cachedKeyCount);
+        MeasurementMonitor.getMBean().incrementCallTimeKeyCacheMisses(uncachedKeyCount);
+
+        if (uncachedDestinations.isEmpty()) {
+            MeasurementMonitor.getMBean().incrementCallTimeKeyInsertTime(System.currentTimeMillis() - startTime);
+            return;
+        }
 
         int[] results;
         String insertKeySql;
@@ -291,7 +353,6 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
         try {
             conn = rhqDs.getConnection();
-            DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
 
             if (dbType instanceof Postgresql83DatabaseType) {
                 Statement st = null;
@@ -315,14 +376,10 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
             }
 
             ps = conn.prepareStatement(insertKeySql);
-            for (CallTimeData callTimeData : callTimeDataSet) {
-                ps.setInt(1, callTimeData.getScheduleId());
-                ps.setInt(3, callTimeData.getScheduleId());
-                Set<String> callDestinations = callTimeData.getValues().keySet();
-                for (String callDestination : callDestinations) {
-                    // make sure the destination string is safe for storage, clip as needed
-                    String safeCallDestination = dbType.getString(callDestination,
-                        CallTimeDataKey.DESTINATION_MAX_LENGTH);
+            for (Map.Entry<Integer, Set<String>> entry : uncachedDestinations.entrySet()) {
+                ps.setInt(1, entry.getKey());
+                ps.setInt(3, entry.getKey());
+                for (String safeCallDestination : entry.getValue()) {
                     ps.setString(2, safeCallDestination);
                     ps.setString(4, safeCallDestination);
                     ps.addBatch();
@@ -344,12 +401,45 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
             log.debug("Inserted new call-time data key rows for " + ((insertedRowCount >= 0) ? insertedRowCount : "?")
                 + " out of " + results.length + " reported key-value pairs.");
+
+            cacheKeyIds(conn, uncachedDestinations.keySet());
         } catch (SQLException e) {
             logSQLException("Failed to persist call-time data keys", e);
         } catch (Throwable t) {
             log.error("Failed to persist call-time data keys", t);
         } finally {
             JDBCUtil.safeClose(conn, ps, null);
+            MeasurementMonitor.getMBean().incrementCallTimeKeyInsertTime(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Loads the ids of all the key rows of the schedules into the key cache. Loading all the destinations of a schedule
+     * rather than just the reported ones costs little more and saves lookups for the next reports.
+     */
+    private void cacheKeyIds(Connection conn, Set<Integer> scheduleIds) throws SQLException {
+        CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getSingleton();
+        int[] ids = new int[scheduleIds.size()];
+        int i = 0;
+        for (Integer scheduleId : scheduleIds) {
+            ids[i++] = scheduleId;
+        }
+
+        for (int from = 0; from < ids.length; from += CALLTIME_KEY_SELECT_BATCH_SIZE) {
+            int[] batch = Arrays.copyOfRange(ids, from, Math.min(from + CALLTIME_KEY_SELECT_BATCH_SIZE, ids.length));
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                ps = conn.prepareStatement(JDBCUtil.transformQueryForMultipleInParameters(
+                    CALLTIME_KEY_SELECT_STATEMENT, "@@SCHEDULE_IDS@@", batch.length));
+                JDBCUtil.bindNTimes(ps, batch, 1);
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    keyCache.put(rs.getInt(2), rs.getString(3), rs.getInt(1));
+                }
+            } finally {
+                JDBCUtil.safeClose(ps, rs);
+            }
         }
     }
 
@@ -359,15 +449,19 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet) {
-        int[] results;
-        String insertValueSql;
-        PreparedStatement ps = null;
+        long startTime = System.currentTimeMillis();
+        CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getSingleton();
         Connection conn = null;
 
         try {
             conn = rhqDs.getConnection();
             DatabaseType dbType = DatabaseTypeFactory.getDatabaseType(conn);
 
+            if (!(dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
+                || dbType instanceof H2DatabaseType || dbType instanceof SQLServerDatabaseType)) {
+                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+            }
+
             if (dbType instanceof Postgresql83DatabaseType) {
                 Statement st = null;
                 try {
@@ -379,47 +473,31 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
                 }
             }
 
-            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
-                || dbType instanceof H2DatabaseType) {
-                String valueNextvalSql = JDBCUtil.getNextValSql(conn, "RHQ_calltime_data_value");
-                insertValueSql = String.format(CALLTIME_VALUE_INSERT_STATEMENT, valueNextvalSql);
-            } else if (dbType instanceof SQLServerDatabaseType) {
-                insertValueSql = CALLTIME_VALUE_INSERT_STATEMENT_AUTOINC;
-            } else {
-                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
-            }
-
-            ps = conn.prepareStatement(insertValueSql);
+            // Values of cached keys are inserted by key id, the others have their key looked up by the insert.
+            List<PendingValue> valuesByKeyId = new ArrayList<PendingValue>();
+            List<PendingValue> valuesByDestination = new ArrayList<PendingValue>();
             for (CallTimeData callTimeData : callTimeDataSet) {
-                ps.setInt(7, callTimeData.getScheduleId());
-                Set<String> callDestinations = callTimeData.getValues().keySet();
-                for (String callDestination : callDestinations) {
-                    CallTimeDataValue callTimeDataValue = callTimeData.getValues().get(callDestination);
-                    ps.setLong(1, callTimeDataValue.getBeginTime());
-                    ps.setLong(2, callTimeDataValue.getEndTime());
-                    ps.setDouble(3, callTimeDataValue.getMinimum());
-                    ps.setDouble(4, callTimeDataValue.getMaximum());
-                    ps.setDouble(5, callTimeDataValue.getTotal());
-                    ps.setLong(6, callTimeDataValue.getCount());
+                int scheduleId = callTimeData.getScheduleId();
+                for (Map.Entry<String, CallTimeDataValue> entry : callTimeData.getValues().entrySet()) {
                     // make sure the destination string is safe for storage, clip as needed
-                    String safeCallDestination = dbType.getString(callDestination,
+                    String safeCallDestination = dbType.getString(entry.getKey(),
                         CallTimeDataKey.DESTINATION_MAX_LENGTH);
-                    ps.setString(8, safeCallDestination);
-                    ps.addBatch();
+                    Integer keyId = keyCache.getKeyId(scheduleId, safeCallDestination);
+                    PendingValue value = new PendingValue(scheduleId, safeCallDestination, keyId, entry.getValue());
+                    if (null != keyId) {
+                        valuesByKeyId.add(value);
+                    } else {
+                        valuesByDestination.add(value);
+                    }
                 }
             }
 
-            results = ps.executeBatch();
-
             int insertedRowCount = 0;
-            for (int i = 0; i < results.length; i++) {
-                if ((results[i] != 1) && (results[i] != -2)) // Oracle likes to return -2 becuase it doesn't track batch update counts
-                {
-                    throw new MeasurementStorageException("Failed to insert call-time data value rows - result ["
-                        + results[i] + "] for batch command [" + i + "] does not equal 1.");
-                }
-
-                insertedRowCount += results[i] == -2 ? 1 : results[i]; // If Oracle returns -2, just count 1 row;
+            if (!valuesByKeyId.isEmpty()) {
+                insertedRowCount += insertCallTimeDataValuesByKeyId(conn, dbType, valuesByKeyId);
+            }
+            if (!valuesByDestination.isEmpty()) {
+                insertedRowCount += insertCallTimeDataValuesByDestination(conn, dbType, valuesByDestination);
             }
 
             notifyAlertConditionCacheManager("insertCallTimeDataValues",
@@ -428,7 +506,8 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
             if (insertedRowCount > 0) {
                 MeasurementMonitor.getMBean().incrementCalltimeValuesInserted(insertedRowCount);
 
-                log.debug("Inserted " + insertedRowCount + " call-time data value rows.");
+                log.debug("Inserted " + insertedRowCount + " call-time data value rows (" + valuesByKeyId.size()
+                    + " by cached key id).");
             }
 
         } catch (SQLException e) {
@@ -436,11 +515,144 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         } catch (Throwable t) {
             log.error("Failed to persist call-time data values", t);
         } finally {
-            JDBCUtil.safeClose(conn, ps, null);
+            JDBCUtil.safeClose(conn);
+            MeasurementMonitor.getMBean().incrementCallTimeValueInsertTime(System.currentTimeMillis() - startTime);
         }
 
     }
 
+    /**
+     * Inserts values whose key id is known. On Postgres and H2 many rows go in each multi-row INSERT ... VALUES
+     * statement, elsewhere every row is a command of a single batch.
+     */
+    private int insertCallTimeDataValuesByKeyId(Connection conn, DatabaseType dbType, List<PendingValue> values)
+        throws SQLException {
+        int rowsPerInsert = 1;
+        if (dbType instanceof PostgresqlDatabaseType || dbType instanceof H2DatabaseType) {
+            rowsPerInsert = MAX_VALUE_ROWS_PER_INSERT;
+        }
+        int insertedRowCount = 0;
+        int index = 0;
+        PreparedStatement ps = null;
+
+        try {
+            int fullInserts = values.size() / rowsPerInsert;
+            if (fullInserts > 0) {
+                ps = conn.prepareStatement(getInsertValuesByKeyIdSql(conn, dbType, rowsPerInsert));
+                for (int i = 0; i < fullInserts; i++) {
+                    index = bindValuesByKeyId(ps, values, index, rowsPerInsert);
+                    ps.addBatch();
+                }
+                insertedRowCount += countInsertedValueRows(ps.executeBatch(), rowsPerInsert);
+                JDBCUtil.safeClose(ps);
+                ps = null;
+            }
+
+            int remainingRows = values.size() - index;
+            if (remainingRows > 0) {
+                ps = conn.prepareStatement(getInsertValuesByKeyIdSql(conn, dbType, remainingRows));
+                bindValuesByKeyId(ps, values, index, remainingRows);
+                insertedRowCount += countInsertedValueRows(new int[] { ps.executeUpdate() }, remainingRows);
+            }
+        } catch (SQLException e) {
+            // A cached key may have been deleted along with its schedule, don't use any of them again
+            CallTimeDataKeyCache.getSingleton().clear();
+            throw e;
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+
+        return insertedRowCount;
+    }
+
+    private String getInsertValuesByKeyIdSql(Connection conn, DatabaseType dbType, int rows) {
+        String insertSql;
+        String row;
+        if (dbType instanceof SQLServerDatabaseType) {
+            insertSql = CALLTIME_VALUE_INSERT_BY_KEY_ID_STATEMENT_AUTOINC;
+            row = CALLTIME_VALUE_INSERT_BY_KEY_ID_ROW_AUTOINC;
+        } else {
+            insertSql = CALLTIME_VALUE_INSERT_BY_KEY_ID_STATEMENT;
+            row = String.format(CALLTIME_VALUE_INSERT_BY_KEY_ID_ROW,
+                JDBCUtil.getNextValSql(conn, "RHQ_calltime_data_value"));
+        }
+
+        StringBuilder sql = new StringBuilder(insertSql);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.toString();
+    }
+
+    private int bindValuesByKeyId(PreparedStatement ps, List<PendingValue> values, int index, int rows)
+        throws SQLException {
+        int parameterIndex = 1;
+        for (int end = index + rows; index < end; index++) {
+            PendingValue value = values.get(index);
+            CallTimeDataValue callTimeDataValue = value.value;
+            ps.setInt(parameterIndex++, value.keyId);
+            ps.setLong(parameterIndex++, callTimeDataValue.getBeginTime());
+            ps.setLong(parameterIndex++, callTimeDataValue.getEndTime());
+            ps.setDouble(parameterIndex++, callTimeDataValue.getMinimum());
+            ps.setDouble(parameterIndex++, callTimeDataValue.getMaximum());
+            ps.setDouble(parameterIndex++, callTimeDataValue.getTotal());
+            ps.setLong(parameterIndex++, callTimeDataValue.getCount());
+        }
+        return index;
+    }
+
+    /**
+     * Inserts values whose key id is not known, looking the key up by schedule and destination for every row.
+     */
+    private int insertCallTimeDataValuesByDestination(Connection conn, DatabaseType dbType, List<PendingValue> values)
+        throws SQLException {
+        String insertValueSql;
+        if (dbType instanceof SQLServerDatabaseType) {
+            insertValueSql = CALLTIME_VALUE_INSERT_STATEMENT_AUTOINC;
+        } else {
+            String valueNextvalSql = JDBCUtil.getNextValSql(conn, "RHQ_calltime_data_value");
+            insertValueSql = String.format(CALLTIME_VALUE_INSERT_STATEMENT, valueNextvalSql);
+        }
+
+        PreparedStatement ps = null;
+        try {
+            ps = conn.prepareStatement(insertValueSql);
+            for (PendingValue value : values) {
+                CallTimeDataValue callTimeDataValue = value.value;
+                ps.setLong(1, callTimeDataValue.getBeginTime());
+                ps.setLong(2, callTimeDataValue.getEndTime());
+                ps.setDouble(3, callTimeDataValue.getMinimum());
+                ps.setDouble(4, callTimeDataValue.getMaximum());
+                ps.setDouble(5, callTimeDataValue.getTotal());
+                ps.setLong(6, callTimeDataValue.getCount());
+                ps.setInt(7, value.scheduleId);
+                ps.setString(8, value.callDestination);
+                ps.addBatch();
+            }
+
+            return countInsertedValueRows(ps.executeBatch(), 1);
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+    }
+
+    private int countInsertedValueRows(int[] results, int rowsPerCommand) {
+        int insertedRowCount = 0;
+        for (int i = 0; i < results.length; i++) {
+            if ((results[i] != rowsPerCommand) && (results[i] != -2)) // Oracle likes to return -2 becuase it doesn't track batch update counts
+            {
+                throw new MeasurementStorageException("Failed to insert call-time data value rows - result ["
+                    + results[i] + "] for batch command [" + i + "] does not equal " + rowsPerCommand + ".");
+            }
+
+            insertedRowCount += rowsPerCommand; // If Oracle returns -2, just count the rows of the command
+        }
+        return insertedRowCount;
+    }
+
     private void notifyAlertConditionCacheManager(String callingMethod, CallTimeData... data) {
         AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(data);
 
@@ -457,4 +669,18 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
         log.error(message + " - causes: " + causes, mainException);
     }
+
+    private static class PendingValue {
+        private final int scheduleId;
+        private final String callDestination;
+        private final Integer keyId;
+        private final CallTimeDataValue value;
+
+        private PendingValue(int scheduleId, String callDestination, Integer keyId, CallTimeDataValue value) {
+            this.scheduleId = scheduleId;
+            this.callDestination = callDestination;
+            this.keyId = keyId;
+            this.value = value;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+/**
+ * An in-memory index of the latest availability type and start time of resources whose availability reports are
+ * processed by this server. It allows changes-only agent reports to drop datums that would not change anything
+ * before any SQL is executed.
+ * <p/>
+ * Entries are only ever trusted for the agent that produced them and only as long as this server is known to be the
+ * only writer of that agent's availability. The latter is established by
+ * {@link AvailabilityManagerLocal#updateLastAvailabilityReportInNewTransaction(int, Long, long)}: if the agent's
+ * lastAvailabilityReport column no longer holds the value this server wrote for the previous report, another server
+ * in the cloud (or a backfill) has touched the agent and all of its entries are discarded by moving the agent to a new
+ * generation. Any other write to a resource's availability must either {@link #invalidateAgent(int) invalidate the
+ * agent} or {@link #remove(Collection) remove} the affected entries.
+ * <p/>
+ * The index is a cache, not a source of truth. Losing it (e.g. server restart) only means the next report for each
+ * agent is merged against the database again.
+ *
+ * @author Jay Shaughnessy
+ */
+public class CurrentAvailabilityIndex {
+
+    private static final int MAX_SIZE;
+
+    static {
+        int maxSize = 500000;
+        try {
+            maxSize = Integer.parseInt(System.getProperty("rhq.server.availability.index.max-size", "500000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_SIZE = maxSize;
+    }
+
+    private static final CurrentAvailabilityIndex singleton = new CurrentAvailabilityIndex(MAX_SIZE);
+
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger nextGeneration = new AtomicInteger(0);
+    private final ConcurrentMap<Integer, AgentState> agents = new ConcurrentHashMap<Integer, AgentState>();
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+    CurrentAvailabilityIndex(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static CurrentAvailabilityIndex getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @param agentId the agent
+     * @return the lastAvailabilityReport time this server last wrote for the agent, or null if unknown
+     */
+    public Long getLastReportTime(int agentId) {
+        AgentState state = agents.get(agentId);
+        return (null == state) ? null : state.lastReportTime;
+    }
+
+    /**
+     * Records the lastAvailabilityReport time written for the agent by this server.
+     *
+     * @param agentId the agent
+     * @param reportTime the time written to the agent row
+     * @param current true if the previous value was the one written by this server (i.e. nobody else touched the
+     * agent in between). If false the agent's existing entries are discarded.
+     * @return the agent generation under which the report must be processed
+     */
+    public int reportReceived(int agentId, long reportTime, boolean current) {
+        AgentState state = agents.get(agentId);
+        int generation = (current && null != state) ? state.generation : nextGeneration.incrementAndGet();
+        agents.put(agentId, new AgentState(reportTime, generation));
+        return generation;
+    }
+
+    /**
+     * Discards all entries for the agent. To be called when this server changes the agent's availabilities
+     * outside of an agent report.
+     *
+     * @param agentId the agent
+     */
+    public void invalidateAgent(int agentId) {
+        agents.put(agentId, new AgentState(null, nextGeneration.incrementAndGet()));
+    }
+
+    /**
+     * Removes from <code>availabilities</code> every reported availability that would not change the resource's
+     * current availability: same type as the indexed one and not reported for a time prior to the indexed start time.
+     *
+     * @param agentId the reporting agent
+     * @param generation the agent generation returned by {@link #reportReceived(int, long, boolean)}
+     * @param availabilities the reported availabilities, modified in place
+     * @return the number of availabilities removed
+     */
+    public int removeUnchanged(int agentId, int generation, List<Availability> availabilities) {
+        if (!isCurrent(agentId, generation)) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (Iterator<Availability> i = availabilities.iterator(); i.hasNext();) {
+            Availability reported = i.next();
+            Entry entry = entries.get(reported.getResource().getId());
+
+            if (null != entry && entry.agentId == agentId && entry.generation == generation
+                && entry.availabilityType == reported.getAvailabilityType()
+                && reported.getStartTime() >= entry.startTime) {
+                i.remove();
+                ++removed;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Indexes the latest availabilities resulting from merging (part of) an agent report. Ignored if the agent has
+     * moved to a new generation in the meantime.
+     *
+     * @param agentId the reporting agent
+     * @param generation the agent generation the report was merged under
+     * @param latestAvailabilities resource id to latest availability. A null value removes the resource's entry.
+     */
+    public void putAll(int agentId, int generation, Map<Integer, Availability> latestAvailabilities) {
+        if (!isCurrent(agentId, generation)) {
+            return;
+        }
+
+        for (Map.Entry<Integer, Availability> e : latestAvailabilities.entrySet()) {
+            Availability latest = e.getValue();
+
+            if (null == latest) {
+                if (null != entries.remove(e.getKey())) {
+                    size.decrementAndGet();
+                }
+                continue;
+            }
+
+            Entry entry = new Entry(agentId, generation, latest.getAvailabilityType(), latest.getStartTime());
+            if (null != entries.replace(e.getKey(), entry)) {
+                continue;
+            }
+            if (size.get() < maxSize && null == entries.putIfAbsent(e.getKey(), entry)) {
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param resourceIds resources whose availability has been changed outside of an agent report
+     */
+    public void remove(Collection<Integer> resourceIds) {
+        for (Integer resourceId : resourceIds) {
+            if (null != entries.remove(resourceId)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public void clear() {
+        agents.clear();
+        entries.clear();
+        size.set(0);
+    }
+
+    private boolean isCurrent(int agentId, int generation) {
+        AgentState state = agents.get(agentId);
+        return null != state && state.generation == generation;
+    }
+
+    private static class AgentState {
+        private final Long lastReportTime;
+        private final int generation;
+
+        private AgentState(Long lastReportTime, int generation) {
+            this.lastReportTime = lastReportTime;
+            this.generation = generation;
+        }
+    }
+
+    private static class Entry {
+        private final int agentId;
+        private final int generation;
+        private final AvailabilityType availabilityType;
+        private final long startTime;
+
+        private Entry(int agentId, int generation, AvailabilityType availabilityType, long startTime) {
+            this.agentId = agentId;
+            this.generation = generation;
+            this.availabilityType = availabilityType;
+            this.startTime = startTime;
+        }
+    }
+}
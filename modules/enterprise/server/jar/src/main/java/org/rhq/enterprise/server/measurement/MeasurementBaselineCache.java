@@ -0,0 +1,204 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.util.jdbc.JDBCUtil;
+import org.rhq.enterprise.server.util.TransactionSynchronizationUtil;
+
+/**
+ * An in-memory copy of the min and max of every measurement baseline, which is all the OOB computation needs. The
+ * baselines are held in primitive arrays sorted by schedule id, so that a lookup is a binary search and the whole
+ * copy takes 20 bytes per schedule.
+ * <p/>
+ * The copy is loaded with a single query the first time it is needed after it has been invalidated or has expired.
+ * {@link MeasurementBaselineManagerBean} invalidates it once the transactions that save or delete baselines have
+ * completed. Since baselines may also be changed by another server of the cluster, the copy expires after
+ * {@link #MAX_AGE_MILLIS}.
+ *
+ * @author Heiko W. Rupp
+ */
+class MeasurementBaselineCache {
+
+    private static final Log LOG = LogFactory.getLog(MeasurementBaselineCache.class);
+
+    private static final long MAX_AGE_MILLIS = 5L * 60L * 1000L;
+
+    private static final int FETCH_SIZE = 10000;
+
+    private static final String BASELINES_QUERY = "" //
+        + "SELECT SCHEDULE_ID, BL_MIN, BL_MAX " //
+        + "  FROM RHQ_MEASUREMENT_BLINE " //
+        + " ORDER BY SCHEDULE_ID";
+
+    private static final MeasurementBaselineCache INSTANCE = new MeasurementBaselineCache();
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Baselines baselines;
+
+    // for tests
+    MeasurementBaselineCache() {
+    }
+
+    static MeasurementBaselineCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Discards the cached baselines, they will be reloaded the next time they are needed.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        baselines = null;
+    }
+
+    /**
+     * Discards the cached baselines once the current transaction has completed. To be called whenever baselines are
+     * saved or deleted; discarding them before the commit would let a concurrent OOB computation load the old
+     * baselines again.
+     */
+    void invalidateAfterCompletion() {
+        TransactionSynchronizationUtil.runAfterCompletion(new Runnable() {
+            public void run() {
+                invalidate();
+            }
+
+            @Override
+            public String toString() {
+                return "measurement baseline cache invalidation";
+            }
+        });
+    }
+
+    /**
+     * @param dataSource used to load the baselines if the cached copy is missing, invalidated or expired
+     * @return the current baselines
+     */
+    Baselines getBaselines(DataSource dataSource) throws SQLException {
+        Baselines current = baselines;
+        if (isValid(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = baselines;
+            if (isValid(current)) {
+                return current;
+            }
+            current = load(dataSource);
+            baselines = current;
+            return current;
+        }
+    }
+
+    private boolean isValid(Baselines current) {
+        return current != null && current.generation == generation.get()
+            && (System.currentTimeMillis() - current.loadTime) < MAX_AGE_MILLIS;
+    }
+
+    private Baselines load(DataSource dataSource) throws SQLException {
+        long start = System.currentTimeMillis();
+        long loadGeneration = generation.get();
+
+        int[] scheduleIds = new int[1024];
+        double[] mins = new double[1024];
+        double[] maxs = new double[1024];
+        int size = 0;
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.prepareStatement(BASELINES_QUERY);
+            stmt.setFetchSize(FETCH_SIZE);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                if (size == scheduleIds.length) {
+                    int capacity = size * 2;
+                    scheduleIds = Arrays.copyOf(scheduleIds, capacity);
+                    mins = Arrays.copyOf(mins, capacity);
+                    maxs = Arrays.copyOf(maxs, capacity);
+                }
+                scheduleIds[size] = rs.getInt(1);
+                mins[size] = rs.getDouble(2);
+                maxs[size] = rs.getDouble(3);
+                size++;
+            }
+        } finally {
+            JDBCUtil.safeClose(conn, stmt, rs);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + size + " baselines in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return new Baselines(scheduleIds, mins, maxs, size, loadGeneration, start);
+    }
+
+    /**
+     * An immutable snapshot of the baselines.
+     */
+    static class Baselines {
+        private final int[] scheduleIds;
+        private final double[] mins;
+        private final double[] maxs;
+        private final int size;
+        private final long generation;
+        private final long loadTime;
+
+        private Baselines(int[] scheduleIds, double[] mins, double[] maxs, int size, long generation, long loadTime) {
+            this.scheduleIds = scheduleIds;
+            this.mins = mins;
+            this.maxs = maxs;
+            this.size = size;
+            this.generation = generation;
+            this.loadTime = loadTime;
+        }
+
+        /**
+         * @return the index of the schedule's baseline, or a negative value if the schedule has no baseline
+         */
+        int indexOf(int scheduleId) {
+            return Arrays.binarySearch(scheduleIds, 0, size, scheduleId);
+        }
+
+        double getMin(int index) {
+            return mins[index];
+        }
+
+        double getMax(int index) {
+            return maxs[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
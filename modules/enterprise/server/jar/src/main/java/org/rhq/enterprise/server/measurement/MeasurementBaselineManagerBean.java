@@ -226,6 +226,7 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
         Query query = entityManager.createNamedQuery(MeasurementBaseline.QUERY_DELETE_BY_COMPUTE_TIME);
         query.setParameter("timestamp", olderThanTime);
         int rowsAffected = query.executeUpdate();
+        MeasurementBaselineCache.getInstance().invalidateAfterCompletion();
         return rowsAffected;
     }
 
@@ -332,6 +333,7 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
             baseline.setSchedule(schedule); // this sets the reverse, owning relationship as well
             entityManager.persist(baseline);
         }
+        MeasurementBaselineCache.getInstance().invalidateAfterCompletion();
     }
 
     /**
@@ -553,6 +555,7 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
         if (save) {
             entityManager.persist(baseline);
             entityManager.merge(schedule);
+            MeasurementBaselineCache.getInstance().invalidateAfterCompletion();
         }
 
         return baseline;
@@ -605,6 +608,9 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
                 entityManager.merge(schedule);
             }
         }
+        if (save) {
+            MeasurementBaselineCache.getInstance().invalidateAfterCompletion();
+        }
 
         // all baselines should be the same
         return baseline;
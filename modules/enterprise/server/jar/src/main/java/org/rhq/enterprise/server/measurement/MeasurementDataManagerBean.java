@@ -35,10 +35,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -106,6 +108,7 @@ import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.server.metrics.MetricsServer;
 import org.rhq.server.metrics.RawDataInsertedCallback;
+import org.rhq.server.metrics.aggregation.AggregationManager;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.RawNumericMetric;
 
@@ -120,7 +123,8 @@ import org.rhq.server.metrics.domain.RawNumericMetric;
 public class MeasurementDataManagerBean implements MeasurementDataManagerLocal, MeasurementDataManagerRemote {
     // time_stamp, schedule_id, value, schedule_id, schedule_id, value, value, value, value
     private static final String TRAIT_INSERT_STATEMENT = "INSERT INTO RHQ_measurement_data_trait \n"
-        + "  SELECT ?, ?, ?  FROM RHQ_numbers n \n"
+        + "  (time_stamp, schedule_id, value, stored_time) \n"
+        + "  SELECT ?, ?, ?, ?  FROM RHQ_numbers n \n"
         + "  WHERE n.i = 42 \n"
         + "    AND NOT EXISTS \n"
         + "      ( \n"
@@ -256,33 +260,66 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             return;
         }
 
+        // drop the values known to be unchanged, they would not be inserted anyway
+        MeasurementTraitCache traitCache = MeasurementTraitCache.getSingleton();
+        List<MeasurementDataTrait> traits = new ArrayList<MeasurementDataTrait>(data.size());
+        for (MeasurementDataTrait aData : data) {
+            if (!traitCache.isUnchanged(aData)) {
+                traits.add(aData);
+            }
+        }
+        if (traits.isEmpty()) {
+            return;
+        }
+
         Connection conn = null;
         PreparedStatement ps = null;
         try {
             conn = rhqDs.getConnection();
             ps = conn.prepareStatement(TRAIT_INSERT_STATEMENT);
 
-            for (MeasurementDataTrait aData : data) {
-                // time_stamp, schedule_id, value, schedule_id, schedule_id, value, value, value, value
+            // the changes are looked for by the stored time, a late value has an old time stamp
+            long storedTime = System.currentTimeMillis();
+            for (MeasurementDataTrait aData : traits) {
+                // time_stamp, schedule_id, value, stored_time, schedule_id, schedule_id, value, value, value, value
                 ps.setLong(1, aData.getTimestamp());
                 ps.setInt(2, aData.getScheduleId());
                 ps.setString(3, aData.getValue());
-                ps.setInt(4, aData.getScheduleId());
+                ps.setLong(4, storedTime);
                 ps.setInt(5, aData.getScheduleId());
-                ps.setString(6, aData.getValue());
+                ps.setInt(6, aData.getScheduleId());
                 ps.setString(7, aData.getValue());
                 ps.setString(8, aData.getValue());
                 ps.setString(9, aData.getValue());
+                ps.setString(10, aData.getValue());
                 ps.addBatch();
             }
 
             int[] res = ps.executeBatch();
-            if (res.length != data.size()) {
+            if (res.length != traits.size()) {
                 throw new MeasurementStorageException("Failure to store measurement trait data.");
                 // It is expected that some of these batch updates didn't update anything as the previous value was the same
             }
 
-            notifyAlertConditionCacheManager("mergeMeasurementReport", data.toArray(new MeasurementData[data.size()]));
+            // only the inserted values are changes, if the driver does not tell then assume they all are
+            List<MeasurementData> changed = new ArrayList<MeasurementData>(traits.size());
+            for (int i = 0; i < res.length; i++) {
+                MeasurementDataTrait aData = traits.get(i);
+                if (res[i] == 0) {
+                    traitCache.unchanged(aData);
+                } else if (res[i] > 0) {
+                    traitCache.inserted(aData);
+                    changed.add(aData);
+                } else {
+                    traitCache.remove(aData.getScheduleId());
+                    changed.add(aData);
+                }
+            }
+
+            if (!changed.isEmpty()) {
+                notifyAlertConditionCacheManager("mergeMeasurementReport",
+                    changed.toArray(new MeasurementData[changed.size()]));
+            }
         } catch (SQLException e) {
             log.warn("Failure saving measurement trait data:\n" + ThrowableUtil.getAllMessages(e));
         } catch (Exception e) {
@@ -594,6 +631,22 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         log.debug(callingMethod + ": " + stats.toString());
     }
 
+    @Asynchronous
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Future<Boolean> calculateAggregates(AggregationManager.OneHourDataListener oneHourDataListener) {
+        boolean finished = false;
+        try {
+            MetricsServer metricsServer = storageClientManager.getMetricsServer();
+            if (metricsServer != null) {
+                finished = metricsServer.calculateAggregates(oneHourDataListener);
+            }
+        } catch (Exception e) {
+            log.error("Failed to compress measurement data. Cause: " + e, e);
+        }
+        return new AsyncResult<Boolean>(finished);
+    }
+
     private void notifyAlertConditionCacheManager(String callingMethod, MeasurementData[] data) {
         AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(data);
 
@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import javax.ejb.Local;
 
@@ -38,6 +39,7 @@ import org.rhq.core.domain.measurement.ui.MetricDisplaySummary;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.server.metrics.aggregation.AggregationManager;
 
 /**
  * A manager for {@link MeasurementData}s.
@@ -140,4 +142,13 @@ public interface MeasurementDataManagerLocal extends MeasurementDataManagerRemot
 
     void updateAlertConditionCache(String callingMethod, MeasurementData[] data);
 
+    /**
+     * Computes and stores the metric aggregates asynchronously, outside of any transaction, streaming the one hour
+     * aggregates to the listener batch by batch as they are stored. The listener is called from the aggregation worker
+     * threads and is done with once the returned future completes.
+     *
+     * @return true once aggregation finished, false if it failed or was aborted
+     */
+    Future<Boolean> calculateAggregates(AggregationManager.OneHourDataListener oneHourDataListener);
+
 }
\ No newline at end of file
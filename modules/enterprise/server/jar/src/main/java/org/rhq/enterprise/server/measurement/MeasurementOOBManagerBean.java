@@ -81,6 +81,13 @@ import org.rhq.server.metrics.domain.Bucket;
 public class MeasurementOOBManagerBean implements MeasurementOOBManagerLocal {
 
     private static final int BATCH_SIZE = 500;
+
+    static final int NO_OOB = Integer.MIN_VALUE;
+
+    private static final String OOB_DELETE_STMT = "DELETE FROM RHQ_MEASUREMENT_OOB WHERE SCHEDULE_ID IN ( @@IDS@@ )";
+
+    private static final String OOB_INSERT_STMT = "" //
+        + "INSERT INTO RHQ_MEASUREMENT_OOB (SCHEDULE_ID, TIME_STAMP, OOB_FACTOR) VALUES (?, ?, ?)";
     private final Log log = LogFactory.getLog(MeasurementOOBManagerBean.class);
 
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
@@ -208,97 +215,169 @@ public class MeasurementOOBManagerBean implements MeasurementOOBManagerLocal {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     @TransactionAttribute(value = TransactionAttributeType.NOT_SUPPORTED)
-    public void computeOOBsForLastHour(Subject subject, Iterable<AggregateNumericMetric> metrics) {
-        log.info("Computing OOBs");
+    public int computeOOBsForLastHour(Subject subject, Iterable<AggregateNumericMetric> metrics) {
+        log.debug("Computing OOBs");
         int count = 0;
         long startTime = System.currentTimeMillis();
 
         try {
-            Iterator<AggregateNumericMetric> iterator = metrics.iterator();
-            while (iterator.hasNext()) {
+            MeasurementBaselineCache.Baselines baselines;
+            try {
+                baselines = MeasurementBaselineCache.getInstance().getBaselines(rhqDs);
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load the baselines", e);
+            }
 
-                List<Integer> scheduleIds = new ArrayList<Integer>(BATCH_SIZE);
-                List<AggregateNumericMetric> metricList = new ArrayList<AggregateNumericMetric>(BATCH_SIZE);
+            AggregateNumericMetric[] batch = new AggregateNumericMetric[BATCH_SIZE];
+            boolean[] hasBaseline = new boolean[BATCH_SIZE];
+            double[] baselineMins = new double[BATCH_SIZE];
+            double[] baselineMaxs = new double[BATCH_SIZE];
+            int[] oobScheduleIds = new int[BATCH_SIZE];
+            long[] oobTimestamps = new long[BATCH_SIZE];
+            int[] oobFactors = new int[BATCH_SIZE];
 
-                int i = 0;
+            Iterator<AggregateNumericMetric> iterator = metrics.iterator();
+            while (iterator.hasNext()) {
+                int size = 0;
+                int missing = 0;
                 do {
-                    AggregateNumericMetric aggregate = iterator.next();
-                    scheduleIds.add(aggregate.getScheduleId());
-                    metricList.add(aggregate);
-                    i++;
-                } while (i < BATCH_SIZE && iterator.hasNext());
-
-                Query q  = entityManager.createNamedQuery(MeasurementBaseline.QUERY_BY_SCHEDULE_IDS);
-                q.setParameter("scheduleIds",scheduleIds);
-                List<MeasurementBaseline> tmpList = q.getResultList();
-
-                // put the result in a HashMap to speed up query later
-                Map<Integer,MeasurementBaseline> baselineMap = new HashMap<Integer, MeasurementBaseline>(tmpList.size());
-                for (MeasurementBaseline baseline : tmpList) {
-                    baselineMap.put(baseline.getScheduleId(),baseline);
-                }
+                    AggregateNumericMetric metric = iterator.next();
+                    int index = baselines.indexOf(metric.getScheduleId());
+                    hasBaseline[size] = (index >= 0);
+                    if (index >= 0) {
+                        baselineMins[size] = baselines.getMin(index);
+                        baselineMaxs[size] = baselines.getMax(index);
+                    } else {
+                        missing++;
+                    }
+                    batch[size++] = metric;
+                } while (size < BATCH_SIZE && iterator.hasNext());
 
-                for (AggregateNumericMetric metric : metricList) {
-                    MeasurementBaseline baseline = baselineMap.get(metric.getScheduleId());
-                    if (baseline==null)
-                        continue;
+                if (missing > 0) {
+                    // baselines saved since the cache was loaded, e.g. by another server
+                    loadMissingBaselines(batch, size, hasBaseline, baselineMins, baselineMaxs);
+                }
 
-                    try {
-                        count += oobManager.calculateOOB(metric,baseline);
-                    } catch (Exception e) {
-                        log.error("An error occurred while calculating OOBs for " + metric, e);
-                        throw new RuntimeException(e);
+                int oobs = 0;
+                for (int i = 0; i < size; i++) {
+                    if (hasBaseline[i]) {
+                        int oobFactor = computeOOBFactor(batch[i].getAvg(), batch[i].getMin(), batch[i].getMax(),
+                            baselineMins[i], baselineMaxs[i]);
+                        if (oobFactor != NO_OOB) {
+                            oobScheduleIds[oobs] = batch[i].getScheduleId();
+                            oobTimestamps[oobs] = batch[i].getTimestamp();
+                            oobFactors[oobs] = oobFactor;
+                            oobs++;
+                        }
                     }
+                }
 
+                if (oobs > 0) {
+                    count += insertOOBs(oobScheduleIds, oobTimestamps, oobFactors, oobs);
                 }
             }
+            return count;
         } finally {
             long endTime = System.currentTimeMillis();
-            if (log.isInfoEnabled()) {
-                log.info("Finished calculating " + count + " OOBs in " + (endTime - startTime) + " ms");
+            if (log.isDebugEnabled()) {
+                log.debug("Finished calculating " + count + " OOBs in " + (endTime - startTime) + " ms");
             }
         }
     }
 
-    @Override
     @SuppressWarnings("unchecked")
-    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
-    public int calculateOOB(AggregateNumericMetric metric,MeasurementBaseline baseline) {
-        if (baseline==null) {
-            return 0;
+    private void loadMissingBaselines(AggregateNumericMetric[] batch, int size, boolean[] hasBaseline,
+        double[] baselineMins, double[] baselineMaxs) {
+        List<Integer> scheduleIds = new ArrayList<Integer>();
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+            if (!hasBaseline[i]) {
+                scheduleIds.add(batch[i].getScheduleId());
+                positions.put(batch[i].getScheduleId(), i);
+            }
         }
 
-        Long upperDelta = null;
-        Long lowerDelta = null;
+        Query q = entityManager.createNamedQuery(MeasurementBaseline.QUERY_BY_SCHEDULE_IDS);
+        q.setParameter("scheduleIds", scheduleIds);
+        List<MeasurementBaseline> baselines = q.getResultList();
+        for (MeasurementBaseline baseline : baselines) {
+            Integer position = positions.get(baseline.getScheduleId());
+            if (position != null) {
+                hasBaseline[position] = true;
+                baselineMins[position] = baseline.getMin();
+                baselineMaxs[position] = baseline.getMax();
+            }
+        }
+    }
 
-        if (isPastUpperBound(baseline, metric)) {
-            upperDelta =
-                Math.round(((metric.getMax() - baseline.getMax()) / (baseline.getMax() - baseline.getMin())) * 100);
+    /**
+     * Inserts the OOBs of a batch, falling back to inserting them one by one if the batch fails, which happens when a
+     * schedule has been deleted since its aggregate was computed.
+     */
+    private int insertOOBs(int[] scheduleIds, long[] timestamps, int[] oobFactors, int count) {
+        try {
+            return oobManager.insertOOBs(scheduleIds, timestamps, oobFactors, count);
+        } catch (Exception e) {
+            log.debug("Failed to insert a batch of " + count + " OOBs, inserting them one at a time: " + e);
         }
 
-        if (isPastLowerBound(baseline, metric)) {
-            lowerDelta =
-                Math.round(((baseline.getMin() - metric.getMin()) / (baseline.getMax() - baseline.getMin())) * 100);
+        int inserted = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                inserted += oobManager.insertOOBs(new int[] { scheduleIds[i] }, new long[] { timestamps[i] },
+                    new int[] { oobFactors[i] }, 1);
+            } catch (Exception e) {
+                log.warn("Failed to insert OOB for schedule [" + scheduleIds[i] + "]: " + e);
+            }
         }
+        return inserted;
+    }
+
+    @Override
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public int insertOOBs(int[] scheduleIds, long[] timestamps, int[] oobFactors, int count) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = rhqDs.getConnection();
 
-        Integer oobFactor;
-        if (upperDelta != null && lowerDelta == null) {
-            oobFactor = upperDelta.intValue();
-        } else if (upperDelta == null && lowerDelta != null) {
-            oobFactor = lowerDelta.intValue();
-        } else if (upperDelta != null && lowerDelta != null) {
-            if (upperDelta > lowerDelta) {
-                oobFactor = upperDelta.intValue();
-            } else {
-                oobFactor = lowerDelta.intValue();
+            // there is one OOB per schedule, replace the existing ones
+            stmt = conn.prepareStatement(JDBCUtil.transformQueryForMultipleInParameters(OOB_DELETE_STMT, "@@IDS@@",
+                count));
+            for (int i = 0; i < count; i++) {
+                stmt.setInt(i + 1, scheduleIds[i]);
+            }
+            stmt.executeUpdate();
+            JDBCUtil.safeClose(stmt);
+
+            stmt = conn.prepareStatement(OOB_INSERT_STMT);
+            for (int i = 0; i < count; i++) {
+                stmt.setInt(1, scheduleIds[i]);
+                stmt.setLong(2, timestamps[i]);
+                stmt.setInt(3, oobFactors[i]);
+                stmt.addBatch();
             }
-        } else { // both are null
-            oobFactor = null;
+            stmt.executeBatch();
+            return count;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to insert " + count + " OOBs", e);
+        } finally {
+            JDBCUtil.safeClose(conn, stmt, null);
+        }
+    }
+
+    @Override
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public int calculateOOB(AggregateNumericMetric metric,MeasurementBaseline baseline) {
+        if (baseline==null) {
+            return 0;
         }
 
-        if (oobFactor != null) {
+        int oobFactor = computeOOBFactor(metric.getAvg(), metric.getMin(), metric.getMax(), baseline.getMin(),
+            baseline.getMax());
+
+        if (oobFactor != NO_OOB) {
             MeasurementOOB oob = new MeasurementOOB();
             oob.setScheduleId(metric.getScheduleId());
             oob.setTimestamp(metric.getTimestamp());
@@ -315,16 +394,24 @@ public class MeasurementOOBManagerBean implements MeasurementOOBManagerLocal {
         return 0;
     }
 
-    private boolean isPastUpperBound(MeasurementBaseline baseline, AggregateNumericMetric metric) {
-        return metric.getAvg() > baseline.getMax() &&
-            (baseline.getMax() - baseline.getMin() > 0.1) &&
-            (metric.getMax() - baseline.getMax() > 0);
-    }
+    /**
+     * @return the OOB factor of the 1 hr aggregate, the larger of how far, in percent of the baseline range, its max
+     * exceeds the baseline max and its min falls below the baseline min; or {@link #NO_OOB} if it is in bounds
+     */
+    static int computeOOBFactor(double avg, double min, double max, double baselineMin, double baselineMax) {
+        double range = baselineMax - baselineMin;
+        if (range <= 0.1) {
+            return NO_OOB;
+        }
 
-    private boolean isPastLowerBound(MeasurementBaseline baseline, AggregateNumericMetric metric) {
-        return metric.getAvg() < baseline.getMax() &&
-            (baseline.getMax() - baseline.getMin() > 0.1) &&
-            (baseline.getMin() - metric.getMin()) > 0;
+        long oobFactor = NO_OOB;
+        if (avg > baselineMax && (max - baselineMax > 0)) {
+            oobFactor = Math.round(((max - baselineMax) / range) * 100);
+        }
+        if (avg < baselineMax && (baselineMin - min) > 0) {
+            oobFactor = Math.max(oobFactor, Math.round(((baselineMin - min) / range) * 100));
+        }
+        return (int) oobFactor;
     }
 
     /**
@@ -55,8 +55,9 @@ public interface MeasurementOOBManagerLocal {
      *
      * @param subject
      * @param metrics The most recent 1 hr aggregates
+     * @return the number of OOBs calculated
      */
-    void computeOOBsForLastHour(Subject subject, Iterable<AggregateNumericMetric> metrics);
+    int computeOOBsForLastHour(Subject subject, Iterable<AggregateNumericMetric> metrics);
 
     /**
      * Determines and calculates an OOB if necessary, If an OOB is generated, this method
@@ -70,6 +71,19 @@ public interface MeasurementOOBManagerLocal {
      */
     int calculateOOB(AggregateNumericMetric metric, MeasurementBaseline baseline);
 
+    /**
+     * Saves the given OOBs, replacing any existing OOBs of the schedules, with a single batched insert.
+     * <br/><br/>
+     * <strong>Note</strong> This method exists only for transaction demarcation.
+     *
+     * @param scheduleIds the schedule ids of the OOBs
+     * @param timestamps the timestamps of the OOBs
+     * @param oobFactors the OOB factors
+     * @param count the number of OOBs in the arrays
+     * @return the number of OOBs saved
+     */
+    int insertOOBs(int[] scheduleIds, long[] timestamps, int[] oobFactors, int count);
+
     /**
      * Return OOB Composites that contain all information about the OOBs in a given time as aggregates.
      * @param subject The caller
@@ -194,6 +194,14 @@ public class MeasurementScheduleManagerBean implements MeasurementScheduleManage
         return ret;
     }
 
+    @SuppressWarnings("unchecked")
+    public List<Integer> findTraitScheduleIdsByAgent(int agentId) {
+        Query q = entityManager.createNamedQuery(MeasurementSchedule.FIND_TRAIT_SCHEDULE_IDS_BY_AGENT);
+        q.setParameter("agentId", agentId);
+        q.setParameter("dataType", DataType.TRAIT);
+        return q.getResultList();
+    }
+
     /**
      * Obtain a MeasurementSchedule by its Id after a check for a valid session
      *
@@ -263,6 +263,13 @@ public interface MeasurementScheduleManagerLocal extends MeasurementScheduleMana
      */
     List<MeasurementSchedule> findSchedulesByIds(int[] ids);
 
+    /**
+     * @param  agentId the id of an agent
+     *
+     * @return the ids of the trait schedules of the resources managed by the agent
+     */
+    List<Integer> findTraitScheduleIdsByAgent(int agentId);
+
     /**
      * Find MeasurementSchedules that are attached to a certain definition and some resources
      *
@@ -0,0 +1,169 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+
+/**
+ * An in-memory cache of the latest trait value of the schedules whose traits are stored by this server. It allows
+ * {@link MeasurementDataManagerLocal#addTraitData(java.util.Set)} to drop unchanged trait values before any SQL is
+ * executed. Only a 64 bit hash of each value is kept.
+ * <p/>
+ * An entry is only ever added once the database has confirmed that the value is the latest value of the schedule, i.e.
+ * when the value was not inserted because it was equal to the latest one. A value that was inserted replaces an
+ * existing entry only if it is more recent, otherwise the entry is removed. An agent may have its traits stored by
+ * another server after a failover, so the entries of an agent's schedules are removed whenever the agent connects to
+ * this server.
+ * <p/>
+ * The cache is not a source of truth. Losing it (e.g. server restart) only means the next value of each trait is
+ * checked against the database again.
+ *
+ * @author Jay Shaughnessy
+ */
+public class MeasurementTraitCache {
+
+    private static final int MAX_SIZE;
+
+    static {
+        int maxSize = 500000;
+        try {
+            maxSize = Integer.parseInt(System.getProperty("rhq.server.trait-cache.max-size", "500000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_SIZE = maxSize;
+    }
+
+    private static final MeasurementTraitCache singleton = new MeasurementTraitCache(MAX_SIZE);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NULL_HASH = 0L;
+
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+    MeasurementTraitCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static MeasurementTraitCache getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @return true if the trait value is known to be the same as the latest value of its schedule
+     */
+    public boolean isUnchanged(MeasurementDataTrait trait) {
+        Entry entry = entries.get(trait.getScheduleId());
+        return (null != entry) && (entry.hash == hash(trait.getValue())) && (trait.getTimestamp() >= entry.timestamp);
+    }
+
+    /**
+     * Records that the trait value was not inserted because it is equal to the latest value of its schedule.
+     */
+    public void unchanged(MeasurementDataTrait trait) {
+        Entry entry = entries.get(trait.getScheduleId());
+        long timestamp = (null != entry) ? Math.max(entry.timestamp, trait.getTimestamp()) : trait.getTimestamp();
+        put(trait.getScheduleId(), new Entry(hash(trait.getValue()), timestamp));
+    }
+
+    /**
+     * Records that the trait value was inserted.
+     */
+    public void inserted(MeasurementDataTrait trait) {
+        Entry entry = entries.get(trait.getScheduleId());
+        if (null == entry) {
+            return;
+        }
+        if (trait.getTimestamp() > entry.timestamp) {
+            put(trait.getScheduleId(), new Entry(hash(trait.getValue()), trait.getTimestamp()));
+        } else {
+            remove(trait.getScheduleId());
+        }
+    }
+
+    /**
+     * Forgets whatever is known about the schedule's latest value.
+     */
+    public void remove(int scheduleId) {
+        if (null != entries.remove(scheduleId)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets whatever is known about the latest values of the schedules.
+     */
+    public void removeAll(Collection<Integer> scheduleIds) {
+        for (Integer scheduleId : scheduleIds) {
+            remove(scheduleId);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        size.set(0);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void put(int scheduleId, Entry entry) {
+        if (entries.containsKey(scheduleId)) {
+            entries.put(scheduleId, entry);
+        } else if (size.get() < maxSize && null == entries.putIfAbsent(scheduleId, entry)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the value, making a collision between two successive values of a trait practically
+     * impossible.
+     */
+    static long hash(String value) {
+        if (null == value) {
+            return NULL_HASH;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return (hash == NULL_HASH) ? 1L : hash;
+    }
+
+    private static class Entry {
+        private final long hash;
+        private final long timestamp;
+
+        private Entry(long hash, long timestamp) {
+            this.hash = hash;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -61,10 +61,26 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
 
     private AtomicLong calltimeValuesInserted = new AtomicLong();
 
+    private AtomicLong callTimeKeyInsertTime = new AtomicLong();
+
+    private AtomicLong callTimeValueInsertTime = new AtomicLong();
+
+    private AtomicLong callTimeKeyCacheHits = new AtomicLong();
+
+    private AtomicLong callTimeKeyCacheMisses = new AtomicLong();
+
+    private AtomicLong callTimeReportsInserted = new AtomicLong();
+
+    private AtomicLong lastCallTimeReportInsertTime = new AtomicLong();
+
+    private AtomicLong maxCallTimeReportInsertTime = new AtomicLong();
+
     private AtomicLong availabilityInsertTime = new AtomicLong();
 
     private AtomicLong availabilitiesInserted = new AtomicLong();
 
+    private AtomicLong availabilitiesSkipped = new AtomicLong();
+
     private AtomicLong changesOnlyAvailabilityReports = new AtomicLong();
 
     private AtomicLong fullAvailabilityReports = new AtomicLong();
@@ -141,6 +157,59 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         this.callTimeInsertTime.addAndGet(delta);
     }
 
+    public long getCallTimeKeyInsertTime() {
+        return callTimeKeyInsertTime.get();
+    }
+
+    public void incrementCallTimeKeyInsertTime(long delta) {
+        this.callTimeKeyInsertTime.addAndGet(delta);
+    }
+
+    public long getCallTimeValueInsertTime() {
+        return callTimeValueInsertTime.get();
+    }
+
+    public void incrementCallTimeValueInsertTime(long delta) {
+        this.callTimeValueInsertTime.addAndGet(delta);
+    }
+
+    public long getCallTimeKeyCacheHits() {
+        return callTimeKeyCacheHits.get();
+    }
+
+    public void incrementCallTimeKeyCacheHits(long delta) {
+        this.callTimeKeyCacheHits.addAndGet(delta);
+    }
+
+    public long getCallTimeKeyCacheMisses() {
+        return callTimeKeyCacheMisses.get();
+    }
+
+    public void incrementCallTimeKeyCacheMisses(long delta) {
+        this.callTimeKeyCacheMisses.addAndGet(delta);
+    }
+
+    public long getCallTimeReportsInserted() {
+        return callTimeReportsInserted.get();
+    }
+
+    public long getLastCallTimeReportInsertTime() {
+        return lastCallTimeReportInsertTime.get();
+    }
+
+    public long getMaxCallTimeReportInsertTime() {
+        return maxCallTimeReportInsertTime.get();
+    }
+
+    public void addCallTimeReportInsertTime(long insertTime) {
+        this.callTimeReportsInserted.incrementAndGet();
+        this.lastCallTimeReportInsertTime.set(insertTime);
+        long max = maxCallTimeReportInsertTime.get();
+        while (insertTime > max && !maxCallTimeReportInsertTime.compareAndSet(max, insertTime)) {
+            max = maxCallTimeReportInsertTime.get();
+        }
+    }
+
     public long getAvailabilityInsertTime() {
         return availabilityInsertTime.get();
     }
@@ -157,6 +226,14 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         this.availabilitiesInserted.addAndGet(delta);
     }
 
+    public long getAvailabilitiesSkipped() {
+        return availabilitiesSkipped.get();
+    }
+
+    public void incrementAvailabilitiesSkipped(long delta) {
+        this.availabilitiesSkipped.addAndGet(delta);
+    }
+
     public long getChangesOnlyAvailabilityReports() {
         return changesOnlyAvailabilityReports.get();
     }
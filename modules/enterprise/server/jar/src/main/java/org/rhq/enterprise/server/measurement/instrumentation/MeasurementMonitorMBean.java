@@ -35,6 +35,30 @@ public interface MeasurementMonitorMBean {
 
     void incrementCallTimeInsertTime(long delta);
 
+    long getCallTimeKeyInsertTime();
+
+    void incrementCallTimeKeyInsertTime(long delta);
+
+    long getCallTimeValueInsertTime();
+
+    void incrementCallTimeValueInsertTime(long delta);
+
+    long getCallTimeKeyCacheHits();
+
+    void incrementCallTimeKeyCacheHits(long delta);
+
+    long getCallTimeKeyCacheMisses();
+
+    void incrementCallTimeKeyCacheMisses(long delta);
+
+    long getCallTimeReportsInserted();
+
+    long getLastCallTimeReportInsertTime();
+
+    long getMaxCallTimeReportInsertTime();
+
+    void addCallTimeReportInsertTime(long insertTime);
+
     long getCalltimeValuesInserted();
 
     void incrementCalltimeValuesInserted(long delta);
@@ -59,6 +83,10 @@ public interface MeasurementMonitorMBean {
 
     void incrementAvailabilitiesInserted(long delta);
 
+    long getAvailabilitiesSkipped();
+
+    void incrementAvailabilitiesSkipped(long delta);
+
     long getChangesOnlyAvailabilityReports();
 
     long getFullAvailabilityReports();
@@ -1549,6 +1549,18 @@ public class OperationManagerBean implements OperationManagerLocal, OperationMan
         return (defs != null) && (defs.size() > 0);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> findResourceIdsWithScheduledOperations(Subject subject, List<Integer> resourceIds) {
+        if (!authorizationManager.isOverlord(subject)) {
+            throw new IllegalArgumentException("Only the overlord can look up the schedules of many resources at once");
+        }
+
+        Query query = entityManager.createNamedQuery(ResourceOperationScheduleEntity.QUERY_FIND_RESOURCE_IDS_BY_RESOURCES);
+        query.setParameter("resourceIds", resourceIds);
+        return query.getResultList();
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public void checkForTimedOutOperations(Subject subject) {
@@ -384,6 +384,16 @@ public interface OperationManagerLocal extends OperationManagerRemote {
      */
     void checkForTimedOutOperations(Subject whoami);
 
+    /**
+     * Returns those of the given resources that have scheduled operations, so that only their schedules need to be
+     * looked up and unscheduled when the resources are deleted.
+     *
+     * @param whoami only the overlord may execute this system operation
+     * @param resourceIds the resources to check
+     * @return the ids of the resources having at least one operation schedule
+     */
+    List<Integer> findResourceIdsWithScheduledOperations(Subject whoami, List<Integer> resourceIds);
+
     /**
      * Get the mostly recently run operation for the {@link Resource} with the given id, or <code>null</code> if the
      * resource has had no operations performed against it yet (or if all previously performed operations have been
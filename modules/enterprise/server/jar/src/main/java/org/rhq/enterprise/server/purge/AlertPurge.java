@@ -75,6 +75,11 @@ class AlertPurge extends PurgeTemplate<Integer> {
         return resultSet.getInt(1);
     }
 
+    @Override
+    protected KeyCodec<Integer> getKeyCodec() {
+        return INTEGER_KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -72,6 +72,11 @@ class AvailabilityPurge extends PurgeTemplate<Integer> {
         return resultSet.getInt(1);
     }
 
+    @Override
+    protected KeyCodec<Integer> getKeyCodec() {
+        return INTEGER_KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -37,6 +37,9 @@ import org.rhq.core.db.DatabaseType;
 class CallTimeDataValuePurge extends PurgeTemplate<Integer> {
     private static final String ENTITY_NAME = "CallTimeDataValue";
 
+    private static final String TABLE_NAME = "RHQ_CALLTIME_DATA_VALUE";
+    private static final String TIME_COLUMN = "END_TIME";
+
     private static final String QUERY_SELECT_KEYS_FOR_PURGE = "" //
         + "SELECT ID FROM RHQ_CALLTIME_DATA_VALUE WHERE END_TIME < ?";
 
@@ -54,6 +57,11 @@ class CallTimeDataValuePurge extends PurgeTemplate<Integer> {
         return ENTITY_NAME;
     }
 
+    @Override
+    protected TimePartitionedTable getTimePartitionedTable() {
+        return new TimePartitionedTable(TABLE_NAME, TIME_COLUMN, deleteUpToTime);
+    }
+
     @Override
     protected String getFindRowKeysQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -72,6 +80,11 @@ class CallTimeDataValuePurge extends PurgeTemplate<Integer> {
         return resultSet.getInt(1);
     }
 
+    @Override
+    protected KeyCodec<Integer> getKeyCodec() {
+        return INTEGER_KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -37,6 +37,9 @@ import org.rhq.core.db.DatabaseType;
 class EventDataPurge extends PurgeTemplate<Integer> {
     private static final String ENTITY_NAME = "EventData";
 
+    private static final String TABLE_NAME = "RHQ_EVENT";
+    private static final String TIME_COLUMN = "TIMESTAMP";
+
     private static final String QUERY_SELECT_KEYS_FOR_PURGE = "" //
         + "SELECT ID FROM RHQ_EVENT WHERE TIMESTAMP < ?";
 
@@ -54,6 +57,11 @@ class EventDataPurge extends PurgeTemplate<Integer> {
         return ENTITY_NAME;
     }
 
+    @Override
+    protected TimePartitionedTable getTimePartitionedTable() {
+        return new TimePartitionedTable(TABLE_NAME, TIME_COLUMN, deleteUpToTime);
+    }
+
     @Override
     protected String getFindRowKeysQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -72,6 +80,11 @@ class EventDataPurge extends PurgeTemplate<Integer> {
         return resultSet.getInt(1);
     }
 
+    @Override
+    protected KeyCodec<Integer> getKeyCodec() {
+        return INTEGER_KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
@@ -87,6 +87,11 @@ public class JPADriftFilePurge extends PurgeTemplate<String> {
         return resultSet.getString(1);
     }
 
+    @Override
+    protected KeyCodec<String> getKeyCodec() {
+        return STRING_KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
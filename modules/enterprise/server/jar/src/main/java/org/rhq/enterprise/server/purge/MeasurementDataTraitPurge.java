@@ -22,6 +22,9 @@ package org.rhq.enterprise.server.purge;
 import static org.rhq.core.db.DatabaseTypeFactory.isOracle;
 import static org.rhq.core.db.DatabaseTypeFactory.isPostgres;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -60,6 +63,20 @@ class MeasurementDataTraitPurge extends PurgeTemplate<MeasurementDataPK> {
     private static final String QUERY_PURGE_BY_KEY = "" //
         + "DELETE FROM rhq_measurement_data_trait WHERE schedule_id = ? AND time_stamp = ?";
 
+    static final KeyCodec<MeasurementDataPK> KEY_CODEC = new KeyCodec<MeasurementDataPK>() {
+        @Override
+        void write(DataOutput out, MeasurementDataPK key) throws IOException {
+            out.writeInt(key.getScheduleId());
+            out.writeLong(key.getTimestamp());
+        }
+
+        @Override
+        MeasurementDataPK read(DataInput in) throws IOException {
+            int scheduleId = in.readInt();
+            return new MeasurementDataPK(in.readLong(), scheduleId);
+        }
+    };
+
     private final long oldest;
 
     MeasurementDataTraitPurge(DataSource dataSource, UserTransaction userTransaction, long oldest) {
@@ -90,6 +107,11 @@ class MeasurementDataTraitPurge extends PurgeTemplate<MeasurementDataPK> {
         return new MeasurementDataPK(resultSet.getLong(2), resultSet.getInt(1));
     }
 
+    @Override
+    protected KeyCodec<MeasurementDataPK> getKeyCodec() {
+        return KEY_CODEC;
+    }
+
     @Override
     protected String getDeleteRowByKeyQuery(DatabaseType databaseType) {
         if (isPostgres(databaseType) || isOracle(databaseType)) {
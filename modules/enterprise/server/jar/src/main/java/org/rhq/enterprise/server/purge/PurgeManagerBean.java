@@ -57,7 +57,9 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         AvailabilityPurge availabilityPurge = new AvailabilityPurge(dataSource, userTransaction, oldest);
         long startTime = System.currentTimeMillis();
         int deleted = availabilityPurge.execute();
-        MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
+        long duration = System.currentTimeMillis() - startTime;
+        logPurgeRate("availabilities", deleted, duration);
+        MeasurementMonitor.getMBean().incrementPurgeTime(duration);
         MeasurementMonitor.getMBean().setPurgedAvailabilities(deleted);
         return deleted;
     }
@@ -67,7 +69,9 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         MeasurementDataTraitPurge traitPurge = new MeasurementDataTraitPurge(dataSource, userTransaction, oldest);
         long startTime = System.currentTimeMillis();
         int deleted = traitPurge.execute();
-        MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
+        long duration = System.currentTimeMillis() - startTime;
+        logPurgeRate("traits", deleted, duration);
+        MeasurementMonitor.getMBean().incrementPurgeTime(duration);
         MeasurementMonitor.getMBean().setPurgedMeasurementTraits(deleted);
         return deleted;
     }
@@ -77,7 +81,9 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         EventDataPurge eventDataPurge = new EventDataPurge(dataSource, userTransaction, deleteUpToTime);
         long startTime = System.currentTimeMillis();
         int deleted = eventDataPurge.execute();
-        MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
+        long duration = System.currentTimeMillis() - startTime;
+        logPurgeRate("events", deleted, duration);
+        MeasurementMonitor.getMBean().incrementPurgeTime(duration);
         MeasurementMonitor.getMBean().setPurgedEvents(deleted);
         return deleted;
     }
@@ -92,7 +98,9 @@ public class PurgeManagerBean implements PurgeManagerLocal {
             deleteUpToTime);
         long startTime = System.currentTimeMillis();
         int deletedRowCount = callTimeDataValuePurge.execute();
-        MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
+        long duration = System.currentTimeMillis() - startTime;
+        logPurgeRate("call-time data values", deletedRowCount, duration);
+        MeasurementMonitor.getMBean().incrementPurgeTime(duration);
         MeasurementMonitor.getMBean().setPurgedCallTimeData(deletedRowCount);
         return deletedRowCount;
     }
@@ -106,9 +114,7 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         long start = System.currentTimeMillis();
         int conditionsDeleted = conditionLogPurge.execute();
         long end = System.currentTimeMillis();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Deleted [" + conditionsDeleted + "] alert condition logs in [" + (end - start) + "]ms");
-        }
+        logPurgeRate("alert condition logs", conditionsDeleted, end - start);
         totalTime += (end - start);
 
         AlertNotificationLogPurge notificationLogPurge = new AlertNotificationLogPurge(dataSource, userTransaction,
@@ -116,18 +122,14 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         start = System.currentTimeMillis();
         int deletedNotifications = notificationLogPurge.execute();
         end = System.currentTimeMillis();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Deleted [" + deletedNotifications + "] alert notifications in [" + (end - start) + "]ms");
-        }
+        logPurgeRate("alert notifications", deletedNotifications, end - start);
         totalTime += (end - start);
 
         AlertPurge alertPurge = new AlertPurge(dataSource, userTransaction, beginTime, endTime);
         start = System.currentTimeMillis();
         int deletedAlerts = alertPurge.execute();
         end = System.currentTimeMillis();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Deleted [" + deletedAlerts + "] alerts in [" + (end - start) + "]ms");
-        }
+        logPurgeRate("alerts", deletedAlerts, end - start);
         totalTime += (end - start);
 
         MeasurementMonitor.getMBean().incrementPurgeTime(totalTime);
@@ -145,20 +147,32 @@ public class PurgeManagerBean implements PurgeManagerLocal {
     @Override
     public void removeOutdatedOOBs(long cutoffTime) {
         MeasurementOOBPurge measurementOOBPurge = new MeasurementOOBPurge(dataSource, userTransaction, cutoffTime);
+        long startTime = System.currentTimeMillis();
         int count = measurementOOBPurge.execute();
-        LOG.info("Removed [" + count + "] outdated OOBs");
+        logPurgeRate("outdated OOBs", count, System.currentTimeMillis() - startTime);
     }
 
     @Override
     public int purgeOrphanedBundleResourceDeploymentHistory() {
         BundleResourceDeploymentHistoryPurge purge = new BundleResourceDeploymentHistoryPurge(dataSource,
             userTransaction);
-        return purge.execute();
+        long startTime = System.currentTimeMillis();
+        int deleted = purge.execute();
+        logPurgeRate("orphaned bundle resource deployment histories", deleted, System.currentTimeMillis() - startTime);
+        return deleted;
     }
 
     @Override
     public int purgeOrphanedDriftFilesInDatabase(long purgeMillis) {
         JPADriftFilePurge purge = new JPADriftFilePurge(dataSource, userTransaction, purgeMillis);
-        return purge.execute();
+        long startTime = System.currentTimeMillis();
+        int deleted = purge.execute();
+        logPurgeRate("orphaned drift files", deleted, System.currentTimeMillis() - startTime);
+        return deleted;
+    }
+
+    private void logPurgeRate(String purged, int deleted, long duration) {
+        long rowsPerSecond = (deleted * 1000L) / Math.max(1L, duration);
+        LOG.info("Purged [" + deleted + "] " + purged + " in [" + duration + "]ms (" + rowsPerSecond + " rows/s)");
     }
 }
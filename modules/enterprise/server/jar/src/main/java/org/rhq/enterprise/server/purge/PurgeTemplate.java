@@ -21,11 +21,14 @@ package org.rhq.enterprise.server.purge;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -34,9 +37,18 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 import javax.transaction.Status;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 
 import org.apache.commons.logging.Log;
@@ -44,14 +56,25 @@ import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.db.DatabaseType;
 import org.rhq.core.db.DatabaseTypeFactory;
+import org.rhq.core.db.TablePartition;
 import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.core.util.stream.StreamUtil;
+import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
  * A template for purging data tables.<br>
  * <br>
- * When the {@link #execute()} method is called, row keys are selected and stored in a file. Then the corresponding rows
- * are deleted in batches.
+ * When the {@link #execute()} method is called, row keys are selected and stored in a file, in the compact binary form
+ * given by the {@link #getKeyCodec() key codec}. Then the corresponding rows are deleted in batches, each batch in its
+ * own transaction. Batches are deleted by {@link #WORKERS} parallel workers, and their size is adapted so that a batch
+ * takes about {@link #TARGET_BATCH_TIME} ms: batches slowed down by lock waits or a loaded database get smaller, fast
+ * batches get larger, up to {@link #BATCH_SIZE} rows. A failed batch is retried once, split in two.<br>
+ * <br>
+ * Time series tables may optionally be range partitioned on their time column by the DBA (see
+ * {@link DatabaseType#getTimePartitions(Connection, String, String)}). If a subclass declares its
+ * {@link #getTimePartitionedTable() time partitioned table}, the partitions holding only expired rows are dropped
+ * first, and partitions are created ahead of time if the database does not do it by itself. The rows left are then
+ * purged by key as usual.
  *
  * @author Thomas Segismont
  */
@@ -60,10 +83,29 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
     private static final String BATCH_SIZE_SYSTEM_PROPERTY = "org.rhq.enterprise.server.purge.PurgeTemplate.BATCH_SIZE";
     private static final int BATCH_SIZE = Integer.getInteger(BATCH_SIZE_SYSTEM_PROPERTY, 30000);
+    private static final int MIN_BATCH_SIZE = Math.min(BATCH_SIZE, 500);
+    private static final int INITIAL_BATCH_SIZE = Math.min(BATCH_SIZE, 5000);
+
+    private static final String WORKERS_SYSTEM_PROPERTY = "org.rhq.enterprise.server.purge.PurgeTemplate.WORKERS";
+    private static final int WORKERS = Math.max(1, Integer.getInteger(WORKERS_SYSTEM_PROPERTY, 2));
+
+    private static final String TARGET_BATCH_TIME_SYSTEM_PROPERTY = ""
+        + "org.rhq.enterprise.server.purge.PurgeTemplate.TARGET_BATCH_TIME";
+    private static final long TARGET_BATCH_TIME = Math.max(1L, Long.getLong(TARGET_BATCH_TIME_SYSTEM_PROPERTY, 2000L));
+
     static {
         LOG.info(BATCH_SIZE_SYSTEM_PROPERTY + " = " + BATCH_SIZE);
+        LOG.info(WORKERS_SYSTEM_PROPERTY + " = " + WORKERS);
+        LOG.info(TARGET_BATCH_TIME_SYSTEM_PROPERTY + " = " + TARGET_BATCH_TIME);
     }
 
+    private static final AtomicInteger WORKER_THREAD_COUNT = new AtomicInteger();
+
+    private static final String PARTITION_LOOKAHEAD_SYSTEM_PROPERTY = ""
+        + "org.rhq.enterprise.server.purge.PurgeTemplate.PARTITION_LOOKAHEAD";
+    private static final long PARTITION_LOOKAHEAD = Long.getLong(PARTITION_LOOKAHEAD_SYSTEM_PROPERTY,
+        2L * 24L * 60L * 60L * 1000L);
+
     private final DataSource dataSource;
     private final UserTransaction userTransaction;
     private final DatabaseType databaseType;
@@ -83,11 +125,24 @@ abstract class PurgeTemplate<KEY extends Serializable> {
      */
     protected abstract String getEntityName();
 
+    /**
+     * @return the table to purge by dropping partitions if it is time partitioned, or null if rows are only purged
+     * by key
+     */
+    protected TimePartitionedTable getTimePartitionedTable() {
+        return null;
+    }
+
     public int execute() {
         int deleted = 0;
 
+        TimePartitionedTable timePartitionedTable = getTimePartitionedTable();
+        if (timePartitionedTable != null) {
+            deleted += purgePartitions(timePartitionedTable);
+        }
+
         KeysInfo keysInfo = null;
-        ObjectInputStream keysStream = null;
+        DataInputStream keysStream = null;
         try {
 
             keysInfo = loadKeys();
@@ -95,23 +150,8 @@ abstract class PurgeTemplate<KEY extends Serializable> {
                 LOG.debug("Loaded " + keysInfo.count + " key(s) of " + getEntityName());
             }
 
-            keysStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(keysInfo.keysFile)));
-            List<KEY> selectedKeys = new ArrayList<KEY>(BATCH_SIZE);
-
-            for (int i = 1; i <= keysInfo.count; i++) {
-
-                @SuppressWarnings("unchecked")
-                KEY key = (KEY) keysStream.readObject();
-                selectedKeys.add(key);
-
-                if (selectedKeys.size() == BATCH_SIZE || i == keysInfo.count) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Deleting " + selectedKeys.size() + " row(s) of " + getEntityName());
-                    }
-                    deleted += deleteRows(selectedKeys);
-                    selectedKeys.clear();
-                }
-            }
+            keysStream = new DataInputStream(new BufferedInputStream(new FileInputStream(keysInfo.keysFile)));
+            deleted += deleteRows(keysStream, keysInfo.count);
 
         } catch (Exception e) {
             LOG.error(getEntityName() + ": could not fully process the batched purge", e);
@@ -126,17 +166,62 @@ abstract class PurgeTemplate<KEY extends Serializable> {
         return deleted;
     }
 
+    private int purgePartitions(TimePartitionedTable table) {
+        int deleted = 0;
+
+        // DDL runs outside of any transaction, Oracle would commit it implicitly anyway
+        Connection connection = null;
+        try {
+
+            connection = dataSource.getConnection();
+
+            List<TablePartition> partitions = databaseType.getTimePartitions(connection, table.tableName,
+                table.timeColumn);
+            if (partitions.isEmpty()) {
+                return 0;
+            }
+
+            for (TablePartition partition : partitions) {
+                if (partition.getUpperBound() > table.deleteUpToTime) {
+                    break;
+                }
+                try {
+                    databaseType.dropTimePartition(connection, table.tableName, partition);
+                    deleted += Math.max(0L, partition.getEstimatedRows());
+                    LOG.info(getEntityName() + ": dropped partition " + partition + " of " + table.tableName);
+                } catch (SQLException e) {
+                    LOG.warn(getEntityName() + ": could not drop partition " + partition + " of " + table.tableName
+                        + ", its rows will be purged by key: " + JDBCUtil.convertSQLExceptionToString(e));
+                }
+            }
+
+            int created = databaseType.createTimePartitions(connection, table.tableName, table.timeColumn,
+                System.currentTimeMillis() + PARTITION_LOOKAHEAD);
+            if (created > 0) {
+                LOG.info(getEntityName() + ": created " + created + " partition(s) of " + table.tableName);
+            }
+
+        } catch (Exception e) {
+            LOG.error(getEntityName() + ": could not purge by partition, rows will be purged by key", e);
+        } finally {
+            JDBCUtil.safeClose(connection);
+        }
+
+        return deleted;
+    }
+
     private KeysInfo loadKeys() throws Exception {
         File keysFile = File.createTempFile(getClass().getSimpleName(), null);
         int count = 0;
 
-        ObjectOutputStream objectOutputStream = null;
+        KeyCodec<KEY> keyCodec = getKeyCodec();
+        DataOutputStream keysOutputStream = null;
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
         try {
 
-            objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(keysFile)));
+            keysOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keysFile)));
 
             userTransaction.begin();
 
@@ -149,7 +234,7 @@ abstract class PurgeTemplate<KEY extends Serializable> {
             resultSet = preparedStatement.executeQuery();
 
             while (resultSet.next()) {
-                objectOutputStream.writeObject(getKeyFromResultSet(resultSet));
+                keyCodec.write(keysOutputStream, getKeyFromResultSet(resultSet));
                 count++;
             }
 
@@ -157,7 +242,7 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
         } finally {
             JDBCUtil.safeClose(connection, preparedStatement, resultSet);
-            StreamUtil.safeClose(objectOutputStream);
+            StreamUtil.safeClose(keysOutputStream);
             rollbackIfTransactionActive();
         }
 
@@ -185,12 +270,82 @@ abstract class PurgeTemplate<KEY extends Serializable> {
      */
     protected abstract KEY getKeyFromResultSet(ResultSet resultSet) throws SQLException;
 
-    private int deleteRows(List<KEY> selectedKeys) throws Exception {
+    /**
+     * @return the codec used to store the row keys in the keys file
+     */
+    protected abstract KeyCodec<KEY> getKeyCodec();
+
+    private int deleteRows(DataInputStream keysStream, int count) throws Exception {
+        KeyCodec<KEY> keyCodec = getKeyCodec();
+        BatchSize batchSize = new BatchSize();
+        int deleted = 0;
+        int read = 0;
+
+        // no more workers than there are batches of the minimum size
+        int workers = Math.min(WORKERS, (count + MIN_BATCH_SIZE - 1) / MIN_BATCH_SIZE);
+        if (workers <= 1) {
+            while (read < count) {
+                List<KEY> selectedKeys = readKeys(keysStream, keyCodec, Math.min(batchSize.get(), count - read));
+                read += selectedKeys.size();
+                deleted += new DeleteBatch(selectedKeys, batchSize, null, false).call();
+            }
+            return deleted;
+        }
+
+        // Workers are not EJB invocations, they demarcate their transactions with the transaction manager. When all
+        // workers are busy the batch is deleted by the calling thread, which also throttles the reading of keys.
+        TransactionManager transactionManager = LookupUtil.getTransactionManager();
+        ExecutorService executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(workers), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PurgeTemplate-worker-" + WORKER_THREAD_COUNT.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            while (read < count) {
+                List<KEY> selectedKeys = readKeys(keysStream, keyCodec, Math.min(batchSize.get(), count - read));
+                read += selectedKeys.size();
+                results.add(executor.submit(new DeleteBatch(selectedKeys, batchSize, transactionManager, false)));
+            }
+            for (Future<Integer> result : results) {
+                deleted += result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(getEntityName() + ": deleted " + deleted + " row(s) with " + workers
+                + " workers, last batch size was " + batchSize.get());
+        }
+        return deleted;
+    }
+
+    private List<KEY> readKeys(DataInputStream keysStream, KeyCodec<KEY> keyCodec, int count) throws IOException {
+        List<KEY> keys = new ArrayList<KEY>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(keyCodec.read(keysStream));
+        }
+        return keys;
+    }
+
+    /**
+     * @param transactionManager the transaction manager to demarcate the transaction with, or null to use the user
+     * transaction
+     */
+    private int deleteRows(List<KEY> selectedKeys, TransactionManager transactionManager) throws Exception {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         try {
 
-            userTransaction.begin();
+            if (transactionManager != null) {
+                transactionManager.begin();
+            } else {
+                userTransaction.begin();
+            }
 
             String deleteRowByKeyQuery = getDeleteRowByKeyQuery(databaseType);
 
@@ -204,13 +359,21 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
             int[] batchResults = preparedStatement.executeBatch();
 
-            userTransaction.commit();
+            if (transactionManager != null) {
+                transactionManager.commit();
+            } else {
+                userTransaction.commit();
+            }
 
             return evalDeletedRows(batchResults);
 
         } finally {
             JDBCUtil.safeClose(connection, preparedStatement, null);
-            rollbackIfTransactionActive();
+            if (transactionManager != null) {
+                rollbackIfTransactionActive(transactionManager);
+            } else {
+                rollbackIfTransactionActive();
+            }
         }
     }
 
@@ -239,6 +402,16 @@ abstract class PurgeTemplate<KEY extends Serializable> {
         }
     }
 
+    private void rollbackIfTransactionActive(TransactionManager transactionManager) {
+        try {
+            if (transactionManager.getStatus() == Status.STATUS_ACTIVE
+                || transactionManager.getStatus() == Status.STATUS_MARKED_ROLLBACK) {
+                transactionManager.rollback();
+            }
+        } catch (Throwable ignore) {
+        }
+    }
+
     private int evalDeletedRows(int[] results) {
         int total = 0, failed = 0;
         for (int result : results) {
@@ -257,6 +430,124 @@ abstract class PurgeTemplate<KEY extends Serializable> {
         return total;
     }
 
+    /**
+     * Deletes a batch of rows in its own transaction and reports its duration to the batch size.
+     */
+    private class DeleteBatch implements Callable<Integer> {
+        private final List<KEY> keys;
+        private final BatchSize batchSize;
+        private final TransactionManager transactionManager;
+        private final boolean retry;
+
+        private DeleteBatch(List<KEY> keys, BatchSize batchSize, TransactionManager transactionManager, boolean retry) {
+            this.keys = keys;
+            this.batchSize = batchSize;
+            this.transactionManager = transactionManager;
+            this.retry = retry;
+        }
+
+        @Override
+        public Integer call() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Deleting " + keys.size() + " row(s) of " + getEntityName());
+            }
+            long start = System.currentTimeMillis();
+            try {
+                int deleted = deleteRows(keys, transactionManager);
+                batchSize.completed(keys.size(), System.currentTimeMillis() - start);
+                return deleted;
+            } catch (Exception e) {
+                batchSize.failed();
+                if (retry || keys.size() < 2) {
+                    LOG.error(getEntityName() + ": could not delete a batch of " + keys.size() + " row(s)", e);
+                    return 0;
+                }
+                LOG.warn(getEntityName() + ": could not delete a batch of " + keys.size()
+                    + " row(s), retrying in two smaller batches: " + e);
+                int half = keys.size() / 2;
+                return new DeleteBatch(keys.subList(0, half), batchSize, transactionManager, true).call()
+                    + new DeleteBatch(keys.subList(half, keys.size()), batchSize, transactionManager, true).call();
+            }
+        }
+    }
+
+    /**
+     * The current batch size, shared by the workers of an execution. After each batch it moves halfway towards the size
+     * that would have taken {@link PurgeTemplate#TARGET_BATCH_TIME} ms at the observed rate.
+     */
+    static class BatchSize {
+        private final AtomicInteger size = new AtomicInteger(INITIAL_BATCH_SIZE);
+
+        int get() {
+            return size.get();
+        }
+
+        void completed(int rows, long millis) {
+            int current = size.get();
+            long ideal = (millis <= 0L) ? BATCH_SIZE : (rows * TARGET_BATCH_TIME) / millis;
+            long next = Math.max(MIN_BATCH_SIZE, Math.min(BATCH_SIZE, (current + ideal) / 2L));
+            size.compareAndSet(current, (int) next);
+        }
+
+        void failed() {
+            int current = size.get();
+            size.compareAndSet(current, Math.max(MIN_BATCH_SIZE, current / 2));
+        }
+    }
+
+    /**
+     * Writes row keys to, and reads them from, the keys file.
+     */
+    abstract static class KeyCodec<KEY> {
+        abstract void write(DataOutput out, KEY key) throws IOException;
+
+        abstract KEY read(DataInput in) throws IOException;
+    }
+
+    static final KeyCodec<Integer> INTEGER_KEY_CODEC = new KeyCodec<Integer>() {
+        @Override
+        void write(DataOutput out, Integer key) throws IOException {
+            out.writeInt(key);
+        }
+
+        @Override
+        Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    static final KeyCodec<String> STRING_KEY_CODEC = new KeyCodec<String>() {
+        @Override
+        void write(DataOutput out, String key) throws IOException {
+            out.writeUTF(key);
+        }
+
+        @Override
+        String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    /**
+     * A table range partitioned on a time column.
+     */
+    static class TimePartitionedTable {
+        final String tableName;
+        final String timeColumn;
+        final long deleteUpToTime;
+
+        /**
+         * @param tableName the table name
+         * @param timeColumn the epoch millis column the table is partitioned on
+         * @param deleteUpToTime rows whose time is before this time are purged
+         */
+        TimePartitionedTable(String tableName, String timeColumn, long deleteUpToTime) {
+            this.tableName = tableName;
+            this.timeColumn = timeColumn;
+            this.deleteUpToTime = deleteUpToTime;
+        }
+    }
+
     private static class KeysInfo {
         final File keysFile;
         final int count;
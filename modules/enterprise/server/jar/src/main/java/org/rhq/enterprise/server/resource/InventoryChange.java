@@ -0,0 +1,80 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource;
+
+/**
+ * The latest change of one kind made to the resources of one type, as found by
+ * {@link ResourceManagerLocal#findInventoryChanges(long, java.util.Set)}. DynaGroup recalculation and saved search
+ * recomputation use these to skip the work when nothing their result depends on has changed.
+ */
+public class InventoryChange {
+
+    public enum Kind {
+        /** a resource was created, committed, uninventoried or updated */
+        RESOURCE,
+        /** a new trait value was stored */
+        TRAIT,
+        PLUGIN_CONFIGURATION,
+        RESOURCE_CONFIGURATION
+    }
+
+    private final Kind kind;
+    private final String plugin;
+    private final String resourceType;
+    private final String traitName;
+    private final long time;
+
+    public InventoryChange(Kind kind, String plugin, String resourceType, String traitName, long time) {
+        this.kind = kind;
+        this.plugin = plugin;
+        this.resourceType = resourceType;
+        this.traitName = traitName;
+        this.time = time;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getPlugin() {
+        return plugin;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return the measurement definition name of a {@link Kind#TRAIT} change, null otherwise
+     */
+    public String getTraitName() {
+        return traitName;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryChange[kind=" + kind + ", plugin=" + plugin + ", resourceType=" + resourceType
+            + ", traitName=" + traitName + ", time=" + time + "]";
+    }
+}
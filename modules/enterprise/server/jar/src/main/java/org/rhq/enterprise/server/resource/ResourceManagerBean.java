@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -160,6 +161,28 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
     private final static String BOUNDED_MAX_RESOURCES = "1000";
     private final static String BOUNDED_MAX_RESOURCES_BY_TYPE = "200";
 
+    // each of the times is indexed, RHQ_RESOURCE_IDX_CTIME, RHQ_RESOURCE_IDX_MTIME and RHQ_RESOURCE_IDX_ITIME
+    private static final String RESOURCE_CHANGES_QUERY = "" //
+        + "SELECT rt.plugin, rt.name, MAX(r.ctime), MAX(r.mtime), MAX(r.itime) " //
+        + "  FROM Resource r JOIN r.resourceType rt " //
+        + " WHERE r.ctime > :since OR r.mtime > :since OR r.itime > :since " //
+        + " GROUP BY rt.plugin, rt.name";
+
+    // by the stored time rather than the time stamp, a value reported late is still a change, it is indexed by
+    // RHQ_MEAS_DATA_TRAIT_STORED_IDX
+    private static final String TRAIT_CHANGES_QUERY = "" //
+        + "SELECT rt.plugin, rt.name, d.name, MAX(t.storedTime) " //
+        + "  FROM MeasurementDataTrait t JOIN t.schedule s JOIN s.definition d JOIN s.resource r " //
+        + "  JOIN r.resourceType rt " //
+        + " WHERE t.storedTime > :since " //
+        + " GROUP BY rt.plugin, rt.name, d.name";
+
+    private static final String CONFIGURATION_CHANGES_QUERY = "" //
+        + "SELECT rt.plugin, rt.name, MAX(u.createdTime) " //
+        + "  FROM %s u JOIN u.resource r JOIN r.resourceType rt " //
+        + " WHERE u.createdTime > :since " //
+        + " GROUP BY rt.plugin, rt.name";
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -215,6 +238,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
         entityManager.persist(resource);
         LOG.debug("********* resource persisted ************");
+        insertResourceAncestors(Collections.singletonList(resource.getId()));
         // Execute sub-methods as overlord to bypass additional security checks.
         Subject overlord = this.subjectManager.getOverlord();
         updateImplicitMembership(overlord, resource);
@@ -453,6 +477,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
             i = 0;
             int resourcesDeleted = 0;
+            long now = System.currentTimeMillis();
             while (i < toBeDeletedResourceIds.size()) {
                 int j = i + 1000;
                 if (j > toBeDeletedResourceIds.size())
@@ -463,6 +488,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
                     .createNamedQuery(Resource.QUERY_MARK_RESOURCES_FOR_ASYNC_DELETION_QUICK);
                 markDeletedQuery.setParameter("resourceIds", idsToDelete);
                 markDeletedQuery.setParameter("status", InventoryStatus.UNINVENTORIED);
+                markDeletedQuery.setParameter("now", now);
                 resourcesDeleted += markDeletedQuery.executeUpdate();
                 i = j;
             }
@@ -524,72 +550,35 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         }
     }
 
-    @SuppressWarnings("unchecked")
     private List<Integer> getDescendents(int resourceId) {
-        List<Integer> result;
-        Query query;
-
-        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
-        if (DatabaseTypeFactory.isOracle(dbType)) {
-            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS_ORACLE);
-
-        } else if (DatabaseTypeFactory.isPostgres(dbType)) {
-            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS_POSTGRES);
-
-        } else {
-            query = entityManager.createNamedQuery(Resource.QUERY_FIND_DESCENDANTS);
-        }
-
+        Query query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS);
         query.setParameter("resourceId", resourceId);
 
-        if (DatabaseTypeFactory.isOracle(dbType)) {
-            List<?> rl = query.getResultList();
-            result = new ArrayList<Integer>(rl.size());
-            for (Object id : rl) {
-                result.add(dbType.getInteger(id));
-            }
-        } else {
-            // native Integer support
-            result = query.getResultList();
-        }
-
-        return result;
+        return getResourceIds(query);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public List<Integer> getResourceDescendantsByTypeAndName(Subject user, int resourceId, Integer resourceTypeId,
         String name) {
 
-        List<Integer> result;
-        Query query;
-        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
-
-        if (DatabaseTypeFactory.isOracle(dbType)) {
-            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME_ORACLE);
-
-        } else if (DatabaseTypeFactory.isPostgres(dbType)) {
-            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME_POSTGRES);
-
-        } else {
-            query = entityManager.createNamedQuery(Resource.QUERY_FIND_DESCENDANTS_BY_TYPE_AND_NAME);
-        }
-
+        Query query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_DESCENDANTS_BY_TYPE_AND_NAME);
         query.setParameter("resourceId", resourceId);
         query.setParameter("resourceTypeId", ((null != resourceTypeId) ? resourceTypeId : 0));
         name = QueryUtility.formatSearchParameter(name);
         query.setParameter("resourceName", ((null != name) ? name : "$$$null$$$"));
 
-        if (DatabaseTypeFactory.isOracle(dbType)) {
-            List<?> rl = query.getResultList();
-            result = new ArrayList<Integer>(rl.size());
-            for (Object id : rl) {
-                result.add(dbType.getInteger(id));
-            }
-        } else {
-            // native Integer support
-            result = query.getResultList();
+        return getResourceIds(query);
+    }
+
+    private List<Integer> getResourceIds(Query nativeQuery) {
+        // Note that different DB vendors return different types for IDs, e.g. Oracle returns a BigDecimal
+        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+        List<?> rl = nativeQuery.getResultList();
+        List<Integer> result = new ArrayList<Integer>(rl.size());
+        for (Object id : rl) {
+            result.add(dbType.getInteger(id));
         }
+
         return result;
     }
 
@@ -614,44 +603,73 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
             return; // return early if there were any errors, because we can't remove the resource yet
         }
 
-        hasErrors = uninventoryResourceBulkDeleteAsyncWork(user, resourceId);
+        hasErrors = uninventoryResourceBulkDeleteAsyncWork(user, Arrays.asList(resourceId));
         if (hasErrors) {
             return; // return early if there were any errors, because we can't remove the resource yet
         }
 
-        Resource attachedResource = entityManager.find(Resource.class, resourceId);
+        removeResourcesAsyncWork(user, Arrays.asList(resourceId));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean uninventoryResourcesAsyncWork(Subject user, List<Integer> resourceIds) {
+        if (!authorizationManager.isOverlord(user)) {
+            throw new IllegalArgumentException("Only the overlord can execute out-of-band async resource delete method");
+        }
+
+        // see uninventoryResourceAsyncWork, the group removal is repeated for the whole batch
+        boolean hasErrors = uninventoryResourcesBulkDelete(user, resourceIds);
+        if (hasErrors) {
+            return false; // return early if there were any errors, because we can't remove the resources yet
+        }
+
+        // each dependent table is purged for the whole batch in its own short transaction
+        hasErrors = uninventoryResourceBulkDeleteAsyncWork(user, resourceIds);
+        if (hasErrors) {
+            return false; // return early if there were any errors, because we can't remove the resources yet
+        }
+
+        removeResourcesAsyncWork(user, resourceIds);
+        return true;
+    }
+
+    private void removeResourcesAsyncWork(Subject overlord, List<Integer> resourceIds) {
+        // load the whole batch at once, along with the drift definitions, rather than one resource at a time
+        Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_FOR_ASYNC_DELETION);
+        query.setParameter("resourceIds", resourceIds);
+        @SuppressWarnings("unchecked")
+        List<Resource> attachedResources = query.getResultList();
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Overlord is asynchronously deleting resource [" + attachedResource + "]");
+            LOG.debug("Overlord is asynchronously deleting resources " + attachedResources);
         }
 
-        if (attachedResource != null) {
-            // our unidirectional one-to-many mapping of drift definition makes it not possible to easily bulk delete drift definition
-            // so remove them here and let cascading of delete_orphan do the work
-            if (attachedResource.getDriftDefinitions() != null) {
-                attachedResource.getDriftDefinitions().clear();
-            }
+        // our unidirectional one-to-many mapping of drift definition makes it not possible to easily bulk delete drift definition
+        // so remove them here and let cascading of delete_orphan do the work
+        for (Resource attachedResource : attachedResources) {
+            attachedResource.getDriftDefinitions().clear();
+        }
 
-            // one more thing, delete any autogroup backing groups
-            List<ResourceGroup> backingGroups = attachedResource.getAutoGroupBackingGroups();
-            if (null != backingGroups && !backingGroups.isEmpty()) {
-                int size = backingGroups.size();
-                int[] backingGroupIds = new int[size];
-                for (int i = 0; (i < size); ++i) {
-                    backingGroupIds[i] = backingGroups.get(i).getId();
-                }
-                try {
-                    resourceGroupManager.deleteResourceGroups(user, backingGroupIds);
-                } catch (Throwable t) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.error("Bulk delete error for autogroup backing group deletion for " + backingGroupIds, t);
-                    } else {
-                        LOG.error("Bulk delete error for autogroup backing group deletion for " + backingGroupIds
-                            + ": " + t.getMessage());
-                    }
+        // one more thing, delete any autogroup backing groups
+        query = entityManager.createNamedQuery(ResourceGroup.QUERY_FIND_AUTOGROUP_BACKING_GROUP_IDS_BY_RESOURCE_IDS);
+        query.setParameter("resourceIds", resourceIds);
+        @SuppressWarnings("unchecked")
+        List<Integer> backingGroupIds = query.getResultList();
+        if (!backingGroupIds.isEmpty()) {
+            try {
+                resourceGroupManager.deleteResourceGroups(overlord, ArrayUtils.unwrapCollection(backingGroupIds));
+            } catch (Throwable t) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.error("Bulk delete error for autogroup backing group deletion for " + backingGroupIds, t);
+                } else {
+                    LOG.error("Bulk delete error for autogroup backing group deletion for " + backingGroupIds + ": "
+                        + t.getMessage());
                 }
             }
+        }
 
-            // now we can purge the resource, let cascading do the rest
+        // now we can purge the resources, let cascading do the rest
+        for (Resource attachedResource : attachedResources) {
             entityManager.remove(attachedResource);
         }
     }
@@ -670,7 +688,8 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
         String[] nativeQueriesToExecute = new String[] { //
         ResourceGroup.QUERY_DELETE_EXPLICIT_BY_RESOURCE_IDS, // unmap from explicit groups
-            ResourceGroup.QUERY_DELETE_IMPLICIT_BY_RESOURCE_IDS // unmap from implicit groups
+            ResourceGroup.QUERY_DELETE_IMPLICIT_BY_RESOURCE_IDS, // unmap from implicit groups
+            Resource.QUERY_NATIVE_DELETE_ANCESTORS_BY_RESOURCE_IDS // unlink from the hierarchy, parents are nulled
         };
 
         boolean hasErrors = false;
@@ -714,7 +733,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         }
     }
 
-    private boolean uninventoryResourceBulkDeleteAsyncWork(Subject overlord, int resourceId) {
+    private boolean uninventoryResourceBulkDeleteAsyncWork(Subject overlord, List<Integer> resourceIds) {
         String[] namedQueriesToExecute = new String[] { //
         ResourceRepo.DELETE_BY_RESOURCES, //
             MeasurementBaseline.QUERY_DELETE_BY_RESOURCES, // baseline BEFORE schedules
@@ -755,8 +774,6 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
             JPADrift.QUERY_DELETE_BY_RESOURCES, //       drift before changeset
             JPADriftChangeSet.QUERY_DELETE_BY_RESOURCES };
 
-        List<Integer> resourceIds = new ArrayList<Integer>();
-        resourceIds.add(resourceId);
         boolean supportsCascade = DatabaseTypeFactory.getDefaultDatabaseType().supportsSelfReferringCascade();
 
         boolean hasErrors = false;
@@ -968,46 +985,70 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         return parent;
     }
 
-    @Nullable
-    private Integer getParentResourceId(int resourceId) {
-
-        Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_PARENT_ID);
-        query.setParameter("id", resourceId);
-
-        try {
-            return (Integer) query.getSingleResult();
-        } catch (NoResultException nre) {
-            // this is OK, no parent means this is a platform
-            return null;
-        }
-    }
-
     // lineage is a getXXX (not findXXX) because it logically returns a single object, but modeled as a list here
     @Override
     public List<Integer> getResourceIdLineage(int resourceId) {
-        List<Integer> lineage = new ArrayList<Integer>();
-
-        Integer child = resourceId;
-        Integer parent;
-        while ((parent = getParentResourceId(child)) != null) {
-            lineage.add(parent);
-            child = parent;
-        }
+        Query query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_ANCESTOR_IDS);
+        query.setParameter("resourceId", resourceId);
 
-        return lineage;
+        return getResourceIds(query);
     }
 
     // lineage is a getXXX (not findXXX) because it logically returns a single object, but modeled as a list here
     @Override
     public List<Resource> getResourceLineage(int resourceId) {
-        LinkedList<Resource> resourceLineage = new LinkedList<Resource>();
         Resource resource = entityManager.find(Resource.class, resourceId);
         if (resource == null) {
             throw new ResourceNotFoundException(resourceId);
         }
 
+        List<Resource> resourceLineage = getResourceLineage(resource, getResourceIdLineage(resourceId));
+        if (resourceLineage != null) {
+            return resourceLineage;
+        }
+
+        // the ancestor rows do not match the parents, e.g. the resource is being moved by another transaction
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("The ancestors of resource [" + resourceId + "] do not match its parents, walking the parents");
+        }
+        return walkResourceLineage(resource);
+    }
+
+    /**
+     * @param ancestorIds the ancestor ids of the resource, parent first
+     * @return the lineage of the resource, platform first, or null if the ancestors are not the parents of the resource
+     */
+    private List<Resource> getResourceLineage(Resource resource, List<Integer> ancestorIds) {
+        Map<Integer, Resource> ancestors = new HashMap<Integer, Resource>(ancestorIds.size());
+        if (!ancestorIds.isEmpty()) {
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_IDS_ADMIN);
+            query.setParameter("ids", ancestorIds);
+            @SuppressWarnings("unchecked")
+            List<Resource> results = query.getResultList();
+            for (Resource ancestor : results) {
+                ancestors.put(ancestor.getId(), ancestor);
+            }
+        }
+
+        LinkedList<Resource> resourceLineage = new LinkedList<Resource>();
         resourceLineage.add(resource);
-        int childResourceId = resourceId;
+        Resource child = resource;
+        for (Integer ancestorId : ancestorIds) {
+            Resource parent = child.getParentResource();
+            if (parent == null || parent.getId() != ancestorId.intValue() || !ancestors.containsKey(ancestorId)) {
+                return null;
+            }
+            child = ancestors.get(ancestorId);
+            resourceLineage.addFirst(child);
+        }
+
+        return (child.getParentResource() == null) ? resourceLineage : null;
+    }
+
+    private List<Resource> walkResourceLineage(Resource resource) {
+        LinkedList<Resource> resourceLineage = new LinkedList<Resource>();
+        resourceLineage.add(resource);
+        int childResourceId = resource.getId();
         Resource parent;
         while ((parent = getParentResource(childResourceId)) != null) {
             resourceLineage.addFirst(parent);
@@ -1026,11 +1067,11 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
         // Build up a list of composite Resources for the ancestry that includes which ancestors, if any, should be
         // locked from view.
-        boolean isInventoryManager = authorizationManager.isInventoryManager(subject);
+        Set<Integer> viewableIds = getViewableResourceIds(subject, rawResourceLineage);
         List<ResourceLineageComposite> resourceLineage = new ArrayList<ResourceLineageComposite>(
             rawResourceLineage.size());
         for (Resource resource : rawResourceLineage) {
-            boolean isLocked = !(isInventoryManager || authorizationManager.canViewResource(subject, resource.getId()));
+            boolean isLocked = (viewableIds != null) && !viewableIds.contains(resource.getId());
             ResourceLineageComposite composite = new ResourceLineageComposite(resource, isLocked);
             resourceLineage.add(composite);
         }
@@ -1071,24 +1112,47 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
     @Override
     public List<ResourceLineageComposite> getResourceLineage(Subject subject, int resourceId) {
-        boolean isInventoryManager = authorizationManager.isInventoryManager(subject);
-
         // get the raw resource lineage up to the platform. We'll check the auth below
         List<Resource> rawLineage = getResourceLineage(resourceId);
 
         // record which of the raw ancestry is locked from view
+        Set<Integer> viewableIds = getViewableResourceIds(subject, rawLineage);
         List<ResourceLineageComposite> resourceLineage = new ArrayList<ResourceLineageComposite>(rawLineage.size());
         for (Resource resource : rawLineage) {
-            boolean isLocked = false;
-            if (!isInventoryManager) {
-                isLocked = !authorizationManager.canViewResource(subject, resource.getId());
-            }
+            boolean isLocked = (viewableIds != null) && !viewableIds.contains(resource.getId());
             resourceLineage.add(new ResourceLineageComposite(resource, isLocked));
         }
 
         return resourceLineage;
     }
 
+    /**
+     * @return the ids of the resources the subject can view, looked up with a single query, or null if the subject can
+     * view all resources
+     */
+    private Set<Integer> getViewableResourceIds(Subject subject, List<Resource> resources) {
+        if (authorizationManager.isInventoryManager(subject)) {
+            return null;
+        }
+
+        List<Integer> resourceIds = new ArrayList<Integer>(resources.size());
+        for (Resource resource : resources) {
+            resourceIds.add(resource.getId());
+        }
+
+        Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_IDS);
+        query.setParameter("ids", resourceIds);
+        query.setParameter("subject", subject);
+        @SuppressWarnings("unchecked")
+        List<Resource> viewableResources = query.getResultList();
+
+        Set<Integer> result = new HashSet<Integer>(viewableResources.size());
+        for (Resource resource : viewableResources) {
+            result.add(resource.getId());
+        }
+        return result;
+    }
+
     @Override
     public Map<Integer, String> getResourcesAncestry(Subject subject, Integer[] resourceIds,
         ResourceAncestryFormat format) {
@@ -2889,6 +2953,111 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         }
 
         updateAncestry(resource);
+        updateResourceAncestors(resourceId);
+    }
+
+    @Override
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void loadResourceTextIndex() {
+        ResourceTextIndex.getSingleton().load();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<InventoryChange> findInventoryChanges(long since, Set<InventoryChange.Kind> kinds) {
+        List<InventoryChange> result = new ArrayList<InventoryChange>();
+
+        if (kinds.contains(InventoryChange.Kind.RESOURCE)) {
+            Query query = entityManager.createQuery(RESOURCE_CHANGES_QUERY);
+            query.setParameter("since", since);
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                long time = Math.max(Math.max(toLong(row[2]), toLong(row[3])), toLong(row[4]));
+                result.add(new InventoryChange(InventoryChange.Kind.RESOURCE, (String) row[0], (String) row[1],
+                    null, time));
+            }
+        }
+
+        if (kinds.contains(InventoryChange.Kind.TRAIT)) {
+            Query query = entityManager.createQuery(TRAIT_CHANGES_QUERY);
+            query.setParameter("since", since);
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                result.add(new InventoryChange(InventoryChange.Kind.TRAIT, (String) row[0], (String) row[1],
+                    (String) row[2], toLong(row[3])));
+            }
+        }
+
+        if (kinds.contains(InventoryChange.Kind.PLUGIN_CONFIGURATION)) {
+            findConfigurationChanges(since, InventoryChange.Kind.PLUGIN_CONFIGURATION, "PluginConfigurationUpdate",
+                result);
+        }
+
+        if (kinds.contains(InventoryChange.Kind.RESOURCE_CONFIGURATION)) {
+            findConfigurationChanges(since, InventoryChange.Kind.RESOURCE_CONFIGURATION,
+                "ResourceConfigurationUpdate", result);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void findConfigurationChanges(long since, InventoryChange.Kind kind, String updateEntity,
+        List<InventoryChange> result) {
+        Query query = entityManager.createQuery(String.format(CONFIGURATION_CHANGES_QUERY, updateEntity));
+        query.setParameter("since", since);
+        for (Object[] row : (List<Object[]>) query.getResultList()) {
+            result.add(new InventoryChange(kind, (String) row[0], (String) row[1], null, toLong(row[2])));
+        }
+    }
+
+    private static long toLong(Object value) {
+        return (value == null) ? 0L : ((Number) value).longValue();
+    }
+
+    @Override
+    public void updateResourceAncestors(int resourceId) {
+        // the statements read the parent from the database, make sure it is current
+        entityManager.flush();
+
+        // unlink the subtree from the old ancestors
+        Query nativeQuery = entityManager.createNativeQuery(Resource.QUERY_NATIVE_DELETE_SUBTREE_ANCESTORS);
+        nativeQuery.setParameter("resourceId", resourceId);
+        nativeQuery.executeUpdate();
+
+        // link the resource to its parent and to the ancestors of its parent
+        linkResourceAncestors(Collections.singletonList(resourceId));
+
+        // then link the descendants to all of those
+        nativeQuery = entityManager.createNativeQuery(Resource.QUERY_NATIVE_INSERT_SUBTREE_ANCESTORS);
+        nativeQuery.setParameter("resourceId", resourceId);
+        nativeQuery.executeUpdate();
+    }
+
+    @Override
+    public void insertResourceAncestors(List<Integer> resourceIds) {
+        if (resourceIds.isEmpty()) {
+            return;
+        }
+
+        // the statements read the parents from the database, make sure they are current
+        entityManager.flush();
+
+        for (int i = 0; i < resourceIds.size(); i += 1000) {
+            linkResourceAncestors(resourceIds.subList(i, Math.min(i + 1000, resourceIds.size())));
+        }
+    }
+
+    private void linkResourceAncestors(List<Integer> resourceIds) {
+        String[] nativeQueriesToExecute = new String[] { //
+        Resource.QUERY_NATIVE_INSERT_PARENT_ANCESTOR, // link the resources to their parents
+            Resource.QUERY_NATIVE_INSERT_PARENT_ANCESTORS // and to the ancestors of their parents
+        };
+
+        for (String nativeQueryToExecute : nativeQueriesToExecute) {
+            Query nativeQuery = entityManager.createNativeQuery(nativeQueryToExecute);
+            nativeQuery.setParameter("resourceIds", resourceIds);
+            nativeQuery.executeUpdate();
+        }
     }
 
     private void updateAncestry(Resource resource) {
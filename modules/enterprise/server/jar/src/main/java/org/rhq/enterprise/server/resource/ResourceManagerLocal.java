@@ -20,6 +20,7 @@ package org.rhq.enterprise.server.resource;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.ejb.Local;
 
@@ -122,6 +123,18 @@ public interface ResourceManagerLocal extends ResourceManagerRemote {
      */
     void uninventoryResourceAsyncWork(Subject user, int resourceId);
 
+    /**
+     * Deletes the given resources (but not their children), like {@link #uninventoryResourceAsyncWork(Subject, int)}
+     * does for one resource, but purging each dependent table for all of them with one statement. The resources must
+     * have been marked for asynchronous deletion. This is normally used only by the asynchronous resource delete job.
+     *
+     * @param user        the user deleting the resources, must be the overlord
+     * @param resourceIds the IDs of the resources to be deleted, at most 1000
+     * @return true if the resources were deleted, false if some dependent rows could not be deleted, in which case the
+     * resources are left for a later attempt
+     */
+    boolean uninventoryResourcesAsyncWork(Subject user, List<Integer> resourceIds);
+
     boolean bulkNativeQueryDeleteInNewTransaction(Subject subject, String nativeQueryString, List<Integer> resourceIds);
 
     boolean bulkNamedQueryDeleteInNewTransaction(Subject subject, String namedQuery, List<Integer> resourceIds);
@@ -461,6 +474,44 @@ public interface ResourceManagerLocal extends ResourceManagerRemote {
      */
     public void updateAncestry(Subject subject, int resourceId);
 
+    /**
+     * Update the RHQ_RESOURCE_ANCESTOR rows of the specified resource and its descendants, so that they reflect the
+     * resource's current parent. This must be called whenever a resource is moved to another parent, see
+     * {@link #insertResourceAncestors(List)} for newly persisted resources. Pending changes are flushed first, since
+     * the parent is read from the database.
+     *
+     * @param resourceId
+     */
+    void updateResourceAncestors(int resourceId);
+
+    /**
+     * Adds the RHQ_RESOURCE_ANCESTOR rows of newly persisted resources, with two statements per thousand resources.
+     * The resources must not have descendants yet, and their parents must already be linked, so none of them can be
+     * the parent of another. This holds for a batch of an inventory report merge, which persists one level of the
+     * resource tree at a time. Pending changes are flushed first, since the parents are read from the database.
+     *
+     * @param resourceIds
+     */
+    void insertResourceAncestors(List<Integer> resourceIds);
+
+    /**
+     * Loads the {@link ResourceTextIndex} asynchronously, outside of any transaction.
+     */
+    void loadResourceTextIndex();
+
+    /**
+     * Looks up the latest inventory change of each of the given kinds made to the resources of each type after the
+     * given time. This tells whether DynaGroups or saved search result counts may have changed since they were last
+     * computed, see {@link InventoryChange}. {@link InventoryChange.Kind#RESOURCE} changes include uninventories,
+     * which bump the inventory time of the resources they mark for deletion. {@link InventoryChange.Kind#TRAIT} changes
+     * are the trait values stored after the given time, whatever the time they were collected at.
+     *
+     * @param since only changes made after this time are returned
+     * @param kinds the kinds of changes to look for
+     * @return the changes, one per kind and resource type (and trait name for trait changes)
+     */
+    List<InventoryChange> findInventoryChanges(long since, Set<InventoryChange.Kind> kinds);
+
     /**
      * This method exists to support the GUI resource tree, by not returning an unlimited number of resources
      * but instead bounding the returned size.  Note, this routine does not offer paging and any PageControl set in
@@ -0,0 +1,391 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.util.jdbc.JDBCUtil;
+import org.rhq.enterprise.server.util.LookupUtil;
+
+/**
+ * An in-memory {@link TrigramIndex} of the resource names and of the latest trait values, so that the substring
+ * filters of the search bar and of DynaGroup expressions need not scan RHQ_RESOURCE and RHQ_MEASUREMENT_DATA_TRAIT
+ * with a LIKE '%x%'. Callers add the condition returned by {@link #getCondition(Field, String, String)} to their query
+ * and still apply their own LIKE.
+ * <p/>
+ * The condition must never drop a matching row, so it keeps the ids found by the index and the ids of the matching
+ * rows changed since the index was last refreshed, whichever server of the cloud made the change. Those are read at
+ * each search, by the indexed CTIME, MTIME and ITIME of the resources and STORED_TIME of the trait values. This relies
+ * on every change of a resource name bumping its CTIME or MTIME. A trait value reported late by its agent is still
+ * found, it is looked for by the time it was stored rather than by the time it was collected.
+ * <p/>
+ * The index is loaded in the background, by {@link ResourceManagerLocal#loadResourceTextIndex()}, the first time it
+ * is used. Until it is loaded, when the value is too short to have a trigram, or when it matches more than
+ * {@link #MAX_RESULTS} rows, no condition is returned and callers fall back to SQL. Once loaded, the changes are read
+ * into the index at most every {@link #REFRESH_INTERVAL} ms, and the whole index is reloaded every {@link #MAX_AGE} ms
+ * to drop the values which no longer exist.
+ * <p/>
+ * Resource keys and descriptions are not indexed, neither the search bar nor DynaGroup expressions filter on them.
+ */
+public class ResourceTextIndex {
+
+    private static final Log LOG = LogFactory.getLog(ResourceTextIndex.class);
+
+    public enum Field {
+        /** keyed by resource id */
+        NAME,
+        /** the latest value of each trait, keyed by schedule id */
+        TRAIT
+    }
+
+    /**
+     * Whether the index is used at all.
+     */
+    public static final boolean ENABLED;
+
+    /**
+     * The time, in ms, after which the changes made since the last refresh are read into the index.
+     */
+    public static final long REFRESH_INTERVAL;
+
+    /**
+     * The time, in ms, after which the whole index is reloaded.
+     */
+    public static final long MAX_AGE;
+
+    /**
+     * The maximum number of ids a condition is built from. Larger results are of little help to the database, and
+     * would exceed the IN list limit of some databases.
+     */
+    public static final int MAX_RESULTS = 1000;
+
+    static {
+        boolean enabled = true;
+        try {
+            enabled = Boolean.valueOf(System.getProperty("rhq.server.text-index.enabled", "true"));
+        } catch (Throwable t) {
+            //
+        }
+        ENABLED = enabled;
+
+        long refreshInterval = 60000L;
+        try {
+            refreshInterval = Long.parseLong(System.getProperty("rhq.server.text-index.refresh-interval", "60000"));
+        } catch (Throwable t) {
+            //
+        }
+        REFRESH_INTERVAL = refreshInterval;
+
+        long maxAge = 60L * 60L * 1000L;
+        try {
+            maxAge = Long.parseLong(System.getProperty("rhq.server.text-index.max-age", String.valueOf(maxAge)));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_AGE = maxAge;
+    }
+
+    /**
+     * Changes are read again this long before the last refresh, to allow for transactions still in flight at that
+     * time and for clock differences between servers.
+     */
+    private static final long CHANGE_DETECTION_MARGIN = 10L * 60L * 1000L;
+
+    private static final int FETCH_SIZE = 10000;
+
+    private static final String RESOURCES_QUERY = "" //
+        + "SELECT ID, NAME " //
+        + "  FROM RHQ_RESOURCE";
+
+    // each of the times is indexed
+    private static final String RESOURCE_CHANGES_QUERY = RESOURCES_QUERY //
+        + " WHERE CTIME > ? OR MTIME > ? OR ITIME > ?";
+
+    // the latest value of each schedule, the subquery is served by the primary key
+    private static final String TRAITS_QUERY = "" //
+        + "SELECT t.SCHEDULE_ID, t.VALUE " //
+        + "  FROM RHQ_MEASUREMENT_DATA_TRAIT t " //
+        + " WHERE t.TIME_STAMP = " //
+        + "       (SELECT MAX(l.TIME_STAMP) FROM RHQ_MEASUREMENT_DATA_TRAIT l WHERE l.SCHEDULE_ID = t.SCHEDULE_ID)";
+
+    // the latest value of the schedules with a value stored since the time, which is indexed
+    private static final String TRAIT_CHANGES_QUERY = TRAITS_QUERY //
+        + "   AND t.SCHEDULE_ID IN " //
+        + "       (SELECT c.SCHEDULE_ID FROM RHQ_MEASUREMENT_DATA_TRAIT c WHERE c.STORED_TIME > ?)";
+
+    private static final ResourceTextIndex singleton = new ResourceTextIndex(ENABLED);
+
+    private final boolean enabled;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean loading = new AtomicBoolean(false);
+    private final Object refreshLock = new Object();
+
+    // guarded by lock
+    private TrigramIndex names;
+    private TrigramIndex traits;
+
+    private volatile boolean loaded;
+    private volatile long loadTime;
+    private volatile long refreshTime;
+
+    ResourceTextIndex(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static ResourceTextIndex getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @param field the indexed field
+     * @param idPath the path of the id the field is keyed by, e.g. res.id or res.parentResource.id for
+     * {@link Field#NAME}, sched.id for {@link Field#TRAIT}
+     * @param value the string the field must contain, the case is ignored
+     * @return a JPQL condition keeping at least every row whose field contains the value, or null if the index cannot
+     * tell them
+     */
+    public String getCondition(Field field, String idPath, String value) {
+        if (!enabled || value == null || value.length() < TrigramIndex.MIN_LENGTH) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (!loaded || now - loadTime >= MAX_AGE) {
+            startLoad();
+        }
+        if (!loaded) {
+            return null;
+        }
+
+        int[] ids;
+        Map<Integer, String> changes;
+        Connection conn = null;
+        try {
+            conn = LookupUtil.getDataSource().getConnection();
+            if (now - refreshTime >= REFRESH_INTERVAL) {
+                refresh(conn, now);
+            }
+
+            long changedSince;
+            lock.readLock().lock();
+            try {
+                ids = (field == Field.NAME ? names : traits).find(value, MAX_RESULTS);
+                // read under the lock, the index holds every change made before this time
+                changedSince = refreshTime - CHANGE_DETECTION_MARGIN;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (ids == null) {
+                return null;
+            }
+
+            changes = readChanges(conn, field, changedSince);
+        } catch (Throwable t) {
+            LOG.warn("Failed to read the changes of the resource text index, falling back to SQL: " + t.getMessage());
+            return null;
+        } finally {
+            JDBCUtil.safeClose(conn);
+        }
+
+        ids = addChanges(ids, changes, value);
+        if (ids == null) {
+            return null;
+        }
+        return getIdCondition(idPath, ids);
+    }
+
+    /**
+     * @return the sorted ids, and the ids of the changes whose text contains the value, or null if there are more than
+     * {@link #MAX_RESULTS}
+     */
+    static int[] addChanges(int[] ids, Map<Integer, String> changes, String value) {
+        SortedSet<Integer> result = new TreeSet<Integer>();
+        for (int id : ids) {
+            result.add(id);
+        }
+
+        String lowerCaseValue = value.toLowerCase();
+        for (Map.Entry<Integer, String> change : changes.entrySet()) {
+            String text = change.getValue();
+            if (text != null && text.toLowerCase().contains(lowerCaseValue)) {
+                result.add(change.getKey());
+            }
+        }
+        if (result.size() > MAX_RESULTS) {
+            return null;
+        }
+
+        int[] merged = new int[result.size()];
+        int i = 0;
+        for (Integer id : result) {
+            merged[i++] = id;
+        }
+        return merged;
+    }
+
+    /**
+     * @return a JPQL condition restricting the id path to the ids
+     */
+    static String getIdCondition(String idPath, int[] ids) {
+        if (ids.length == 0) {
+            return idPath + " IS NULL"; // no id is null, matches nothing
+        }
+
+        StringBuilder builder = new StringBuilder(idPath).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(ids[i]);
+        }
+        return builder.append(")").toString();
+    }
+
+    private void startLoad() {
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            LookupUtil.getResourceManager().loadResourceTextIndex();
+        } catch (Throwable t) {
+            loading.set(false);
+            LOG.warn("Failed to start loading the resource text index, falling back to SQL: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Loads the whole index, to be called by {@link ResourceManagerLocal#loadResourceTextIndex()} only.
+     */
+    public void load() {
+        try {
+            load(LookupUtil.getDataSource());
+        } catch (Throwable t) {
+            LOG.warn("Failed to load the resource text index, falling back to SQL: " + t.getMessage());
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    void load(DataSource dataSource) throws SQLException {
+        long start = System.currentTimeMillis();
+        TrigramIndex newNames = new TrigramIndex();
+        TrigramIndex newTraits = new TrigramIndex();
+
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            newNames.putAll(read(conn, RESOURCES_QUERY, -1L, 0));
+            newTraits.putAll(read(conn, TRAITS_QUERY, -1L, 0));
+        } finally {
+            JDBCUtil.safeClose(conn);
+        }
+
+        // changes read by a concurrent refresh may be lost, the next refresh reads them again from the load time
+        synchronized (refreshLock) {
+            lock.writeLock().lock();
+            try {
+                names = newNames;
+                traits = newTraits;
+                loadTime = start;
+                refreshTime = start;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            loaded = true;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + newNames.size() + " resource names and " + newTraits.size() + " trait values in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private void refresh(Connection conn, long now) throws SQLException {
+        synchronized (refreshLock) {
+            long since = refreshTime;
+            if (now - since < REFRESH_INTERVAL) {
+                return; // refreshed by another thread meanwhile
+            }
+            since -= CHANGE_DETECTION_MARGIN;
+
+            Map<Integer, String> changedNames = readChanges(conn, Field.NAME, since);
+            Map<Integer, String> changedTraits = readChanges(conn, Field.TRAIT, since);
+
+            lock.writeLock().lock();
+            try {
+                names.putAll(changedNames);
+                traits.putAll(changedTraits);
+                refreshTime = now;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the current text of the rows of the field changed after the time, by id
+     */
+    private static Map<Integer, String> readChanges(Connection conn, Field field, long since) throws SQLException {
+        if (field == Field.NAME) {
+            return read(conn, RESOURCE_CHANGES_QUERY, since, 3);
+        }
+        return read(conn, TRAIT_CHANGES_QUERY, since, 1);
+    }
+
+    /**
+     * @param since set on each of the first sinceParameters parameters of the query
+     */
+    private static Map<Integer, String> read(Connection conn, String query, long since, int sinceParameters)
+        throws SQLException {
+        Map<Integer, String> result = new HashMap<Integer, String>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(query);
+            for (int i = 1; i <= sinceParameters; i++) {
+                stmt.setLong(i, since);
+            }
+            stmt.setFetchSize(FETCH_SIZE);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.put(rs.getInt(1), rs.getString(2));
+            }
+        } finally {
+            JDBCUtil.safeClose(stmt, rs);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from the trigrams (three consecutive characters) of texts to the ids of the texts containing them,
+ * answering case-insensitive substring searches without looking at every text. A search for a string of at least three
+ * characters only verifies the texts containing its rarest trigram.
+ * <p/>
+ * Replacing or removing a text does not remove its trigrams from the posting lists, the verification drops the ids
+ * whose current text does not match. The stale entries are counted, so that the owner can rebuild the index when they
+ * take too much space.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Jay Shaughnessy
+ */
+class TrigramIndex {
+
+    static final int MIN_LENGTH = 3;
+
+    private final Map<Integer, String> texts = new HashMap<Integer, String>();
+    private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+    private long postingCount;
+    private long stalePostingCount;
+
+    /**
+     * Sets the text of an id, replacing its previous text if any. A null text removes the id.
+     */
+    void put(int id, String text) {
+        if (text == null) {
+            remove(id);
+            return;
+        }
+
+        text = text.toLowerCase();
+        String previous = texts.put(id, text);
+        if (text.equals(previous)) {
+            return;
+        }
+
+        Set<Long> previousTrigrams = (previous == null) ? null : getTrigrams(previous);
+        for (Long trigram : getTrigrams(text)) {
+            if (previousTrigrams != null && previousTrigrams.remove(trigram)) {
+                continue; // already posted for this id
+            }
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                list = new Postings();
+                postings.put(trigram, list);
+            }
+            list.add(id);
+            postingCount++;
+        }
+        if (previousTrigrams != null) {
+            stalePostingCount += previousTrigrams.size();
+        }
+    }
+
+    void putAll(Map<Integer, String> texts) {
+        for (Map.Entry<Integer, String> entry : texts.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    void remove(int id) {
+        String previous = texts.remove(id);
+        if (previous != null) {
+            stalePostingCount += getTrigrams(previous).size();
+        }
+    }
+
+    /**
+     * @param value the string to look for, the case is ignored
+     * @param maxResults the maximum number of ids to return
+     * @return the sorted ids of the texts containing the value, or null if the value is shorter than
+     * {@link #MIN_LENGTH} or more than maxResults texts contain it
+     */
+    int[] find(String value, int maxResults) {
+        if (value == null || value.length() < MIN_LENGTH) {
+            return null;
+        }
+
+        value = value.toLowerCase();
+        Postings rarest = null;
+        for (Long trigram : getTrigrams(value)) {
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                return new int[0];
+            }
+            if (rarest == null || list.size < rarest.size) {
+                rarest = list;
+            }
+        }
+
+        int[] candidates = Arrays.copyOf(rarest.ids, rarest.size);
+        Arrays.sort(candidates);
+
+        int[] result = new int[Math.min(candidates.length, maxResults + 1)];
+        int size = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            int id = candidates[i];
+            if (i > 0 && id == candidates[i - 1]) {
+                continue;
+            }
+            String text = texts.get(id);
+            if (text != null && text.contains(value)) {
+                if (size == maxResults) {
+                    return null;
+                }
+                result[size++] = id;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    int size() {
+        return texts.size();
+    }
+
+    long getPostingCount() {
+        return postingCount;
+    }
+
+    /**
+     * @return the number of posting list entries whose id no longer has the trigram in its text
+     */
+    long getStalePostingCount() {
+        return stalePostingCount;
+    }
+
+    static Set<Long> getTrigrams(String text) {
+        Set<Long> result = new HashSet<Long>();
+        for (int i = 0, length = text.length(); i + MIN_LENGTH <= length; i++) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -63,6 +63,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationCache;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.exception.LdapCommunicationException;
 import org.rhq.enterprise.server.exception.LdapFilterException;
@@ -296,6 +297,7 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
             sub.addRole(role);
             sub.addLdapRole(role);
         }
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
     }
 
     public PageList<LdapGroup> findLdapGroupsByRole(int roleId, PageControl pageControl) {
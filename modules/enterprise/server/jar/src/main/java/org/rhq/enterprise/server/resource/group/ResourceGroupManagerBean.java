@@ -29,7 +29,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +81,7 @@ import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.alert.GroupAlertDefinitionManagerLocal;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationCache;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
@@ -219,6 +219,9 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         group.setModifiedBy(user.getName());
 
         ResourceGroup newlyAttachedGroup = entityManager.merge(group);
+        if (updateMembership || changeType != RecursivityChangeType.None) {
+            AuthorizationCache.getSingleton().invalidateAfterCompletion();
+        }
         if (changeType == RecursivityChangeType.AddedRecursion) {
             newlyAttachedGroup.setRecursive(true);
             enableRecursivityForGroup(user, groupId);
@@ -292,6 +295,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             group.removeRole(doomedRoleRelationship);
             entityManager.merge(doomedRoleRelationship);
         }
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
 
         // remove all resources in the group
         resourceGroupManager.removeAllResourcesFromGroup(subject, groupId);
@@ -440,6 +444,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             return;
         }
 
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         boolean isRecursive = isRecursive(groupId); // will perform check for group existence
 
         // batch the removes to prevent the ORA error about IN clauses containing more than 1000 items
@@ -526,20 +532,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             // insert implicit resources
             if (isRecursive) {
-                insertImplicitStatement = conn
-                    .prepareStatement(ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT_RECURSIVE);
-                insertImplicitStatement.setInt(1, groupId);
-                insertImplicitStatement.setInt(9, groupId);
-                for (int resourceId : resourceIdsToAdd) {
-                    insertImplicitStatement.setInt(2, resourceId);
-                    insertImplicitStatement.setInt(3, resourceId);
-                    insertImplicitStatement.setInt(4, resourceId);
-                    insertImplicitStatement.setInt(5, resourceId);
-                    insertImplicitStatement.setInt(6, resourceId);
-                    insertImplicitStatement.setInt(7, resourceId);
-                    insertImplicitStatement.setInt(8, resourceId);
-                    insertImplicitStatement.executeUpdate();
-                }
+                insertImplicitStatement = prepareAddImplicitRecursive(conn, groupId, resourceIdsToAdd);
+                insertImplicitStatement.executeUpdate();
             } else {
                 String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
                     ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT, "@@RESOURCE_IDS@@",
@@ -561,6 +555,19 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         return;
     }
 
+    private PreparedStatement prepareAddImplicitRecursive(Connection conn, int groupId, int[] resourceIds)
+        throws SQLException {
+        String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+            ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT_RECURSIVE, "@@RESOURCE_IDS@@",
+            resourceIds.length);
+        PreparedStatement insertImplicitStatement = conn.prepareStatement(insertImplicitQueryString);
+        insertImplicitStatement.setInt(1, groupId);
+        JDBCUtil.bindNTimes(insertImplicitStatement, resourceIds, 2); // the resources
+        JDBCUtil.bindNTimes(insertImplicitStatement, resourceIds, 2 + resourceIds.length); // their descendants
+        insertImplicitStatement.setInt(2 + (2 * resourceIds.length), groupId);
+        return insertImplicitStatement;
+    }
+
     private boolean isRecursive(int groupId) {
         Subject overlord = subjectManager.getOverlord();
         ResourceGroup attachedGroup = getResourceGroupById(overlord, groupId, null);
@@ -591,6 +598,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             return;
         }
 
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         boolean isRecursive = isRecursive(groupId); // will perform check for group existence
 
         // batch the removes to prevent the ORA error about IN clauses containing more than 1000 items
@@ -629,28 +638,20 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             // insert implicit resources, must occur before deleting explicit
             if (isRecursive) {
-                deleteImplicitStatement = conn
-                    .prepareStatement(ResourceGroup.QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_IMPLICIT_RECURSIVE);
+                // the resources and their descendants stay if they are covered by a remaining explicit member
+                int count = resourceIdsArray.length;
+                String deleteImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+                    ResourceGroup.QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_IMPLICIT_RECURSIVE, "@@RESOURCE_IDS@@",
+                    count);
+                deleteImplicitStatement = conn.prepareStatement(deleteImplicitQueryString);
                 deleteImplicitStatement.setInt(1, groupId);
-                deleteImplicitStatement.setInt(9, groupId);
-                for (Integer resourceId : resourceIds) {
-                    // no-op if this resource's ancestor is also in the explicit list
-                    List<Integer> lineage = resourceManager.getResourceIdLineage(resourceId);
-                    List<Integer> nonMembers = getNonMemberExplicitResources(groupId, lineage);
-                    if (lineage.size() != nonMembers.size()) {
-                        // one or more of my parents were in the explicit list, no-op to remove me
-                        continue;
-                    }
-                    deleteImplicitStatement.setInt(2, resourceId);
-                    deleteImplicitStatement.setInt(3, resourceId);
-                    deleteImplicitStatement.setInt(4, resourceId);
-                    deleteImplicitStatement.setInt(5, resourceId);
-                    deleteImplicitStatement.setInt(6, resourceId);
-                    deleteImplicitStatement.setInt(7, resourceId);
-                    deleteImplicitStatement.setInt(8, resourceId);
-                    deleteImplicitStatement.setInt(10, resourceId);
-                    deleteImplicitStatement.executeUpdate();
-                }
+                JDBCUtil.bindNTimes(deleteImplicitStatement, resourceIdsArray, 2);
+                JDBCUtil.bindNTimes(deleteImplicitStatement, resourceIdsArray, 2 + count);
+                deleteImplicitStatement.setInt(2 + (2 * count), groupId);
+                JDBCUtil.bindNTimes(deleteImplicitStatement, resourceIdsArray, 3 + (2 * count));
+                deleteImplicitStatement.setInt(3 + (3 * count), groupId);
+                JDBCUtil.bindNTimes(deleteImplicitStatement, resourceIdsArray, 4 + (3 * count));
+                deleteImplicitStatement.executeUpdate();
             } else {
                 String deleteImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
                     ResourceGroup.QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_IMPLICIT, "@@RESOURCE_IDS@@",
@@ -684,6 +685,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void removeAllResourcesFromGroup(Subject subject, int groupId) throws ResourceGroupDeleteException {
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
+
         Connection conn = null;
         PreparedStatement explicitStatement = null;
         PreparedStatement implicitStatement = null;
@@ -794,41 +797,26 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             return;
         }
 
-        /*
-         * BFS-construct the resource tree
-         */
-        List<Integer> resourceIdsToAdd = new ArrayList<Integer>();
-        List<Resource> toBeSearched = new LinkedList<Resource>();
-        toBeSearched.add(resource);
-        while (toBeSearched.size() > 0) {
-            Resource next = toBeSearched.remove(0);
-            resourceIdsToAdd.add(next.getId());
-            toBeSearched.addAll(next.getChildResources());
-        }
+        AuthorizationCache.getSingleton().invalidateAfterCompletion();
 
         /*
-         * now add this resource and all of its descendants to whatever recursive groups it's parent is already in
+         * now add this resource and all of its descendants to whatever recursive groups it's parent is already in.
+         * the descendants are found in the resource ancestry, which is kept up to date when the resource is persisted.
          */
+        int[] resourceIds = new int[] { resource.getId() };
         Connection conn = null;
         PreparedStatement insertImplicitStatement = null;
         try {
             conn = rhqDs.getConnection();
             for (Integer implicitRecursiveGroupId : implicitRecursiveGroupIds) {
                 /*
-                 * do have to worry about whether these resources are already in the explicit resource list because
-                 * they are being newly committed to inventory and thus shouldn't be in any group except the work
-                 * being done right now.
-                 *
-                 * also, since we've already computed the toAddResourceIds by recursing down the chain resource passed
-                 * to this method, we can just do simple RHQ_RESOURCE_GROUP_RES_IMP_MAP table insertions
+                 * the resources are being newly committed to inventory and thus shouldn't be in any group except the
+                 * work being done right now, so there is no need to check the explicit resource list
                  */
-                String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
-                    ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT, "@@RESOURCE_IDS@@",
-                    resourceIdsToAdd.size());
-                insertImplicitStatement = conn.prepareStatement(insertImplicitQueryString);
-                insertImplicitStatement.setInt(1, implicitRecursiveGroupId);
-                JDBCUtil.bindNTimes(insertImplicitStatement, ArrayUtils.unwrapCollection(resourceIdsToAdd), 2);
+                insertImplicitStatement = prepareAddImplicitRecursive(conn, implicitRecursiveGroupId, resourceIds);
                 insertImplicitStatement.executeUpdate();
+                JDBCUtil.safeClose(insertImplicitStatement);
+                insertImplicitStatement = null;
 
                 /*
                  * when automatically updating recursive groups during inventory sync we need to make sure that we also
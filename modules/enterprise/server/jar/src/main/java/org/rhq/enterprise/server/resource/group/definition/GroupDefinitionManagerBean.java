@@ -21,8 +21,10 @@ package org.rhq.enterprise.server.resource.group.definition;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,6 +57,7 @@ import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
+import org.rhq.enterprise.server.resource.InventoryChange;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.RecursivityChangeType;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
@@ -67,6 +70,7 @@ import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefini
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionNotFoundException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionUpdateException;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
+import org.rhq.enterprise.server.resource.group.definition.framework.GroupDefinitionDependencies;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.enterprise.server.resource.group.definition.mbean.GroupDefinitionRecalculationThreadMonitor;
 import org.rhq.enterprise.server.resource.group.definition.mbean.GroupDefinitionRecalculationThreadMonitorMBean;
@@ -77,6 +81,37 @@ import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal, GroupDefinitionManagerRemote {
     private final Log log = LogFactory.getLog(GroupDefinitionManagerBean.class);
 
+    /**
+     * When true, a group definition due for recalculation is only recalculated if the inventory changes made since
+     * its last calculation may have changed its DynaGroups, see {@link GroupDefinitionDependencies}.
+     */
+    private static final boolean INCREMENTAL_RECALCULATION = Boolean.valueOf(System.getProperty(
+        "rhq.server.dynagroup.incremental-recalculation", "true"));
+
+    /**
+     * The maximum time, in ms, a group definition goes without being recalculated when incremental recalculation
+     * skips it. This catches the changes that are not recorded, e.g. resource names upgraded by a plugin.
+     */
+    private static final long FULL_RECALCULATION_INTERVAL;
+
+    static {
+        long fullRecalculationInterval = 24L * 60L * 60L * 1000L;
+        try {
+            fullRecalculationInterval = Long.parseLong(System.getProperty(
+                "rhq.server.dynagroup.full-recalculation-interval", String.valueOf(fullRecalculationInterval)));
+        } catch (Throwable t) {
+            //
+        }
+        FULL_RECALCULATION_INTERVAL = fullRecalculationInterval;
+    }
+
+    /**
+     * Inventory changes are looked for this long before the last calculation, to allow for transactions still in
+     * flight at that time and for clock differences between servers. Trait values are looked for by the time the
+     * server stored them, so a value the agent reports late is still seen as a change.
+     */
+    private static final long CHANGE_DETECTION_MARGIN = 10L * 60L * 1000L;
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -110,6 +145,15 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         GroupDefinitionRecalculationThreadMonitorMBean monitor = GroupDefinitionRecalculationThreadMonitor.getMBean();
 
         long totalStart = System.currentTimeMillis();
+        if (INCREMENTAL_RECALCULATION) {
+            try {
+                groupDefinitionIdsToRecalculate = findAffectedGroupDefinitionIds(groupDefinitionIdsToRecalculate,
+                    totalStart, monitor);
+            } catch (Throwable t) {
+                log.error("Error looking for inventory changes, recalculating all due DynaGroups", t);
+            }
+        }
+
         for (Integer groupDefinitionId : groupDefinitionIdsToRecalculate) {
             long singleStart = System.currentTimeMillis();
             boolean success = false;
@@ -138,6 +182,102 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         monitor.updateAutoRecalculationThreadTime(totalEnd - totalStart);
     }
 
+    /**
+     * @return the ids of the due group definitions whose DynaGroups may have been changed by the inventory changes
+     * made since they were last calculated. The others are skipped, they will be checked again once their
+     * recalculation interval has elapsed.
+     */
+    private List<Integer> findAffectedGroupDefinitionIds(List<Integer> groupDefinitionIds, long now,
+        GroupDefinitionRecalculationThreadMonitorMBean monitor) {
+        List<Integer> result = new ArrayList<Integer>();
+        Map<GroupDefinition, GroupDefinitionDependencies> candidates;
+        candidates = new LinkedHashMap<GroupDefinition, GroupDefinitionDependencies>();
+        long since = now;
+        Set<InventoryChange.Kind> kinds = EnumSet.of(InventoryChange.Kind.RESOURCE);
+
+        for (Integer groupDefinitionId : groupDefinitionIds) {
+            GroupDefinition groupDefinition = entityManager.find(GroupDefinition.class, groupDefinitionId);
+            if (groupDefinition == null) {
+                continue;
+            }
+
+            Long lastCalculationTime = groupDefinition.getLastCalculationTime();
+            if (lastCalculationTime == null || now - lastCalculationTime >= FULL_RECALCULATION_INTERVAL) {
+                result.add(groupDefinitionId);
+                continue;
+            }
+
+            Long lastSkipTime = groupDefinition.getLastSkipTime();
+            if (lastSkipTime != null && lastSkipTime + groupDefinition.getRecalculationInterval() > now) {
+                continue;
+            }
+
+            GroupDefinitionDependencies dependencies;
+            try {
+                ExpressionEvaluator evaluator = new ExpressionEvaluator();
+                for (String expression : groupDefinition.getExpressionAsList()) {
+                    evaluator.addExpression(expression);
+                }
+                dependencies = evaluator.getDependencies();
+            } catch (InvalidExpressionException iee) {
+                // let the recalculation report it
+                result.add(groupDefinitionId);
+                continue;
+            }
+
+            if (dependencies.isAlwaysRecalculated()) {
+                result.add(groupDefinitionId);
+                continue;
+            }
+
+            candidates.put(groupDefinition, dependencies);
+            since = Math.min(since, lastCalculationTime - CHANGE_DETECTION_MARGIN);
+            if (dependencies.isTraitDependent()) {
+                kinds.add(InventoryChange.Kind.TRAIT);
+            }
+            if (dependencies.isPluginConfigurationDependent()) {
+                kinds.add(InventoryChange.Kind.PLUGIN_CONFIGURATION);
+            }
+            if (dependencies.isResourceConfigurationDependent()) {
+                kinds.add(InventoryChange.Kind.RESOURCE_CONFIGURATION);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return result;
+        }
+
+        List<InventoryChange> changes = resourceManager.findInventoryChanges(since, kinds);
+
+        List<Integer> skippedIds = new ArrayList<Integer>();
+        for (Map.Entry<GroupDefinition, GroupDefinitionDependencies> candidate : candidates.entrySet()) {
+            GroupDefinition groupDefinition = candidate.getKey();
+            long groupDefinitionSince = groupDefinition.getLastCalculationTime() - CHANGE_DETECTION_MARGIN;
+            if (candidate.getValue().isAffectedBy(changes, groupDefinitionSince)) {
+                result.add(groupDefinition.getId());
+            } else {
+                skippedIds.add(groupDefinition.getId());
+                monitor.updateSkippedStatistic(groupDefinition.getName());
+            }
+        }
+
+        // persisted, so that the other servers of the cloud and a restarted server skip them too
+        if (!skippedIds.isEmpty()) {
+            Query query = entityManager.createNamedQuery(GroupDefinition.QUERY_UPDATE_SKIP_TIME);
+            query.setParameter("skipTime", now);
+            query.setParameter("ids", skippedIds);
+            query.executeUpdate();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + changes.size() + " inventory changes since " + since + " in "
+                + (System.currentTimeMillis() - now) + " ms, skipping the recalculation of " + skippedIds.size()
+                + " of " + candidates.size() + " group definitions");
+        }
+
+        return result;
+    }
+
     public GroupDefinition getById(int groupDefinitionId) throws GroupDefinitionNotFoundException {
         GroupDefinition groupDefinition = entityManager.find(GroupDefinition.class, groupDefinitionId);
         if (groupDefinition == null) {
@@ -224,6 +364,10 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         attachedGroupDefinition.setName(groupDefinition.getName());
         attachedGroupDefinition.setDescription(groupDefinition.getDescription());
         attachedGroupDefinition.setRecursive(groupDefinition.isRecursive());
+        if (!StringUtils.equals(attachedGroupDefinition.getExpression(), groupDefinition.getExpression())) {
+            // the DynaGroups no longer reflect the expression, incremental recalculation must not skip the definition
+            attachedGroupDefinition.setLastCalculationTime(null);
+        }
         attachedGroupDefinition.setExpression(groupDefinition.getExpression());
         attachedGroupDefinition.setRecalculationInterval(groupDefinition.getRecalculationInterval());
         if (detachFromCannedExpression) {
@@ -308,6 +452,7 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
 
         GroupDefinition groupDefinition = getById(groupDefinitionId);
         groupDefinition.setLastCalculationTime(System.currentTimeMillis()); // we're calculating now
+        groupDefinition.setLastSkipTime(null);
 
         ExpressionEvaluator evaluator = new ExpressionEvaluator();
         for (String expression : groupDefinition.getExpressionAsList()) {
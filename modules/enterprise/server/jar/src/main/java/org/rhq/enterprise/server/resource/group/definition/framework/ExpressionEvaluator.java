@@ -42,6 +42,7 @@ import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.enterprise.server.common.EntityManagerFacadeLocal;
+import org.rhq.enterprise.server.resource.ResourceTextIndex;
 import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.enterprise.server.util.QueryUtility;
 
@@ -80,6 +81,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private Map<String, Object> whereReplacements;
     private Map<String, Class<?>> whereReplacementTypes;
     private Set<String> whereStatics;
+    private List<TextIndexCondition> textIndexConditions;
     private List<String> groupByElements;
     private List<String> memberOfElements;
 
@@ -99,6 +101,8 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
 
     private Map<String, String> resourceExpressions = new TreeMap<String, String>();
 
+    private GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+
     public ExpressionEvaluator() {
         /*
          * used LinkedHashMap for whereConditions on purpose so that the iterator will return them in the same order
@@ -113,6 +117,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         whereReplacements = new HashMap<String, Object>();
         whereReplacementTypes = new HashMap<String, Class<?>>();
         whereStatics = new LinkedHashSet<String>();
+        textIndexConditions = new ArrayList<TextIndexCondition>();
         groupByElements = new ArrayList<String>();
         memberOfElements = new ArrayList<String>();
 
@@ -291,6 +296,14 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         return computedJPQLGroupStatement;
     }
 
+    /**
+     * @return what the membership of the groups computed by this evaluator depends on, as learned from the expressions
+     *         added so far
+     */
+    public GroupDefinitionDependencies getDependencies() {
+        return dependencies;
+    }
+
     private enum ParseContext {
         BEGIN(false), //
         Modifier(false), // includes 'empty', 'not', and 'pivot'
@@ -473,6 +486,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
 
                     validateSubExpressionAgainstPreviouslySeen(groupName, false, true);
                     isMemberOf = true;
+                    dependencies.setAlwaysRecalculated(); // membership changes are not recorded
                     populatePredicateCollections(null, groupName);
 
                 } else if (nextToken.equals("groupby")) {
@@ -562,6 +576,9 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                 } else {
                     parseExpression_resourceContext(value, tokens, nextToken);
                 }
+                if (deepestResourceContext != ParseContext.Resource) {
+                    dependencies.setRelativeContext();
+                }
             } else if ((context == ParseContext.ResourceParent) || (context == ParseContext.ResourceGrandParent)
                 || (context == ParseContext.ResourceGreatGrandParent)
                 || (context == ParseContext.ResourceGreatGreatGrandParent) || (context == ParseContext.ResourceChild)) {
@@ -598,12 +615,14 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     }
                 }
                 addJoinCondition(JoinCondition.AVAILABILITY);
+                dependencies.setAlwaysRecalculated(); // availability changes are not tracked per resource type
                 populatePredicateCollections(JoinCondition.AVAILABILITY.alias + ".availabilityType", type);
             } else if (context == ParseContext.Trait) {
                 // SELECT res.id FROM Resource res JOIN res.schedules sched, sched.definition def, MeasurementDataTrait trait
                 // WHERE def.name = :arg1 AND trait.value = :arg2 AND trait.schedule = sched AND trait.id.timestamp =
                 // (SELECT max(mdt.id.timestamp) FROM MeasurementDataTrait mdt WHERE sched.id = mdt.schedule.id)
                 String traitName = parseTraitName(originalTokens);
+                dependencies.addTraitName(traitName);
                 addJoinCondition(JoinCondition.SCHEDULES);
                 populatePredicateCollections(METRIC_DEF_ALIAS + ".name", "%" + traitName + "%", false, false);
                 populatePredicateCollections(TRAIT_ALIAS + ".value", value);
@@ -620,10 +639,12 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     prefix = "pluginconfiguration";
                     joinCondition = JoinCondition.PLUGIN_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.PLUGIN_CONFIGURATION_DEFINITION;
+                    dependencies.setPluginConfiguration();
                 } else if (subcontext == ParseSubContext.ResourceConfiguration) {
                     prefix = "resourceconfiguration";
                     joinCondition = JoinCondition.RESOURCE_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.RESOURCE_CONFIGURATION_DEFINITION;
+                    dependencies.setResourceConfiguration();
                 } else {
                     throw new InvalidExpressionException("Invalid 'configuration' subexpression: " + subcontext);
                 }
@@ -660,6 +681,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
 
                 String lastArgumentName = getLastArgumentName();
                 String argumentValue = (String) whereReplacements.get(lastArgumentName);
+                addTextIndexCondition(lastArgumentName, argumentValue);
 
                 if (nextToken.equals("startswith")) {
                     argumentValue = QueryUtility.escapeSearchParameter(argumentValue) + "%";
@@ -686,6 +708,54 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         if (context.isExpressionTerminator() == false) {
             throw new InvalidExpressionException("Unexpected termination of expression");
         }
+
+        // an exact match on the type of the resource itself restricts the candidate resources to that type
+        if (comparisonType == ComparisonType.EQUALS && value != null && tokens.length == 3
+            && tokens[0].equals("resource") && tokens[1].equals("type")) {
+            if (tokens[2].equals("plugin")) {
+                dependencies.setResourceTypePlugin(value);
+            } else if (tokens[2].equals("name")) {
+                dependencies.setResourceTypeName(value);
+            }
+        }
+    }
+
+    /*
+     * a substring match on a resource name or a trait value is restricted to the ids found by the text index, if it can
+     * find them when the query is built; this saves the database from matching the LIKE against every resource or
+     * trait value, the LIKE itself is kept
+     */
+    private void addTextIndexCondition(String argumentName, String value) {
+        if (value == null) {
+            return;
+        }
+
+        for (Map.Entry<String, String> whereCondition : whereConditions.entrySet()) {
+            if (whereCondition.getValue().equals(argumentName)) {
+                String predicateName = whereCondition.getKey();
+                if (predicateName.equals(TRAIT_ALIAS + ".value")) {
+                    textIndexConditions.add(new TextIndexCondition(ResourceTextIndex.Field.TRAIT,
+                        JoinCondition.SCHEDULES.alias + ".id", value));
+                } else if ("resource name".equals(resourceExpressions.get(predicateName))) {
+                    String contextToken = predicateName.substring(0, predicateName.length() - ".name".length());
+                    textIndexConditions.add(new TextIndexCondition(ResourceTextIndex.Field.NAME, contextToken
+                        + ".id", value));
+                }
+                return;
+            }
+        }
+    }
+
+    private static class TextIndexCondition {
+        private final ResourceTextIndex.Field field;
+        private final String idPath;
+        private final String value;
+
+        private TextIndexCondition(ResourceTextIndex.Field field, String idPath, String value) {
+            this.field = field;
+            this.idPath = idPath;
+            this.value = value;
+        }
     }
 
     private enum ResourceRelativeContext {
@@ -739,6 +809,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         } else if (nextToken.equals("name")) {
             populatePredicateCollections(getResourceRelativeContextToken() + ".name", value);
         } else if (nextToken.equals("version")) {
+            dependencies.setAlwaysRecalculated(); // version changes made by discovery are not recorded
             populatePredicateCollections(getResourceRelativeContextToken() + ".version", value);
         } else if (nextToken.equals("type")) {
             context = ParseContext.ResourceType;
@@ -842,6 +913,16 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
             return;
         }
 
+        if (!isTestMode) {
+            for (TextIndexCondition condition : textIndexConditions) {
+                String indexCondition = ResourceTextIndex.getSingleton().getCondition(condition.field,
+                    condition.idPath, condition.value);
+                if (indexCondition != null) {
+                    whereStatics.add(indexCondition);
+                }
+            }
+        }
+
         // build the initial query
         String selectExpression = getQuerySelectExpression(false);
 
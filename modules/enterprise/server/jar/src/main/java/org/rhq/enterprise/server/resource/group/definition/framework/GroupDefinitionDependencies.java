@@ -0,0 +1,177 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource.group.definition.framework;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.rhq.enterprise.server.resource.InventoryChange;
+
+/**
+ * The inventory data the DynaGroups of a group definition depend on, as learned by the {@link ExpressionEvaluator}
+ * while it parses the definition's expressions. It tells whether a set of {@link InventoryChange}s may have changed
+ * the membership of the DynaGroups, so that the recalculation of a definition can be skipped when nothing it depends
+ * on has changed.
+ * <p/>
+ * Resource, trait and configuration changes can be found in the database. Availability and group membership changes
+ * are not recorded, and neither are resource version changes, so a definition whose expressions refer to any of them
+ * is always recalculated.
+ *
+ * @author Jay Shaughnessy
+ */
+public class GroupDefinitionDependencies {
+
+    private boolean alwaysRecalculated;
+    private boolean relativeContext;
+    private boolean pluginConfiguration;
+    private boolean resourceConfiguration;
+    private final Set<String> traitNames = new HashSet<String>();
+    private String resourceTypePlugin;
+    private String resourceTypeName;
+
+    void setAlwaysRecalculated() {
+        alwaysRecalculated = true;
+    }
+
+    void setRelativeContext() {
+        relativeContext = true;
+    }
+
+    void setPluginConfiguration() {
+        pluginConfiguration = true;
+    }
+
+    void setResourceConfiguration() {
+        resourceConfiguration = true;
+    }
+
+    void addTraitName(String traitName) {
+        traitNames.add(traitName.toLowerCase());
+    }
+
+    void setResourceTypePlugin(String plugin) {
+        resourceTypePlugin = plugin;
+    }
+
+    void setResourceTypeName(String name) {
+        resourceTypeName = name;
+    }
+
+    /**
+     * @return true if the membership depends on data whose changes are not recorded
+     */
+    public boolean isAlwaysRecalculated() {
+        return alwaysRecalculated;
+    }
+
+    public boolean isPluginConfigurationDependent() {
+        return pluginConfiguration;
+    }
+
+    public boolean isResourceConfigurationDependent() {
+        return resourceConfiguration;
+    }
+
+    public boolean isTraitDependent() {
+        return !traitNames.isEmpty();
+    }
+
+    public Set<String> getTraitNames() {
+        return Collections.unmodifiableSet(traitNames);
+    }
+
+    /**
+     * @return true if a change to a resource of the type may change the membership. Only the resources of the type
+     * named by a 'resource.type.plugin = ' or 'resource.type.name = ' expression can be members, unless an expression
+     * refers to the parent or children of the resources.
+     */
+    public boolean isResourceTypeDependent(String plugin, String name) {
+        if (relativeContext) {
+            return true;
+        }
+        return (null == resourceTypePlugin || resourceTypePlugin.equals(plugin))
+            && (null == resourceTypeName || resourceTypeName.equals(name));
+    }
+
+    /**
+     * @param changes the inventory changes found in the database
+     * @param since the time the DynaGroups were last calculated; only changes made later are considered
+     * @return true if any of the changes may have changed the membership of the DynaGroups
+     */
+    public boolean isAffectedBy(Collection<InventoryChange> changes, long since) {
+        if (alwaysRecalculated) {
+            return true;
+        }
+
+        for (InventoryChange change : changes) {
+            if (change.getTime() <= since || !isResourceTypeDependent(change.getPlugin(), change.getResourceType())) {
+                continue;
+            }
+
+            switch (change.getKind()) {
+            case RESOURCE:
+                return true;
+            case TRAIT:
+                if (isTraitDependent(change.getTraitName())) {
+                    return true;
+                }
+                break;
+            case PLUGIN_CONFIGURATION:
+                if (pluginConfiguration) {
+                    return true;
+                }
+                break;
+            case RESOURCE_CONFIGURATION:
+                if (resourceConfiguration) {
+                    return true;
+                }
+                break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The evaluator matches trait expressions with a LIKE on the measurement definition name, so does this method.
+     */
+    private boolean isTraitDependent(String measurementDefinitionName) {
+        if (null == measurementDefinitionName) {
+            return false;
+        }
+        String name = measurementDefinitionName.toLowerCase();
+        for (String traitName : traitNames) {
+            if (name.contains(traitName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupDefinitionDependencies[alwaysRecalculated=" + alwaysRecalculated + ", relativeContext="
+            + relativeContext + ", pluginConfiguration=" + pluginConfiguration + ", resourceConfiguration="
+            + resourceConfiguration + ", traitNames=" + traitNames + ", resourceTypePlugin=" + resourceTypePlugin
+            + ", resourceTypeName=" + resourceTypeName + "]";
+    }
+}
@@ -66,6 +66,7 @@ public class GroupDefinitionRecalculationThreadMonitor implements GroupDefinitio
         private long dynaGroupCount;
         private long recalculationCount;
         private long successfulCount;
+        private long skippedCount;
         private long minExecutionTime;
         private long maxExecutionTime;
         private long totalEexecutionTime;
@@ -86,12 +87,17 @@ public class GroupDefinitionRecalculationThreadMonitor implements GroupDefinitio
             totalEexecutionTime += executionTime;
         }
 
+        public synchronized void skipped() {
+            skippedCount++;
+        }
+
         public synchronized Map<String, Object> getStatistics() {
             Map<String, Object> stats = new HashMap<String, Object>();
             stats.put("dynaGroupCount", dynaGroupCount);
             stats.put("recalculationCount", recalculationCount);
             stats.put("successfulCount", successfulCount);
             stats.put("failureCount", recalculationCount - successfulCount);
+            stats.put("skippedCount", skippedCount);
             stats.put("minExecutionTime", minExecutionTime);
             stats.put("maxExecutionTime", maxExecutionTime);
             stats.put("avgEexecutionTime", totalEexecutionTime / (double) recalculationCount);
@@ -155,6 +161,12 @@ public class GroupDefinitionRecalculationThreadMonitor implements GroupDefinitio
         stat.update(newDynaGroupCount, success, executionTime);
     }
 
+    public void updateSkippedStatistic(String groupDefinitionName) {
+        statistics.putIfAbsent(groupDefinitionName, new GroupDefinitionRecalculationStat());
+        GroupDefinitionRecalculationStat stat = statistics.get(groupDefinitionName);
+        stat.skipped();
+    }
+
     public Map<String, Map<String, Object>> getStatistics() {
         Map<String, Map<String, Object>> results = new HashMap<String, Map<String, Object>>();
         for (Map.Entry<String, GroupDefinitionRecalculationStat> stat : statistics.entrySet()) {
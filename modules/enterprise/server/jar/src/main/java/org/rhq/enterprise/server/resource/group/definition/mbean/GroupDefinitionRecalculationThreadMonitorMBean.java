@@ -102,4 +102,12 @@ public interface GroupDefinitionRecalculationThreadMonitorMBean {
      */
     void updateStatistic(String groupDefinitionName, int newDynaGroupCount, boolean success, long executionTime);
 
+    /**
+     * Records that the recalculation of the {@link GroupDefinition} with the given name was skipped, because no
+     * inventory change made since its last calculation could have changed its DynaGroups.
+     *
+     * @param groupDefinitionName the name of the {@link GroupDefinition} whose internal statistics will be updated
+     */
+    void updateSkippedStatistic(String groupDefinitionName);
+
 }
\ No newline at end of file
@@ -120,6 +120,7 @@ public class InventorySummaryHandler extends AbstractRestBean implements Invento
 
                     CriteriaQuery<Resource, ResourceCriteria> query =
                         new CriteriaQuery<Resource, ResourceCriteria>(criteria, queryExecutor);
+                    query.setKeysetPaging(true);
 
                     CsvWriter<Resource> csvWriter = new CsvWriter<Resource>();
                     List<String> columns = getDetailsColumns();
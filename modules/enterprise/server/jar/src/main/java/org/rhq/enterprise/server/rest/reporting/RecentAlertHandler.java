@@ -91,6 +91,7 @@ public class RecentAlertHandler extends AbstractRestBean implements RecentAlertL
 
                 CriteriaQuery<Alert, AlertCriteria> query =
                         new CriteriaQuery<Alert, AlertCriteria>(criteria, queryExecutor);
+                query.setKeysetPaging(true);
 
                 CsvWriter<Alert> csvWriter = new CsvWriter<Alert>();
                 csvWriter.setColumns("ctime", "alertDefinition.name", "conditionText", "alertDefinition.priority",
@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.scheduler.jobs;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -28,17 +29,67 @@ import org.quartz.JobExecutionException;
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.operation.bean.ResourceOperationSchedule;
 import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.exception.UnscheduleException;
 import org.rhq.enterprise.server.operation.OperationManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceNotFoundException;
 import org.rhq.enterprise.server.util.LookupUtil;
 
+/**
+ * Deletes the resources marked for asynchronous deletion by the uninventory. The resources are deleted in batches of
+ * {@link #BATCH_SIZE}, each dependent table being purged for the whole batch with one statement in its own short
+ * transaction. The job pauses {@link #BATCH_DELAY} ms between batches, so that other work on the same tables, e.g. the
+ * merge of inventory reports, is not held up for the whole deletion, and logs its progress after each batch. A batch
+ * that cannot be deleted at once is deleted one resource at a time.
+ */
 public class AsyncResourceDeleteJob extends AbstractStatefulJob {
 
+    /**
+     * The number of resources deleted together, at most 1000 as the ids are passed in an IN list.
+     */
+    public static final int BATCH_SIZE;
+
+    /**
+     * The pause, in ms, between two batches.
+     */
+    public static final long BATCH_DELAY;
+
+    static {
+        int batchSize = 200;
+        try {
+            batchSize = Integer.parseInt(System.getProperty("rhq.server.async-resource-delete.batch-size", "200"));
+        } catch (Throwable t) {
+            //
+        }
+        BATCH_SIZE = Math.max(1, Math.min(batchSize, 1000));
+
+        long batchDelay = 250L;
+        try {
+            batchDelay = Long.parseLong(System.getProperty("rhq.server.async-resource-delete.batch-delay", "250"));
+        } catch (Throwable t) {
+            //
+        }
+        BATCH_DELAY = batchDelay;
+    }
+
     private final Log log = LogFactory.getLog(AsyncResourceDeleteJob.class);
 
-    ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
+    private final int batchSize;
+    private final long batchDelay;
+    private ResourceManagerLocal resourceManager;
+
+    public AsyncResourceDeleteJob() {
+        this(BATCH_SIZE, BATCH_DELAY);
+    }
+
+    /**
+     * Lets tests delete in smaller batches without waiting between them.
+     */
+    protected AsyncResourceDeleteJob(int batchSize, long batchDelay) {
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+    }
 
     private class AsyncDeletionStats {
         int deletedSuccessfully = 0;
@@ -53,15 +104,66 @@ public class AsyncResourceDeleteJob extends AbstractStatefulJob {
 
     @Override
     public void executeJobCode(JobExecutionContext arg0) throws JobExecutionException {
-        Subject overlord = LookupUtil.getSubjectManager().getOverlord();
+        resourceManager = getResourceManager();
+        Subject overlord = getSubjectManager().getOverlord();
         List<Integer> toBeRemovedIds = resourceManager.findResourcesMarkedForAsyncDeletion(overlord);
 
         AsyncDeletionStats stats = new AsyncDeletionStats();
-        for (Integer doomedResourceId : toBeRemovedIds) {
+        int total = toBeRemovedIds.size();
+        for (int i = 0; i < total; i += batchSize) {
+            if (i > 0 && batchDelay > 0L) {
+                try {
+                    Thread.sleep(batchDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.info("Async resource deletion interrupted, the remaining resources will be deleted later");
+                    break;
+                }
+            }
+
+            // Lookup a new overlord subject for each batch to ensure the overlord session does not timeout
+            // when a large number of Resources are being deleted.
+            overlord = getSubjectManager().getOverlord();
+            List<Integer> batch = new ArrayList<Integer>(toBeRemovedIds.subList(i, Math.min(i + batchSize, total)));
+            uninventoryResources(overlord, batch, stats);
+
+            int processed = stats.deletedSuccessfully + stats.deletedWithFailure;
+            if (total > batchSize && processed < total) {
+                log.info("Async resource deletion in progress - " + processed + " of " + total
+                    + " resources processed, " + stats.deletedWithFailure + " failed");
+            }
+        }
+
+        if (stats.deletedSuccessfully > 0 || stats.deletedWithFailure > 0) {
+            log.info(stats);
+        }
+    }
+
+    private void uninventoryResources(Subject overlord, List<Integer> doomedResourceIds, AsyncDeletionStats stats) {
+        try {
+            log.debug("Before asynchronous deletion of " + doomedResourceIds.size() + " resources");
+            long startTime = System.currentTimeMillis();
+
+            unscheduleJobs(overlord, doomedResourceIds);
+            if (resourceManager.uninventoryResourcesAsyncWork(overlord, doomedResourceIds)) {
+                stats.deletedSuccessfully += doomedResourceIds.size();
+
+                long endTime = System.currentTimeMillis();
+                log.debug("After asynchronous deletion of " + doomedResourceIds.size() + " resources took ["
+                    + (endTime - startTime) + "]ms");
+
+                stats.deletionTime += (endTime - startTime);
+                return;
+            }
+            log.debug("Bulk asynchronous deletion of resources " + doomedResourceIds + " had errors; "
+                + "deleting them one at a time");
+        } catch (Throwable t) {
+            log.debug("Bulk asynchronous deletion of resources " + doomedResourceIds + " failed; "
+                + "deleting them one at a time - cause: " + ThrowableUtil.getAllMessages(t));
+        }
+
+        for (Integer doomedResourceId : doomedResourceIds) {
             try {
-                // Lookup a new overlord subject for each iteration to ensure the overlord session does not timeout
-                // when a large number of Resources are being deleted.
-                overlord = LookupUtil.getSubjectManager().getOverlord();
                 // do not recurse
                 uninventoryResource(overlord, doomedResourceId, stats, false);
             } catch (Throwable t) {
@@ -77,10 +179,6 @@ public class AsyncResourceDeleteJob extends AbstractStatefulJob {
                 }
             }
         }
-
-        if (stats.deletedSuccessfully > 0 || stats.deletedWithFailure > 0) {
-            log.info(stats);
-        }
     }
 
     // return true if successful
@@ -113,9 +211,22 @@ public class AsyncResourceDeleteJob extends AbstractStatefulJob {
         }
     }
 
+    private void unscheduleJobs(Subject overlord, List<Integer> resourceIds) {
+        // only a few resources have operation schedules, do not look up the schedules of the others
+        List<Integer> scheduledResourceIds = getOperationManager().findResourceIdsWithScheduledOperations(overlord,
+            resourceIds);
+        for (Integer resourceId : scheduledResourceIds) {
+            try {
+                unscheduleJobs(overlord, resourceId);
+            } catch (ResourceNotFoundException e) {
+                // ignore, the resource was already removed, likely in a concurrent invocation of this method
+            }
+        }
+    }
+
     private void unscheduleJobs(Subject overlord, Integer resourceId) throws ResourceNotFoundException {
         log.debug("Unscheduling jobs for resource[id=" + resourceId + "]");
-        OperationManagerLocal operationManager = LookupUtil.getOperationManager();
+        OperationManagerLocal operationManager = getOperationManager();
         try {
             List<ResourceOperationSchedule> schedules = operationManager.findScheduledResourceOperations(overlord,
                 resourceId);
@@ -149,4 +260,16 @@ public class AsyncResourceDeleteJob extends AbstractStatefulJob {
                 + "]; will not attempt to unschedule anything", t);
         }
     }
+
+    protected ResourceManagerLocal getResourceManager() {
+        return LookupUtil.getResourceManager();
+    }
+
+    protected SubjectManagerLocal getSubjectManager() {
+        return LookupUtil.getSubjectManager();
+    }
+
+    protected OperationManagerLocal getOperationManager() {
+        return LookupUtil.getOperationManager();
+    }
 }
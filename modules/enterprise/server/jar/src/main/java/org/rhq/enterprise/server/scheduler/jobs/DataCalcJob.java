@@ -19,8 +19,18 @@
 
 package org.rhq.enterprise.server.scheduler.jobs;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.AsyncResult;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,13 +40,13 @@ import org.quartz.SimpleTrigger;
 
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.enterprise.server.measurement.MeasurementBaselineManagerLocal;
+import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementOOBManagerLocal;
 import org.rhq.enterprise.server.purge.PurgeManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
-import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
-import org.rhq.server.metrics.MetricsServer;
+import org.rhq.server.metrics.aggregation.AggregationManager;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 
 /**
@@ -49,11 +59,30 @@ import org.rhq.server.metrics.domain.AggregateNumericMetric;
  * away to be executed independently.  Moreover, there is really no reason to wait for all of the DB maintenance and
  * unrelated data purge before performing out metric calculations. Also, see [BZ 1125439].
  *
+ * The calculations run as a pipeline. Metrics aggregation runs asynchronously, see
+ * {@link MeasurementDataManagerLocal#calculateAggregates(AggregationManager.OneHourDataListener)}, and streams the one
+ * hour aggregates, batch by batch as they are stored, through a bounded buffer to this job's thread. Meanwhile this job
+ * calculates the baselines, purges the outdated OOBs, and then computes the OOBs of the buffered aggregates while
+ * aggregation is still running. A full buffer holds back aggregation, so the one hour data is never all held in memory
+ * at once. Since baselines are computed from the 1 hr data of the last days, calculating them concurrently with the
+ * aggregation of the last hour makes no meaningful difference. If aggregation aborts, the OOBs of the aggregates not
+ * yet consumed are not computed.
+ *
  * @author Jay Shaughnessy
  */
 public class DataCalcJob extends AbstractStatefulJob {
     private static final Log LOG = LogFactory.getLog(DataCalcJob.class);
 
+    /**
+     * The number of one hour aggregate batches that can be buffered between aggregation and OOB computation.
+     */
+    private static final int BUFFER_SIZE = Integer.getInteger("rhq.server.data-calc.buffer-size", 200);
+
+    /**
+     * The maximum number of one hour aggregates handed to a single OOB computation call.
+     */
+    private static final int OOB_CHUNK_SIZE = 2000;
+
     /**
      * Schedules a calc job to trigger right now. This will not block - it schedules the job to trigger but immediately
      * returns. This method will ensure that no two data calc jobs will execute at the same time (Quartz will ensure
@@ -79,32 +108,47 @@ public class DataCalcJob extends AbstractStatefulJob {
         long timeStart = System.currentTimeMillis();
         LOG.info("Data Calc Job STARTING");
 
+        OneHourDataPipe pipe = new OneHourDataPipe(BUFFER_SIZE);
+        Future<Boolean> aggregation = startMeasurementDataCompression(pipe);
         try {
-            Iterable<AggregateNumericMetric> oneHourAggregates = compressMeasurementData();
             calculateAutoBaselines(LookupUtil.getMeasurementBaselineManager());
-            calculateOOBs(oneHourAggregates);
+            calculateOOBs(pipe, aggregation);
         } catch (Exception e) {
             LOG.error("Data Calc Job FAILED TO COMPLETE. Cause: " + e);
         } finally {
+            // if the OOB computation failed, stop buffering so that aggregation can run to completion
+            pipe.close();
+            waitForMeasurementDataCompression(aggregation, pipe);
             long duration = System.currentTimeMillis() - timeStart;
-            LOG.info("Data Calc Job FINISHED [" + duration + "]ms");
+            LOG.info("Data Calc Job FINISHED [" + duration + "]ms " + pipe);
         }
     }
 
-    private Iterable<AggregateNumericMetric> compressMeasurementData() {
-        long timeStart = System.currentTimeMillis();
-        LOG.info("Measurement data compression starting at " + new Date(timeStart));
-
+    private Future<Boolean> startMeasurementDataCompression(OneHourDataPipe pipe) {
+        LOG.info("Measurement data compression starting at " + new Date());
         try {
-            StorageClientManager storageClientManager = LookupUtil.getStorageClientManager();
-            MetricsServer metricsServer = storageClientManager.getMetricsServer();
-            return metricsServer.calculateAggregates();
+            return LookupUtil.getMeasurementDataManager().calculateAggregates(pipe);
         } catch (Exception e) {
             LOG.error("Failed to compress measurement data. Cause: " + e, e);
-            return Collections.emptyList();
+            return new AsyncResult<Boolean>(false);
+        }
+    }
+
+    private void waitForMeasurementDataCompression(Future<Boolean> aggregation, OneHourDataPipe pipe) {
+        long timeStart = System.currentTimeMillis();
+        try {
+            // the job must not be run again while aggregation is still running
+            aggregation.get();
+        } catch (InterruptedException e) {
+            LOG.info("Interrupted while waiting for metrics aggregation to finish, aggregation will be aborted");
+            aggregation.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Failed to compress measurement data. Cause: " + e.getCause(), e.getCause());
         } finally {
             long duration = System.currentTimeMillis() - timeStart;
-            LOG.info("Measurement data compression completed in [" + duration + "]ms");
+            LOG.info("Measurement data compression " + (isAborted(aggregation) ? "aborted" : "completed") + ", ["
+                + pipe.getProducedCount() + "] one hour aggregates streamed, waited [" + duration + "]ms for it");
         }
     }
 
@@ -123,10 +167,10 @@ public class DataCalcJob extends AbstractStatefulJob {
     }
 
     /**
-     * Calculate the OOB values for the last hour.
+     * Calculate the OOB values for the last hour, consuming the one hour aggregates as aggregation streams them.
      * This also removes out-dated ones due to recalculated baselines.
      */
-    public void calculateOOBs(Iterable<AggregateNumericMetric> oneHourAggregates) {
+    private void calculateOOBs(OneHourDataPipe pipe, Future<Boolean> aggregation) throws InterruptedException {
         LOG.info("Auto-calculation of OOBs starting");
 
         Subject overlord = LookupUtil.getSubjectManager().getOverlord();
@@ -147,10 +191,175 @@ public class DataCalcJob extends AbstractStatefulJob {
         systemManager.vacuum(overlord, new String[] { "RHQ_MEASUREMENT_OOB" });
 
         // Now calculate the fresh OOBs
-        manager.computeOOBsForLastHour(overlord, oneHourAggregates);
+        int aggregates = computeOOBs(overlord, manager, pipe, aggregation);
 
         long duration = System.currentTimeMillis() - timeStart;
 
-        LOG.info("Auto-calculation of OOBs completed in [" + duration + "]ms");
+        LOG.info("Auto-calculation of OOBs completed in [" + duration + "]ms, from [" + aggregates
+            + "] one hour aggregates (" + perSecond(aggregates, duration) + "/s)");
+    }
+
+    /**
+     * Computes the OOBs of the one hour aggregates taken from the pipe, until aggregation is done. Once aggregation has
+     * aborted, the aggregates still buffered are dropped.
+     *
+     * @return the number of one hour aggregates whose OOBs were computed
+     */
+    static int computeOOBs(Subject overlord, MeasurementOOBManagerLocal manager, OneHourDataPipe pipe,
+        Future<Boolean> aggregation) throws InterruptedException {
+        int aggregates = 0;
+        int oobs = 0;
+        List<AggregateNumericMetric> chunk;
+        while ((chunk = pipe.take(OOB_CHUNK_SIZE, aggregation)) != null) {
+            if (isAborted(aggregation)) {
+                LOG.warn("Metrics aggregation aborted, skipping the OOB computation of the remaining one hour "
+                    + "aggregates");
+                break;
+            }
+            oobs += manager.computeOOBsForLastHour(overlord, chunk);
+            aggregates += chunk.size();
+        }
+        LOG.debug("Computed [" + oobs + "] OOBs from [" + aggregates + "] one hour aggregates");
+        return aggregates;
+    }
+
+    /**
+     * @return true if aggregation is done and did not finish
+     */
+    static boolean isAborted(Future<Boolean> aggregation) {
+        if (!aggregation.isDone()) {
+            return false;
+        }
+        try {
+            return aggregation.isCancelled() || !aggregation.get();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static long perSecond(long count, long millis) {
+        return (millis > 0L) ? ((count * 1000L) / millis) : count;
+    }
+
+    /**
+     * The bounded buffer through which metrics aggregation streams the one hour aggregates to the OOB computation. It
+     * also keeps the statistics of the pipeline: the number of aggregates that went through, the maximum buffered
+     * batches, and the lag between a batch being stored and its OOBs being computed.
+     */
+    static class OneHourDataPipe implements AggregationManager.OneHourDataListener {
+
+        private static final long OFFER_TIMEOUT_MILLIS = 1000L;
+
+        private static final long POLL_TIMEOUT_MILLIS = 1000L;
+
+        private final int capacity;
+        private final BlockingQueue<Batch> queue;
+        private volatile boolean closed;
+
+        private final AtomicLong produced = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private long consumed;
+        private long totalLag;
+        private long maxLag;
+
+        OneHourDataPipe(int capacity) {
+            this.capacity = capacity;
+            this.queue = new LinkedBlockingQueue<Batch>(capacity);
+        }
+
+        /**
+         * Called from the aggregation worker threads. Blocks while the buffer is full, unless the consumer has gone
+         * away, in which case the batch is dropped.
+         */
+        @Override
+        public void onOneHourData(List<AggregateNumericMetric> metrics) {
+            if (metrics.isEmpty()) {
+                return;
+            }
+            produced.addAndGet(metrics.size());
+            put(new Batch(metrics));
+        }
+
+        /**
+         * Called by the consumer when it stops taking batches.
+         */
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        /**
+         * Waits for at least one batch of aggregates, and returns it along with whatever further batches are already
+         * buffered, up to <code>max</code> aggregates.
+         *
+         * @param aggregation completes once aggregation has handed over its last batch
+         * @return the aggregates, or null once aggregation is done and all batches have been taken
+         */
+        List<AggregateNumericMetric> take(int max, Future<Boolean> aggregation) throws InterruptedException {
+            Batch batch = queue.poll();
+            while (batch == null) {
+                if (aggregation.isDone()) {
+                    // a batch may have been put right before aggregation completed
+                    batch = queue.poll();
+                    if (batch == null) {
+                        return null;
+                    }
+                } else {
+                    batch = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            List<AggregateNumericMetric> result = new ArrayList<AggregateNumericMetric>(max);
+            long now = System.currentTimeMillis();
+            add(result, batch, now);
+            while (result.size() < max && (batch = queue.poll()) != null) {
+                add(result, batch, now);
+            }
+            return result;
+        }
+
+        long getProducedCount() {
+            return produced.get();
+        }
+
+        private void add(List<AggregateNumericMetric> result, Batch batch, long now) {
+            result.addAll(batch.metrics);
+            consumed += batch.metrics.size();
+            long lag = now - batch.timestamp;
+            totalLag += lag * batch.metrics.size();
+            maxLag = Math.max(maxLag, lag);
+        }
+
+        private void put(Batch batch) {
+            try {
+                while (!closed) {
+                    if (queue.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        int depth = queue.size();
+                        int max = maxDepth.get();
+                        while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+                            max = maxDepth.get();
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "[aggregates=" + produced.get() + ", oobComputed=" + consumed + ", maxBuffered=" + maxDepth.get()
+                + "/" + capacity + " batches, maxLag=" + maxLag + "ms, avgLag="
+                + ((consumed > 0L) ? (totalLag / consumed) : 0L) + "ms]";
+        }
+
+        private static class Batch {
+            private final List<AggregateNumericMetric> metrics;
+            private final long timestamp = System.currentTimeMillis();
+
+            Batch(List<AggregateNumericMetric> metrics) {
+                this.metrics = metrics;
+            }
+        }
     }
 }
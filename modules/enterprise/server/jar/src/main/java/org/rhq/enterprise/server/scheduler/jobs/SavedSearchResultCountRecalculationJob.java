@@ -18,7 +18,10 @@
  */
 package org.rhq.enterprise.server.scheduler.jobs;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,20 +36,47 @@ import org.rhq.core.domain.criteria.Criteria.Restriction;
 import org.rhq.core.domain.search.SavedSearch;
 import org.rhq.core.domain.search.SearchSubsystem;
 import org.rhq.core.domain.util.PageList;
+import org.rhq.enterprise.server.resource.InventoryChange;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.search.SavedSearchDependencies;
 import org.rhq.enterprise.server.search.SavedSearchManagerLocal;
+import org.rhq.enterprise.server.search.execution.SearchTranslationManager;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
- * 
- * 
+ * Recomputes the result count of the saved searches whose count is older than five minutes. A count is only
+ * recomputed if the inventory changes made since it was last computed may have changed it, see
+ * {@link SavedSearchDependencies}, or if it is older than {@link #FULL_RECOMPUTATION_INTERVAL}.
+ *
  * @author Joseph Marques
  */
 public class SavedSearchResultCountRecalculationJob extends AbstractStatefulJob {
 
     private final static Log LOG = LogFactory.getLog(SavedSearchResultCountRecalculationJob.class);
 
+    /**
+     * The maximum age, in ms, of a result count whose recomputation may be skipped. Set it to 0 to always recompute.
+     */
+    private static final long FULL_RECOMPUTATION_INTERVAL;
+
+    static {
+        long fullRecomputationInterval = 60L * 60L * 1000L;
+        try {
+            fullRecomputationInterval = Long.parseLong(System.getProperty(
+                "rhq.server.saved-search.full-recomputation-interval", String.valueOf(fullRecomputationInterval)));
+        } catch (Throwable t) {
+            //
+        }
+        FULL_RECOMPUTATION_INTERVAL = fullRecomputationInterval;
+    }
+
+    /**
+     * Inventory changes are looked for this long before the last computation, to allow for transactions still in
+     * flight at that time and for clock differences between servers and agents.
+     */
+    private static final long CHANGE_DETECTION_MARGIN = 10L * 60L * 1000L;
+
     private SavedSearchManagerLocal savedSearchManager = LookupUtil.getSavedSearchManager();
     private ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
     private ResourceGroupManagerLocal resourceGroupManager = LookupUtil.getResourceGroupManager();
@@ -55,7 +85,7 @@ public class SavedSearchResultCountRecalculationJob extends AbstractStatefulJob
 
     @Override
     public void executeJobCode(JobExecutionContext context) throws JobExecutionException {
-        List<SavedSearch> staleSavedSearches = getSavedSearchesNeedingRecomputation();
+        List<SavedSearch> staleSavedSearches = getAffectedSavedSearches(getSavedSearchesNeedingRecomputation());
 
         int errors = 0;
         int updated = 0;
@@ -104,6 +134,72 @@ public class SavedSearchResultCountRecalculationJob extends AbstractStatefulJob
         }
     }
 
+    /**
+     * @return the saved searches whose result count may have been changed by the inventory changes made since it was
+     * last computed. The others are skipped, they will be checked again by the next run.
+     */
+    private List<SavedSearch> getAffectedSavedSearches(List<SavedSearch> savedSearches) {
+        List<SavedSearch> result = new ArrayList<SavedSearch>();
+        List<SavedSearch> candidates = new ArrayList<SavedSearch>();
+        List<SavedSearchDependencies> candidateDependencies = new ArrayList<SavedSearchDependencies>();
+        long now = System.currentTimeMillis();
+        long since = now;
+        Set<InventoryChange.Kind> kinds = EnumSet.noneOf(InventoryChange.Kind.class);
+
+        for (SavedSearch next : savedSearches) {
+            if (next.getLastComputeTime() <= 0L || now - next.getLastComputeTime() >= FULL_RECOMPUTATION_INTERVAL) {
+                result.add(next);
+                continue;
+            }
+
+            SavedSearchDependencies dependencies;
+            try {
+                SearchTranslationManager searchManager = new SearchTranslationManager("resource", overlord,
+                    next.getSearchSubsystem());
+                searchManager.setExpression(next.getPattern());
+                dependencies = SavedSearchDependencies.get(next.getSearchSubsystem(), searchManager.getTerms());
+            } catch (Throwable t) {
+                // let the recomputation report it
+                result.add(next);
+                continue;
+            }
+
+            if (dependencies.isAlwaysRecomputed()) {
+                result.add(next);
+                continue;
+            }
+
+            candidates.add(next);
+            candidateDependencies.add(dependencies);
+            since = Math.min(since, next.getLastComputeTime() - CHANGE_DETECTION_MARGIN);
+            kinds.addAll(dependencies.getChanges());
+        }
+
+        if (candidates.isEmpty()) {
+            return result;
+        }
+
+        List<InventoryChange> changes = resourceManager.findInventoryChanges(since, kinds);
+
+        int skipped = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            SavedSearch next = candidates.get(i);
+            long nextSince = next.getLastComputeTime() - CHANGE_DETECTION_MARGIN;
+            if (candidateDependencies.get(i).isAffectedBy(changes, nextSince)) {
+                result.add(next);
+            } else {
+                skipped++;
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Found " + changes.size() + " inventory changes since " + since + ", skipping the "
+                + "recomputation of " + skipped + " of " + savedSearches.size() + " saved searches");
+        }
+
+        return result;
+    }
+
     private boolean processResults(SavedSearch next, long calculatedSize) {
         boolean countChanged = false;
 
@@ -0,0 +1,123 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.search;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.rhq.core.domain.search.SearchSubsystem;
+import org.rhq.enterprise.server.resource.InventoryChange;
+import org.rhq.enterprise.server.resource.InventoryChange.Kind;
+import org.rhq.enterprise.server.search.translation.antlr.RHQLAdvancedTerm;
+
+/**
+ * The kinds of inventory changes the result count of a saved search depends on, as found in the terms of its pattern.
+ * It tells whether the count may have changed since it was last computed, so that its recomputation can be skipped
+ * when nothing it depends on has changed.
+ * <p/>
+ * Only resource searches are analyzed. Availability changes, alerts relative to the current time, group membership
+ * changes and group deletions are not recorded, so group searches and resource searches on availability or alerts are
+ * always recomputed.
+ *
+ * @author Joseph Marques
+ */
+public class SavedSearchDependencies {
+
+    private boolean alwaysRecomputed;
+    private final Set<Kind> changes = EnumSet.noneOf(Kind.class);
+
+    private SavedSearchDependencies() {
+    }
+
+    /**
+     * @param terms the terms of the saved search's pattern
+     */
+    public static SavedSearchDependencies get(SearchSubsystem searchSubsystem, List<RHQLAdvancedTerm> terms) {
+        SavedSearchDependencies result = new SavedSearchDependencies();
+        if (searchSubsystem != SearchSubsystem.RESOURCE) {
+            result.alwaysRecomputed = true;
+            return result;
+        }
+
+        for (RHQLAdvancedTerm term : terms) {
+            String path = term.getPath();
+            if (term.getLineage() != null || path == null) {
+                result.alwaysRecomputed = true;
+            } else if (path.equals("category") || path.equals("type") || path.equals("plugin")
+                || path.equals("name") || path.equals("version")) {
+                result.changes.add(Kind.RESOURCE);
+            } else if (path.equals("trait")) {
+                result.changes.add(Kind.RESOURCE);
+                result.changes.add(Kind.TRAIT);
+            } else if (path.equals("connection")) {
+                result.changes.add(Kind.RESOURCE);
+                result.changes.add(Kind.PLUGIN_CONFIGURATION);
+            } else if (path.equals("configuration")) {
+                result.changes.add(Kind.RESOURCE);
+                result.changes.add(Kind.RESOURCE_CONFIGURATION);
+            } else {
+                // availability, alerts and whatever is added later
+                result.alwaysRecomputed = true;
+            }
+        }
+
+        // an empty pattern counts all resources
+        result.changes.add(Kind.RESOURCE);
+        return result;
+    }
+
+    /**
+     * @return true if the result count depends on data whose changes are not recorded
+     */
+    public boolean isAlwaysRecomputed() {
+        return alwaysRecomputed;
+    }
+
+    public Set<Kind> getChanges() {
+        return Collections.unmodifiableSet(changes);
+    }
+
+    /**
+     * @param changes the inventory changes found in the database
+     * @param since the time the result count was last computed; only changes made later are considered
+     * @return true if any of the changes may have changed the result count
+     */
+    public boolean isAffectedBy(Collection<InventoryChange> changes, long since) {
+        if (alwaysRecomputed) {
+            return true;
+        }
+
+        for (InventoryChange change : changes) {
+            if (change.getTime() > since && this.changes.contains(change.getKind())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "SavedSearchDependencies[alwaysRecomputed=" + alwaysRecomputed + ", changes=" + changes + "]";
+    }
+}
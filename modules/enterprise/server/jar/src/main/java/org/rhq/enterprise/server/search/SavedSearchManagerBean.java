@@ -66,6 +66,11 @@ public class SavedSearchManagerBean implements SavedSearchManagerLocal /* local
         if (null == oldSavedSearch || oldSavedSearch.equals(savedSearch)) {
             return false;
         } else {
+            if (!oldSavedSearch.getPattern().equals(savedSearch.getPattern())
+                || oldSavedSearch.getSearchSubsystem() != savedSearch.getSearchSubsystem()) {
+                // the result count is no longer that of the pattern, make sure it gets recomputed
+                savedSearch.setLastComputeTime(0);
+            }
             entityManager.merge(savedSearch);
             return true;
         }
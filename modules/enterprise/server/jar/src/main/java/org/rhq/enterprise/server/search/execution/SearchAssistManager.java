@@ -399,13 +399,32 @@ public class SearchAssistManager {
             caretPos = expression.length();
         }
 
-        List<SearchSuggestion> simple = getSimpleSuggestions(expression, caretPos, tab);
-        List<SearchSuggestion> advanced = getAdvancedSuggestions(expression, caretPos, tab);
+        /*
+         * the simple and advanced suggestions are cached for a little while, since the same expression is asked for
+         * again and again while the user edits it; saved searches are always looked up, so that the user's changes
+         * to them are seen at once
+         */
+        List<SearchSuggestion> cached = null;
+        SearchCache cache = SearchCache.getSingleton();
+        long now = System.currentTimeMillis();
+        if (subject != null) {
+            cached = cache.getSuggestions(subject.getId(), searchSubsystem, tab, expression, caretPos, now);
+        }
+        if (cached != null) {
+            results.addAll(cached);
+        } else {
+            List<SearchSuggestion> simple = getSimpleSuggestions(expression, caretPos, tab);
+            List<SearchSuggestion> advanced = getAdvancedSuggestions(expression, caretPos, tab);
+            results.addAll(simple);
+            results.addAll(advanced);
+            if (subject != null) {
+                cache.putSuggestions(subject.getId(), searchSubsystem, tab, expression, caretPos, results, now);
+            }
+        }
+
         List<SearchSuggestion> userSavedSearches = getUserSavedSearchSuggestions(expression);
         //List<SearchSuggestion> globalSavedSearches = getGlobalSavedSearchSuggestions(expression);
 
-        results.addAll(simple);
-        results.addAll(advanced);
         results.addAll(userSavedSearches);
         //results.addAll(globalSavedSearches);
 
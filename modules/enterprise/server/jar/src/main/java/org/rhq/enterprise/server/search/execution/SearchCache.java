@@ -0,0 +1,175 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.search.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.rhq.core.domain.search.SearchSubsystem;
+import org.rhq.core.domain.search.SearchSuggestion;
+
+/**
+ * An in-memory cache of the work done for the search bar, so that neither the same expression is parsed and translated
+ * twice nor the same suggestions are looked up twice in a row.
+ * <p/>
+ * The JPQL translation of an expression only depends on the search subsystem, the alias, the expression and, for a
+ * subject that is not an inventory manager, the subject. It is kept until the cache is full. Translations embedding
+ * the current time, e.g. of the 'alerts' context, are not cacheable, see
+ * {@link org.rhq.enterprise.server.search.translation.jpql.SearchFragment#isCacheable()}.
+ * <p/>
+ * The suggestions for an expression depend on the inventory and on the subject's permissions, so they are kept per
+ * subject for {@link #SUGGESTION_MAX_AGE} ms only. Set it to 0 to disable the caching of suggestions.
+ * <p/>
+ * When either part of the cache holds {@link #MAX_ENTRIES} entries it is cleared.
+ *
+ * @author Joseph Marques
+ */
+public class SearchCache {
+
+    /**
+     * The time, in ms, the suggestions for an expression are kept.
+     */
+    public static final long SUGGESTION_MAX_AGE;
+
+    /**
+     * The maximum number of translations, and of suggestion lists, kept.
+     */
+    public static final int MAX_ENTRIES;
+
+    static {
+        long suggestionMaxAge = 30000L;
+        try {
+            suggestionMaxAge = Long.parseLong(System.getProperty("rhq.server.search-cache.suggestion-max-age",
+                "30000"));
+        } catch (Throwable t) {
+            //
+        }
+        SUGGESTION_MAX_AGE = suggestionMaxAge;
+
+        int maxEntries = 10000;
+        try {
+            maxEntries = Integer.parseInt(System.getProperty("rhq.server.search-cache.max-entries", "10000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_ENTRIES = maxEntries;
+    }
+
+    private static final SearchCache singleton = new SearchCache(SUGGESTION_MAX_AGE, MAX_ENTRIES);
+
+    private final long suggestionMaxAge;
+    private final int maxEntries;
+    private final ConcurrentMap<String, String> translations = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, Suggestions> suggestions = new ConcurrentHashMap<String, Suggestions>();
+
+    SearchCache(long suggestionMaxAge, int maxEntries) {
+        this.suggestionMaxAge = suggestionMaxAge;
+        this.maxEntries = maxEntries;
+    }
+
+    public static SearchCache getSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @param subjectId the id of the subject the translation is made for, or 0 if the translation does not depend on
+     * the subject
+     * @return the cached JPQL where-fragment of the expression, or null if it is not cached
+     */
+    public String getTranslation(SearchSubsystem context, String alias, int subjectId, String expression) {
+        return translations.get(getTranslationKey(context, alias, subjectId, expression));
+    }
+
+    public void putTranslation(SearchSubsystem context, String alias, int subjectId, String expression,
+        String jpqlFragment) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (translations.size() >= maxEntries) {
+            translations.clear();
+        }
+        translations.put(getTranslationKey(context, alias, subjectId, expression), jpqlFragment);
+    }
+
+    /**
+     * @return the cached suggestions for the expression, or null if they are not cached or have expired. The returned
+     * list must not be modified.
+     */
+    public List<SearchSuggestion> getSuggestions(int subjectId, SearchSubsystem context, String tab,
+        String expression, int caretPos, long now) {
+        if (suggestionMaxAge <= 0L) {
+            return null;
+        }
+
+        String key = getSuggestionKey(subjectId, context, tab, expression, caretPos);
+        Suggestions cached = suggestions.get(key);
+        if (null == cached) {
+            return null;
+        }
+        if ((now - cached.loadTime) >= suggestionMaxAge) {
+            suggestions.remove(key, cached);
+            return null;
+        }
+        return cached.suggestions;
+    }
+
+    public void putSuggestions(int subjectId, SearchSubsystem context, String tab, String expression, int caretPos,
+        List<SearchSuggestion> results, long now) {
+        if (suggestionMaxAge <= 0L || maxEntries <= 0) {
+            return;
+        }
+        if (suggestions.size() >= maxEntries) {
+            suggestions.clear();
+        }
+        List<SearchSuggestion> copy = Collections.unmodifiableList(new ArrayList<SearchSuggestion>(results));
+        suggestions.put(getSuggestionKey(subjectId, context, tab, expression, caretPos), new Suggestions(copy, now));
+    }
+
+    public void clear() {
+        translations.clear();
+        suggestions.clear();
+    }
+
+    public int size() {
+        return translations.size() + suggestions.size();
+    }
+
+    private static String getTranslationKey(SearchSubsystem context, String alias, int subjectId, String expression) {
+        return context.name() + ':' + alias + ':' + subjectId + ':' + expression;
+    }
+
+    private static String getSuggestionKey(int subjectId, SearchSubsystem context, String tab, String expression,
+        int caretPos) {
+        return subjectId + ":" + context.name() + ':' + tab + ':' + caretPos + ':' + expression;
+    }
+
+    private static class Suggestions {
+        private final List<SearchSuggestion> suggestions;
+        private final long loadTime;
+
+        private Suggestions(List<SearchSuggestion> suggestions, long loadTime) {
+            this.suggestions = suggestions;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -44,6 +44,9 @@ import org.rhq.enterprise.server.search.translation.antlr.RHQLTreeOperator;
 import org.rhq.enterprise.server.search.translation.jpql.SearchFragment;
 
 /**
+ * Translates a search expression into JPQL. Translations are kept in the {@link SearchCache}, so an expression is only
+ * parsed and translated the first time it is searched for.
+ *
  * @author Joseph Marques
  */
 public class SearchTranslationManager {
@@ -62,6 +65,9 @@ public class SearchTranslationManager {
 
     private Subject subject;
 
+    // false once a fragment of the current translation turned out not to be cacheable
+    private boolean cacheable;
+
     public SearchTranslationManager(String alias, Subject subject, SearchSubsystem context) {
         this.subject = subject;
         this.context = context;
@@ -79,7 +85,9 @@ public class SearchTranslationManager {
 
         this.translator = SearchTranslatorFactory.getTranslator(subject, this.context);
         this.assistant = SearchAssistantFactory.getAssistant(subject, this.context);
+    }
 
+    private void createParser() {
         ANTLRStringStream input = new ANTLRStringStream(this.expression); // Create an input character stream from standard in
         this.lexer = new RHQLLexer(input); // Create an echoLexer that feeds from that stream
 
@@ -99,15 +107,67 @@ public class SearchTranslationManager {
     }
 
     public String getJPQLWhereFragment() throws Exception {
+        SearchCache cache = SearchCache.getSingleton();
+        int cacheSubjectId = translator.requiresAuthorizationFragment() ? subject.getId() : 0;
+        String fragment = cache.getTranslation(context, alias, cacheSubjectId, expression);
+        if (fragment != null) {
+            return fragment;
+        }
+
+        CommonTree searchExpressionTree = parse();
+        PrintUtils.print(searchExpressionTree, "");
+        cacheable = true;
+        fragment = generateJPQL(searchExpressionTree);
+        if (fragment != null && cacheable) {
+            cache.putTranslation(context, alias, cacheSubjectId, expression, fragment);
+        }
+        return fragment;
+    }
+
+    /**
+     * @return the terms of the expression, simple terms being turned into advanced terms of the primary simple
+     * context, in the order they appear in the expression
+     */
+    public List<RHQLAdvancedTerm> getTerms() throws Exception {
+        List<RHQLAdvancedTerm> terms = new ArrayList<RHQLAdvancedTerm>();
+        collectTerms(parse(), terms);
+        return terms;
+    }
+
+    private CommonTree parse() throws Exception {
+        createParser();
         RHQLParser.searchExpression_return searchAST = parser.searchExpression();
 
         //System.out.println("Search was: " + expression);
-        CommonTree searchExpressionTree = (CommonTree) searchAST.getTree();
         //System.out.println("Errors found: " + adaptor.getErrorMessages());
         //System.out.println("Tree was:");
-        PrintUtils.print(searchExpressionTree, "");
-        String fragment = generateJPQL(searchExpressionTree);
-        return fragment;
+        return (CommonTree) searchAST.getTree();
+    }
+
+    private void collectTerms(CommonTree tree, List<RHQLAdvancedTerm> terms) {
+        Token token = tree.getToken();
+        if (token == null) {
+            return;
+        }
+
+        if (getTreeOperatorFromTokenType(token.getType()) != null) {
+            for (int childIndex = 0; childIndex < tree.getChildCount(); childIndex++) {
+                collectTerms((CommonTree) tree.getChild(childIndex), terms);
+            }
+        } else {
+            for (RHQLTerm nextTerm : getFromAST(tree)) {
+                terms.add(toAdvancedTerm(nextTerm));
+            }
+        }
+    }
+
+    private RHQLAdvancedTerm toAdvancedTerm(RHQLTerm term) {
+        if (term instanceof RHQLSimpleTerm) {
+            RHQLSimpleTerm simpleTerm = (RHQLSimpleTerm) term;
+            return new RHQLAdvancedTerm(null, assistant.getPrimarySimpleContext(), null,
+                RHQLComparisonOperator.EQUALS, simpleTerm.getValue());
+        }
+        return (RHQLAdvancedTerm) term;
     }
 
     private String generateJPQL(CommonTree tree) {
@@ -138,16 +198,12 @@ public class SearchTranslationManager {
                     first = false;
                 }
 
-                RHQLAdvancedTerm advancedTerm = null;
-                if (nextTerm instanceof RHQLSimpleTerm) {
-                    RHQLSimpleTerm simpleTerm = (RHQLSimpleTerm) nextTerm;
-                    advancedTerm = new RHQLAdvancedTerm(null, assistant.getPrimarySimpleContext(), null,
-                        RHQLComparisonOperator.EQUALS, simpleTerm.getValue());
-                } else {
-                    advancedTerm = (RHQLAdvancedTerm) nextTerm;
-                }
+                RHQLAdvancedTerm advancedTerm = toAdvancedTerm(nextTerm);
 
                 SearchFragment searchFragment = translator.getSearchFragment(alias, advancedTerm);
+                if (searchFragment.isCacheable() == false) {
+                    cacheable = false;
+                }
                 String jpqlFragment = searchFragment.getJPQLFragment();
                 if (searchFragment.getType() == SearchFragment.Type.PRIMARY_KEY_SUBQUERY) {
                     jpqlFragment = " " + alias + ".id IN (" + jpqlFragment + ")";
@@ -27,6 +27,7 @@ import org.rhq.core.domain.measurement.AvailabilityType;
 import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.search.assist.AlertSearchAssistParam;
+import org.rhq.enterprise.server.resource.ResourceTextIndex;
 import org.rhq.enterprise.server.search.SearchExpressionException;
 import org.rhq.enterprise.server.search.translation.antlr.RHQLAdvancedTerm;
 import org.rhq.enterprise.server.search.translation.antlr.RHQLComparisonOperator;
@@ -66,8 +67,14 @@ public class ResourceSearchTranslator extends AbstractSearchTranslator {
                 getJPQLForString(alias + ".resourceType.plugin", op, filter));
 
         } else if (path.equals("name")) {
+            String fragment = getJPQLForString(alias + ".name", op, filter);
+            String nameCondition = getNameCondition(alias, op, filter);
+            if (nameCondition == null) {
+                return new SearchFragment(SearchFragment.Type.WHERE_CLAUSE, fragment);
+            }
+            // the condition built from the index changes with the inventory, don't cache it
             return new SearchFragment(SearchFragment.Type.WHERE_CLAUSE, //
-                getJPQLForString(alias + ".name", op, filter));
+                "(" + nameCondition + " AND " + fragment + ")", false);
 
         } else if (path.equals("version")) {
             return new SearchFragment(SearchFragment.Type.WHERE_CLAUSE, //
@@ -84,7 +91,7 @@ public class ResourceSearchTranslator extends AbstractSearchTranslator {
                     + (filter.equalsIgnoreCase("any") ? "" : "   and "
                         + getJPQLForEnum("alertDef.priority", op, filter, AlertPriority.class, false)) //
                     + " GROUP BY res.id " //
-                    + "HAVING COUNT(alert) > 0 ");
+                    + "HAVING COUNT(alert) > 0 ", false);
 
         } else if (path.equals("trait")) {
             return new SearchFragment( //
@@ -130,6 +137,26 @@ public class ResourceSearchTranslator extends AbstractSearchTranslator {
         }
     }
 
+    /**
+     * @return a condition keeping the resources whose name may match, or null if the {@link ResourceTextIndex} cannot
+     * tell them
+     */
+    private String getNameCondition(String alias, RHQLComparisonOperator op, String filter) {
+        if ((op != RHQLComparisonOperator.EQUALS && op != RHQLComparisonOperator.EQUALS_STRICT) || filter == null) {
+            return null;
+        }
+
+        // any match, whether a prefix, a suffix or an exact one, contains the value
+        String value = filter;
+        if (value.startsWith("^")) {
+            value = value.substring(1);
+        }
+        if (value.endsWith("$")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return ResourceTextIndex.getSingleton().getCondition(ResourceTextIndex.Field.NAME, alias + ".id", value);
+    }
+
     private String getConfigAuthzFragment() {
         return "res.id IN " //
             + "(SELECT ires.id " //
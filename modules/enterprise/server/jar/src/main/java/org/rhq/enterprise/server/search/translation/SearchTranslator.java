@@ -27,4 +27,9 @@ import org.rhq.enterprise.server.search.translation.jpql.SearchFragment;
 public interface SearchTranslator {
 
     public SearchFragment getSearchFragment(String alias, RHQLAdvancedTerm term);
+
+    /**
+     * @return true if the fragments are restricted to what the subject may view, i.e. if they depend on the subject
+     */
+    public boolean requiresAuthorizationFragment();
 }
@@ -18,10 +18,12 @@
  */
 package org.rhq.enterprise.server.util;
 
+import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import org.rhq.core.domain.criteria.BaseCriteria;
+import org.rhq.core.domain.criteria.Criteria;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 
@@ -32,6 +34,9 @@ import org.rhq.core.domain.util.PageList;
  *   for (Resource entity : query) { 
  * 
  * and automatically page through all of the results in PageControl.getPageSize(def. 200) chunks.
+ * <p/>
+ * With {@link #setKeysetPaging(boolean) keyset paging}, each page is read as the page which follows the last entity of
+ * the previous page, so that iterating over a large result set does not get slower with every page.
  * 
  * @author John Sanda
  * @author Simeon Pinder
@@ -47,6 +52,8 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
     //Executor
     private CriteriaQueryExecutor<T, C> queryExecutor;
 
+    private boolean keysetPaging;
+
     /**
      * It is important that the <code>criteria</code> includes sorting.  If not then paging is nonsensical as the DB
      * provides no guarantee of ordering.  If no sort is specified, an implicit sort on ID is added.
@@ -60,6 +67,19 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
         this.queryExecutor = queryExecutor;
     }
 
+    /**
+     * Turns keyset paging on or off, off by default. With keyset paging, the pages after the first are read with
+     * {@link Criteria#setPagingAfterId(Integer)} set to the id of the last result of the previous page, and the total
+     * number of results is not counted, unless a restriction is already set on the criteria. The results must be
+     * entities of the criteria's persistent class, and the criteria must only sort on fields of the entities.
+     */
+    public void setKeysetPaging(boolean keysetPaging) {
+        if (keysetPaging && !(criteria instanceof Criteria)) {
+            throw new IllegalArgumentException("Keyset paging is not supported by " + criteria.getClass().getName());
+        }
+        this.keysetPaging = keysetPaging;
+    }
+
     /** Returns iterator for a single page of results as defined by
      * i)the Criteria instance
      * ii)the paging details applied to the Criteria instance
@@ -70,6 +90,13 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
     }
 
     private PageList<T> executeQuery() {
+        if (keysetPaging) {
+            Criteria keysetCriteria = (Criteria) criteria;
+            keysetCriteria.setPagingAfterId(null);
+            if (keysetCriteria.getRestriction() == null) {
+                keysetCriteria.setRestriction(Criteria.Restriction.COLLECTION_ONLY);
+            }
+        }
         return queryExecutor.execute(criteria);
     }
 
@@ -85,16 +112,29 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
 
         private boolean reachedEnd;
 
+        // keyset paging: the last result returned, and the page number of the next page when paging by page number
+        private T last;
+        private int nextPageNumber;
+        private Method idGetter;
+
         /**The first pageList returned by the criteria instance is where iteration begins.
          * @param firstPage
          */
         public QueryResultsIterator(PageList<T> firstPage) {
             currentPage = firstPage;
             iterator = currentPage.iterator();
+            if (keysetPaging) {
+                PageControl pc = getPageControl();
+                nextPageNumber = (pc != null) ? pc.getPageNumber() + 1 : 0;
+            }
         }
 
         @Override
         public boolean hasNext() {
+            if (keysetPaging) {
+                return hasNextByKeyset();
+            }
+
             if (!iterator.hasNext() && !reachedEnd) {
                 // advance the page. Although strange to be using a page control override in conjunction with
                 // CriteriaQuery, nonetheless make sure we advance it if it exists, because the normal setPaging is
@@ -125,12 +165,79 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
             return iterator.hasNext();
         }
 
+        private boolean hasNextByKeyset() {
+            if (iterator.hasNext() || reachedEnd) {
+                return iterator.hasNext();
+            }
+
+            PageControl pc = getPageControl();
+            if (pc == null || pc.getPageSize() <= 0 || currentPage.size() < pc.getPageSize()) {
+                // unlimited, or a page which is not full, so there are no more results
+                reachedEnd = true;
+                return false;
+            }
+
+            Criteria keysetCriteria = (Criteria) criteria;
+            keysetCriteria.setPagingAfterId(getId(last));
+            fetch(0, pc.getPageSize());
+            if (!iterator.hasNext()) {
+                // either the results are exhausted, or the last result was deleted meanwhile and so can not be used as
+                // the keyset; fall back to the page number for this page
+                keysetCriteria.setPagingAfterId(null);
+                fetch(nextPageNumber, pc.getPageSize());
+                reachedEnd = !iterator.hasNext();
+            }
+            nextPageNumber++;
+
+            return iterator.hasNext();
+        }
+
+        private PageControl getPageControl() {
+            PageControl pcOverrides = criteria.getPageControlOverrides();
+            if (pcOverrides != null) {
+                return pcOverrides;
+            }
+            Criteria keysetCriteria = (Criteria) criteria;
+            if (keysetCriteria.getPageNumber() == null || keysetCriteria.getPageSize() == null) {
+                return null;
+            }
+            return new PageControl(keysetCriteria.getPageNumber(), keysetCriteria.getPageSize());
+        }
+
+        private void fetch(int pageNumber, int pageSize) {
+            PageControl pcOverrides = criteria.getPageControlOverrides();
+            if (pcOverrides != null) {
+                pcOverrides.setPageNumber(pageNumber);
+            } else {
+                criteria.setPaging(pageNumber, pageSize);
+            }
+
+            //help out the GC.
+            currentPage.clear();
+
+            currentPage = queryExecutor.execute(criteria);
+            iterator = currentPage.iterator();
+        }
+
+        private Integer getId(T result) {
+            try {
+                if (idGetter == null || !idGetter.getDeclaringClass().isInstance(result)) {
+                    idGetter = result.getClass().getMethod("getId");
+                    idGetter.setAccessible(true);
+                }
+                return ((Number) idGetter.invoke(result)).intValue();
+            } catch (Exception e) {
+                throw new IllegalStateException("Keyset paging requires results with an id, not " + result, e);
+            }
+        }
+
         @Override
         public T next() {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return iterator.next();
+            last = iterator.next();
+            return last;
         }
 
         @Override
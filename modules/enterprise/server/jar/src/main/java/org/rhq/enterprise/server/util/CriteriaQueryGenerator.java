@@ -66,6 +66,10 @@ public final class CriteriaQueryGenerator {
 
     private static final Log LOG = LogFactory.getLog(CriteriaQueryGenerator.class);
 
+    // alias of the entity after which a page starts, see Criteria#setPagingAfterId(Integer)
+    private static final String KEYSET_ALIAS = "keysetEntity";
+    private static final String KEYSET_PARAMETER = "pagingAfterId";
+
     public enum AuthorizationTokenType {
         RESOURCE, // specifies the resource alias to join on for standard res-group-role-subject authorization checking
         GROUP, // specifies the group alias to join on for standard group-role-subject authorization checking
@@ -353,6 +357,10 @@ public final class CriteriaQueryGenerator {
             query = query.replace(":requiredPermsSize", String.valueOf(requiredPerms.size()));
         }
 
+        if (!countQuery && null != criteria.getPagingAfterId()) {
+            query = query.replace(":" + KEYSET_PARAMETER, String.valueOf(criteria.getPagingAfterId()));
+        }
+
         return query;
     }
 
@@ -482,6 +490,13 @@ public final class CriteriaQueryGenerator {
         List<String> orderingFieldRequiredJoins = new ArrayList<String>();
         List<String> orderingFieldTokens = new ArrayList<String>();
 
+        // with keyset paging, the sort key of each row is compared to the sort key of the keyset entity
+        boolean keyset = !countQuery && criteria.getPagingAfterId() != null;
+        List<String> keysetExpressions = new ArrayList<String>();
+        List<String> keysetReferences = new ArrayList<String>();
+        List<PageOrdering> keysetOrderings = new ArrayList<PageOrdering>();
+        StringBuilder keysetJoins = new StringBuilder();
+
         for (OrderingField orderingField : pc.getOrderingFields()) {
             PageOrdering ordering = orderingField.getOrdering();
             String fieldName = orderingField.getField();
@@ -497,6 +512,11 @@ public final class CriteriaQueryGenerator {
             boolean doNotPrefixAlias = isNumber(suffix) || criteria.hasCustomizedSorting();
             String sortFragment = doNotPrefixAlias ? suffix : (alias + "." + suffix);
 
+            if (keyset && doNotPrefixAlias) {
+                throw new IllegalArgumentException("Keyset paging is not supported when sorting on [" + suffix
+                    + "], only sorts on entity fields are");
+            }
+
             if (criteria.hasCustomizedSorting()) {
                 // customized sorting does not get LEFT JOIN expressions added
                 orderingFieldTokens.add(sortFragment + " " + ordering);
@@ -515,6 +535,11 @@ public final class CriteriaQueryGenerator {
                 // only one dot implies its a property/field directly off of the primary alias
                 // thus, also does not require joins, just add the ordering field token directly
                 orderingFieldTokens.add(sortFragment + " " + ordering);
+                if (keyset) {
+                    keysetExpressions.add(sortFragment);
+                    keysetReferences.add(KEYSET_ALIAS + sortFragment.substring(firstDelimiterIndex));
+                    keysetOrderings.add(ordering);
+                }
                 continue;
             }
 
@@ -526,6 +551,11 @@ public final class CriteriaQueryGenerator {
             if (expressionRootIndex == -1) {
                 // new join
                 joinAlias = "orderingField" + orderingFieldRequiredJoins.size();
+                if (keyset) {
+                    keysetJoins.append(" LEFT JOIN ").append(KEYSET_ALIAS)
+                        .append(expressionRoot.substring(firstDelimiterIndex)).append(" keysetField")
+                        .append(orderingFieldRequiredJoins.size());
+                }
                 orderingFieldRequiredJoins.add(expressionRoot);
                 results.append("LEFT JOIN ").append(expressionRoot).append(" ").append(joinAlias).append(NL);
             } else {
@@ -533,6 +563,15 @@ public final class CriteriaQueryGenerator {
             }
 
             orderingFieldTokens.add(joinAlias + "." + expressionLeaf + " " + ordering);
+            if (keyset) {
+                keysetExpressions.add(joinAlias + "." + expressionLeaf);
+                keysetReferences.add(joinAlias.replace("orderingField", "keysetField") + "." + expressionLeaf);
+                keysetOrderings.add(ordering);
+            }
+        }
+
+        if (keyset) {
+            results.append(", ").append(className).append(' ').append(KEYSET_ALIAS).append(keysetJoins).append(NL);
         }
 
         Map<String, Object> filterFields = getFilterFields(criteria);
@@ -582,7 +621,7 @@ public final class CriteriaQueryGenerator {
         }
 
         if (conjunctiveResults.length() > 0 || authorizationPermsFragment != null
-            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null) {
+            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null || keyset) {
             results.append("WHERE ");
             if (conjunctiveResults.length() > 0) {
                 results.append("( ").append(conjunctiveResults).append(")");
@@ -611,13 +650,22 @@ public final class CriteriaQueryGenerator {
         }
 
         if (searchExpressionWhereClause != null) {
-            if (!firstCrit) {
+            if (firstCrit) {
+                firstCrit = false;
+            } else {
                 // always want to additionally filter by translated from the RHQL search expression
                 results.append(NL).append(" AND ");
             }
             results.append(searchExpressionWhereClause);
         }
 
+        if (keyset) {
+            if (!firstCrit) {
+                results.append(NL).append(" AND ");
+            }
+            results.append(getKeysetWhereFragment(keysetExpressions, keysetReferences, keysetOrderings));
+        }
+
         if (!countQuery) {
             // group by clause
             if (groupByClause != null) {
@@ -648,6 +696,41 @@ public final class CriteriaQueryGenerator {
         return results.toString();
     }
 
+    /**
+     * The rows which follow the keyset entity in the sort order are those whose sort key is greater (or less, for a
+     * descending sort) than the keyset entity's on the first field where they differ. Both Postgres and Oracle sort
+     * nulls as if they were greater than any value, so are the nulls compared here.
+     */
+    private String getKeysetWhereFragment(List<String> expressions, List<String> references,
+        List<PageOrdering> orderings) {
+        StringBuilder fragment = new StringBuilder();
+        fragment.append(KEYSET_ALIAS).append(".id = :").append(KEYSET_PARAMETER).append(NL).append(" AND ( ");
+
+        StringBuilder equalities = new StringBuilder();
+        for (int i = 0; i < expressions.size(); i++) {
+            String expression = expressions.get(i);
+            String reference = references.get(i);
+            if (i > 0) {
+                fragment.append(NL).append("    OR ");
+            }
+            fragment.append("( ").append(equalities);
+            if (orderings.get(i) == PageOrdering.DESC) {
+                fragment.append("( ").append(expression).append(" < ").append(reference).append(" OR ( ")
+                    .append(expression).append(" IS NOT NULL AND ").append(reference).append(" IS NULL ) )");
+            } else {
+                fragment.append("( ").append(expression).append(" > ").append(reference).append(" OR ( ")
+                    .append(expression).append(" IS NULL AND ").append(reference).append(" IS NOT NULL ) )");
+            }
+            fragment.append(" )");
+
+            equalities.append("( ").append(expression).append(" = ").append(reference).append(" OR ( ")
+                .append(expression).append(" IS NULL AND ").append(reference).append(" IS NULL ) ) AND ");
+        }
+
+        fragment.append(" )").append(NL);
+        return fragment.toString();
+    }
+
     private boolean isNumber(String input) {
         if (input == null) {
             return false;
@@ -889,6 +972,9 @@ public final class CriteriaQueryGenerator {
         String queryString = getQueryString(false);
         Query query = em.createQuery(queryString);
         setBindValues(query);
+        if (null != criteria.getPagingAfterId()) {
+            query.setParameter(KEYSET_PARAMETER, criteria.getPagingAfterId());
+        }
         PersistenceUtility.setDataPage(query, getPageControl(criteria));
         return query;
     }
@@ -1084,7 +1170,35 @@ public final class CriteriaQueryGenerator {
             pc.addDefaultOrderingField("id");
         }
 
+        if (criteria.getPagingAfterId() != null) {
+            pc = getKeysetPageControl(criteria, pc);
+        }
+
         return pc;
     }
 
+    /**
+     * The page following the keyset entity is read as the first page. The ID sort is required to make the sort key
+     * unique, so it is added even if the maximum number of sort fields is already set.
+     */
+    private static PageControl getKeysetPageControl(Criteria criteria, PageControl pc) {
+        if (pc.getPageSize() <= 0 || !criteria.isSupportsAddSortId() || criteria.hasCustomizedSorting()) {
+            throw new IllegalArgumentException("Keyset paging requires a page size and the ID sort, and does not "
+                + "support customized sorting: " + CriteriaUtil.toString(criteria));
+        }
+
+        List<OrderingField> orderingFields = new ArrayList<OrderingField>(pc.getOrderingFields());
+        boolean sortedById = false;
+        for (OrderingField orderingField : orderingFields) {
+            if ("id".equals(orderingField.getField())) {
+                sortedById = true;
+            }
+        }
+        if (!sortedById) {
+            orderingFields.add(new OrderingField("id", PageOrdering.ASC));
+        }
+
+        return new PageControl(0, pc.getPageSize(), orderingFields.toArray(new OrderingField[orderingFields.size()]));
+    }
+
 }
@@ -0,0 +1,119 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.util;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs actions once the current transaction has completed, typically to invalidate in-memory caches of data the
+ * transaction changed. Invalidating such a cache before the commit lets a concurrent reader load the old data back
+ * into it before the change becomes visible, where it would then stay.
+ */
+public class TransactionSynchronizationUtil {
+
+    private static final Log LOG = LogFactory.getLog(TransactionSynchronizationUtil.class);
+
+    private TransactionSynchronizationUtil() {
+    }
+
+    /**
+     * Runs the action after the current transaction has completed, whether it was committed or rolled back, or right
+     * away if the caller has no active transaction. The action may run on another thread than the caller's, e.g.
+     * when the transaction times out, and must not throw.
+     */
+    public static void runAfterCompletion(Runnable action) {
+        runAfterCompletion(getTransactionManager(action), action);
+    }
+
+    static void runAfterCompletion(TransactionManager transactionManager, Runnable action) {
+        if (!register(transactionManager, action, false)) {
+            action.run();
+        }
+    }
+
+    /**
+     * Runs the action after the current transaction has been committed, typically to record in memory what the
+     * transaction wrote. The action is run right away if the caller has no transaction, as the changes are committed
+     * as they are made, and never if the transaction is rolled back or can no longer commit. The action may run on
+     * another thread than the caller's and must not throw.
+     */
+    public static void runAfterCommit(Runnable action) {
+        runAfterCommit(getTransactionManager(action), action);
+    }
+
+    static void runAfterCommit(TransactionManager transactionManager, Runnable action) {
+        try {
+            if (null != transactionManager && null != transactionManager.getTransaction()) {
+                register(transactionManager, action, true);
+                return;
+            }
+        } catch (Exception e) {
+            LOG.debug("Could not get the current transaction, not running " + action, e);
+            return;
+        }
+        action.run();
+    }
+
+    private static TransactionManager getTransactionManager(Runnable action) {
+        try {
+            return LookupUtil.getTransactionManager();
+        } catch (RuntimeException e) {
+            LOG.debug("No transaction manager, running " + action + " right away", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the action was registered with the current transaction, which is active
+     */
+    private static boolean register(TransactionManager transactionManager, final Runnable action,
+        final boolean onlyAfterCommit) {
+        if (null == transactionManager) {
+            return false;
+        }
+
+        try {
+            Transaction transaction = transactionManager.getTransaction();
+            if (null != transaction && Status.STATUS_ACTIVE == transaction.getStatus()) {
+                transaction.registerSynchronization(new Synchronization() {
+                    public void beforeCompletion() {
+                    }
+
+                    public void afterCompletion(int status) {
+                        if (!onlyAfterCommit || Status.STATUS_COMMITTED == status) {
+                            action.run();
+                        }
+                    }
+                });
+                return true;
+            }
+        } catch (Exception e) {
+            // e.g. the transaction was marked for rollback meanwhile, it cannot change anything then
+            LOG.debug("Could not register " + action + " with the current transaction", e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.authz;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.authz.Permission;
+import org.rhq.enterprise.server.authz.AuthorizationCache.SubjectPermissions;
+
+@Test
+public class AuthorizationCacheTest {
+
+    private static final int SUBJECT_ID = 2;
+
+    public void testBitset() {
+        long bitset = AuthorizationCache.toBitset(Arrays.asList(Permission.MODIFY_RESOURCE, Permission.CONTROL));
+        assertTrue(AuthorizationCache.contains(bitset, Permission.MODIFY_RESOURCE));
+        assertTrue(AuthorizationCache.contains(bitset, Permission.CONTROL));
+        assertFalse(AuthorizationCache.contains(bitset, Permission.DELETE_RESOURCE));
+
+        long all = AuthorizationCache.toBitset(EnumSet.allOf(Permission.class));
+        for (Permission permission : Permission.values()) {
+            assertTrue(AuthorizationCache.contains(all, permission), permission.name());
+        }
+        assertEquals(AuthorizationCache.toBitset(Collections.<Permission> emptyList()), 0L);
+    }
+
+    public void testPermissionsAreCachedUntilExpired() {
+        AuthorizationCache cache = new AuthorizationCache(1000L, 100);
+        SubjectPermissions permissions = cache.getSubjectPermissions(SUBJECT_ID, 0L);
+        assertNull(permissions.getGlobalPermissions());
+        permissions.setGlobalPermissions(5L);
+        permissions.putResourcePermissions(10, 3L);
+        permissions.putGroupPermissions(20, 4L);
+
+        permissions = cache.getSubjectPermissions(SUBJECT_ID, 999L);
+        assertEquals(permissions.getGlobalPermissions(), Long.valueOf(5L));
+        assertEquals(permissions.getResourcePermissions(10), Long.valueOf(3L));
+        assertEquals(permissions.getGroupPermissions(20), Long.valueOf(4L));
+        assertNull(permissions.getResourcePermissions(20));
+        assertNull(cache.getSubjectPermissions(SUBJECT_ID + 1, 999L).getGlobalPermissions());
+
+        permissions = cache.getSubjectPermissions(SUBJECT_ID, 1000L);
+        assertNull(permissions.getGlobalPermissions(), "the permissions must have expired");
+        assertNull(permissions.getResourcePermissions(10), "the permissions must have expired");
+        assertSame(cache.getSubjectPermissions(SUBJECT_ID, 1500L), permissions);
+    }
+
+    public void testPermissionsReadBeforeInvalidationAreDropped() {
+        AuthorizationCache cache = new AuthorizationCache(1000L, 100);
+        SubjectPermissions permissions = cache.getSubjectPermissions(SUBJECT_ID, 0L);
+        permissions.putResourcePermissions(10, 3L);
+
+        cache.invalidate();
+        assertEquals(cache.size(), 0);
+
+        // a lookup started before the invalidation stores what it read after it
+        permissions.setGlobalPermissions(5L);
+        permissions.putResourcePermissions(11, 3L);
+
+        permissions = cache.getSubjectPermissions(SUBJECT_ID, 1L);
+        assertNull(permissions.getGlobalPermissions());
+        assertNull(permissions.getResourcePermissions(10));
+        assertNull(permissions.getResourcePermissions(11));
+    }
+
+    public void testDisabledCache() {
+        AuthorizationCache cache = new AuthorizationCache(0L, 100);
+        cache.getSubjectPermissions(SUBJECT_ID, 0L).setGlobalPermissions(5L);
+        assertNull(cache.getSubjectPermissions(SUBJECT_ID, 0L).getGlobalPermissions());
+        assertEquals(cache.size(), 0);
+    }
+
+    public void testMaxEntries() {
+        AuthorizationCache cache = new AuthorizationCache(1000L, 2);
+        SubjectPermissions permissions = cache.getSubjectPermissions(SUBJECT_ID, 0L);
+        for (int id = 1; id <= 3; id++) {
+            permissions.putResourcePermissions(id, 1L);
+            permissions.putGroupPermissions(id, 1L);
+        }
+        permissions.putResourcePermissions(1, 2L);
+
+        assertEquals(permissions.getResourcePermissions(1), Long.valueOf(2L));
+        assertEquals(permissions.getResourcePermissions(2), Long.valueOf(1L));
+        assertNull(permissions.getResourcePermissions(3), "a full cache takes no more entries");
+        assertNull(permissions.getGroupPermissions(3));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class AgentPingBufferTest {
+
+    private static final String AGENT = "agent";
+
+    public void testPingOfUnknownAgentIsWrittenThrough() {
+        AgentPingBuffer buffer = new AgentPingBuffer(5000L);
+        assertNull(buffer.ping(AGENT, 1000L), "the backfilled state of a new agent is not known");
+        buffer.pingWritten(AGENT, 1000L, false);
+        assertTrue(buffer.getUnflushedPings().isEmpty());
+
+        assertEquals(buffer.ping(AGENT, 2000L), Boolean.FALSE);
+        assertEquals(buffer.getLastPing(AGENT), Long.valueOf(2000L));
+    }
+
+    public void testLatestPingIsFlushed() {
+        AgentPingBuffer buffer = new AgentPingBuffer(5000L);
+        buffer.ping(AGENT, 1000L);
+        buffer.pingWritten(AGENT, 1000L, false);
+        buffer.ping(AGENT, 3000L);
+        buffer.ping(AGENT, 2000L);
+
+        Map<String, Long> pings = buffer.getUnflushedPings();
+        assertEquals(pings.size(), 1);
+        assertEquals(pings.get(AGENT), Long.valueOf(3000L));
+
+        buffer.ping(AGENT, 4000L);
+        buffer.flushed(AGENT, 3000L, true);
+        assertEquals(buffer.getUnflushedPings().get(AGENT), Long.valueOf(4000L), "a ping received during the flush "
+            + "must stay buffered");
+        assertEquals(buffer.ping(AGENT, 5000L), Boolean.TRUE, "the flush found the agent backfilled");
+    }
+
+    public void testBackfilledStateFollowsThisServer() {
+        AgentPingBuffer buffer = new AgentPingBuffer(5000L);
+        buffer.setBackfilled(AGENT, true);
+        assertNull(buffer.ping(AGENT, 1000L), "an unknown state must not be set");
+
+        buffer.pingWritten(AGENT, 1000L, false);
+        buffer.setBackfilled(AGENT, true);
+        assertEquals(buffer.ping(AGENT, 2000L), Boolean.TRUE);
+        buffer.setBackfilled(AGENT, false);
+        assertEquals(buffer.ping(AGENT, 3000L), Boolean.FALSE);
+
+        buffer.flushed(AGENT, 3000L, null);
+        assertNull(buffer.ping(AGENT, 4000L), "the flush could not learn the state");
+    }
+
+    public void testFlushScheduling() {
+        AgentPingBuffer buffer = new AgentPingBuffer(5000L);
+        assertTrue(buffer.startFlush(10000L));
+        assertFalse(buffer.startFlush(20000L), "a flush is in progress");
+        assertFalse(buffer.startFlush(), "a flush is in progress");
+        buffer.flushFinished(10000L);
+        assertFalse(buffer.startFlush(12000L), "a flush is not due yet");
+        assertTrue(buffer.startFlush(15000L));
+        buffer.flushFinished(15000L);
+        assertTrue(buffer.startFlush());
+    }
+
+    public void testWriteBehindCanBeDisabled() {
+        AgentPingBuffer buffer = new AgentPingBuffer(0L);
+        buffer.ping(AGENT, 1000L);
+        buffer.pingWritten(AGENT, 1000L, false);
+        assertNull(buffer.ping(AGENT, 2000L));
+        assertFalse(buffer.startFlush(100000L));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+@Test
+public class CallTimeDataKeyCacheTest {
+
+    public void testKeyIdsAreCachedPerScheduleAndDestination() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(100);
+        assertNull(cache.getKeyId(1, "/a"));
+
+        cache.put(1, "/a", 10);
+        cache.put(1, "/b", 11);
+        cache.put(2, "/a", 20);
+
+        assertEquals(cache.getKeyId(1, "/a"), Integer.valueOf(10));
+        assertEquals(cache.getKeyId(1, "/b"), Integer.valueOf(11));
+        assertEquals(cache.getKeyId(2, "/a"), Integer.valueOf(20));
+        assertNull(cache.getKeyId(2, "/b"));
+        assertEquals(cache.size(), 3);
+
+        cache.put(1, "/a", 10);
+        assertEquals(cache.size(), 3, "putting a cached key again must not grow the cache");
+    }
+
+    public void testFullCacheIsCleared() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(2);
+        cache.put(1, "/a", 10);
+        cache.put(1, "/b", 11);
+        cache.put(1, "/c", 12);
+
+        assertNull(cache.getKeyId(1, "/a"));
+        assertEquals(cache.getKeyId(1, "/c"), Integer.valueOf(12));
+        assertEquals(cache.size(), 1);
+    }
+
+    public void testDisabledCache() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(0);
+        cache.put(1, "/a", 10);
+        assertNull(cache.getKeyId(1, "/a"));
+        assertEquals(cache.size(), 0);
+    }
+}
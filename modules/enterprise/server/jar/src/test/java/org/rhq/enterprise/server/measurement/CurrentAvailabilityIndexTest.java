@@ -0,0 +1,98 @@
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.Resource;
+
+@Test
+public class CurrentAvailabilityIndexTest {
+
+    private static final int AGENT_ID = 1;
+
+    public void testUnchangedAvailabilitiesAreRemoved() {
+        CurrentAvailabilityIndex index = new CurrentAvailabilityIndex(100);
+        int generation = index.reportReceived(AGENT_ID, 1000L, false);
+        index.putAll(AGENT_ID, generation, latest(avail(10, 500L, AvailabilityType.UP),
+            avail(11, 500L, AvailabilityType.DOWN)));
+
+        generation = index.reportReceived(AGENT_ID, 2000L, true);
+        List<Availability> reported = list(avail(10, 1500L, AvailabilityType.UP),
+            avail(11, 1500L, AvailabilityType.UP), avail(12, 1500L, AvailabilityType.UP),
+            avail(10, 100L, AvailabilityType.UP));
+
+        assertEquals(index.removeUnchanged(AGENT_ID, generation, reported), 1);
+        assertEquals(reported.size(), 3);
+        assertEquals(reported.get(0).getResource().getId(), 11, "a real change must be kept");
+        assertEquals(reported.get(1).getResource().getId(), 12, "an unknown resource must be kept");
+        assertEquals(reported.get(2).getStartTime().longValue(), 100L, "an avail in the past must be kept");
+    }
+
+    public void testNewGenerationDiscardsEntries() {
+        CurrentAvailabilityIndex index = new CurrentAvailabilityIndex(100);
+        int generation = index.reportReceived(AGENT_ID, 1000L, false);
+        index.putAll(AGENT_ID, generation, latest(avail(10, 500L, AvailabilityType.UP)));
+
+        // someone else wrote the agent row since our last report
+        int newGeneration = index.reportReceived(AGENT_ID, 2000L, false);
+        assertFalse(newGeneration == generation);
+        List<Availability> reported = list(avail(10, 1500L, AvailabilityType.UP));
+        assertEquals(index.removeUnchanged(AGENT_ID, newGeneration, reported), 0);
+
+        // a report merged under the old generation must not be indexed
+        index.putAll(AGENT_ID, generation, latest(avail(10, 1500L, AvailabilityType.UP)));
+        assertEquals(index.removeUnchanged(AGENT_ID, newGeneration, reported), 0);
+
+        index.putAll(AGENT_ID, newGeneration, latest(avail(10, 1500L, AvailabilityType.UP)));
+        index.invalidateAgent(AGENT_ID);
+        assertNull(index.getLastReportTime(AGENT_ID));
+        assertEquals(index.removeUnchanged(AGENT_ID, newGeneration, reported), 0);
+    }
+
+    public void testRemoveAndMaxSize() {
+        CurrentAvailabilityIndex index = new CurrentAvailabilityIndex(2);
+        int generation = index.reportReceived(AGENT_ID, 1000L, false);
+        index.putAll(AGENT_ID, generation, latest(avail(10, 500L, AvailabilityType.UP),
+            avail(11, 500L, AvailabilityType.UP), avail(12, 500L, AvailabilityType.UP)));
+        assertEquals(index.size(), 2);
+
+        Map<Integer, Availability> removals = new HashMap<Integer, Availability>();
+        removals.put(10, null);
+        removals.put(11, null);
+        index.putAll(AGENT_ID, generation, removals);
+        assertEquals(index.size(), 0);
+
+        index.putAll(AGENT_ID, generation, latest(avail(12, 500L, AvailabilityType.UP)));
+        index.remove(Arrays.asList(12));
+        assertEquals(index.size(), 0);
+        assertTrue(index.getLastReportTime(AGENT_ID) == 1000L);
+    }
+
+    private static Availability avail(int resourceId, long startTime, AvailabilityType type) {
+        return new Availability(new Resource(resourceId), startTime, type);
+    }
+
+    private static List<Availability> list(Availability... availabilities) {
+        return new ArrayList<Availability>(Arrays.asList(availabilities));
+    }
+
+    private static Map<Integer, Availability> latest(Availability... availabilities) {
+        Map<Integer, Availability> result = new HashMap<Integer, Availability>();
+        for (Availability availability : availabilities) {
+            result.put(availability.getResource().getId(), availability);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+@Test
+public class MeasurementBaselineCacheTest {
+
+    public void testBaselinesAreLoadedOnce() throws Exception {
+        DataSource dataSource = createDataSource(new int[] { 3, 7, 9 });
+        MeasurementBaselineCache cache = new MeasurementBaselineCache();
+
+        MeasurementBaselineCache.Baselines baselines = cache.getBaselines(dataSource);
+        assertEquals(baselines.size(), 3);
+        int index = baselines.indexOf(7);
+        assertEquals(index, 1);
+        assertEquals(baselines.getMin(index), 7.0);
+        assertEquals(baselines.getMax(index), 14.0);
+        assertTrue(baselines.indexOf(5) < 0, "schedule 5 has no baseline");
+        assertTrue(baselines.indexOf(10) < 0, "schedule 10 has no baseline");
+
+        assertSame(cache.getBaselines(dataSource), baselines);
+        verify(dataSource, times(1)).getConnection();
+    }
+
+    public void testInvalidatedBaselinesAreReloaded() throws Exception {
+        DataSource dataSource = createDataSource(new int[] { 1 });
+        MeasurementBaselineCache cache = new MeasurementBaselineCache();
+
+        MeasurementBaselineCache.Baselines baselines = cache.getBaselines(dataSource);
+        cache.invalidate();
+        MeasurementBaselineCache.Baselines reloaded = cache.getBaselines(dataSource);
+
+        assertTrue(reloaded != baselines, "the baselines should have been reloaded");
+        assertEquals(reloaded.size(), 1);
+        verify(dataSource, times(2)).getConnection();
+    }
+
+    public void testManyBaselines() throws Exception {
+        // more than the initial capacity of the arrays
+        int[] scheduleIds = new int[5000];
+        for (int i = 0; i < scheduleIds.length; i++) {
+            scheduleIds[i] = 2 * i + 1;
+        }
+        MeasurementBaselineCache.Baselines baselines = new MeasurementBaselineCache()
+            .getBaselines(createDataSource(scheduleIds));
+
+        assertEquals(baselines.size(), scheduleIds.length);
+        for (int i = 0; i < scheduleIds.length; i += 499) {
+            int index = baselines.indexOf(scheduleIds[i]);
+            assertEquals(index, i);
+            assertEquals(baselines.getMin(index), (double) scheduleIds[i]);
+            assertTrue(baselines.indexOf(scheduleIds[i] + 1) < 0);
+        }
+    }
+
+    public void testNoBaselines() throws Exception {
+        MeasurementBaselineCache.Baselines baselines = new MeasurementBaselineCache()
+            .getBaselines(createDataSource(new int[0]));
+
+        assertEquals(baselines.size(), 0);
+        assertTrue(baselines.indexOf(1) < 0);
+    }
+
+    /**
+     * @return a data source whose baselines query returns a baseline of [id, 2 * id] for each of the schedule ids,
+     * which must be sorted
+     */
+    private DataSource createDataSource(final int[] scheduleIds) throws SQLException {
+        DataSource dataSource = Mockito.mock(DataSource.class);
+        Connection connection = Mockito.mock(Connection.class);
+        PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                return createResultSet(scheduleIds);
+            }
+        });
+        return dataSource;
+    }
+
+    private ResultSet createResultSet(final int[] scheduleIds) throws SQLException {
+        final int[] row = { -1 };
+        ResultSet resultSet = Mockito.mock(ResultSet.class);
+        when(resultSet.next()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return ++row[0] < scheduleIds.length;
+            }
+        });
+        when(resultSet.getInt(anyInt())).thenAnswer(new Answer<Integer>() {
+            public Integer answer(InvocationOnMock invocation) {
+                return scheduleIds[row[0]];
+            }
+        });
+        when(resultSet.getDouble(anyInt())).thenAnswer(new Answer<Double>() {
+            public Double answer(InvocationOnMock invocation) {
+                int column = (Integer) invocation.getArguments()[0];
+                return (double) (column == 2 ? scheduleIds[row[0]] : 2 * scheduleIds[row[0]]);
+            }
+        });
+        return resultSet;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import static org.rhq.enterprise.server.measurement.MeasurementOOBManagerBean.NO_OOB;
+import static org.rhq.enterprise.server.measurement.MeasurementOOBManagerBean.computeOOBFactor;
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+@Test
+public class MeasurementOOBManagerBeanTest {
+
+    public void testInBounds() {
+        assertEquals(computeOOBFactor(15.0, 12.0, 18.0, 10.0, 20.0), NO_OOB);
+        assertEquals(computeOOBFactor(15.0, 10.0, 20.0, 10.0, 20.0), NO_OOB, "the baseline bounds are in bounds");
+    }
+
+    public void testAboveBaseline() {
+        // 10 above the max of a baseline range of 10
+        assertEquals(computeOOBFactor(25.0, 18.0, 30.0, 10.0, 20.0), 100);
+        assertEquals(computeOOBFactor(21.0, 20.0, 22.5, 10.0, 20.0), 25);
+    }
+
+    public void testBelowBaseline() {
+        assertEquals(computeOOBFactor(5.0, 2.0, 9.0, 10.0, 20.0), 80);
+        // the average is in bounds, but the min is not
+        assertEquals(computeOOBFactor(15.0, 5.0, 19.0, 10.0, 20.0), 50);
+    }
+
+    public void testOnlyTheMaxCountsWhenTheAverageIsAboveTheBaseline() {
+        // the max is only compared once the average exceeds the baseline max
+        assertEquals(computeOOBFactor(15.0, 7.0, 40.0, 10.0, 20.0), 30);
+        assertEquals(computeOOBFactor(20.5, 4.0, 23.0, 10.0, 20.0), 30);
+        assertEquals(computeOOBFactor(20.0, 0.0, 30.0, 10.0, 20.0), NO_OOB);
+    }
+
+    public void testNarrowBaselineIsIgnored() {
+        assertEquals(computeOOBFactor(100.0, 0.0, 200.0, 10.0, 10.05), NO_OOB);
+        assertEquals(computeOOBFactor(100.0, 0.0, 200.0, 10.0, 10.0), NO_OOB);
+    }
+}
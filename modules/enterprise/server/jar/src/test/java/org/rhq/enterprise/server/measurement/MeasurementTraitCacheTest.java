@@ -0,0 +1,108 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+
+@Test
+public class MeasurementTraitCacheTest {
+
+    private static final int SCHEDULE_ID = 1;
+
+    public void testOnlyConfirmedValuesAreCached() {
+        MeasurementTraitCache cache = new MeasurementTraitCache(100);
+        assertFalse(cache.isUnchanged(trait(1000L, "a")));
+
+        cache.inserted(trait(1000L, "a"));
+        assertFalse(cache.isUnchanged(trait(2000L, "a")), "an insert alone does not tell the latest value");
+
+        cache.unchanged(trait(2000L, "a"));
+        assertTrue(cache.isUnchanged(trait(3000L, "a")));
+        assertFalse(cache.isUnchanged(trait(3000L, "b")));
+        assertFalse(cache.isUnchanged(trait(1000L, "a")), "an older value must be checked against the db");
+    }
+
+    public void testInsertedValueReplacesCachedValue() {
+        MeasurementTraitCache cache = new MeasurementTraitCache(100);
+        cache.unchanged(trait(1000L, "a"));
+
+        cache.inserted(trait(2000L, "b"));
+        assertTrue(cache.isUnchanged(trait(3000L, "b")));
+        assertFalse(cache.isUnchanged(trait(3000L, "a")));
+
+        cache.inserted(trait(1500L, "c"));
+        assertFalse(cache.isUnchanged(trait(3000L, "b")), "an out of order insert must invalidate the entry");
+        assertEquals(cache.size(), 0);
+    }
+
+    public void testNullValues() {
+        MeasurementTraitCache cache = new MeasurementTraitCache(100);
+        cache.unchanged(trait(1000L, null));
+        assertTrue(cache.isUnchanged(trait(2000L, null)));
+        assertFalse(cache.isUnchanged(trait(2000L, "")));
+        assertFalse(MeasurementTraitCache.hash("") == MeasurementTraitCache.hash(null));
+    }
+
+    public void testMaxSize() {
+        MeasurementTraitCache cache = new MeasurementTraitCache(1);
+        cache.unchanged(trait(SCHEDULE_ID, 1000L, "a"));
+        cache.unchanged(trait(SCHEDULE_ID + 1, 1000L, "a"));
+        assertEquals(cache.size(), 1);
+        assertFalse(cache.isUnchanged(trait(SCHEDULE_ID + 1, 2000L, "a")));
+
+        cache.unchanged(trait(SCHEDULE_ID, 2000L, "b"));
+        assertTrue(cache.isUnchanged(trait(SCHEDULE_ID, 3000L, "b")), "an existing entry must still be updated");
+
+        cache.clear();
+        assertEquals(cache.size(), 0);
+        assertFalse(cache.isUnchanged(trait(SCHEDULE_ID, 3000L, "b")));
+    }
+
+    public void testRemoveAll() {
+        MeasurementTraitCache cache = new MeasurementTraitCache(100);
+        cache.unchanged(trait(SCHEDULE_ID, 1000L, "a"));
+        cache.unchanged(trait(SCHEDULE_ID + 1, 1000L, "a"));
+        cache.unchanged(trait(SCHEDULE_ID + 2, 1000L, "a"));
+
+        // the schedules of a connecting agent, one of them not cached
+        cache.removeAll(Arrays.asList(SCHEDULE_ID, SCHEDULE_ID + 2, SCHEDULE_ID + 3));
+        assertEquals(cache.size(), 1);
+        assertFalse(cache.isUnchanged(trait(SCHEDULE_ID, 2000L, "a")));
+        assertTrue(cache.isUnchanged(trait(SCHEDULE_ID + 1, 2000L, "a")));
+        assertFalse(cache.isUnchanged(trait(SCHEDULE_ID + 2, 2000L, "a")));
+    }
+
+    private static MeasurementDataTrait trait(long timestamp, String value) {
+        return trait(SCHEDULE_ID, timestamp, value);
+    }
+
+    private static MeasurementDataTrait trait(int scheduleId, long timestamp, String value) {
+        return new MeasurementDataTrait(new MeasurementDataPK(timestamp, scheduleId), value);
+    }
+}
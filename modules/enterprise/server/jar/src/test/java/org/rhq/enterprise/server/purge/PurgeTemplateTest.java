@@ -0,0 +1,137 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.purge;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+
+/**
+ * Tests the adaptive batch size and the key codecs of the {@link PurgeTemplate}, with the default batch size (30000),
+ * minimum batch size (500), initial batch size (5000) and target batch time (2000 ms).
+ */
+@Test
+public class PurgeTemplateTest {
+
+    public void testBatchSizeStaysAtTargetTime() {
+        PurgeTemplate.BatchSize batchSize = new PurgeTemplate.BatchSize();
+        assertEquals(batchSize.get(), 5000);
+
+        batchSize.completed(5000, 2000L);
+        assertEquals(batchSize.get(), 5000);
+    }
+
+    public void testBatchSizeMovesHalfwayTowardsTargetTime() {
+        PurgeTemplate.BatchSize batchSize = new PurgeTemplate.BatchSize();
+
+        // 5000 rows in 4 seconds, 2500 rows would have taken 2 seconds
+        batchSize.completed(5000, 4000L);
+        assertEquals(batchSize.get(), 3750);
+
+        // 3750 rows in 1 second, 7500 rows would have taken 2 seconds
+        batchSize.completed(3750, 1000L);
+        assertEquals(batchSize.get(), 5625);
+    }
+
+    public void testBatchSizeIsBounded() {
+        PurgeTemplate.BatchSize batchSize = new PurgeTemplate.BatchSize();
+        batchSize.completed(5000, 1L);
+        assertEquals(batchSize.get(), 30000, "Fast batches should not get larger than the maximum");
+        batchSize.completed(30000, 0L);
+        assertEquals(batchSize.get(), 30000, "A batch without a measurable duration should get the maximum");
+
+        for (int i = 0; i < 20; i++) {
+            batchSize.completed(batchSize.get(), 60000L);
+        }
+        assertEquals(batchSize.get(), 500, "Slow batches should not get smaller than the minimum");
+    }
+
+    public void testFailedBatchHalvesBatchSize() {
+        PurgeTemplate.BatchSize batchSize = new PurgeTemplate.BatchSize();
+        batchSize.failed();
+        assertEquals(batchSize.get(), 2500);
+        batchSize.failed();
+        batchSize.failed();
+        assertEquals(batchSize.get(), 625);
+        batchSize.failed();
+        assertEquals(batchSize.get(), 500);
+        batchSize.failed();
+        assertEquals(batchSize.get(), 500);
+    }
+
+    public void testIntegerKeyCodec() throws Exception {
+        List<Integer> keys = asList(0, 1, -1, 123456789, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(roundTrip(PurgeTemplate.INTEGER_KEY_CODEC, keys), keys);
+    }
+
+    public void testStringKeyCodec() throws Exception {
+        List<String> keys = asList("", "0123456789abcdef", "h\u00e9ll\u00f6 w\u00f8rld", "\u65e5\u672c");
+        assertEquals(roundTrip(PurgeTemplate.STRING_KEY_CODEC, keys), keys);
+    }
+
+    public void testMeasurementDataKeyCodec() throws Exception {
+        List<MeasurementDataPK> keys = asList(new MeasurementDataPK(0L, 0), new MeasurementDataPK(
+            System.currentTimeMillis(), 10001), new MeasurementDataPK(Long.MAX_VALUE, Integer.MAX_VALUE));
+        List<MeasurementDataPK> decoded = roundTrip(MeasurementDataTraitPurge.KEY_CODEC, keys);
+        assertEquals(decoded, keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(decoded.get(i).getScheduleId(), keys.get(i).getScheduleId());
+            assertEquals(decoded.get(i).getTimestamp(), keys.get(i).getTimestamp());
+        }
+    }
+
+    /**
+     * Writes the keys one after the other as in the keys file, then reads them back until the end of the stream.
+     */
+    private static <KEY> List<KEY> roundTrip(PurgeTemplate.KeyCodec<KEY> codec, List<KEY> keys) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (KEY key : keys) {
+            codec.write(out, key);
+        }
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        List<KEY> result = new ArrayList<KEY>();
+        for (int i = 0; i < keys.size(); i++) {
+            result.add(codec.read(in));
+        }
+        try {
+            codec.read(in);
+            fail("Expected the end of the keys");
+        } catch (EOFException e) {
+            // expected
+        }
+        return result;
+    }
+}
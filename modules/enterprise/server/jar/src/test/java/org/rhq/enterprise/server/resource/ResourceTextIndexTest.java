@@ -0,0 +1,72 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ResourceTextIndexTest {
+
+    public void testIdCondition() {
+        assertEquals(ResourceTextIndex.getIdCondition("res.id", new int[] { 3, 7 }), "res.id IN (3, 7)");
+        assertEquals(ResourceTextIndex.getIdCondition("res.parentResource.id", new int[0]),
+            "res.parentResource.id IS NULL");
+    }
+
+    public void testChangesAreAdded() {
+        Map<Integer, String> changes = new HashMap<Integer, String>();
+        changes.put(5, "JBoss AS Server");
+        changes.put(2, "Apache HTTP Server");
+        changes.put(7, "renamed");
+        changes.put(9, null);
+
+        // a changed id found by the index is kept even if it no longer matches, the LIKE drops it
+        assertEquals(Arrays.toString(ResourceTextIndex.addChanges(new int[] { 3, 7 }, changes, "SERVER")),
+            "[2, 3, 5, 7]");
+        assertEquals(Arrays.toString(ResourceTextIndex.addChanges(new int[0], changes, "tomcat")), "[]");
+    }
+
+    public void testTooManyChanges() {
+        Map<Integer, String> changes = new HashMap<Integer, String>();
+        for (int i = 0; i < ResourceTextIndex.MAX_RESULTS; i++) {
+            changes.put(i, "server " + i);
+        }
+
+        assertEquals(ResourceTextIndex.addChanges(new int[] { 0 }, changes, "server").length,
+            ResourceTextIndex.MAX_RESULTS);
+        assertNull(ResourceTextIndex.addChanges(new int[] { ResourceTextIndex.MAX_RESULTS }, changes, "server"));
+    }
+
+    public void testNoConditionWhenDisabledOrTooShort() {
+        ResourceTextIndex index = new ResourceTextIndex(false);
+        assertNull(index.getCondition(ResourceTextIndex.Field.NAME, "res.id", "server"));
+
+        index = new ResourceTextIndex(true);
+        assertNull(index.getCondition(ResourceTextIndex.Field.NAME, "res.id", null));
+        assertNull(index.getCondition(ResourceTextIndex.Field.TRAIT, "sched.id", "se"));
+    }
+}
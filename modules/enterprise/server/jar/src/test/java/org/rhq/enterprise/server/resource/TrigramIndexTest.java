@@ -0,0 +1,139 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.resource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+@Test
+public class TrigramIndexTest {
+
+    public void testFind() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(3, "JBoss AS Server");
+        index.put(1, "Apache HTTP Server");
+        index.put(2, "jboss-web");
+        index.put(4, null);
+
+        assertIds(index.find("jboss", 10), 2, 3);
+        assertIds(index.find("SERVER", 10), 1, 3);
+        assertIds(index.find("ss-w", 10), 2);
+        assertIds(index.find("tomcat", 10));
+        assertIds(index.find("ssx", 10));
+        assertEquals(index.size(), 3);
+    }
+
+    public void testTooShortOrTooManyResults() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Apache HTTP Server");
+        index.put(2, "JBoss AS Server");
+
+        assertNull(index.find("se", 10), "a value shorter than a trigram cannot be looked up");
+        assertNull(index.find("server", 1));
+        assertIds(index.find("server", 2), 1, 2);
+    }
+
+    public void testReplaceAndRemove() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Apache HTTP Server");
+        index.put(2, "JBoss AS Server");
+        index.put(1, "Apache Tomcat");
+        index.remove(2);
+
+        assertIds(index.find("server", 10));
+        assertIds(index.find("tomcat", 10), 1);
+        assertIds(index.find("apache", 10), 1);
+
+        index.put(1, "Apache HTTP Server");
+        assertIds(index.find("server", 10), "a posting must be returned once only", 1);
+        assertEquals(index.getStalePostingCount(), 11L + 13L + 6L);
+    }
+
+    /**
+     * Compares the index with a scan of every name, as done by a LIKE '%x%', on a synthetic inventory of 500k
+     * resources. Enable it to run it.
+     */
+    @Test(enabled = false)
+    public void testBenchmark() {
+        String[] hosts = new String[5000];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = "host" + i + ".example.com";
+        }
+        String[] types = { "JBossAS7 Standalone Server", "Apache HTTP Server", "Tomcat Server", "Postgres Database",
+            "Datasource", "Web Runtime", "Network Interface", "File System", "CPU", "Deployment" };
+
+        int count = 500000;
+        String[] names = new String[count];
+        Random random = new Random(42L);
+        for (int i = 0; i < count; i++) {
+            names[i] = hosts[random.nextInt(hosts.length)] + " " + types[random.nextInt(types.length)] + " "
+                + random.nextInt(100000);
+        }
+
+        long start = System.currentTimeMillis();
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < count; i++) {
+            index.put(i, names[i]);
+        }
+        long loadMillis = System.currentTimeMillis() - start;
+
+        String[] values = { "host4711.", "host123", "tomcat server 9999", "1234", "database 4242" };
+        int rounds = 20;
+        long indexNanos = 0L;
+        long scanNanos = 0L;
+        for (int round = 0; round < rounds; round++) {
+            for (String value : values) {
+                long indexStart = System.nanoTime();
+                int[] found = index.find(value, count);
+                indexNanos += System.nanoTime() - indexStart;
+
+                long scanStart = System.nanoTime();
+                int[] scanned = new int[count];
+                int size = 0;
+                for (int i = 0; i < count; i++) {
+                    if (names[i].toLowerCase().contains(value)) {
+                        scanned[size++] = i;
+                    }
+                }
+                scanNanos += System.nanoTime() - scanStart;
+
+                assertIds(found, value, Arrays.copyOf(scanned, size));
+            }
+        }
+
+        int searches = rounds * values.length;
+        System.out.println("Indexed " + count + " names (" + index.getPostingCount() + " postings) in "
+            + loadMillis + " ms, average search: index " + (indexNanos / searches / 1000L) + " us, scan "
+            + (scanNanos / searches / 1000L) + " us");
+    }
+
+    private static void assertIds(int[] actual, int... expected) {
+        assertIds(actual, null, expected);
+    }
+
+    private static void assertIds(int[] actual, String message, int... expected) {
+        assertEquals(Arrays.toString(actual), Arrays.toString(expected), message);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.resource.group.definition.framework;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.enterprise.server.resource.InventoryChange;
+import org.rhq.enterprise.server.resource.InventoryChange.Kind;
+
+@Test
+public class GroupDefinitionDependenciesTest {
+
+    public void testResourceChangesOfPinnedType() {
+        GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+        dependencies.setResourceTypePlugin("JBossAS7");
+        dependencies.setResourceTypeName("Datasource");
+
+        assertFalse(dependencies.isAffectedBy(Collections.<InventoryChange> emptyList(), 1000L));
+        assertFalse(dependencies.isAffectedBy(changes(Kind.RESOURCE, "JBossAS7", "Deployment", null, 2000L), 1000L));
+        assertFalse(dependencies.isAffectedBy(changes(Kind.RESOURCE, "JBossAS7", "Datasource", null, 500L), 1000L),
+            "changes made before the last calculation must be ignored");
+        assertTrue(dependencies.isAffectedBy(changes(Kind.RESOURCE, "JBossAS7", "Datasource", null, 2000L), 1000L));
+    }
+
+    public void testRelativeContextDependsOnAllTypes() {
+        GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+        dependencies.setResourceTypeName("Datasource");
+        dependencies.setRelativeContext();
+
+        assertTrue(dependencies.isAffectedBy(changes(Kind.RESOURCE, "Platforms", "Linux", null, 2000L), 1000L));
+    }
+
+    public void testTraitChanges() {
+        GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+        dependencies.addTraitName("Trait.hostname");
+
+        assertFalse(dependencies.isAffectedBy(changes(Kind.TRAIT, "Platforms", "Linux", "Trait.osversion", 2000L),
+            1000L));
+        assertTrue(dependencies.isAffectedBy(changes(Kind.TRAIT, "Platforms", "Linux", "Trait.hostname", 2000L),
+            1000L));
+        assertFalse(dependencies.isAffectedBy(changes(Kind.PLUGIN_CONFIGURATION, "Platforms", "Linux", null, 2000L),
+            1000L));
+    }
+
+    public void testConfigurationChanges() {
+        GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+        dependencies.setPluginConfiguration();
+
+        assertTrue(dependencies.isAffectedBy(changes(Kind.PLUGIN_CONFIGURATION, "Platforms", "Linux", null, 2000L),
+            1000L));
+        assertFalse(dependencies.isAffectedBy(
+            changes(Kind.RESOURCE_CONFIGURATION, "Platforms", "Linux", null, 2000L), 1000L));
+    }
+
+    public void testAlwaysRecalculated() {
+        GroupDefinitionDependencies dependencies = new GroupDefinitionDependencies();
+        dependencies.setAlwaysRecalculated();
+
+        assertTrue(dependencies.isAffectedBy(Collections.<InventoryChange> emptyList(), 1000L));
+    }
+
+    private static List<InventoryChange> changes(Kind kind, String plugin, String resourceType, String traitName,
+        long time) {
+        return Arrays.asList(new InventoryChange(kind, plugin, resourceType, traitName, time));
+    }
+}
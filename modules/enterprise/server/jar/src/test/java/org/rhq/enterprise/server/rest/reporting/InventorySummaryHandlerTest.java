@@ -0,0 +1,127 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.rest.reporting;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.criteria.Criteria;
+import org.rhq.core.domain.criteria.ResourceCriteria;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.measurement.ResourceAvailability;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.composite.ResourceInstallCount;
+import org.rhq.core.domain.util.PageControl;
+import org.rhq.core.domain.util.PageList;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+
+/**
+ * Tests that the detailed inventory summary export reads the resources page by page, each page after the last
+ * resource of the previous one.
+ */
+@Test
+public class InventorySummaryHandlerTest {
+
+    public void testDetailsArePagedByKeyset() throws Exception {
+        Subject overlord = new Subject("overlord", true, true);
+        final List<Resource> resources = createResources(450);
+        final List<Integer> pagingAfterIds = new ArrayList<Integer>();
+        final List<Criteria.Restriction> restrictions = new ArrayList<Criteria.Restriction>();
+
+        ResourceManagerLocal resourceManager = Mockito.mock(ResourceManagerLocal.class);
+        when(resourceManager.findResourceInstallCounts(eq(overlord), anyBoolean())).thenReturn(
+            Collections.<ResourceInstallCount> emptyList());
+        when(resourceManager.findResourcesByCriteria(eq(overlord), any(ResourceCriteria.class))).thenAnswer(
+            new Answer<PageList<Resource>>() {
+                public PageList<Resource> answer(InvocationOnMock invocation) {
+                    ResourceCriteria criteria = (ResourceCriteria) invocation.getArguments()[1];
+                    pagingAfterIds.add(criteria.getPagingAfterId());
+                    restrictions.add(criteria.getRestriction());
+                    return findPage(resources, criteria);
+                }
+            });
+
+        InventorySummaryHandler handler = new InventorySummaryHandler();
+        handler.resourceMgr = resourceManager;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        handler.generateReportInternal(createRequest(), "1", "1.0", overlord).write(stream);
+
+        String[] lines = stream.toString().split("\n");
+        assertEquals(lines.length, 1 + resources.size(), "Expected a header and a line per resource");
+        assertEquals(lines[lines.length - 1].split(",")[4], "resource-450");
+        // the default page size of the criteria is 200
+        assertEquals(pagingAfterIds, asList(null, 200, 400));
+        // the total count is not needed to page by keyset
+        assertEquals(restrictions, Collections.nCopies(3, Criteria.Restriction.COLLECTION_ONLY));
+    }
+
+    /**
+     * @return the resources after the keyset, or those of the page number when there is none
+     */
+    private static PageList<Resource> findPage(List<Resource> resources, ResourceCriteria criteria) {
+        int pageSize = criteria.getPageSize();
+        int from = criteria.getPagingAfterId() != null ? criteria.getPagingAfterId() : criteria.getPageNumber()
+            * pageSize;
+        int to = Math.min(from + pageSize, resources.size());
+        return new PageList<Resource>(resources.subList(Math.min(from, to), to), resources.size(), new PageControl(
+            criteria.getPageNumber(), pageSize));
+    }
+
+    private static List<Resource> createResources(int count) {
+        ResourceType resourceType = new ResourceType("type", "plugin", ResourceCategory.SERVER, null);
+        List<Resource> resources = new ArrayList<Resource>();
+        // the ids are 1 based, so the resource of an id is the one after the keyset of the previous id
+        for (int id = 1; id <= count; id++) {
+            Resource resource = new Resource(id);
+            resource.setName("resource-" + id);
+            resource.setResourceType(resourceType);
+            resource.setVersion("1.0");
+            resource.setCurrentAvailability(new ResourceAvailability(resource, AvailabilityType.UP));
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    private static HttpServletRequest createRequest() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        when(request.getServerName()).thenReturn("localhost");
+        when(request.getServerPort()).thenReturn(7080);
+        return request;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.scheduler.jobs;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.operation.OperationManagerLocal;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+
+/**
+ * Tests the batching of the async resource deletion, and the fallback to deleting the resources of a failed batch one
+ * at a time. The uninventory marks a whole hierarchy, platform, servers and services, for deletion at once.
+ */
+@Test
+public class AsyncResourceDeleteJobTest {
+
+    private static final int BATCH_SIZE = 3;
+
+    // a platform (1), two servers (2, 3) and their services (4 to 7)
+    private static final List<Integer> HIERARCHY = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+
+    private Subject overlord;
+    private ResourceManagerLocal resourceManager;
+    private OperationManagerLocal operationManager;
+    private AsyncResourceDeleteJob job;
+
+    @BeforeMethod
+    public void initJob() {
+        overlord = new Subject("overlord", true, true);
+        SubjectManagerLocal subjectManager = Mockito.mock(SubjectManagerLocal.class);
+        when(subjectManager.getOverlord()).thenReturn(overlord);
+        resourceManager = Mockito.mock(ResourceManagerLocal.class);
+        when(resourceManager.findResourcesMarkedForAsyncDeletion(overlord)).thenReturn(
+            new ArrayList<Integer>(HIERARCHY));
+        when(resourceManager.uninventoryResourcesAsyncWork(eq(overlord), anyListOf(Integer.class))).thenReturn(true);
+        operationManager = Mockito.mock(OperationManagerLocal.class);
+        when(operationManager.findResourceIdsWithScheduledOperations(eq(overlord), anyListOf(Integer.class)))
+            .thenReturn(Collections.<Integer> emptyList());
+
+        job = new TestAsyncResourceDeleteJob(resourceManager, subjectManager, operationManager);
+    }
+
+    public void testHierarchyIsDeletedInBatches() throws Exception {
+        job.executeJobCode(null);
+
+        verify(resourceManager).uninventoryResourcesAsyncWork(overlord, Arrays.asList(1, 2, 3));
+        verify(resourceManager).uninventoryResourcesAsyncWork(overlord, Arrays.asList(4, 5, 6));
+        verify(resourceManager).uninventoryResourcesAsyncWork(overlord, Arrays.asList(7));
+        verify(resourceManager, never()).uninventoryResourceAsyncWork(any(Subject.class), anyInt());
+        verify(operationManager, times(3)).findResourceIdsWithScheduledOperations(eq(overlord),
+            anyListOf(Integer.class));
+    }
+
+    public void testNothingToDelete() throws Exception {
+        when(resourceManager.findResourcesMarkedForAsyncDeletion(overlord)).thenReturn(new ArrayList<Integer>());
+
+        job.executeJobCode(null);
+
+        verify(resourceManager, never()).uninventoryResourcesAsyncWork(any(Subject.class), anyListOf(Integer.class));
+    }
+
+    public void testFailedBatchIsDeletedOneResourceAtATime() throws Exception {
+        when(resourceManager.uninventoryResourcesAsyncWork(overlord, Arrays.asList(4, 5, 6))).thenReturn(false);
+
+        job.executeJobCode(null);
+
+        // only the resources of the failed batch are deleted one at a time, the other batches are not affected
+        verify(resourceManager, times(3)).uninventoryResourcesAsyncWork(eq(overlord), anyListOf(Integer.class));
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 4);
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 5);
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 6);
+        verify(resourceManager, times(3)).uninventoryResourceAsyncWork(any(Subject.class), anyInt());
+        verify(resourceManager, never()).findChildrenResourceIds(anyInt(), any(InventoryStatus.class));
+    }
+
+    public void testBatchThatThrowsIsDeletedOneResourceAtATime() throws Exception {
+        when(resourceManager.uninventoryResourcesAsyncWork(overlord, Arrays.asList(1, 2, 3))).thenThrow(
+            new IllegalStateException("constraint violation"));
+
+        job.executeJobCode(null);
+
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 1);
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 2);
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 3);
+        verify(resourceManager).uninventoryResourcesAsyncWork(overlord, Arrays.asList(4, 5, 6));
+        verify(resourceManager).uninventoryResourcesAsyncWork(overlord, Arrays.asList(7));
+    }
+
+    public void testFailedResourceIsDeletedWithItsChildren() throws Exception {
+        when(resourceManager.uninventoryResourcesAsyncWork(overlord, Arrays.asList(7))).thenReturn(false);
+        doThrow(new IllegalStateException("child still refers to the resource")).doNothing().when(resourceManager)
+            .uninventoryResourceAsyncWork(overlord, 7);
+        when(resourceManager.findChildrenResourceIds(7, null)).thenReturn(Arrays.asList(8));
+
+        job.executeJobCode(null);
+
+        verify(resourceManager).uninventoryResourceAsyncWork(overlord, 8);
+        verify(resourceManager, times(2)).uninventoryResourceAsyncWork(overlord, 7);
+    }
+
+    private static class TestAsyncResourceDeleteJob extends AsyncResourceDeleteJob {
+        private final ResourceManagerLocal resourceManager;
+        private final SubjectManagerLocal subjectManager;
+        private final OperationManagerLocal operationManager;
+
+        private TestAsyncResourceDeleteJob(ResourceManagerLocal resourceManager, SubjectManagerLocal subjectManager,
+            OperationManagerLocal operationManager) {
+            super(BATCH_SIZE, 0L);
+            this.resourceManager = resourceManager;
+            this.subjectManager = subjectManager;
+            this.operationManager = operationManager;
+        }
+
+        @Override
+        protected ResourceManagerLocal getResourceManager() {
+            return resourceManager;
+        }
+
+        @Override
+        protected SubjectManagerLocal getSubjectManager() {
+            return subjectManager;
+        }
+
+        @Override
+        protected OperationManagerLocal getOperationManager() {
+            return operationManager;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.scheduler.jobs;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.enterprise.server.measurement.MeasurementOOBManagerLocal;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.Bucket;
+
+/**
+ * Tests the streaming of the one hour aggregates from aggregation to the OOB computation.
+ */
+@Test
+public class DataCalcJobTest {
+
+    public void testTakeReturnsBufferedBatchesUntilAggregationIsDone() throws Exception {
+        DataCalcJob.OneHourDataPipe pipe = new DataCalcJob.OneHourDataPipe(10);
+        pipe.onOneHourData(createAggregates(0, 2));
+        pipe.onOneHourData(createAggregates(2, 3));
+        pipe.onOneHourData(new ArrayList<AggregateNumericMetric>());
+        FutureTask<Boolean> aggregation = createAggregation(true);
+        aggregation.run();
+
+        // batches are not split, so a chunk can exceed the maximum by less than a batch
+        List<AggregateNumericMetric> chunk = pipe.take(4, aggregation);
+        assertEquals(chunk.size(), 5);
+        assertEquals(chunk.get(0).getScheduleId(), 0);
+        assertEquals(chunk.get(4).getScheduleId(), 4);
+        assertNull(pipe.take(4, aggregation), "all the batches have been taken");
+        assertEquals(pipe.getProducedCount(), 5L);
+    }
+
+    public void testTakeWaitsForAggregation() throws Exception {
+        final DataCalcJob.OneHourDataPipe pipe = new DataCalcJob.OneHourDataPipe(10);
+        final FutureTask<Boolean> aggregation = createAggregation(true);
+        Thread aggregationThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                    pipe.onOneHourData(createAggregates(0, 3));
+                    Thread.sleep(100L);
+                    aggregation.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        aggregationThread.start();
+
+        assertEquals(pipe.take(10, aggregation).size(), 3);
+        assertNull(pipe.take(10, aggregation));
+        aggregationThread.join();
+    }
+
+    public void testComputeOOBs() throws Exception {
+        Subject overlord = new Subject("overlord", true, true);
+        MeasurementOOBManagerLocal manager = Mockito.mock(MeasurementOOBManagerLocal.class);
+        when(manager.computeOOBsForLastHour(eq(overlord), any(Iterable.class))).thenReturn(1);
+        DataCalcJob.OneHourDataPipe pipe = new DataCalcJob.OneHourDataPipe(10);
+        pipe.onOneHourData(createAggregates(0, 3));
+        pipe.onOneHourData(createAggregates(3, 3));
+        FutureTask<Boolean> aggregation = createAggregation(true);
+        aggregation.run();
+
+        assertEquals(DataCalcJob.computeOOBs(overlord, manager, pipe, aggregation), 6);
+        verify(manager, times(1)).computeOOBsForLastHour(eq(overlord), any(Iterable.class));
+    }
+
+    public void testComputeOOBsSkippedWhenAggregationAborts() throws Exception {
+        Subject overlord = new Subject("overlord", true, true);
+        MeasurementOOBManagerLocal manager = Mockito.mock(MeasurementOOBManagerLocal.class);
+        DataCalcJob.OneHourDataPipe pipe = new DataCalcJob.OneHourDataPipe(10);
+        pipe.onOneHourData(createAggregates(0, 3));
+        FutureTask<Boolean> aggregation = createAggregation(false);
+        aggregation.run();
+
+        assertTrue(DataCalcJob.isAborted(aggregation));
+        assertEquals(DataCalcJob.computeOOBs(overlord, manager, pipe, aggregation), 0);
+        verify(manager, never()).computeOOBsForLastHour(any(Subject.class), any(Iterable.class));
+    }
+
+    public void testIsAborted() throws Exception {
+        FutureTask<Boolean> aggregation = createAggregation(true);
+        assertFalse(DataCalcJob.isAborted(aggregation), "aggregation is still running");
+        aggregation.run();
+        assertFalse(DataCalcJob.isAborted(aggregation));
+
+        FutureTask<Boolean> failedAggregation = new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                throw new IllegalStateException("storage cluster is down");
+            }
+        });
+        failedAggregation.run();
+        assertTrue(DataCalcJob.isAborted(failedAggregation));
+
+        FutureTask<Boolean> cancelledAggregation = createAggregation(true);
+        cancelledAggregation.cancel(true);
+        assertTrue(DataCalcJob.isAborted(cancelledAggregation));
+    }
+
+    public void testClosedPipeDoesNotHoldBackAggregation() throws Exception {
+        DataCalcJob.OneHourDataPipe pipe = new DataCalcJob.OneHourDataPipe(1);
+        pipe.onOneHourData(createAggregates(0, 1));
+        pipe.close();
+
+        // the buffer would be full, the batch is dropped instead
+        pipe.onOneHourData(createAggregates(1, 1));
+        assertEquals(pipe.getProducedCount(), 2L);
+    }
+
+    private static FutureTask<Boolean> createAggregation(final boolean finished) {
+        return new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() {
+                return finished;
+            }
+        });
+    }
+
+    private static List<AggregateNumericMetric> createAggregates(int firstScheduleId, int count) {
+        List<AggregateNumericMetric> aggregates = new ArrayList<AggregateNumericMetric>();
+        for (int i = firstScheduleId; i < firstScheduleId + count; i++) {
+            aggregates.add(new AggregateNumericMetric(i, Bucket.ONE_HOUR, 1.0, 0.0, 2.0, 0L));
+        }
+        return aggregates;
+    }
+}
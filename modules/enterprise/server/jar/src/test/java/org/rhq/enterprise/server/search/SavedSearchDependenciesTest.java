@@ -0,0 +1,85 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.search;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.search.SearchSubsystem;
+import org.rhq.enterprise.server.resource.InventoryChange;
+import org.rhq.enterprise.server.resource.InventoryChange.Kind;
+import org.rhq.enterprise.server.search.translation.antlr.RHQLAdvancedTerm;
+import org.rhq.enterprise.server.search.translation.antlr.RHQLComparisonOperator;
+
+@Test
+public class SavedSearchDependenciesTest {
+
+    public void testResourceProperties() {
+        SavedSearchDependencies dependencies = get(term("name", null), term("type", null));
+
+        assertFalse(dependencies.isAlwaysRecomputed());
+        assertEquals(dependencies.getChanges(), EnumSet.of(Kind.RESOURCE));
+    }
+
+    public void testTraitsAndConfiguration() {
+        SavedSearchDependencies dependencies = get(term("trait", "Trait.hostname"), term("connection", "port"));
+
+        assertFalse(dependencies.isAlwaysRecomputed());
+        assertEquals(dependencies.getChanges(),
+            EnumSet.of(Kind.RESOURCE, Kind.TRAIT, Kind.PLUGIN_CONFIGURATION));
+    }
+
+    public void testUnrecordedChanges() {
+        assertTrue(get(term("name", null), term("availability", null)).isAlwaysRecomputed());
+        assertTrue(get(term("alerts", "last24h")).isAlwaysRecomputed());
+        assertTrue(SavedSearchDependencies.get(SearchSubsystem.GROUP,
+            Collections.singletonList(term("name", null))).isAlwaysRecomputed());
+    }
+
+    public void testIsAffectedBy() {
+        SavedSearchDependencies dependencies = get(term("trait", "Trait.hostname"));
+        List<InventoryChange> changes = new ArrayList<InventoryChange>();
+        changes.add(new InventoryChange(Kind.PLUGIN_CONFIGURATION, "Platforms", "Linux", null, 2000L));
+        assertFalse(dependencies.isAffectedBy(changes, 1000L));
+
+        changes.add(new InventoryChange(Kind.TRAIT, "Platforms", "Linux", "Trait.hostname", 1000L));
+        assertFalse(dependencies.isAffectedBy(changes, 1000L));
+
+        changes.add(new InventoryChange(Kind.TRAIT, "Platforms", "Windows", "Trait.hostname", 1001L));
+        assertTrue(dependencies.isAffectedBy(changes, 1000L));
+    }
+
+    private static SavedSearchDependencies get(RHQLAdvancedTerm... terms) {
+        return SavedSearchDependencies.get(SearchSubsystem.RESOURCE, Arrays.asList(terms));
+    }
+
+    private static RHQLAdvancedTerm term(String path, String param) {
+        return new RHQLAdvancedTerm(null, path, param, RHQLComparisonOperator.EQUALS, "value");
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.search.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.search.SearchSubsystem;
+import org.rhq.core.domain.search.SearchSuggestion;
+import org.rhq.core.domain.search.SearchSuggestion.Kind;
+
+@Test
+public class SearchCacheTest {
+
+    public void testTranslationsAreKeyedBySubject() {
+        SearchCache cache = new SearchCache(1000L, 100);
+        cache.putTranslation(SearchSubsystem.RESOURCE, "resource", 0, "name=foo", " ( resource.name = 'foo' ) ");
+        cache.putTranslation(SearchSubsystem.RESOURCE, "resource", 2, "name=foo", " ( restricted ) ");
+
+        assertEquals(cache.getTranslation(SearchSubsystem.RESOURCE, "resource", 0, "name=foo"),
+            " ( resource.name = 'foo' ) ");
+        assertEquals(cache.getTranslation(SearchSubsystem.RESOURCE, "resource", 2, "name=foo"), " ( restricted ) ");
+        assertNull(cache.getTranslation(SearchSubsystem.RESOURCE, "resource", 3, "name=foo"));
+        assertNull(cache.getTranslation(SearchSubsystem.GROUP, "resource", 0, "name=foo"));
+        assertNull(cache.getTranslation(SearchSubsystem.RESOURCE, "res", 0, "name=foo"));
+    }
+
+    public void testSuggestionsAreCachedUntilExpired() {
+        SearchCache cache = new SearchCache(1000L, 100);
+        List<SearchSuggestion> suggestions = new ArrayList<SearchSuggestion>();
+        suggestions.add(new SearchSuggestion(Kind.Advanced, "name"));
+        cache.putSuggestions(2, SearchSubsystem.RESOURCE, null, "na", 2, suggestions, 0L);
+        suggestions.add(new SearchSuggestion(Kind.Advanced, "plugin"));
+
+        assertEquals(cache.getSuggestions(2, SearchSubsystem.RESOURCE, null, "na", 2, 999L).size(), 1,
+            "the cache must keep a copy of the suggestions");
+        assertNull(cache.getSuggestions(2, SearchSubsystem.RESOURCE, null, "na", 1, 999L));
+        assertNull(cache.getSuggestions(2, SearchSubsystem.RESOURCE, "tab", "na", 2, 999L));
+        assertNull(cache.getSuggestions(3, SearchSubsystem.RESOURCE, null, "na", 2, 999L));
+        assertNull(cache.getSuggestions(2, SearchSubsystem.RESOURCE, null, "na", 2, 1000L));
+        assertEquals(cache.size(), 0);
+    }
+
+    public void testCacheIsClearedWhenFull() {
+        SearchCache cache = new SearchCache(1000L, 2);
+        cache.putTranslation(SearchSubsystem.RESOURCE, "resource", 0, "a", "A");
+        cache.putTranslation(SearchSubsystem.RESOURCE, "resource", 0, "b", "B");
+        cache.putTranslation(SearchSubsystem.RESOURCE, "resource", 0, "c", "C");
+
+        assertNull(cache.getTranslation(SearchSubsystem.RESOURCE, "resource", 0, "a"));
+        assertEquals(cache.getTranslation(SearchSubsystem.RESOURCE, "resource", 0, "c"), "C");
+        assertEquals(cache.size(), 1);
+    }
+
+    public void testSuggestionsAreNotCachedWhenDisabled() {
+        SearchCache cache = new SearchCache(0L, 100);
+        cache.putSuggestions(2, SearchSubsystem.RESOURCE, null, "", 0, new ArrayList<SearchSuggestion>(), 0L);
+
+        assertNull(cache.getSuggestions(2, SearchSubsystem.RESOURCE, null, "", 0, 0L));
+        assertEquals(cache.size(), 0);
+    }
+}
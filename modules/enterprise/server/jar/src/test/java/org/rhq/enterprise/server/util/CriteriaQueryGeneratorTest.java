@@ -0,0 +1,128 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.util;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.criteria.ResourceCriteria;
+import org.rhq.core.domain.util.PageOrdering;
+
+/**
+ * Tests the keyset restriction which the generated queries get when the criteria page after an entity.
+ */
+@Test
+public class CriteriaQueryGeneratorTest {
+
+    private static final Subject OVERLORD = new Subject("overlord", true, true);
+
+    public void testSingleColumnKeyset() {
+        ResourceCriteria criteria = createKeysetCriteria();
+
+        String query = getQuery(criteria, false);
+        assertContains(query, "FROM Resource resource , Resource keysetEntity WHERE");
+        assertContains(query, "AND keysetEntity.id = :pagingAfterId AND ( " //
+            + "( ( resource.id > keysetEntity.id OR ( resource.id IS NULL AND keysetEntity.id IS NOT NULL ) ) ) )");
+        assertContains(query, "ORDER BY resource.id ASC");
+    }
+
+    public void testMultiColumnKeyset() {
+        ResourceCriteria criteria = createKeysetCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+
+        String query = getQuery(criteria, false);
+        assertContains(query, "AND keysetEntity.id = :pagingAfterId AND ( " //
+            + "( ( resource.name > keysetEntity.name "
+            + "OR ( resource.name IS NULL AND keysetEntity.name IS NOT NULL ) ) ) " //
+            + "OR ( ( resource.name = keysetEntity.name "
+            + "OR ( resource.name IS NULL AND keysetEntity.name IS NULL ) ) " //
+            + "AND ( resource.id > keysetEntity.id OR ( resource.id IS NULL AND keysetEntity.id IS NOT NULL ) ) ) )");
+        assertContains(query, "ORDER BY resource.name ASC, resource.id ASC");
+    }
+
+    public void testMixedOrderingKeyset() {
+        ResourceCriteria criteria = createKeysetCriteria();
+        criteria.addSortResourceCategory(PageOrdering.ASC);
+        criteria.addSortResourceTypeName(PageOrdering.DESC);
+        criteria.addSortId(PageOrdering.DESC);
+
+        String query = getQuery(criteria, false);
+        // the keyset entity joins the related entity of the ordering the same way as the queried entity does
+        assertContains(query, "FROM Resource resource LEFT JOIN resource.resourceType orderingField0 "
+            + ", Resource keysetEntity LEFT JOIN keysetEntity.resourceType keysetField0 WHERE");
+        assertContains(query, "AND keysetEntity.id = :pagingAfterId AND ( " //
+            + "( ( orderingField0.category > keysetField0.category "
+            + "OR ( orderingField0.category IS NULL AND keysetField0.category IS NOT NULL ) ) ) " //
+            + "OR ( ( orderingField0.category = keysetField0.category "
+            + "OR ( orderingField0.category IS NULL AND keysetField0.category IS NULL ) ) " //
+            + "AND ( orderingField0.name < keysetField0.name "
+            + "OR ( orderingField0.name IS NOT NULL AND keysetField0.name IS NULL ) ) ) " //
+            + "OR ( ( orderingField0.category = keysetField0.category "
+            + "OR ( orderingField0.category IS NULL AND keysetField0.category IS NULL ) ) " //
+            + "AND ( orderingField0.name = keysetField0.name "
+            + "OR ( orderingField0.name IS NULL AND keysetField0.name IS NULL ) ) " //
+            + "AND ( resource.id < keysetEntity.id OR ( resource.id IS NOT NULL AND keysetEntity.id IS NULL ) ) ) )");
+        assertContains(query, "ORDER BY orderingField0.category ASC, orderingField0.name DESC, resource.id DESC");
+    }
+
+    public void testParameterReplacedKeyset() {
+        ResourceCriteria criteria = createKeysetCriteria();
+
+        String query = new CriteriaQueryGenerator(OVERLORD, criteria).getParameterReplacedQuery(false);
+        assertContains(query.replaceAll("\\s+", " "), "AND keysetEntity.id = 42 AND");
+    }
+
+    public void testCountQueryHasNoKeyset() {
+        ResourceCriteria criteria = createKeysetCriteria();
+        criteria.addSortResourceTypeName(PageOrdering.DESC);
+
+        // the count is the one of all the results, not of the ones after the keyset
+        assertFalse(getQuery(criteria, true).contains("keysetEntity"));
+    }
+
+    public void testNoKeysetWithoutPagingAfterId() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.DESC);
+        criteria.setPaging(2, 50);
+
+        assertFalse(getQuery(criteria, false).contains("keysetEntity"));
+    }
+
+    private static ResourceCriteria createKeysetCriteria() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.setPaging(0, 50);
+        criteria.setPagingAfterId(42);
+        return criteria;
+    }
+
+    /**
+     * @return the generated query, with any whitespace collapsed to a single space
+     */
+    private static String getQuery(ResourceCriteria criteria, boolean countQuery) {
+        return new CriteriaQueryGenerator(OVERLORD, criteria).getQueryString(countQuery).replaceAll("\\s+", " ");
+    }
+
+    private static void assertContains(String query, String expected) {
+        assertTrue(query.contains(expected), "Expected [" + expected + "] in the query: " + query);
+    }
+}
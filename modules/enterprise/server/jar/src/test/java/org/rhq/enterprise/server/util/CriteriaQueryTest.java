@@ -20,6 +20,7 @@ package org.rhq.enterprise.server.util;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -90,6 +91,39 @@ public class CriteriaQueryTest {
         }
     }
 
+    private static class KeysetCriteriaQueryExecutor implements CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria> {
+
+        private List<FakeEntity> entities = new ArrayList<FakeEntity>();
+
+        private Integer deletedId;
+
+        private List<Integer> pagingAfterIds = new ArrayList<Integer>();
+
+        public KeysetCriteriaQueryExecutor(int totalSize) {
+            for (int i = 0; i < totalSize; i++) {
+                entities.add(new FakeEntity(i));
+            }
+        }
+
+        @Override
+        public PageList<FakeEntity> execute(FakeEntityCriteria criteria) {
+            assertEquals(criteria.getRestriction(), Criteria.Restriction.COLLECTION_ONLY);
+            Integer afterId = criteria.getPagingAfterId();
+            pagingAfterIds.add(afterId);
+
+            PageControl pc = CriteriaQueryGenerator.getPageControl(criteria);
+            List<FakeEntity> page = new ArrayList<FakeEntity>();
+            if (afterId != null && afterId.equals(deletedId)) {
+                return new PageList<FakeEntity>(page, pc);
+            }
+            int start = (afterId == null) ? pc.getStartRow() : afterId + 1;
+            for (int i = start; i < entities.size() && page.size() < pc.getPageSize(); i++) {
+                page.add(entities.get(i));
+            }
+            return new PageList<FakeEntity>(page, pc);
+        }
+    }
+
     @Test
     public void executeQueryThatReturnsASinglePageOfResults() {
         List<FakeEntity> expected = asList(new FakeEntity(1), new FakeEntity(2));
@@ -336,6 +370,76 @@ public class CriteriaQueryTest {
     }
 
 
+    @Test
+    public void testKeysetPaging() {
+        KeysetCriteriaQueryExecutor executor = new KeysetCriteriaQueryExecutor(450);
+
+        FakeEntityCriteria criteria = new FakeEntityCriteria();
+        criteria.setPaging(0, 100);
+
+        CriteriaQuery<FakeEntity, FakeEntityCriteria> query = new CriteriaQuery<FakeEntity, FakeEntityCriteria>(
+            criteria, executor);
+        query.setKeysetPaging(true);
+
+        int num = 0;
+        for (FakeEntity entity : query) {
+            assertEquals(entity.getId(), num);
+            ++num;
+        }
+
+        assertEquals(num, 450, "Unexpected number for results returned");
+        assertEquals(executor.pagingAfterIds, asList(null, 99, 199, 299, 399),
+            "A page which is not full must end the iteration");
+    }
+
+    @Test
+    public void testKeysetPagingFallsBackToPageNumberWhenKeysetEntityIsDeleted() {
+        KeysetCriteriaQueryExecutor executor = new KeysetCriteriaQueryExecutor(300);
+        executor.deletedId = 199;
+
+        FakeEntityCriteria criteria = new FakeEntityCriteria();
+        criteria.setPaging(0, 100);
+
+        CriteriaQuery<FakeEntity, FakeEntityCriteria> query = new CriteriaQuery<FakeEntity, FakeEntityCriteria>(
+            criteria, executor);
+        query.setKeysetPaging(true);
+
+        int num = 0;
+        for (FakeEntity entity : query) {
+            assertEquals(entity.getId(), num);
+            ++num;
+        }
+
+        assertEquals(num, 300, "Unexpected number for results returned");
+        assertEquals(executor.pagingAfterIds, asList(null, 99, 199, null, 299, null));
+    }
+
+    @Test
+    public void testKeysetPageControl() {
+        ResourceCriteria c = new ResourceCriteria();
+        c.addSortResourceCategory(PageOrdering.ASC);
+        c.addSortPluginName(PageOrdering.ASC);
+        c.addSortResourceTypeName(PageOrdering.DESC);
+        c.setPaging(3, 50);
+        c.setPagingAfterId(42);
+
+        PageControl pc = CriteriaQueryGenerator.getPageControl(c);
+        assertEquals(pc.getPageNumber(), 0);
+        assertEquals(pc.getPageSize(), 50);
+        assertEquals(pc.getOrderingFields().size(), 4, "The ID sort must be added after the 3 sorts");
+        assertEquals(pc.getOrderingFields().get(3).getField(), "id");
+
+        c.clearPaging();
+        assertNull(c.getPagingAfterId());
+        c.setPagingAfterId(42);
+        try {
+            CriteriaQueryGenerator.getPageControl(c);
+            AssertJUnit.fail("Keyset paging must require a page size");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
     private FakeCriteriaQueryExecutor prepareExecutor(int realTotalSize, int reportedTotalSize, PageControl pc) {
         FakeCriteriaQueryExecutor executor = new FakeCriteriaQueryExecutor(reportedTotalSize, pc);
 
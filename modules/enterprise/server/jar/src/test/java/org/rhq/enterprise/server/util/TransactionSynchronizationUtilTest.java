@@ -0,0 +1,141 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+@Test
+public class TransactionSynchronizationUtilTest {
+
+    public void testRunsAfterCompletion() throws Exception {
+        Transaction transaction = Mockito.mock(Transaction.class);
+        when(transaction.getStatus()).thenReturn(Status.STATUS_ACTIVE);
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        when(transactionManager.getTransaction()).thenReturn(transaction);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCompletion(transactionManager, action);
+        assertEquals(action.runs, 0, "the action must not run before the transaction completes");
+
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transaction).registerSynchronization(synchronization.capture());
+        synchronization.getValue().beforeCompletion();
+        assertEquals(action.runs, 0);
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(action.runs, 1);
+    }
+
+    public void testRunsRightAwayWithoutTransaction() throws Exception {
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCompletion(transactionManager, action);
+        assertEquals(action.runs, 1);
+
+        TransactionSynchronizationUtil.runAfterCompletion(null, action);
+        assertEquals(action.runs, 2);
+    }
+
+    public void testRunsRightAwayWhenTransactionIsNotActive() throws Exception {
+        Transaction transaction = Mockito.mock(Transaction.class);
+        when(transaction.getStatus()).thenReturn(Status.STATUS_MARKED_ROLLBACK);
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        when(transactionManager.getTransaction()).thenReturn(transaction);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCompletion(transactionManager, action);
+        assertEquals(action.runs, 1);
+    }
+
+    public void testRunsRightAwayWhenRegistrationFails() throws Exception {
+        Transaction transaction = Mockito.mock(Transaction.class);
+        when(transaction.getStatus()).thenReturn(Status.STATUS_ACTIVE);
+        doThrow(new RollbackException()).when(transaction).registerSynchronization(any(Synchronization.class));
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        when(transactionManager.getTransaction()).thenReturn(transaction);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCompletion(transactionManager, action);
+        assertEquals(action.runs, 1);
+    }
+
+    public void testRunsAfterCommitOnly() throws Exception {
+        Transaction transaction = Mockito.mock(Transaction.class);
+        when(transaction.getStatus()).thenReturn(Status.STATUS_ACTIVE);
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        when(transactionManager.getTransaction()).thenReturn(transaction);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCommit(transactionManager, action);
+        TransactionSynchronizationUtil.runAfterCommit(transactionManager, action);
+        assertEquals(action.runs, 0, "the action must not run before the transaction commits");
+
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transaction, Mockito.times(2)).registerSynchronization(synchronization.capture());
+        synchronization.getAllValues().get(0).afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertEquals(action.runs, 0, "the action must not run after a rollback");
+        synchronization.getAllValues().get(1).afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(action.runs, 1);
+    }
+
+    public void testRunsRightAwayWithoutTransactionToCommit() throws Exception {
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCommit(transactionManager, action);
+        assertEquals(action.runs, 1);
+
+        TransactionSynchronizationUtil.runAfterCommit(null, action);
+        assertEquals(action.runs, 2);
+    }
+
+    public void testNeverRunsAfterCommitWhenTransactionCannotCommit() throws Exception {
+        Transaction transaction = Mockito.mock(Transaction.class);
+        when(transaction.getStatus()).thenReturn(Status.STATUS_MARKED_ROLLBACK);
+        TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+        when(transactionManager.getTransaction()).thenReturn(transaction);
+        CountingAction action = new CountingAction();
+
+        TransactionSynchronizationUtil.runAfterCommit(transactionManager, action);
+        assertEquals(action.runs, 0);
+    }
+
+    private static class CountingAction implements Runnable {
+        private int runs;
+
+        public void run() {
+            runs++;
+        }
+    }
+}
@@ -396,6 +396,19 @@ public class MetricsServer {
         return aggregationManager.run();
     }
 
+    /**
+     * Computes and stores aggregates for all buckets that are ready to be aggregated, like
+     * {@link #calculateAggregates()}, except that the one hour aggregates are streamed to the listener batch by batch
+     * while aggregation is still running instead of being collected and returned at the end.
+     *
+     * @param oneHourDataListener Receives the one hour aggregates as they are stored. It is called from aggregation
+     *                            worker threads.
+     * @return true if aggregation finished, false if it was interrupted or aborted
+     */
+    public boolean calculateAggregates(AggregationManager.OneHourDataListener oneHourDataListener) {
+        return aggregationManager.run(oneHourDataListener);
+    }
+
     private AggregateNumericMetric calculateAggregatedRaw(Iterable<RawNumericMetric> rawMetrics, long timestamp) {
         double min = Double.NaN;
         double max = min;
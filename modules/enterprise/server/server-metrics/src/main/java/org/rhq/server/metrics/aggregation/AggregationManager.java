@@ -32,6 +32,15 @@ import org.rhq.server.metrics.domain.IndexBucket;
  */
 public class AggregationManager {
 
+    /**
+     * Receives the one hour data produced by raw data aggregation, one batch at a time as soon as the batch has been
+     * stored, so that it can be consumed while aggregation is still running. The listener is called from aggregation
+     * worker threads; a listener that blocks holds back the scheduling of further aggregation tasks.
+     */
+    public static interface OneHourDataListener {
+        void onOneHourData(List<AggregateNumericMetric> metrics);
+    }
+
     private static final Comparator<AggregateNumericMetric> AGGREGATE_COMPARATOR = new Comparator<AggregateNumericMetric>() {
         @Override
         public int compare(AggregateNumericMetric left, AggregateNumericMetric right) {
@@ -127,6 +136,25 @@ public class AggregationManager {
     }
 
     public Set<AggregateNumericMetric> run() {
+        final Set<AggregateNumericMetric> oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(
+            AGGREGATE_COMPARATOR);
+        boolean finished = run(new OneHourDataListener() {
+            @Override
+            public void onOneHourData(List<AggregateNumericMetric> metrics) {
+                oneHourData.addAll(metrics);
+            }
+        });
+        return finished ? oneHourData : Collections.<AggregateNumericMetric>emptySet();
+    }
+
+    /**
+     * Computes and stores aggregates for all buckets that are ready to be aggregated, handing the one hour data to the
+     * listener as it is produced.
+     *
+     * @param oneHourDataListener receives the one hour aggregates of each raw data batch
+     * @return true if aggregation finished, false if it was interrupted or aborted
+     */
+    public boolean run(final OneHourDataListener oneHourDataListener) {
         log.info("Starting metrics data aggregation");
         Stopwatch stopwatch = Stopwatch.createStarted();
         Semaphore permits = new Semaphore(batchSize * parallelism);
@@ -138,8 +166,6 @@ public class AggregationManager {
         int num24Hour = 0;
         try {
             PersistFunctions persistFunctions = new PersistFunctions(dao, dtService);
-            final Set<AggregateNumericMetric> oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(
-                AGGREGATE_COMPARATOR);
             DateTime endTime = dtService.currentHour();
             DateTime end = endTime;
             // We set the start time to the retention period minus 1 hour, or 6 days and 23
@@ -151,7 +177,7 @@ public class AggregationManager {
             rawAggregator.setBatchFinishedListener(new DataAggregator.BatchFinishedListener() {
                 @Override
                 public void onFinish(List<AggregateNumericMetric> metrics) {
-                    oneHourData.addAll(metrics);
+                    oneHourDataListener.onOneHourData(metrics);
                 }
             });
             num1Hour = rawAggregator.execute(start, end);
@@ -164,14 +190,14 @@ public class AggregationManager {
             start = dtService.get24HourTimeSlice(endTime).minus(configuration.getRawRetention());
             num24Hour = create6HourAggregator(persistFunctions, permits).execute(start, end);
 
-            return oneHourData;
+            return true;
         } catch (InterruptedException e) {
             log.info("There was an interrupt while waiting for aggregation to finish. Aggregation will be aborted.");
-            return Collections.emptySet();
+            return false;
         }
         catch (AbortedException e) {
             log.warn("Aggregation has been aborted: " + e.getMessage());
-            return Collections.emptySet();
+            return false;
         } finally {
             stopwatch.stop();
             totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));